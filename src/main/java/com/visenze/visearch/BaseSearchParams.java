@@ -52,6 +52,8 @@ public class BaseSearchParams<P extends BaseSearchParams<P>> {
     protected Optional<String> sortGroupBy = Optional.absent();
     protected Optional<String> sortGroupStrategy = Optional.absent();
 
+    protected Optional<ResponseProjection> projection = Optional.absent();
+
 
     @SuppressWarnings("unchecked")
     public P setPage(Integer page) {
@@ -129,6 +131,15 @@ public class BaseSearchParams<P extends BaseSearchParams<P>> {
         return (P) this;
     }
 
+    /**
+     * Set the parts of the response to decode. The projection is not sent to the server.
+     */
+    @SuppressWarnings("unchecked")
+    public P setProjection(ResponseProjection projection) {
+        this.projection = Optional.fromNullable(projection);
+        return (P) this;
+    }
+
     @SuppressWarnings("unchecked")
     public P setCustom(Map<String, String> custom) {
         this.custom = Optional.fromNullable(custom);
@@ -266,6 +277,10 @@ public class BaseSearchParams<P extends BaseSearchParams<P>> {
         return sortGroupStrategy.orNull();
     }
 
+    public ResponseProjection getProjection() {
+        return projection.orNull();
+    }
+
     public Multimap<String, String> toMap() {
         Multimap<String, String> map = HashMultimap.create();
 
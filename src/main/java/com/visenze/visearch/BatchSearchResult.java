@@ -0,0 +1,27 @@
+package com.visenze.visearch;
+
+import java.util.List;
+
+/**
+ * Results of a batch of searches, in the order of the search params.
+ * A failed search has its error message set in its result instead of failing the batch.
+ */
+public class BatchSearchResult {
+
+    private final List<PagedSearchResult> results;
+
+    private final BatchStats stats;
+
+    public BatchSearchResult(List<PagedSearchResult> results, BatchStats stats) {
+        this.results = results;
+        this.stats = stats;
+    }
+
+    public List<PagedSearchResult> getResults() {
+        return results;
+    }
+
+    public BatchStats getStats() {
+        return stats;
+    }
+}
@@ -0,0 +1,554 @@
+package com.visenze.visearch;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+import com.google.common.io.CountingOutputStream;
+import com.visenze.visearch.internal.BatchExecutor;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+
+/**
+ * Runs the searches of a manifest file and streams the results to an output file.
+ *
+ * <p>The manifest has one JSON object per line. Each line has an optional {@code id} (defaults to
+ * the line number), an optional {@code method} ({@code search}, {@code uploadsearch} or
+ * {@code discoversearch}), the query image as {@code im_name}, {@code im_url} or
+ * {@code image_path}, and optional {@code params} such as {@code limit}, {@code fl} or {@code fq}:
+ * <pre>
+ * {"id":"sku-1","im_name":"sku-1","params":{"limit":50,"fl":["price"]}}
+ * {"id":"q-2","method":"discoversearch","im_url":"http://www.example.com/q2.jpg"}
+ * </pre>
+ *
+ * <p>Lines are searched in windows with bounded concurrency and their results are written in
+ * manifest order. After each window the output is synced to disk and a checkpoint is written
+ * next to the output file, so a run that fails or is killed resumes after the last completed
+ * window instead of starting over.
+ */
+public class BatchSearchRunner {
+
+    public static final String METHOD_SEARCH = "search";
+    public static final String METHOD_UPLOAD_SEARCH = "uploadsearch";
+    public static final String METHOD_DISCOVER_SEARCH = "discoversearch";
+
+    private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+    private static final String CHECKPOINT_LINES = "lines";
+    private static final String CHECKPOINT_BYTES = "bytes";
+    private static final int WINDOW_PER_THREAD = 16;
+
+    /**
+     * Output file formats.
+     */
+    public enum OutputFormat {
+        /**
+         * One JSON object per manifest line, with the results of the line.
+         */
+        JSONL,
+        /**
+         * Tab separated columns id, object, rank, im_name, score and error, with one row per result.
+         */
+        TSV
+    }
+
+    private final ViSearch client;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private OutputFormat format = OutputFormat.JSONL;
+
+    private int concurrency = ClientConfig.DEFAULT_BATCH_CONCURRENCY;
+
+    public BatchSearchRunner(ViSearch client) {
+        Preconditions.checkNotNull(client, "ViSearch client must not be null");
+        this.client = client;
+    }
+
+    public BatchSearchRunner setFormat(OutputFormat format) {
+        this.format = Preconditions.checkNotNull(format, "output format must not be null");
+        return this;
+    }
+
+    public BatchSearchRunner setConcurrency(int concurrency) {
+        Preconditions.checkArgument(concurrency > 0, "concurrency must be positive");
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Run the searches of a manifest, resuming from the checkpoint of a previous run
+     * if the output file has one.
+     *
+     * @param manifest the manifest file
+     * @param output   the output file
+     * @return the summary of this run
+     * @throws IOException if the manifest could not be read or the output could not be written
+     */
+    public Summary run(File manifest, File output) throws IOException {
+        File checkpoint = new File(output.getPath() + CHECKPOINT_SUFFIX);
+        long resumeLine = 0;
+        if (checkpoint.exists()) {
+            Properties properties = readCheckpoint(checkpoint);
+            resumeLine = Long.parseLong(properties.getProperty(CHECKPOINT_LINES, "0"));
+            truncate(output, Long.parseLong(properties.getProperty(CHECKPOINT_BYTES, "0")));
+        } else if (output.exists()) {
+            truncate(output, 0);
+        }
+
+        Summary summary = new Summary(resumeLine);
+        long start = System.nanoTime();
+        long outputBytes = output.length();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), Charsets.UTF_8));
+        FileOutputStream fileOutputStream = new FileOutputStream(output, true);
+        CountingOutputStream countingOutputStream = new CountingOutputStream(fileOutputStream);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(countingOutputStream, Charsets.UTF_8));
+        JsonGenerator generator = new JsonFactory().setRootValueSeparator(null).createGenerator(writer);
+        try {
+            long lineNumber = 0;
+            for (; lineNumber < resumeLine && reader.readLine() != null; lineNumber++) {
+                // skip the lines completed by a previous run
+            }
+            BatchExecutor executor = new BatchExecutor(concurrency);
+            int windowSize = concurrency * WINDOW_PER_THREAD;
+            List<String> ids = Lists.newArrayListWithCapacity(windowSize);
+            List<Callable<PagedSearchResult>> tasks = Lists.newArrayListWithCapacity(windowSize);
+            while (true) {
+                String line = reader.readLine();
+                if (line != null) {
+                    lineNumber++;
+                    if (!line.trim().isEmpty()) {
+                        addTask(line, lineNumber, ids, tasks);
+                    }
+                }
+                if (tasks.size() >= windowSize || line == null) {
+                    BatchExecutor.Outcome<PagedSearchResult> outcome = executor.execute(tasks);
+                    for (int i = 0; i < outcome.size(); i++) {
+                        PagedSearchResult result = outcome.getResult(i);
+                        if (result == null) {
+                            Throwable failure = outcome.getFailure(i);
+                            result = new PagedSearchResult(failure == null ? null : failure.getMessage(), failure, null);
+                        }
+                        if (writeResult(generator, writer, ids.get(i), result)) {
+                            summary.failureCount++;
+                        }
+                        summary.searchCount++;
+                    }
+                    ids.clear();
+                    tasks.clear();
+                    generator.flush();
+                    fileOutputStream.getFD().sync();
+                    writeCheckpoint(checkpoint, lineNumber, outputBytes + countingOutputStream.getCount());
+                }
+                if (line == null) {
+                    break;
+                }
+            }
+            summary.lineCount = lineNumber;
+        } finally {
+            Closeables.close(generator, true);
+            Closeables.closeQuietly(reader);
+        }
+        summary.elapsedMillis = (System.nanoTime() - start) / 1000000;
+        return summary;
+    }
+
+    private void addTask(String line, long lineNumber, List<String> ids, List<Callable<PagedSearchResult>> tasks) {
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(line);
+        } catch (IOException e) {
+            ids.add(String.valueOf(lineNumber));
+            tasks.add(failedTask(new IllegalArgumentException("Invalid manifest line " + lineNumber, e)));
+            return;
+        }
+        JsonNode idNode = node.get("id");
+        ids.add(idNode != null ? idNode.asText() : String.valueOf(lineNumber));
+        try {
+            tasks.add(buildTask(node));
+        } catch (IllegalArgumentException e) {
+            tasks.add(failedTask(e));
+        }
+    }
+
+    private Callable<PagedSearchResult> buildTask(JsonNode node) {
+        String imName = text(node, "im_name");
+        String imUrl = text(node, "im_url");
+        String imagePath = text(node, "image_path");
+        String method = text(node, "method");
+        if (method == null) {
+            method = imName != null ? METHOD_SEARCH : METHOD_UPLOAD_SEARCH;
+        }
+        JsonNode params = node.path("params");
+
+        if (METHOD_SEARCH.equals(method)) {
+            final SearchParams searchParams = applyParams(new SearchParams(imName), params);
+            return new Callable<PagedSearchResult>() {
+                @Override
+                public PagedSearchResult call() {
+                    return client.search(searchParams);
+                }
+            };
+        }
+        final UploadSearchParams uploadSearchParams;
+        if (imagePath != null) {
+            uploadSearchParams = new UploadSearchParams(new File(imagePath));
+        } else if (imUrl != null) {
+            uploadSearchParams = new UploadSearchParams(imUrl);
+        } else {
+            throw new IllegalArgumentException(ResponseMessages.INVALID_IMAGE_SOURCE.getMessage());
+        }
+        applyParams(uploadSearchParams, params);
+        if (METHOD_UPLOAD_SEARCH.equals(method)) {
+            return new Callable<PagedSearchResult>() {
+                @Override
+                public PagedSearchResult call() {
+                    return client.uploadSearch(uploadSearchParams);
+                }
+            };
+        } else if (METHOD_DISCOVER_SEARCH.equals(method)) {
+            return new Callable<PagedSearchResult>() {
+                @Override
+                public PagedSearchResult call() {
+                    return client.discoverSearch(uploadSearchParams);
+                }
+            };
+        }
+        throw new IllegalArgumentException("Unsupported method " + method);
+    }
+
+    private static Callable<PagedSearchResult> failedTask(final RuntimeException e) {
+        return new Callable<PagedSearchResult>() {
+            @Override
+            public PagedSearchResult call() {
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * Set limit, page, score, fl and fq from the manifest params, and pass the other params as is.
+     */
+    private static <P extends BaseSearchParams<P>> P applyParams(P searchParams, JsonNode params) {
+        Map<String, String> custom = Maps.newHashMap();
+        Iterator<Map.Entry<String, JsonNode>> fields = params.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            String key = field.getKey();
+            JsonNode value = field.getValue();
+            if ("limit".equals(key)) {
+                searchParams.setLimit(value.asInt());
+            } else if ("page".equals(key)) {
+                searchParams.setPage(value.asInt());
+            } else if ("score".equals(key)) {
+                searchParams.setScore(value.asBoolean());
+            } else if ("fl".equals(key)) {
+                List<String> fl = Lists.newArrayList();
+                for (JsonNode item : value) {
+                    fl.add(item.asText());
+                }
+                searchParams.setFl(fl);
+            } else if ("fq".equals(key)) {
+                Map<String, String> fq = Maps.newHashMap();
+                Iterator<Map.Entry<String, JsonNode>> filters = value.fields();
+                while (filters.hasNext()) {
+                    Map.Entry<String, JsonNode> filter = filters.next();
+                    fq.put(filter.getKey(), filter.getValue().asText());
+                }
+                searchParams.setFq(fq);
+            } else {
+                custom.put(key, value.asText());
+            }
+        }
+        if (!custom.isEmpty()) {
+            searchParams.setCustom(custom);
+        }
+        return searchParams;
+    }
+
+    private static String text(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        return value == null || value.isNull() || Strings.isNullOrEmpty(value.asText()) ? null : value.asText();
+    }
+
+    /**
+     * Write the result of a manifest line, and return true if the search failed.
+     */
+    private boolean writeResult(JsonGenerator generator, Writer writer, String id, PagedSearchResult pagedResult) throws IOException {
+        String error = pagedResult.getErrorMessage();
+        if (error == null && pagedResult.getCause() != null) {
+            error = pagedResult.getCause().toString();
+        }
+        if (format == OutputFormat.TSV) {
+            writeTsv(writer, id, pagedResult, error);
+        } else {
+            writeJson(generator, id, pagedResult, error);
+        }
+        return error != null;
+    }
+
+    private static void writeJson(JsonGenerator generator, String id, PagedSearchResult result, String error) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("id", id);
+        if (error != null) {
+            generator.writeStringField("status", "fail");
+            generator.writeStringField("error", error);
+        } else {
+            generator.writeStringField("status", "OK");
+            if (result.getImId() != null) {
+                generator.writeStringField("im_id", result.getImId());
+            }
+            if (result.getTotal() != null) {
+                generator.writeNumberField("total", result.getTotal());
+            }
+            if (result.getResult() != null) {
+                generator.writeFieldName("result");
+                writeJsonImageResults(generator, result.getResult());
+            }
+            if (result.getObjects() != null) {
+                generator.writeArrayFieldStart("objects");
+                for (ObjectSearchResult object : result.getObjects()) {
+                    generator.writeStartObject();
+                    if (object.getType() != null) {
+                        generator.writeStringField("type", object.getType());
+                    }
+                    if (object.getScore() != null) {
+                        generator.writeNumberField("score", object.getScore());
+                    }
+                    if (object.getBox() != null) {
+                        generator.writeArrayFieldStart("box");
+                        for (Integer coordinate : object.getBox()) {
+                            generator.writeNumber(coordinate);
+                        }
+                        generator.writeEndArray();
+                    }
+                    if (object.getResult() != null) {
+                        generator.writeFieldName("result");
+                        writeJsonImageResults(generator, object.getResult());
+                    }
+                    generator.writeEndObject();
+                }
+                generator.writeEndArray();
+            }
+        }
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    private static void writeJsonImageResults(JsonGenerator generator, List<ImageResult> imageResults) throws IOException {
+        generator.writeStartArray();
+        for (ImageResult imageResult : imageResults) {
+            generator.writeStartObject();
+            generator.writeStringField("im_name", imageResult.getImName());
+            if (imageResult.getScore() != null) {
+                generator.writeNumberField("score", imageResult.getScore());
+            }
+            Map<String, String> metadata = imageResult.getMetadata();
+            if (metadata != null && !metadata.isEmpty()) {
+                generator.writeObjectFieldStart("value_map");
+                for (Map.Entry<String, String> entry : metadata.entrySet()) {
+                    generator.writeStringField(entry.getKey(), entry.getValue());
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+    }
+
+    private static void writeTsv(Writer writer, String id, PagedSearchResult result, String error) throws IOException {
+        if (error != null) {
+            writeTsvRow(writer, id, "", "", "", null, error);
+            return;
+        }
+        if (result.getResult() != null) {
+            writeTsvRows(writer, id, "", result.getResult());
+        }
+        if (result.getObjects() != null) {
+            for (ObjectSearchResult object : result.getObjects()) {
+                writeTsvRows(writer, id, Strings.nullToEmpty(object.getType()), object.getResult());
+            }
+        }
+    }
+
+    private static void writeTsvRows(Writer writer, String id, String object, List<ImageResult> imageResults) throws IOException {
+        if (imageResults == null) {
+            return;
+        }
+        for (int rank = 0; rank < imageResults.size(); rank++) {
+            ImageResult imageResult = imageResults.get(rank);
+            writeTsvRow(writer, id, object, String.valueOf(rank + 1), imageResult.getImName(), imageResult.getScore(), "");
+        }
+    }
+
+    private static void writeTsvRow(Writer writer, String id, String object, String rank, String imName,
+                                    Float score, String error) throws IOException {
+        writer.write(escapeTsv(id));
+        writer.write('\t');
+        writer.write(escapeTsv(object));
+        writer.write('\t');
+        writer.write(rank);
+        writer.write('\t');
+        writer.write(escapeTsv(imName));
+        writer.write('\t');
+        writer.write(score == null ? "" : score.toString());
+        writer.write('\t');
+        writer.write(escapeTsv(error));
+        writer.write('\n');
+    }
+
+    private static String escapeTsv(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private static Properties readCheckpoint(File checkpoint) throws IOException {
+        Properties properties = new Properties();
+        InputStream inputStream = new FileInputStream(checkpoint);
+        try {
+            properties.load(inputStream);
+        } finally {
+            Closeables.closeQuietly(inputStream);
+        }
+        return properties;
+    }
+
+    private static void writeCheckpoint(File checkpoint, long lines, long bytes) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(CHECKPOINT_LINES, String.valueOf(lines));
+        properties.setProperty(CHECKPOINT_BYTES, String.valueOf(bytes));
+        File temp = new File(checkpoint.getPath() + ".tmp");
+        FileOutputStream outputStream = new FileOutputStream(temp);
+        try {
+            properties.store(outputStream, null);
+            outputStream.getFD().sync();
+        } finally {
+            Closeables.close(outputStream, true);
+        }
+        if (!temp.renameTo(checkpoint) && !(checkpoint.delete() && temp.renameTo(checkpoint))) {
+            throw new IOException("Could not write checkpoint " + checkpoint);
+        }
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.getChannel().truncate(length);
+        } finally {
+            Closeables.close(randomAccessFile, true);
+        }
+    }
+
+    /**
+     * Summary of a run.
+     */
+    public static class Summary {
+
+        private final long resumedLineCount;
+        private long lineCount;
+        private int searchCount;
+        private int failureCount;
+        private long elapsedMillis;
+
+        Summary(long resumedLineCount) {
+            this.resumedLineCount = resumedLineCount;
+        }
+
+        /**
+         * Get the number of manifest lines completed by previous runs.
+         */
+        public long getResumedLineCount() {
+            return resumedLineCount;
+        }
+
+        /**
+         * Get the number of manifest lines completed, including those of previous runs.
+         */
+        public long getLineCount() {
+            return lineCount;
+        }
+
+        /**
+         * Get the number of searches run by this run.
+         */
+        public int getSearchCount() {
+            return searchCount;
+        }
+
+        public int getFailureCount() {
+            return failureCount;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Summary{" +
+                    "resumedLineCount=" + resumedLineCount +
+                    ", lineCount=" + lineCount +
+                    ", searchCount=" + searchCount +
+                    ", failureCount=" + failureCount +
+                    ", elapsedMillis=" + elapsedMillis +
+                    '}';
+        }
+    }
+
+    /**
+     * Run a manifest from the command line. The access key and secret key are read from the
+     * VISEARCH_ACCESS_KEY and VISEARCH_SECRET_KEY environment variables.
+     * <pre>
+     * BatchSearchRunner manifest output [--format jsonl|tsv] [--concurrency n] [--endpoint url]
+     * </pre>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BatchSearchRunner <manifest> <output> [--format jsonl|tsv] [--concurrency n] [--endpoint url]");
+            System.exit(1);
+        }
+        String accessKey = System.getenv("VISEARCH_ACCESS_KEY");
+        String secretKey = System.getenv("VISEARCH_SECRET_KEY");
+        if (Strings.isNullOrEmpty(accessKey) || Strings.isNullOrEmpty(secretKey)) {
+            System.err.println("VISEARCH_ACCESS_KEY and VISEARCH_SECRET_KEY must be set");
+            System.exit(1);
+        }
+        OutputFormat format = OutputFormat.JSONL;
+        int concurrency = ClientConfig.DEFAULT_BATCH_CONCURRENCY;
+        String endpoint = null;
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            if ("--format".equals(args[i])) {
+                format = OutputFormat.valueOf(args[i + 1].toUpperCase());
+            } else if ("--concurrency".equals(args[i])) {
+                concurrency = Integer.parseInt(args[i + 1]);
+            } else if ("--endpoint".equals(args[i])) {
+                endpoint = args[i + 1];
+            }
+        }
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setMaxConnection(Math.max(concurrency, ClientConfig.DEFAULT_MAX_CONNECTIONS));
+        clientConfig.setBatchConcurrency(concurrency);
+        ViSearch client = new ViSearch(endpoint == null ? ViSearch.DEFAULT_VISEARCH_ENDPOINT : endpoint,
+                accessKey, secretKey, clientConfig);
+        Summary summary = new BatchSearchRunner(client)
+                .setFormat(format)
+                .setConcurrency(concurrency)
+                .run(new File(args[0]), new File(args[1]));
+        System.out.println(summary);
+    }
+}
@@ -0,0 +1,102 @@
+package com.visenze.visearch;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency statistics of a batch of requests.
+ */
+public class BatchStats {
+
+    private final int count;
+    private final int failureCount;
+    private final long elapsedMillis;
+    private final long[] sortedLatencyNanos;
+
+    /**
+     * @param failureCount  number of failed requests
+     * @param elapsedNanos  wall clock time of the whole batch
+     * @param latencyNanos  latency of each request
+     */
+    public BatchStats(int failureCount, long elapsedNanos, long[] latencyNanos) {
+        this.count = latencyNanos.length;
+        this.failureCount = failureCount;
+        this.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        this.sortedLatencyNanos = latencyNanos.clone();
+        Arrays.sort(this.sortedLatencyNanos);
+    }
+
+    /**
+     * Get the number of requests in the batch.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public int getSuccessCount() {
+        return count - failureCount;
+    }
+
+    public int getFailureCount() {
+        return failureCount;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * Get the number of requests completed per second.
+     */
+    public double getThroughput() {
+        return elapsedMillis == 0 ? count : count * 1000.0 / elapsedMillis;
+    }
+
+    public double getMinLatencyMillis() {
+        return count == 0 ? 0 : toMillis(sortedLatencyNanos[0]);
+    }
+
+    public double getMaxLatencyMillis() {
+        return count == 0 ? 0 : toMillis(sortedLatencyNanos[count - 1]);
+    }
+
+    public double getMeanLatencyMillis() {
+        if (count == 0) {
+            return 0;
+        }
+        long sum = 0;
+        for (long latency : sortedLatencyNanos) {
+            sum += latency;
+        }
+        return toMillis(sum) / count;
+    }
+
+    /**
+     * Get a latency percentile, e.g. 0.99 for the 99th percentile.
+     */
+    public double getLatencyPercentileMillis(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * count) - 1;
+        return toMillis(sortedLatencyNanos[Math.max(0, Math.min(count - 1, index))]);
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1000000.0;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchStats{" +
+                "count=" + count +
+                ", failureCount=" + failureCount +
+                ", elapsedMillis=" + elapsedMillis +
+                ", throughput=" + getThroughput() +
+                ", meanLatencyMillis=" + getMeanLatencyMillis() +
+                ", p50LatencyMillis=" + getLatencyPercentileMillis(0.5) +
+                ", p99LatencyMillis=" + getLatencyPercentileMillis(0.99) +
+                ", maxLatencyMillis=" + getMaxLatencyMillis() +
+                '}';
+    }
+}
@@ -0,0 +1,180 @@
+package com.visenze.visearch;
+
+import com.google.common.collect.Lists;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Results of a bulk insert, with the transaction of each batch in the order of the images.
+ * A failed batch has its error message set in its transaction instead of failing the insert.
+ */
+public class BulkInsertResult {
+
+    private final int imageCount;
+
+    private final List<Batch> batches;
+
+    private final BatchStats stats;
+
+    public BulkInsertResult(int imageCount, List<Batch> batches, BatchStats stats) {
+        this.imageCount = imageCount;
+        this.batches = Collections.unmodifiableList(batches);
+        this.stats = stats;
+    }
+
+    /**
+     * Get the number of images inserted.
+     */
+    public int getImageCount() {
+        return imageCount;
+    }
+
+    public List<Batch> getBatches() {
+        return batches;
+    }
+
+    /**
+     * Get the statistics of the insert calls, one per batch.
+     */
+    public BatchStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Get the transaction ids of the batches that were accepted, to check their status with
+     * {@link ViSearch#insertStatus(String)}.
+     */
+    public List<String> getTransIds() {
+        List<String> transIds = Lists.newArrayListWithCapacity(batches.size());
+        for (Batch batch : batches) {
+            if (batch.getInsertTrans().getTransId() != null) {
+                transIds.add(batch.getInsertTrans().getTransId());
+            }
+        }
+        return transIds;
+    }
+
+    /**
+     * Get the batches that failed as a whole, whose images were not inserted.
+     */
+    public List<Batch> getFailedBatches() {
+        List<Batch> failed = Lists.newArrayList();
+        for (Batch batch : batches) {
+            if (batch.isFailed()) {
+                failed.add(batch);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Get the errors of the images of all batches, with the index of each error being the
+     * position of its image in the inserted images.
+     */
+    public List<InsertError> getErrors() {
+        List<InsertError> errors = Lists.newArrayList();
+        for (Batch batch : batches) {
+            List<InsertError> errorList = batch.getInsertTrans().getErrorList();
+            if (errorList == null) {
+                continue;
+            }
+            for (InsertError error : errorList) {
+                Integer index = error.getIndex() == null ? null : batch.getGlobalIndex(error.getIndex());
+                errors.add(new InsertError(error.getImName(), index, error.getErrorCode(), error.getErrorMessage()));
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Get the number of images accepted, as the sum of the totals of the batches.
+     */
+    public int getTotal() {
+        int total = 0;
+        for (Batch batch : batches) {
+            if (batch.getInsertTrans().getTotal() != null) {
+                total += batch.getInsertTrans().getTotal();
+            }
+        }
+        return total;
+    }
+
+    public boolean hasFailures() {
+        for (Batch batch : batches) {
+            if (batch.isFailed() || batch.getInsertTrans().getErrorList() != null
+                    && !batch.getInsertTrans().getErrorList().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkInsertResult{" +
+                "imageCount=" + imageCount +
+                ", batchCount=" + batches.size() +
+                ", failedBatchCount=" + getFailedBatches().size() +
+                ", total=" + getTotal() +
+                ", stats=" + stats +
+                '}';
+    }
+
+    /**
+     * A batch of a bulk insert, and the transaction it was inserted with.
+     */
+    public static class Batch {
+
+        private final int index;
+        private final int offset;
+        private final int size;
+        private final InsertTrans insertTrans;
+
+        /**
+         * @param index       the index of the batch
+         * @param offset      the position of the first image of the batch in the inserted images
+         * @param size        the number of images of the batch
+         * @param insertTrans the transaction of the batch
+         */
+        public Batch(int index, int offset, int size, InsertTrans insertTrans) {
+            this.index = index;
+            this.offset = offset;
+            this.size = size;
+            this.insertTrans = insertTrans;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public InsertTrans getInsertTrans() {
+            return insertTrans;
+        }
+
+        /**
+         * Whether the insert call failed, so that none of the images of the batch were
+         * inserted.
+         */
+        public boolean isFailed() {
+            return insertTrans.getErrorMessage() != null || insertTrans.getCause() != null;
+        }
+
+        /**
+         * Get the position in the inserted images of an image of the batch.
+         *
+         * @param index the index of the image in the batch
+         */
+        public int getGlobalIndex(int index) {
+            return offset + index;
+        }
+    }
+}
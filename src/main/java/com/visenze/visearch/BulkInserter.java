@@ -0,0 +1,306 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.visenze.visearch.internal.AimdLimiter;
+import com.visenze.visearch.internal.DataOperations;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Inserts any number of images, splitting them into batches of at most
+ * {@link #MAX_BATCH_SIZE} images, the most an insert call accepts, and running the batches
+ * with bounded concurrency and an optional rate limit.
+ *
+ * <p>Images are read lazily from an iterator, such as an {@link ImageFileReader}, and batches
+ * are filled as they are sent. At most {@link #getMaxInFlight()} batches are held at once;
+ * reading waits while that many are being sent, so a catalog of any size is inserted with
+ * bounded memory. The images of a batch are dropped once it is sent.
+ *
+ * <p>The transactions and errors of all batches are collected into one
+ * {@link BulkInsertResult}, in which the index of each error is the position of its image in
+ * the inserted images. A failed batch does not stop the other batches.
+ *
+ * <p>When adaptive, the batch size and the concurrency are the max of limits that are adapted
+ * during the insert to the latency and errors of the batches, with additive increase and
+ * multiplicative decrease: a failed batch, a batch slower than the target latency or a batch
+ * with a higher error rate than the max halves them, and each round of batches without these
+ * grows them. The limits start at half of their max.
+ */
+public class BulkInserter {
+
+    public static final int MAX_BATCH_SIZE = 100;
+
+    public static final long DEFAULT_TARGET_LATENCY_MILLIS = 2000;
+
+    public static final double DEFAULT_MAX_ERROR_RATE = 0.25;
+
+    private static final AtomicInteger INSERT_COUNT = new AtomicInteger();
+
+    private final DataOperations dataOperations;
+
+    private int batchSize = MAX_BATCH_SIZE;
+
+    private int concurrency = ClientConfig.DEFAULT_BATCH_CONCURRENCY;
+
+    private int maxInFlight;
+
+    private double batchesPerSecond;
+
+    private Map<String, String> customParams = ImmutableMap.of();
+
+    private boolean adaptive;
+
+    private long targetLatencyMillis = DEFAULT_TARGET_LATENCY_MILLIS;
+
+    private double maxErrorRate = DEFAULT_MAX_ERROR_RATE;
+
+    /**
+     * @param dataOperations the client to insert with, usually a {@link ViSearch}
+     */
+    public BulkInserter(DataOperations dataOperations) {
+        Preconditions.checkNotNull(dataOperations, "data operations must not be null");
+        this.dataOperations = dataOperations;
+    }
+
+    public BulkInserter setBatchSize(int batchSize) {
+        Preconditions.checkArgument(batchSize > 0 && batchSize <= MAX_BATCH_SIZE,
+                "batch size must be between 1 and " + MAX_BATCH_SIZE);
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public BulkInserter setConcurrency(int concurrency) {
+        Preconditions.checkArgument(concurrency > 0, "concurrency must be positive");
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Set the max number of batches being filled, queued or sent at once, which bounds the
+     * images held in memory. Defaults to twice the concurrency.
+     */
+    public BulkInserter setMaxInFlight(int maxInFlight) {
+        Preconditions.checkArgument(maxInFlight > 0, "max in flight batches must be positive");
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * Limit the number of batches started per second, or 0 for no limit.
+     */
+    public BulkInserter setRateLimit(double batchesPerSecond) {
+        Preconditions.checkArgument(batchesPerSecond >= 0, "rate limit must not be negative");
+        this.batchesPerSecond = batchesPerSecond;
+        return this;
+    }
+
+    /**
+     * Set the custom params sent with each batch.
+     */
+    public BulkInserter setCustomParams(Map<String, String> customParams) {
+        Preconditions.checkNotNull(customParams, "custom params must not be null");
+        this.customParams = ImmutableMap.copyOf(customParams);
+        return this;
+    }
+
+    /**
+     * Adapt the batch size and the concurrency to the latency and errors of the batches, up to
+     * the set batch size and concurrency.
+     */
+    public BulkInserter setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+        return this;
+    }
+
+    /**
+     * Set the latency of an insert call above which an adaptive insert sends smaller batches
+     * with less concurrency.
+     */
+    public BulkInserter setTargetLatency(long targetLatency, TimeUnit unit) {
+        Preconditions.checkArgument(targetLatency > 0, "target latency must be positive");
+        this.targetLatencyMillis = unit.toMillis(targetLatency);
+        return this;
+    }
+
+    /**
+     * Set the rate of images of a batch with an insert error above which an adaptive insert
+     * sends smaller batches with less concurrency.
+     */
+    public BulkInserter setMaxErrorRate(double maxErrorRate) {
+        Preconditions.checkArgument(maxErrorRate >= 0 && maxErrorRate <= 1, "max error rate must be between 0 and 1");
+        this.maxErrorRate = maxErrorRate;
+        return this;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight > 0 ? maxInFlight : 2 * concurrency;
+    }
+
+    public double getRateLimit() {
+        return batchesPerSecond;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public long getTargetLatencyMillis() {
+        return targetLatencyMillis;
+    }
+
+    public double getMaxErrorRate() {
+        return maxErrorRate;
+    }
+
+    /**
+     * Insert images in batches and wait for all batches to be sent.
+     *
+     * @param images the images to insert
+     * @return the transactions and errors of all batches
+     */
+    public BulkInsertResult insert(Collection<Image> images) {
+        Preconditions.checkNotNull(images, "image list must not be null");
+        return insert(images.iterator());
+    }
+
+    /**
+     * Insert the images of an iterator in batches as they are read, and wait for all batches
+     * to be sent. If the iterator throws, the batches already started are waited for before
+     * the exception is rethrown. If the calling thread is interrupted, no more images are read
+     * and the result holds the batches started before.
+     *
+     * @param images the images to insert, read once
+     * @return the transactions and errors of all batches
+     */
+    public BulkInsertResult insert(Iterator<Image> images) {
+        Preconditions.checkNotNull(images, "image iterator must not be null");
+        final RateLimiter rateLimiter = batchesPerSecond > 0 ? RateLimiter.create(batchesPerSecond) : null;
+        final AimdLimiter limiter = adaptive
+                ? new AimdLimiter(batchSize, concurrency, TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis), maxErrorRate)
+                : null;
+        final int inFlight = getMaxInFlight();
+        final Semaphore permits = new Semaphore(inFlight);
+        final Outcome outcome = new Outcome();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("visearch-insert-" + INSERT_COUNT.incrementAndGet() + "-%d")
+                .build());
+        long start = System.nanoTime();
+        int imageCount = 0;
+        try {
+            for (int index = 0; ; index++) {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                // the permit is taken first, as checking for a next image may read it
+                int size = limiter != null ? limiter.getBatchSize() : batchSize;
+                final long epoch = limiter != null ? limiter.getEpoch() : 0;
+                final List<Image> batch = Lists.newArrayListWithCapacity(size);
+                try {
+                    while (batch.size() < size && images.hasNext()) {
+                        batch.add(images.next());
+                    }
+                } catch (RuntimeException e) {
+                    permits.release();
+                    throw e;
+                }
+                if (batch.isEmpty()) {
+                    permits.release();
+                    break;
+                }
+                final int batchIndex = index;
+                final int offset = imageCount;
+                imageCount += batch.size();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (rateLimiter != null) {
+                                rateLimiter.acquire();
+                            }
+                            if (limiter != null) {
+                                limiter.acquire();
+                            }
+                            long batchStart = System.nanoTime();
+                            InsertTrans insertTrans;
+                            try {
+                                insertTrans = dataOperations.insert(batch, customParams);
+                            } catch (RuntimeException e) {
+                                insertTrans = new InsertTrans(e.getMessage(), e, null);
+                            }
+                            long latency = System.nanoTime() - batchStart;
+                            BulkInsertResult.Batch result = new BulkInsertResult.Batch(batchIndex, offset, batch.size(), insertTrans);
+                            if (limiter != null) {
+                                int errorCount = insertTrans.getErrorList() == null ? 0 : insertTrans.getErrorList().size();
+                                limiter.release(epoch, latency, result.isFailed(), (double) errorCount / batch.size());
+                            }
+                            outcome.add(result, latency);
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            // all permits are back once the started batches are done
+            permits.acquireUninterruptibly(inFlight);
+        }
+        return outcome.toResult(imageCount, System.nanoTime() - start);
+    }
+
+    /**
+     * The batches of an insert, added as they complete.
+     */
+    private static class Outcome {
+
+        private final List<BulkInsertResult.Batch> batches = Lists.newArrayList();
+
+        private long[] latencyNanos = new long[16];
+
+        private int failureCount;
+
+        synchronized void add(BulkInsertResult.Batch batch, long latency) {
+            while (batches.size() <= batch.getIndex()) {
+                batches.add(null);
+            }
+            batches.set(batch.getIndex(), batch);
+            if (latencyNanos.length <= batch.getIndex()) {
+                latencyNanos = Arrays.copyOf(latencyNanos, Math.max(latencyNanos.length * 2, batch.getIndex() + 1));
+            }
+            latencyNanos[batch.getIndex()] = latency;
+            if (batch.isFailed()) {
+                failureCount++;
+            }
+        }
+
+        synchronized BulkInsertResult toResult(int imageCount, long elapsedNanos) {
+            return new BulkInsertResult(imageCount, Lists.newArrayList(batches),
+                    new BatchStats(failureCount, elapsedNanos, Arrays.copyOf(latencyNanos, batches.size())));
+        }
+    }
+}
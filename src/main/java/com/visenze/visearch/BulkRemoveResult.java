@@ -0,0 +1,151 @@
+package com.visenze.visearch;
+
+import com.google.common.collect.Lists;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Results of a bulk remove, with the remove status of each chunk in the order of the im_names.
+ * A failed chunk has its error message set in its status instead of failing the remove.
+ */
+public class BulkRemoveResult {
+
+    private final int imNameCount;
+
+    private final List<Chunk> chunks;
+
+    private final BatchStats stats;
+
+    public BulkRemoveResult(int imNameCount, List<Chunk> chunks, BatchStats stats) {
+        this.imNameCount = imNameCount;
+        this.chunks = Collections.unmodifiableList(chunks);
+        this.stats = stats;
+    }
+
+    /**
+     * Get the number of im_names requested to be removed.
+     */
+    public int getImNameCount() {
+        return imNameCount;
+    }
+
+    public List<Chunk> getChunks() {
+        return chunks;
+    }
+
+    /**
+     * Get the statistics of the remove calls, one per chunk.
+     */
+    public BatchStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Get the number of images removed, as the sum of the totals of the chunks that succeeded.
+     */
+    public int getTotal() {
+        int total = 0;
+        for (Chunk chunk : chunks) {
+            if (!chunk.isFailed()) {
+                total += chunk.getRemoveStatus().getTotal();
+            }
+        }
+        return total;
+    }
+
+    public List<Chunk> getFailedChunks() {
+        List<Chunk> failed = Lists.newArrayList();
+        for (Chunk chunk : chunks) {
+            if (chunk.isFailed()) {
+                failed.add(chunk);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Get the im_names of the failed chunks, in their original order. Removing them again with
+     * {@link BulkRemover#resume(BulkRemoveResult)} completes the remove, as removing an image
+     * twice is harmless.
+     */
+    public List<String> getFailedImNames() {
+        List<String> imNames = Lists.newArrayList();
+        for (Chunk chunk : chunks) {
+            if (chunk.isFailed()) {
+                imNames.addAll(chunk.getImNames());
+            }
+        }
+        return imNames;
+    }
+
+    public boolean hasFailures() {
+        for (Chunk chunk : chunks) {
+            if (chunk.isFailed()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkRemoveResult{" +
+                "imNameCount=" + imNameCount +
+                ", chunkCount=" + chunks.size() +
+                ", failedChunkCount=" + getFailedChunks().size() +
+                ", total=" + getTotal() +
+                ", stats=" + stats +
+                '}';
+    }
+
+    /**
+     * A chunk of a bulk remove, and the status it was removed with.
+     */
+    public static class Chunk {
+
+        private final int index;
+        private final int offset;
+        private final List<String> imNames;
+        private final RemoveStatus removeStatus;
+
+        /**
+         * @param index        the index of the chunk
+         * @param offset       the position of the first im_name of the chunk in the removed im_names
+         * @param imNames      the im_names of the chunk
+         * @param removeStatus the status of the chunk
+         */
+        public Chunk(int index, int offset, List<String> imNames, RemoveStatus removeStatus) {
+            this.index = index;
+            this.offset = offset;
+            this.imNames = Collections.unmodifiableList(imNames);
+            this.removeStatus = removeStatus;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        /**
+         * Get the im_names of the chunk, which identify the chunk to resume it if it failed.
+         */
+        public List<String> getImNames() {
+            return imNames;
+        }
+
+        public RemoveStatus getRemoveStatus() {
+            return removeStatus;
+        }
+
+        /**
+         * Whether the remove call failed, so that the images of the chunk may not be removed.
+         */
+        public boolean isFailed() {
+            return removeStatus.getErrorMessage() != null || removeStatus.getCause() != null;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import com.visenze.visearch.internal.BatchExecutor;
+import com.visenze.visearch.internal.DataOperations;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Removes any number of images, splitting their im_names into chunks of at most
+ * {@link #DEFAULT_CHUNK_SIZE} im_names, as recommended for remove calls, and running the chunks
+ * with bounded concurrency and an optional rate limit.
+ *
+ * <p>The statuses of all chunks are collected into one {@link BulkRemoveResult}. A failed chunk
+ * does not stop the other chunks, and the failed chunks can be removed again with
+ * {@link #resume(BulkRemoveResult)}.
+ */
+public class BulkRemover {
+
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+
+    private final DataOperations dataOperations;
+
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    private int concurrency = ClientConfig.DEFAULT_BATCH_CONCURRENCY;
+
+    private double chunksPerSecond;
+
+    /**
+     * @param dataOperations the client to remove with, usually a {@link ViSearch}
+     */
+    public BulkRemover(DataOperations dataOperations) {
+        Preconditions.checkNotNull(dataOperations, "data operations must not be null");
+        this.dataOperations = dataOperations;
+    }
+
+    public BulkRemover setChunkSize(int chunkSize) {
+        Preconditions.checkArgument(chunkSize > 0, "chunk size must be positive");
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    public BulkRemover setConcurrency(int concurrency) {
+        Preconditions.checkArgument(concurrency > 0, "concurrency must be positive");
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Limit the number of chunks started per second, or 0 for no limit.
+     */
+    public BulkRemover setRateLimit(double chunksPerSecond) {
+        Preconditions.checkArgument(chunksPerSecond >= 0, "rate limit must not be negative");
+        this.chunksPerSecond = chunksPerSecond;
+        return this;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public double getRateLimit() {
+        return chunksPerSecond;
+    }
+
+    /**
+     * Remove images in chunks and wait for all chunks to be sent.
+     *
+     * @param imNameList the im_names of the images to remove
+     * @return the statuses of all chunks
+     */
+    public BulkRemoveResult remove(List<String> imNameList) {
+        Preconditions.checkNotNull(imNameList, "im_name list for remove must not be null.");
+        final RateLimiter rateLimiter = chunksPerSecond > 0 ? RateLimiter.create(chunksPerSecond) : null;
+        final List<List<String>> chunks = Lists.newArrayList();
+        List<Callable<RemoveStatus>> tasks = Lists.newArrayList();
+        for (int offset = 0; offset < imNameList.size(); offset += chunkSize) {
+            // copied, so that the chunks do not depend on the list after the remove
+            final List<String> chunk = Lists.newArrayList(
+                    imNameList.subList(offset, Math.min(offset + chunkSize, imNameList.size())));
+            chunks.add(chunk);
+            tasks.add(new Callable<RemoveStatus>() {
+                @Override
+                public RemoveStatus call() {
+                    if (rateLimiter != null) {
+                        rateLimiter.acquire();
+                    }
+                    return dataOperations.remove(chunk);
+                }
+            });
+        }
+        BatchExecutor.Outcome<RemoveStatus> outcome = new BatchExecutor(concurrency).execute(tasks);
+        List<BulkRemoveResult.Chunk> results = Lists.newArrayListWithCapacity(outcome.size());
+        int failureCount = 0;
+        for (int i = 0; i < outcome.size(); i++) {
+            RemoveStatus status = outcome.getResult(i);
+            if (status == null) {
+                Throwable failure = outcome.getFailure(i);
+                status = new RemoveStatus(failure == null ? null : failure.getMessage(), failure, null);
+            }
+            BulkRemoveResult.Chunk chunk = new BulkRemoveResult.Chunk(i, i * chunkSize, chunks.get(i), status);
+            if (chunk.isFailed()) {
+                failureCount++;
+            }
+            results.add(chunk);
+        }
+        return new BulkRemoveResult(imNameList.size(), results,
+                new BatchStats(failureCount, outcome.getElapsedNanos(), outcome.getLatencyNanos()));
+    }
+
+    /**
+     * Remove the images of the failed chunks of a previous remove again.
+     *
+     * @param previous the result of a previous remove
+     * @return the statuses of the chunks removed again, with offsets into the failed im_names
+     */
+    public BulkRemoveResult resume(BulkRemoveResult previous) {
+        Preconditions.checkNotNull(previous, "previous result must not be null");
+        return remove(previous.getFailedImNames());
+    }
+}
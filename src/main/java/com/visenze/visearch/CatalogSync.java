@@ -0,0 +1,332 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Closeables;
+import com.google.common.primitives.UnsignedLongs;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.visenze.visearch.internal.DataOperations;
+import com.visenze.visearch.internal.FileReplacer;
+
+import java.io.*;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Syncs a catalog to a ViSearch app incrementally, inserting only the images that are new or
+ * changed since the last sync and removing the images that are no longer in the catalog.
+ *
+ * <p>Each image is fingerprinted from its im_name, im_url and metadata. The fingerprints of the
+ * last sync are kept in a local snapshot file, with one line per image, so im_names must not
+ * contain line breaks. A sync reads the catalog once, inserts the images whose fingerprint
+ * differs from the snapshot with a {@link BulkInserter}, removes the images of the snapshot
+ * missing from the catalog with a {@link BulkRemover}, and then replaces the snapshot.
+ *
+ * <p>The new snapshot only records the changes that succeeded: an image of a failed batch, an
+ * image with an insert error, or an image of a failed remove chunk keeps its previous entry, so
+ * it is sent again by the next sync. With a status tracker, the sync also waits for the insert
+ * transactions to be processed and keeps the previous entries of the images that failed
+ * processing. If the sync throws, the snapshot is left unchanged.
+ */
+public class CatalogSync {
+
+    private static final HashFunction FINGERPRINT = Hashing.murmur3_128();
+
+    private final DataOperations dataOperations;
+
+    private final File snapshotFile;
+
+    private BulkInserter inserter;
+
+    private BulkRemover remover;
+
+    private InsertStatusTracker statusTracker;
+
+    /**
+     * @param dataOperations the client to sync with, usually a {@link ViSearch}
+     * @param snapshotFile   the snapshot of the last sync, created by the first sync
+     */
+    public CatalogSync(DataOperations dataOperations, File snapshotFile) {
+        Preconditions.checkNotNull(dataOperations, "data operations must not be null");
+        Preconditions.checkNotNull(snapshotFile, "snapshot file must not be null");
+        this.dataOperations = dataOperations;
+        this.snapshotFile = snapshotFile;
+        this.inserter = new BulkInserter(dataOperations);
+        this.remover = new BulkRemover(dataOperations);
+    }
+
+    /**
+     * Set the inserter of new and changed images, to set its batch size, concurrency or rate limit.
+     */
+    public CatalogSync setInserter(BulkInserter inserter) {
+        this.inserter = Preconditions.checkNotNull(inserter, "inserter must not be null");
+        return this;
+    }
+
+    /**
+     * Set the remover of deleted images, to set its chunk size, concurrency or rate limit.
+     */
+    public CatalogSync setRemover(BulkRemover remover) {
+        this.remover = Preconditions.checkNotNull(remover, "remover must not be null");
+        return this;
+    }
+
+    /**
+     * Wait for the insert transactions of a sync to be processed with the tracker, or with null
+     * to only wait for them to be accepted.
+     */
+    public CatalogSync setStatusTracker(InsertStatusTracker statusTracker) {
+        this.statusTracker = statusTracker;
+        return this;
+    }
+
+    public File getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    public CatalogSyncResult sync(Collection<Image> catalog) throws IOException {
+        Preconditions.checkNotNull(catalog, "catalog must not be null");
+        return sync(catalog.iterator());
+    }
+
+    /**
+     * Sync the images of a catalog, read once, and replace the snapshot.
+     *
+     * @param catalog all images of the catalog, such as an {@link ImageFileReader}
+     * @return the inserts and removes of the sync
+     * @throws InterruptedIOException if the calling thread is interrupted before the catalog is
+     *                                read, in which case nothing is removed and the snapshot is
+     *                                left unchanged
+     * @throws IOException            if the snapshot could not be read or written
+     */
+    public CatalogSyncResult sync(Iterator<Image> catalog) throws IOException {
+        Preconditions.checkNotNull(catalog, "catalog must not be null");
+        final Map<String, Long> previous = readSnapshot();
+        final Map<String, Long> current = Maps.newHashMapWithExpectedSize(previous.size());
+        final List<String> changed = Lists.newArrayList();
+        final int[] catalogCount = new int[1];
+        // fingerprinted as the inserter reads the catalog, so only the changed images are held
+        Iterator<Image> changes = Iterators.filter(catalog, new Predicate<Image>() {
+            @Override
+            public boolean apply(Image image) {
+                catalogCount[0]++;
+                long fingerprint = fingerprint(image);
+                current.put(image.getImName(), fingerprint);
+                Long last = previous.get(image.getImName());
+                if (last != null && last == fingerprint) {
+                    return false;
+                }
+                changed.add(image.getImName());
+                return true;
+            }
+        });
+        BulkInsertResult insertResult = inserter.insert(changes);
+        // the inserter stops reading on interrupt, and the images not read must not be removed
+        if (Thread.currentThread().isInterrupted() || catalog.hasNext()) {
+            throw new InterruptedIOException("Catalog sync interrupted after reading " + catalogCount[0] + " images");
+        }
+
+        // all transactions are tracked before waiting for any, so they are polled together
+        Map<String, ListenableFuture<InsertStatus>> statuses = Maps.newHashMap();
+        if (statusTracker != null) {
+            for (String transId : insertResult.getTransIds()) {
+                statuses.put(transId, statusTracker.track(transId));
+            }
+        }
+        // the images that failed, counted once however many errors they have
+        Set<String> failed = Sets.newHashSet();
+        int unidentifiedErrorCount = 0;
+        for (BulkInsertResult.Batch batch : insertResult.getBatches()) {
+            unidentifiedErrorCount += revertFailedInserts(batch, statuses, changed, previous, current, failed);
+        }
+        int failedInsertCount = failed.size() + unidentifiedErrorCount;
+
+        List<String> deleted = Lists.newArrayList();
+        for (String imName : previous.keySet()) {
+            if (!current.containsKey(imName)) {
+                deleted.add(imName);
+            }
+        }
+        BulkRemoveResult removeResult = remover.remove(deleted);
+        for (String imName : removeResult.getFailedImNames()) {
+            current.put(imName, previous.get(imName));
+        }
+
+        writeSnapshot(current);
+        return new CatalogSyncResult(catalogCount[0], changed.size(), failedInsertCount, insertResult, removeResult);
+    }
+
+    /**
+     * Restore the previous entries of the images of a batch that were not inserted, adding their
+     * im_names to the failed images, and return the number of errors without an image.
+     */
+    private int revertFailedInserts(BulkInsertResult.Batch batch, Map<String, ListenableFuture<InsertStatus>> statuses,
+                                    List<String> changed, Map<String, Long> previous, Map<String, Long> current,
+                                    Set<String> failed) {
+        if (batch.isFailed()) {
+            revertBatch(batch, changed, previous, current, failed);
+            return 0;
+        }
+        int unidentified = revertErrors(batch, batch.getInsertTrans().getErrorList(), changed, previous, current, failed);
+        String transId = batch.getInsertTrans().getTransId();
+        if (transId == null || !statuses.containsKey(transId)) {
+            return unidentified;
+        }
+        InsertStatus status;
+        try {
+            status = Uninterruptibles.getUninterruptibly(statuses.get(transId));
+        } catch (ExecutionException e) {
+            status = new InsertStatus(e.getCause().getMessage(), e.getCause(), null);
+        } catch (CancellationException e) {
+            // the tracker was closed
+            status = new InsertStatus(e.getMessage(), e, null);
+        }
+        if (status.getErrorMessage() == null && status.getCause() == null) {
+            if (status.getFailCount() == null || status.getFailCount() == 0) {
+                return unidentified;
+            }
+            InsertErrorIterator errors = new InsertErrorIterator(dataOperations, transId);
+            unidentified += revertErrors(batch, Lists.newArrayList(errors), changed, previous, current, failed);
+            if (errors.getError() == null) {
+                return unidentified;
+            }
+        }
+        // the outcome of the transaction is unknown, so all of its images are sent again
+        revertBatch(batch, changed, previous, current, failed);
+        return 0;
+    }
+
+    private static void revertBatch(BulkInsertResult.Batch batch, List<String> changed, Map<String, Long> previous,
+                                    Map<String, Long> current, Set<String> failed) {
+        for (int i = 0; i < batch.getSize(); i++) {
+            revert(changed.get(batch.getGlobalIndex(i)), previous, current, failed);
+        }
+    }
+
+    private static int revertErrors(BulkInsertResult.Batch batch, List<InsertError> errors, List<String> changed,
+                                    Map<String, Long> previous, Map<String, Long> current, Set<String> failed) {
+        if (errors == null) {
+            return 0;
+        }
+        int unidentified = 0;
+        for (InsertError error : errors) {
+            String imName = error.getImName();
+            if (imName == null && error.getIndex() != null && error.getIndex() < batch.getSize()) {
+                imName = changed.get(batch.getGlobalIndex(error.getIndex()));
+            }
+            if (imName != null) {
+                revert(imName, previous, current, failed);
+            } else {
+                unidentified++;
+            }
+        }
+        return unidentified;
+    }
+
+    private static void revert(String imName, Map<String, Long> previous, Map<String, Long> current, Set<String> failed) {
+        failed.add(imName);
+        Long last = previous.get(imName);
+        if (last != null) {
+            current.put(imName, last);
+        } else {
+            current.remove(imName);
+        }
+    }
+
+    /**
+     * Get the fingerprint of the im_name, im_url and metadata of an image, which is independent
+     * of the order of its metadata.
+     */
+    public static long fingerprint(Image image) {
+        Hasher hasher = FINGERPRINT.newHasher();
+        putString(hasher, image.getImName());
+        putString(hasher, image.getImUrl());
+        if (image.getMetadata() != null) {
+            for (Map.Entry<String, String> entry : new TreeMap<String, String>(image.getMetadata()).entrySet()) {
+                putString(hasher, entry.getKey());
+                putString(hasher, entry.getValue());
+            }
+        }
+        return hasher.hash().asLong();
+    }
+
+    private static void putString(Hasher hasher, String value) {
+        // prefixed by its length, so that adjacent strings cannot run into each other
+        if (value == null) {
+            hasher.putInt(-1);
+        } else {
+            hasher.putInt(value.length()).putString(value, Charsets.UTF_8);
+        }
+    }
+
+    /**
+     * Read the snapshot, with lines of a hex fingerprint, a tab and an im_name.
+     */
+    private Map<String, Long> readSnapshot() throws IOException {
+        Map<String, Long> snapshot = Maps.newHashMap();
+        FileReplacer.recover(snapshotFile);
+        if (!snapshotFile.exists()) {
+            return snapshot;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(snapshotFile), Charsets.UTF_8));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                int tab = line.indexOf('\t');
+                if (tab < 0) {
+                    throw new IOException("Invalid snapshot line " + lineNumber + " in " + snapshotFile);
+                }
+                try {
+                    snapshot.put(line.substring(tab + 1), UnsignedLongs.parseUnsignedLong(line.substring(0, tab), 16));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid snapshot line " + lineNumber + " in " + snapshotFile, e);
+                }
+            }
+        } finally {
+            Closeables.closeQuietly(reader);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Write the snapshot to a temporary file next to it, sync it to disk and rename it over the
+     * snapshot, so that a crash leaves either the old or the new snapshot.
+     */
+    private void writeSnapshot(Map<String, Long> snapshot) throws IOException {
+        File tmp = FileReplacer.tempFile(snapshotFile);
+        FileOutputStream out = new FileOutputStream(tmp);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, Charsets.UTF_8));
+        boolean threw = true;
+        try {
+            for (Map.Entry<String, Long> entry : snapshot.entrySet()) {
+                writer.write(UnsignedLongs.toString(entry.getValue(), 16));
+                writer.write('\t');
+                writer.write(entry.getKey());
+                writer.write('\n');
+            }
+            writer.flush();
+            out.getFD().sync();
+            threw = false;
+        } finally {
+            Closeables.close(writer, threw);
+        }
+        FileReplacer.replace(tmp, snapshotFile);
+    }
+}
@@ -0,0 +1,88 @@
+package com.visenze.visearch;
+
+/**
+ * Results of a catalog sync: the number of images read and changed, and the results of the
+ * insert of the changed images and of the remove of the deleted images.
+ */
+public class CatalogSyncResult {
+
+    private final int catalogCount;
+
+    private final int changedCount;
+
+    private final int failedInsertCount;
+
+    private final BulkInsertResult insertResult;
+
+    private final BulkRemoveResult removeResult;
+
+    /**
+     * @param catalogCount      the number of images of the catalog
+     * @param changedCount      the number of new or changed images, which were inserted
+     * @param failedInsertCount the number of inserted images that failed and will be sent again
+     * @param insertResult      the insert of the changed images
+     * @param removeResult      the remove of the deleted images
+     */
+    public CatalogSyncResult(int catalogCount, int changedCount, int failedInsertCount,
+                             BulkInsertResult insertResult, BulkRemoveResult removeResult) {
+        this.catalogCount = catalogCount;
+        this.changedCount = changedCount;
+        this.failedInsertCount = failedInsertCount;
+        this.insertResult = insertResult;
+        this.removeResult = removeResult;
+    }
+
+    public int getCatalogCount() {
+        return catalogCount;
+    }
+
+    public int getChangedCount() {
+        return changedCount;
+    }
+
+    public int getUnchangedCount() {
+        return catalogCount - changedCount;
+    }
+
+    /**
+     * Get the number of images that were not in the catalog, which were removed.
+     */
+    public int getDeletedCount() {
+        return removeResult.getImNameCount();
+    }
+
+    /**
+     * Get the number of changed images that failed to be inserted or processed, each counted once
+     * however many errors it has, plus the errors that name no image. The failed images keep their
+     * previous snapshot entry and are sent again by the next sync.
+     */
+    public int getFailedInsertCount() {
+        return failedInsertCount;
+    }
+
+    public BulkInsertResult getInsertResult() {
+        return insertResult;
+    }
+
+    public BulkRemoveResult getRemoveResult() {
+        return removeResult;
+    }
+
+    /**
+     * Whether any change failed and will be sent again by the next sync.
+     */
+    public boolean hasFailures() {
+        return failedInsertCount > 0 || removeResult.hasFailures();
+    }
+
+    @Override
+    public String toString() {
+        return "CatalogSyncResult{" +
+                "catalogCount=" + catalogCount +
+                ", changedCount=" + changedCount +
+                ", deletedCount=" + getDeletedCount() +
+                ", failedInsertCount=" + failedInsertCount +
+                ", failedRemoveCount=" + removeResult.getFailedImNames().size() +
+                '}';
+    }
+}
@@ -11,6 +11,8 @@ public class ClientConfig {
 
     public static final int DEFAULT_MAX_CONNECTIONS = 50;
 
+    public static final int DEFAULT_BATCH_CONCURRENCY = 10;
+
     public static final String DEFAULT_USER_AGENT = getDefaultUserAgent();
 
     public static final String DEFAULT_XREQUEST_WITH = getDefaultXRequestWith();
@@ -23,6 +25,22 @@ public class ClientConfig {
 
     private String userAgent = DEFAULT_USER_AGENT;
 
+    private int batchConcurrency = DEFAULT_BATCH_CONCURRENCY;
+
+    private boolean columnarResults = false;
+
+    private boolean lazyDecoding = false;
+
+    private MetadataSchema metadataSchema;
+
+    private boolean fieldProjection = false;
+
+    private int parallelDecodingThreshold = 0;
+
+    private ResponseBufferPool responseBufferPool;
+
+    private boolean requestCompression = false;
+
     public static String getDefaultUserAgent() {
         String version = ViSearch.VISEACH_JAVA_SDK_VERSION;
         String osName = System.getProperty("os.name");
@@ -74,4 +92,130 @@ public class ClientConfig {
     public void setUserAgent(String userAgent) {
         this.userAgent = userAgent;
     }
+
+    /**
+     * Get the number of requests run in parallel by batch APIs such as
+     * {@link ViSearch#searchAll(java.util.Collection)}, capped at the max connections.
+     */
+    public int getBatchConcurrency() {
+        return Math.max(1, Math.min(batchConcurrency, maxConnection));
+    }
+
+    public void setBatchConcurrency(int batchConcurrency) {
+        this.batchConcurrency = batchConcurrency;
+    }
+
+    /**
+     * Whether the results of searches are decoded into {@link ImageResultColumns} instead of
+     * a list of {@link ImageResult}.
+     */
+    public boolean isColumnarResults() {
+        return columnarResults;
+    }
+
+    /**
+     * Decode the results of searches straight into columns, available from
+     * {@link PagedSearchResult#getResultColumns()}. {@link PagedSearchResult#getResult()} still
+     * works, creating each {@link ImageResult} on first access. Non-string metadata values are
+     * returned as their JSON text, and the raw JSON of the result is the response body as sent.
+     * The typed metadata of the {@link #setMetadataSchema(MetadataSchema) metadata schema} is
+     * decoded once per distinct value of each column.
+     */
+    public void setColumnarResults(boolean columnarResults) {
+        this.columnarResults = columnarResults;
+    }
+
+    /**
+     * Whether parts of search responses are decoded on first access.
+     */
+    public boolean isLazyDecoding() {
+        return lazyDecoding;
+    }
+
+    /**
+     * Decode the metadata of results, the attributes of detected product types and the facets
+     * of search responses on first access, instead of when the response is received. Callers
+     * that only read im_names and scores then skip most of the decoding. The raw JSON of the
+     * result is the response body as sent.
+     */
+    public void setLazyDecoding(boolean lazyDecoding) {
+        this.lazyDecoding = lazyDecoding;
+    }
+
+    /**
+     * Whether search responses are decoded according to the projection derived from the
+     * parameters of each search.
+     */
+    public boolean isFieldProjection() {
+        return fieldProjection;
+    }
+
+    /**
+     * Decode only the parts of search responses that were asked for: the metadata fields
+     * named in fl, the facets when facets were requested and the query info when qinfo was
+     * requested. The other parts are skipped without being materialized. See
+     * {@link ResponseProjection}.
+     */
+    public void setFieldProjection(boolean fieldProjection) {
+        this.fieldProjection = fieldProjection;
+    }
+
+    /**
+     * Get the length of a search response, in characters, from which its objects and groups
+     * are decoded in parallel, or 0 if they never are.
+     */
+    public int getParallelDecodingThreshold() {
+        return parallelDecodingThreshold;
+    }
+
+    /**
+     * Decode the detected objects and the group_result groups of search responses of at least
+     * this many characters in parallel, one chunk of them per processor. Worthwhile for multi
+     * object discover searches with a large result_limit. 0 or less disables parallel decoding.
+     */
+    public void setParallelDecodingThreshold(int parallelDecodingThreshold) {
+        this.parallelDecodingThreshold = parallelDecodingThreshold;
+    }
+
+    public ResponseBufferPool getResponseBufferPool() {
+        return responseBufferPool;
+    }
+
+    /**
+     * Read response bodies into the buffers of a pool, and parse search responses straight from
+     * them. Keep a reference to the pool to monitor its usage.
+     *
+     * <p>The body is only decoded into a string for errors, so the raw JSON of the search results
+     * parsed from a pooled buffer is not set.
+     */
+    public void setResponseBufferPool(ResponseBufferPool responseBufferPool) {
+        this.responseBufferPool = responseBufferPool;
+    }
+
+    public MetadataSchema getMetadataSchema() {
+        return metadataSchema;
+    }
+
+    /**
+     * Register the types of metadata fields. Their values are then decoded once when a search
+     * response is parsed, and read with the typed accessors of {@link ImageResult}.
+     */
+    public void setMetadataSchema(MetadataSchema metadataSchema) {
+        this.metadataSchema = metadataSchema;
+    }
+
+    /**
+     * Whether the bodies of insert requests are gzip compressed.
+     */
+    public boolean isRequestCompression() {
+        return requestCompression;
+    }
+
+    /**
+     * Gzip compress the bodies of insert requests, which are sent chunked with a
+     * Content-Encoding header. The endpoint must accept compressed request bodies.
+     */
+    public void setRequestCompression(boolean requestCompression) {
+        this.requestCompression = requestCompression;
+    }
 }
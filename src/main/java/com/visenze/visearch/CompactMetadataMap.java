@@ -0,0 +1,116 @@
+package com.visenze.visearch;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable metadata map holding only an array of values, indexed by the keys of a
+ * {@link MetadataDictionary}.
+ */
+class CompactMetadataMap extends AbstractMap<String, Object> {
+
+    /**
+     * Stands for a key present with a null value, as null marks an absent key.
+     */
+    static final Object NULL_VALUE = new Object();
+
+    private final MetadataDictionary dictionary;
+
+    private final Object[] values;
+
+    private final int size;
+
+    private Set<Entry<String, Object>> entrySet;
+
+    CompactMetadataMap(MetadataDictionary dictionary, Object[] values, int size) {
+        this.dictionary = dictionary;
+        this.values = values;
+        this.size = size;
+    }
+
+    @Override
+    public Object get(Object key) {
+        Object value = valueOf(key);
+        return value == NULL_VALUE ? null : value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return valueOf(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    private Object valueOf(Object key) {
+        MetadataDictionary.Field field = dictionary.field(key);
+        if (field == null || field.index >= values.length) {
+            return null;
+        }
+        return values[field.index];
+    }
+
+    private class EntrySet extends AbstractSet<Entry<String, Object>> {
+
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+            return new Iterator<Entry<String, Object>>() {
+
+                private int next = advance(0);
+
+                private int advance(int index) {
+                    while (index < values.length && values[index] == null) {
+                        index++;
+                    }
+                    return index;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next < values.length;
+                }
+
+                @Override
+                public Entry<String, Object> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    Object value = values[next];
+                    Entry<String, Object> entry = new SimpleImmutableEntry<String, Object>(
+                            dictionary.fieldAt(next).name, value == NULL_VALUE ? null : value);
+                    next = advance(next + 1);
+                    return entry;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
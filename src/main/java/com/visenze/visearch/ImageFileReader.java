@@ -0,0 +1,248 @@
+package com.visenze.visearch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the images of a catalog file one line at a time, to insert them with a
+ * {@link BulkInserter} without loading the file.
+ *
+ * <p>A CSV file has a header row naming its columns. The {@code im_name} and {@code im_url}
+ * columns are required, and the other columns are metadata; empty cells are left out. Fields
+ * may be quoted, with {@code ""} for a quote:
+ * <pre>
+ * im_name,im_url,brand,title
+ * sku-1,http://www.example.com/sku-1.jpg,acme,"Dress, red"
+ * </pre>
+ *
+ * <p>A JSONL file has one JSON object per line, with {@code im_name}, {@code im_url} and the
+ * other fields as metadata. Blank lines are skipped:
+ * <pre>
+ * {"im_name":"sku-1","im_url":"http://www.example.com/sku-1.jpg","brand":"acme","price":12.5}
+ * </pre>
+ *
+ * <p>A line that cannot be read throws an {@link IllegalArgumentException} with its line number,
+ * and a failure to read the file an {@link IllegalStateException}. A reader is not thread safe.
+ */
+public class ImageFileReader implements Iterator<Image>, Closeable {
+
+    private static final String IM_NAME = "im_name";
+
+    private static final String IM_URL = "im_url";
+
+    /**
+     * Catalog file formats.
+     */
+    public enum Format {
+        CSV,
+        JSONL
+    }
+
+    private final BufferedReader reader;
+
+    private final Format format;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private List<String> columns;
+
+    private long lineNumber;
+
+    private Image next;
+
+    private boolean done;
+
+    public ImageFileReader(Reader reader, Format format) {
+        Preconditions.checkNotNull(reader, "reader must not be null");
+        Preconditions.checkNotNull(format, "format must not be null");
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        this.format = format;
+    }
+
+    /**
+     * Open a UTF-8 catalog file.
+     */
+    public static ImageFileReader open(File file, Format format) throws FileNotFoundException {
+        return new ImageFileReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8), format);
+    }
+
+    /**
+     * Get the number of lines read so far.
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !done) {
+            next = read();
+            done = next == null;
+        }
+        return next != null;
+    }
+
+    @Override
+    public Image next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Image image = next;
+        next = null;
+        return image;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() throws IOException {
+        done = true;
+        reader.close();
+    }
+
+    private Image read() {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                if (format == Format.JSONL) {
+                    return parseJson(line);
+                }
+                List<String> fields = parseCsv(line);
+                if (columns == null) {
+                    columns = fields;
+                    if (!columns.contains(IM_NAME) || !columns.contains(IM_URL)) {
+                        throw new IllegalArgumentException("Missing im_name or im_url column in header line " + lineNumber);
+                    }
+                    continue;
+                }
+                return toImage(fields);
+            }
+            return null;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read line " + (lineNumber + 1), e);
+        }
+    }
+
+    private Image parseJson(String line) {
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(line);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid catalog line " + lineNumber, e);
+        }
+        if (node == null || !node.isObject()) {
+            throw new IllegalArgumentException("Invalid catalog line " + lineNumber);
+        }
+        String imName = null;
+        String imUrl = null;
+        Map<String, String> metadata = Maps.newHashMap();
+        Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode value = field.getValue();
+            if (value.isNull()) {
+                continue;
+            }
+            String text = value.isContainerNode() ? value.toString() : value.asText();
+            if (IM_NAME.equals(field.getKey())) {
+                imName = text;
+            } else if (IM_URL.equals(field.getKey())) {
+                imUrl = text;
+            } else {
+                metadata.put(field.getKey(), text);
+            }
+        }
+        if (Strings.isNullOrEmpty(imName)) {
+            throw new IllegalArgumentException("Missing im_name in catalog line " + lineNumber);
+        }
+        return new Image(imName, imUrl, metadata);
+    }
+
+    private Image toImage(List<String> fields) {
+        if (fields.size() > columns.size()) {
+            throw new IllegalArgumentException("Too many fields in catalog line " + lineNumber);
+        }
+        String imName = null;
+        String imUrl = null;
+        Map<String, String> metadata = Maps.newHashMap();
+        for (int i = 0; i < fields.size(); i++) {
+            String column = columns.get(i);
+            String value = fields.get(i);
+            if (IM_NAME.equals(column)) {
+                imName = value;
+            } else if (IM_URL.equals(column)) {
+                imUrl = value;
+            } else if (!value.isEmpty()) {
+                metadata.put(column, value);
+            }
+        }
+        if (Strings.isNullOrEmpty(imName)) {
+            throw new IllegalArgumentException("Missing im_name in catalog line " + lineNumber);
+        }
+        return new Image(imName, imUrl, metadata);
+    }
+
+    /**
+     * Split a CSV record into its fields, reading more lines while a quoted field is open.
+     */
+    private List<String> parseCsv(String line) throws IOException {
+        List<String> fields = Lists.newArrayList();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        int i = 0;
+        while (true) {
+            if (i == line.length()) {
+                if (!quoted) {
+                    break;
+                }
+                String nextLine = reader.readLine();
+                if (nextLine == null) {
+                    throw new IllegalArgumentException("Unterminated quote in catalog line " + lineNumber);
+                }
+                lineNumber++;
+                field.append('\n');
+                line = nextLine;
+                i = 0;
+                continue;
+            }
+            char c = line.charAt(i++);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i < line.length() && line.charAt(i) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -1,5 +1,8 @@
 package com.visenze.visearch;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 public class ImageResult {
@@ -7,11 +10,17 @@ public class ImageResult {
     private final String imName;
     private final Map<String, String> metadata;
     private final Float score;
+    private final TypedMetadata typedMetadata;
 
     public ImageResult(String imName, Map<String, String> metadata, Float score) {
+        this(imName, metadata, score, null);
+    }
+
+    public ImageResult(String imName, Map<String, String> metadata, Float score, TypedMetadata typedMetadata) {
         this.imName = imName;
         this.metadata = metadata;
         this.score = score;
+        this.typedMetadata = typedMetadata;
     }
 
     public String getImName() {
@@ -26,4 +35,100 @@ public class ImageResult {
         return score;
     }
 
+    /**
+     * Get the metadata values decoded into the types of the {@link MetadataSchema} registered
+     * with {@link ClientConfig#setMetadataSchema(MetadataSchema)}, or null if no schema is
+     * registered.
+     */
+    public TypedMetadata getTypedMetadata() {
+        return typedMetadata;
+    }
+
+    /**
+     * Get an int metadata value, or the default value if the result does not have it or it is
+     * not a whole number in the int range. Fields of type int in the metadata schema are read
+     * without parsing or boxing; other fields are parsed from the metadata.
+     */
+    public int getInt(String field, int defaultValue) {
+        TypedMetadata typed = getTypedMetadata();
+        if (isOfType(typed, field, MetadataSchema.FieldType.INT)) {
+            return typed.getInt(field, defaultValue);
+        }
+        Object value = metadataValue(field);
+        if (value == null) {
+            return defaultValue;
+        }
+        // only whole numbers in the int range are taken, as with a schema
+        long number = value instanceof Number
+                ? TypedMetadata.wholeNumber(((Number) value).doubleValue())
+                : TypedMetadata.parseWholeNumber(value.toString());
+        return number == TypedMetadata.NOT_AN_INT ? defaultValue : (int) number;
+    }
+
+    /**
+     * Get a float metadata value, or {@link Float#NaN} if the result does not have it. Fields of
+     * type float in the metadata schema are read without parsing or boxing; other fields are
+     * parsed from the metadata.
+     */
+    public float getFloat(String field) {
+        TypedMetadata typed = getTypedMetadata();
+        if (isOfType(typed, field, MetadataSchema.FieldType.FLOAT)) {
+            return typed.getFloat(field);
+        }
+        Object value = metadataValue(field);
+        if (value instanceof Number) {
+            return ((Number) value).floatValue();
+        }
+        if (value != null) {
+            try {
+                return Float.parseFloat(value.toString().trim());
+            } catch (NumberFormatException e) {
+                return Float.NaN;
+            }
+        }
+        return Float.NaN;
+    }
+
+    /**
+     * Get a metadata value as a string, or null if the result does not have it.
+     */
+    public String getString(String field) {
+        TypedMetadata typed = getTypedMetadata();
+        if (isOfType(typed, field, MetadataSchema.FieldType.STRING)) {
+            return typed.getString(field);
+        }
+        Object value = metadataValue(field);
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * Get a metadata value as a list of strings, or null if the result does not have it. A
+     * single value is returned as a list of one.
+     */
+    public List<String> getList(String field) {
+        TypedMetadata typed = getTypedMetadata();
+        if (isOfType(typed, field, MetadataSchema.FieldType.LIST)) {
+            return typed.getList(field);
+        }
+        Object value = metadataValue(field);
+        if (value instanceof List) {
+            List<String> list = new ArrayList<String>();
+            for (Object item : (List<?>) value) {
+                list.add(item == null ? null : item.toString());
+            }
+            return list;
+        }
+        return value == null ? null : Collections.singletonList(value.toString());
+    }
+
+    private static boolean isOfType(TypedMetadata typed, String field, MetadataSchema.FieldType type) {
+        return typed != null && typed.getSchema().getType(field) == type;
+    }
+
+    private Object metadataValue(String field) {
+        // values that are not strings in the response are kept as they are
+        Map<String, ?> values = getMetadata();
+        return values == null ? null : values.get(field);
+    }
+
 }
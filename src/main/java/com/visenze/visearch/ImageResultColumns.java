@@ -0,0 +1,509 @@
+package com.visenze.visearch;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * A columnar view of the image results of a search: one array of im_names, one array of
+ * scores and one dictionary-encoded column per metadata field.
+ *
+ * <p>Bulk consumers such as re-rankers and exporters can scan the columns without creating an
+ * {@link ImageResult} per row. {@link #asList()} adapts the columns to the usual list of
+ * results, creating each {@link ImageResult} on first access. With a {@link MetadataSchema},
+ * the results also have their {@link ImageResult#getTypedMetadata() typed metadata}, each
+ * distinct value of a column being decoded once.
+ *
+ * <p>The arrays returned by the getters are the backing arrays of the view and must not be
+ * modified.
+ */
+public class ImageResultColumns {
+
+    private static final ObjectReader LIST_READER = new ObjectMapper().readerFor(List.class);
+
+    private final int size;
+
+    private final String[] imNames;
+
+    private final float[] scores;
+
+    private final BitSet hasMetadata;
+
+    private final Map<String, MetadataColumn> columns;
+
+    private final MetadataSchema schema;
+
+    private List<ImageResult> list;
+
+    private List<TypedColumn> typedColumns;
+
+    private MetadataDictionary dictionary;
+
+    /**
+     * @param size        the number of results
+     * @param imNames     the im_name of each result
+     * @param scores      the score of each result, or {@link Float#NaN} for a result without score
+     * @param hasMetadata the results that have a value_map
+     * @param columns     the metadata columns, in the order of the fields
+     */
+    public ImageResultColumns(int size, String[] imNames, float[] scores, BitSet hasMetadata, List<MetadataColumn> columns) {
+        this(size, imNames, scores, hasMetadata, columns, null);
+    }
+
+    /**
+     * @param size        the number of results
+     * @param imNames     the im_name of each result
+     * @param scores      the score of each result, or {@link Float#NaN} for a result without score
+     * @param hasMetadata the results that have a value_map
+     * @param columns     the metadata columns, in the order of the fields
+     * @param schema      the schema the typed metadata of the results is decoded with, or null
+     */
+    public ImageResultColumns(int size, String[] imNames, float[] scores, BitSet hasMetadata, List<MetadataColumn> columns,
+                              MetadataSchema schema) {
+        Preconditions.checkArgument(imNames.length >= size && scores.length >= size, "columns must hold all results");
+        this.size = size;
+        this.imNames = imNames;
+        this.scores = scores;
+        this.hasMetadata = hasMetadata;
+        Map<String, MetadataColumn> columnMap = new LinkedHashMap<String, MetadataColumn>();
+        for (MetadataColumn column : columns) {
+            Preconditions.checkArgument(column.codes.length >= size, "column %s must hold all results", column.name);
+            columnMap.put(column.name, column);
+        }
+        this.columns = Collections.unmodifiableMap(columnMap);
+        this.schema = schema;
+    }
+
+    /**
+     * Build the columnar view of a list of results. Non-string metadata values are stored as
+     * their string form. The schema of the typed metadata of the results, if any, is kept.
+     */
+    public static ImageResultColumns of(List<ImageResult> results) {
+        int size = results.size();
+        String[] imNames = new String[size];
+        float[] scores = new float[size];
+        BitSet hasMetadata = new BitSet(size);
+        Map<String, ColumnBuilder> builders = new LinkedHashMap<String, ColumnBuilder>();
+        MetadataSchema schema = null;
+        for (int row = 0; row < size; row++) {
+            ImageResult result = results.get(row);
+            if (schema == null && result.getTypedMetadata() != null) {
+                schema = result.getTypedMetadata().getSchema();
+            }
+            imNames[row] = result.getImName();
+            scores[row] = result.getScore() == null ? Float.NaN : result.getScore();
+            Map<String, ?> metadata = result.getMetadata();
+            if (metadata == null) {
+                continue;
+            }
+            hasMetadata.set(row);
+            for (Map.Entry<String, ?> entry : metadata.entrySet()) {
+                if (entry.getValue() == null) {
+                    continue;
+                }
+                ColumnBuilder builder = builders.get(entry.getKey());
+                if (builder == null) {
+                    builder = new ColumnBuilder(entry.getKey(), size);
+                    builders.put(entry.getKey(), builder);
+                }
+                builder.set(row, entry.getValue().toString());
+            }
+        }
+        List<MetadataColumn> columns = new ArrayList<MetadataColumn>(builders.size());
+        for (ColumnBuilder builder : builders.values()) {
+            columns.add(builder.build(size));
+        }
+        return new ImageResultColumns(size, imNames, scores, hasMetadata, columns, schema);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getImName(int row) {
+        Preconditions.checkElementIndex(row, size);
+        return imNames[row];
+    }
+
+    /**
+     * Get the score of a result, or {@link Float#NaN} if the result has no score.
+     */
+    public float getScore(int row) {
+        Preconditions.checkElementIndex(row, size);
+        return scores[row];
+    }
+
+    /**
+     * Get the im_names of all results. Only the first {@link #size()} entries are used.
+     */
+    public String[] getImNames() {
+        return imNames;
+    }
+
+    /**
+     * Get the scores of all results. Only the first {@link #size()} entries are used.
+     */
+    public float[] getScores() {
+        return scores;
+    }
+
+    /**
+     * Get the names of the metadata fields, in the order they first appear in the results.
+     */
+    public Set<String> getFieldNames() {
+        return columns.keySet();
+    }
+
+    /**
+     * Get the column of a metadata field, or null if no result has the field.
+     */
+    public MetadataColumn getColumn(String field) {
+        return columns.get(field);
+    }
+
+    /**
+     * Get a metadata value of a result, or null if the result does not have the field.
+     */
+    public String getMetadata(int row, String field) {
+        Preconditions.checkElementIndex(row, size);
+        MetadataColumn column = columns.get(field);
+        return column == null ? null : column.get(row);
+    }
+
+    /**
+     * Get a metadata field as floats, with {@link Float#NaN} for the results without a value.
+     * Each distinct value is parsed once.
+     */
+    public float[] getFloats(String field) {
+        float[] values = new float[size];
+        Arrays.fill(values, Float.NaN);
+        MetadataColumn column = columns.get(field);
+        if (column != null) {
+            float[] parsed = new float[column.dictionary.length];
+            for (int i = 0; i < parsed.length; i++) {
+                try {
+                    parsed[i] = Float.parseFloat(column.dictionary[i].trim());
+                } catch (NumberFormatException e) {
+                    parsed[i] = Float.NaN;
+                }
+            }
+            for (int row = 0; row < size; row++) {
+                int code = column.codes[row];
+                if (code != MetadataColumn.ABSENT) {
+                    values[row] = parsed[code];
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Get a metadata field as ints, with the default value for the results without a value or
+     * with a value that is not a whole number in the int range. Each distinct value is parsed
+     * once.
+     */
+    public int[] getInts(String field, int defaultValue) {
+        int[] values = new int[size];
+        Arrays.fill(values, defaultValue);
+        MetadataColumn column = columns.get(field);
+        if (column != null) {
+            int[] parsed = new int[column.dictionary.length];
+            for (int i = 0; i < parsed.length; i++) {
+                long number = TypedMetadata.parseWholeNumber(column.dictionary[i]);
+                parsed[i] = number == TypedMetadata.NOT_AN_INT ? defaultValue : (int) number;
+            }
+            for (int row = 0; row < size; row++) {
+                int code = column.codes[row];
+                if (code != MetadataColumn.ABSENT) {
+                    values[row] = parsed[code];
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Get the results as a list. Each {@link ImageResult} is created when first accessed and
+     * then reused.
+     */
+    public List<ImageResult> asList() {
+        if (list == null) {
+            list = new ResultList();
+        }
+        return list;
+    }
+
+    /**
+     * Get the schema the typed metadata of the results is decoded with, or null if there is none.
+     */
+    public MetadataSchema getMetadataSchema() {
+        return schema;
+    }
+
+    private ImageResult toImageResult(int row) {
+        Map<String, String> metadata = null;
+        TypedMetadata typedMetadata = null;
+        if (hasMetadata.get(row)) {
+            if (dictionary == null) {
+                // the column dictionaries already hold each value once
+                dictionary = new MetadataDictionary(0);
+            }
+            MetadataDictionary.MapBuilder builder = dictionary.newMap();
+            for (MetadataColumn column : columns.values()) {
+                String value = column.get(row);
+                if (value != null) {
+                    builder.put(column.name, value);
+                }
+            }
+            metadata = builder.build();
+            if (schema != null) {
+                typedMetadata = toTypedMetadata(row);
+            }
+        }
+        float score = scores[row];
+        return new ImageResult(imNames[row], metadata, Float.isNaN(score) ? null : score, typedMetadata);
+    }
+
+    private TypedMetadata toTypedMetadata(int row) {
+        if (typedColumns == null) {
+            typedColumns = new ArrayList<TypedColumn>();
+            for (MetadataColumn column : columns.values()) {
+                MetadataSchema.FieldType type = schema.getType(column.name);
+                if (type != null) {
+                    typedColumns.add(new TypedColumn(column, type));
+                }
+            }
+        }
+        TypedMetadata.Builder builder = schema.newValues();
+        for (TypedColumn column : typedColumns) {
+            column.put(row, builder);
+        }
+        return builder.build();
+    }
+
+    /**
+     * The values of a column of a schema field, each distinct value decoded once into the type
+     * of the field.
+     */
+    private static class TypedColumn {
+
+        private final MetadataColumn column;
+
+        private final MetadataSchema.FieldType type;
+
+        private long[] ints;
+
+        private float[] floats;
+
+        private List<List<String>> lists;
+
+        TypedColumn(MetadataColumn column, MetadataSchema.FieldType type) {
+            this.column = column;
+            this.type = type;
+            String[] values = column.dictionary;
+            if (type == MetadataSchema.FieldType.INT) {
+                ints = new long[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    ints[i] = TypedMetadata.parseWholeNumber(values[i]);
+                }
+            } else if (type == MetadataSchema.FieldType.FLOAT) {
+                floats = new float[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    try {
+                        floats[i] = Float.parseFloat(values[i].trim());
+                    } catch (NumberFormatException e) {
+                        floats[i] = Float.NaN;
+                    }
+                }
+            } else if (type == MetadataSchema.FieldType.LIST) {
+                lists = new ArrayList<List<String>>(values.length);
+                for (String value : values) {
+                    lists.add(decodeList(value));
+                }
+            }
+        }
+
+        void put(int row, TypedMetadata.Builder builder) {
+            int code = column.codes[row];
+            if (code == MetadataColumn.ABSENT) {
+                return;
+            }
+            switch (type) {
+                case INT:
+                    if (ints[code] != TypedMetadata.NOT_AN_INT) {
+                        builder.putInt(column.name, (int) ints[code]);
+                    }
+                    break;
+                case FLOAT:
+                    builder.putFloat(column.name, floats[code]);
+                    break;
+                case STRING:
+                    builder.putText(column.name, column.dictionary[code]);
+                    break;
+                default:
+                    builder.putDecodedList(column.name, lists.get(code));
+                    break;
+            }
+        }
+
+        /**
+         * Decode a list value, kept in the column as its JSON text, or a single value as a list
+         * of one.
+         */
+        private static List<String> decodeList(String value) {
+            if (value.startsWith("[")) {
+                try {
+                    List<?> items = LIST_READER.readValue(value);
+                    List<String> list = new ArrayList<String>(items.size());
+                    for (Object item : items) {
+                        list.add(item == null ? null : item.toString());
+                    }
+                    return Collections.unmodifiableList(list);
+                } catch (IOException e) {
+                    // not a JSON array, so a single value
+                }
+            }
+            return Collections.singletonList(value);
+        }
+    }
+
+    private class ResultList extends AbstractList<ImageResult> implements RandomAccess {
+
+        private final ImageResult[] rows = new ImageResult[size];
+
+        @Override
+        public ImageResult get(int index) {
+            Preconditions.checkElementIndex(index, size);
+            ImageResult row = rows[index];
+            if (row == null) {
+                row = toImageResult(index);
+                rows[index] = row;
+            }
+            return row;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * The dictionary-encoded values of one metadata field. Each distinct value is stored once
+     * in the dictionary, and each result refers to its value by a code.
+     */
+    public static class MetadataColumn {
+
+        /**
+         * The code of a result that does not have the field.
+         */
+        public static final int ABSENT = -1;
+
+        private final String name;
+
+        private final String[] dictionary;
+
+        private final int[] codes;
+
+        /**
+         * @param name       the field name
+         * @param dictionary the distinct values of the field
+         * @param codes      the index into the dictionary for each result, or {@link #ABSENT}
+         */
+        public MetadataColumn(String name, String[] dictionary, int[] codes) {
+            this.name = name;
+            this.dictionary = dictionary;
+            this.codes = codes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Get the value of a result, or null if the result does not have the field.
+         */
+        public String get(int row) {
+            int code = codes[row];
+            return code == ABSENT ? null : dictionary[code];
+        }
+
+        /**
+         * Get the code of the value of a result, or {@link #ABSENT}.
+         */
+        public int getCode(int row) {
+            return codes[row];
+        }
+
+        public String[] getDictionary() {
+            return dictionary;
+        }
+
+        public int[] getCodes() {
+            return codes;
+        }
+    }
+
+    /**
+     * Builds a dictionary-encoded column row by row.
+     */
+    public static class ColumnBuilder {
+
+        private final String name;
+
+        private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+
+        private String[] values = new String[8];
+
+        private int[] codes;
+
+        public ColumnBuilder(String name, int capacity) {
+            this.name = name;
+            this.codes = new int[Math.max(capacity, 1)];
+            Arrays.fill(codes, MetadataColumn.ABSENT);
+        }
+
+        public void set(int row, String value) {
+            ensureCapacity(row + 1);
+            Integer code = dictionary.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                if (code == values.length) {
+                    values = Arrays.copyOf(values, values.length * 2);
+                }
+                values[code] = value;
+                dictionary.put(value, code);
+            }
+            codes[row] = code;
+        }
+
+        /**
+         * Build the column of the given number of results.
+         */
+        public MetadataColumn build(int size) {
+            ensureCapacity(size);
+            return new MetadataColumn(name, Arrays.copyOf(values, dictionary.size()), codes);
+        }
+
+        private void ensureCapacity(int length) {
+            if (length > codes.length) {
+                int oldLength = codes.length;
+                codes = Arrays.copyOf(codes, Math.max(length, oldLength * 2));
+                Arrays.fill(codes, oldLength, codes.length, MetadataColumn.ABSENT);
+            }
+        }
+    }
+}
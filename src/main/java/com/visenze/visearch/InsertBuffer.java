@@ -0,0 +1,453 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.visenze.visearch.internal.DataOperations;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffers image updates and inserts them behind the caller, keeping only the latest update of
+ * each im_name, for images whose metadata is updated many times in a short time.
+ *
+ * <p>Updates are buffered for at most the max delay after the first update of the buffer, and
+ * are then inserted in one batch. A buffer reaching the batch size is inserted at once. An
+ * update of an im_name that is already buffered replaces the buffered image, so only the latest
+ * update is sent. Batches are inserted one at a time, in the order they were filled, so the
+ * updates of an im_name are applied in order.
+ *
+ * <p>At most {@link #setMaxQueuedBatches(int) the max queued batches} wait to be inserted, so
+ * that updates arriving faster than they are inserted do not pile up. While the queue is full,
+ * the buffer is kept and goes on coalescing updates, and a put of a new im_name into a full
+ * buffer blocks until a batch is inserted.
+ *
+ * <p>The flush listener is called on the inserting thread with each batch and its transaction.
+ * The statistics of the buffer, such as the number of coalesced updates and the latency of the
+ * inserts, are available from {@link #getStats()}.
+ */
+public class InsertBuffer implements Closeable {
+
+    public static final int MAX_BATCH_SIZE = BulkInserter.MAX_BATCH_SIZE;
+
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 1000;
+
+    public static final int DEFAULT_MAX_QUEUED_BATCHES = 2;
+
+    private final DataOperations dataOperations;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("visearch-insert-buffer-%d").build());
+
+    private final Object lock = new Object();
+
+    // the buffered images, by im_name in the order of their first update
+    private final Map<String, Image> buffer = Maps.newLinkedHashMap();
+
+    private ScheduledFuture<?> timer;
+
+    // identifies the current timer, so that a timer that fired after being replaced does nothing
+    private long timerGeneration;
+
+    private boolean closed;
+
+    // the batches queued to be inserted, including the one being inserted
+    private int queuedBatches;
+
+    // whether the max delay of the buffer passed while the queue was full
+    private boolean flushDue;
+
+    private volatile int batchSize = MAX_BATCH_SIZE;
+
+    private volatile long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+
+    private volatile int maxQueuedBatches = DEFAULT_MAX_QUEUED_BATCHES;
+
+    private volatile Map<String, String> customParams = ImmutableMap.of();
+
+    private volatile FlushListener listener;
+
+    // the statistics, guarded by the lock
+    private long updateCount;
+
+    private long coalescedCount;
+
+    private long flushCount;
+
+    private long failedFlushCount;
+
+    private long flushedImageCount;
+
+    private long totalFlushNanos;
+
+    private long maxFlushNanos;
+
+    private int maxQueuedBatchCount;
+
+    /**
+     * Called on the inserting thread after each batch is inserted.
+     */
+    public interface FlushListener {
+
+        void onFlush(List<Image> batch, InsertTrans insertTrans);
+    }
+
+    /**
+     * @param dataOperations the client to insert with, usually a {@link ViSearch}
+     */
+    public InsertBuffer(DataOperations dataOperations) {
+        Preconditions.checkNotNull(dataOperations, "data operations must not be null");
+        this.dataOperations = dataOperations;
+    }
+
+    public InsertBuffer setBatchSize(int batchSize) {
+        Preconditions.checkArgument(batchSize > 0 && batchSize <= MAX_BATCH_SIZE,
+                "batch size must be between 1 and " + MAX_BATCH_SIZE);
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Set the max time an update is buffered, which is the window in which later updates of the
+     * same im_name replace it.
+     */
+    public InsertBuffer setMaxDelay(long maxDelay, TimeUnit unit) {
+        Preconditions.checkArgument(maxDelay > 0, "max delay must be positive");
+        this.maxDelayMillis = unit.toMillis(maxDelay);
+        return this;
+    }
+
+    /**
+     * Set the max number of batches queued to be inserted, including the one being inserted.
+     */
+    public InsertBuffer setMaxQueuedBatches(int maxQueuedBatches) {
+        Preconditions.checkArgument(maxQueuedBatches > 0, "max queued batches must be positive");
+        this.maxQueuedBatches = maxQueuedBatches;
+        return this;
+    }
+
+    /**
+     * Set the custom params sent with each batch.
+     */
+    public InsertBuffer setCustomParams(Map<String, String> customParams) {
+        Preconditions.checkNotNull(customParams, "custom params must not be null");
+        this.customParams = ImmutableMap.copyOf(customParams);
+        return this;
+    }
+
+    public InsertBuffer setFlushListener(FlushListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public int getMaxQueuedBatches() {
+        return maxQueuedBatches;
+    }
+
+    /**
+     * Buffer an image update, replacing the buffered update of the same im_name if there is one.
+     * Blocks while the buffer is full and the queue of batches is full, unless the im_name is
+     * already buffered.
+     *
+     * @throws IllegalStateException if the buffer is closed
+     */
+    public void put(Image image) {
+        Preconditions.checkNotNull(image, "image must not be null");
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(image.getImName()), "im_name must not be null or empty");
+        synchronized (lock) {
+            boolean interrupted = false;
+            while (!closed && buffer.size() >= batchSize && !buffer.containsKey(image.getImName())) {
+                if (queuedBatches < maxQueuedBatches) {
+                    drain();
+                    continue;
+                }
+                // woken up by the insert that frees a place in the queue
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            Preconditions.checkState(!closed, "insert buffer is closed");
+            updateCount++;
+            if (buffer.put(image.getImName(), image) != null) {
+                coalescedCount++;
+            }
+            if (buffer.size() >= batchSize) {
+                if (queuedBatches < maxQueuedBatches) {
+                    drain();
+                }
+            } else if (timer == null && !flushDue) {
+                final long generation = ++timerGeneration;
+                timer = executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (lock) {
+                            if (timer != null && timerGeneration == generation) {
+                                timer = null;
+                                if (queuedBatches < maxQueuedBatches) {
+                                    drain();
+                                } else {
+                                    flushDue = true;
+                                }
+                            }
+                        }
+                    }
+                }, maxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    public void putAll(Iterable<Image> images) {
+        for (Image image : images) {
+            put(image);
+        }
+    }
+
+    /**
+     * Insert the buffered updates, and wait for them and all updates flushed before to be
+     * inserted. Must not be called from a flush listener.
+     */
+    public void flush() {
+        flush(false);
+    }
+
+    /**
+     * Flush the buffer and stop the inserting thread. Updates put after close are rejected.
+     */
+    @Override
+    public void close() {
+        flush(true);
+        executor.shutdown();
+    }
+
+    private void flush(boolean close) {
+        Future<Void> done;
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = close;
+            // woken up, puts waiting for a place in the buffer fail once it is closed
+            lock.notifyAll();
+            boolean interrupted = false;
+            while (!buffer.isEmpty() && queuedBatches >= maxQueuedBatches) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            drain();
+            // batches are inserted in order, so the barrier runs after the batches before it
+            done = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    return null;
+                }
+            });
+        }
+        try {
+            Uninterruptibles.getUninterruptibly(done);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Get the number of updates buffered and not yet sent.
+     */
+    public int getBufferedCount() {
+        synchronized (lock) {
+            return buffer.size();
+        }
+    }
+
+    public Stats getStats() {
+        synchronized (lock) {
+            return new Stats(updateCount, coalescedCount, flushCount, failedFlushCount, flushedImageCount,
+                    totalFlushNanos, maxFlushNanos, queuedBatches, maxQueuedBatchCount);
+        }
+    }
+
+    /**
+     * Move the buffer into a batch queued to be inserted, which keeps the batches in order.
+     */
+    private void drain() {
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+        flushDue = false;
+        if (buffer.isEmpty()) {
+            return;
+        }
+        final List<Image> batch = Lists.newArrayList(buffer.values());
+        buffer.clear();
+        queuedBatches++;
+        maxQueuedBatchCount = Math.max(maxQueuedBatchCount, queuedBatches);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                insert(batch);
+            }
+        });
+    }
+
+    private void insert(List<Image> batch) {
+        long start = System.nanoTime();
+        InsertTrans insertTrans;
+        try {
+            insertTrans = dataOperations.insert(batch, customParams);
+        } catch (RuntimeException e) {
+            insertTrans = new InsertTrans(e.getMessage(), e, null);
+        }
+        long latency = System.nanoTime() - start;
+        synchronized (lock) {
+            flushCount++;
+            if (insertTrans.getErrorMessage() != null || insertTrans.getCause() != null) {
+                failedFlushCount++;
+            }
+            flushedImageCount += batch.size();
+            totalFlushNanos += latency;
+            maxFlushNanos = Math.max(maxFlushNanos, latency);
+            queuedBatches--;
+            // the buffer kept while the queue was full is queued in the place freed
+            if (!buffer.isEmpty() && (flushDue || buffer.size() >= batchSize)) {
+                drain();
+            }
+            lock.notifyAll();
+        }
+        FlushListener flushListener = listener;
+        if (flushListener != null) {
+            flushListener.onFlush(batch, insertTrans);
+        }
+    }
+
+    /**
+     * Statistics of an insert buffer since it was created.
+     */
+    public static class Stats {
+
+        private final long updateCount;
+        private final long coalescedCount;
+        private final long flushCount;
+        private final long failedFlushCount;
+        private final long flushedImageCount;
+        private final long totalFlushNanos;
+        private final long maxFlushNanos;
+        private final int queuedBatchCount;
+        private final int maxQueuedBatchCount;
+
+        Stats(long updateCount, long coalescedCount, long flushCount, long failedFlushCount,
+              long flushedImageCount, long totalFlushNanos, long maxFlushNanos, int queuedBatchCount,
+              int maxQueuedBatchCount) {
+            this.updateCount = updateCount;
+            this.coalescedCount = coalescedCount;
+            this.flushCount = flushCount;
+            this.failedFlushCount = failedFlushCount;
+            this.flushedImageCount = flushedImageCount;
+            this.totalFlushNanos = totalFlushNanos;
+            this.maxFlushNanos = maxFlushNanos;
+            this.queuedBatchCount = queuedBatchCount;
+            this.maxQueuedBatchCount = maxQueuedBatchCount;
+        }
+
+        /**
+         * Get the number of updates put in the buffer.
+         */
+        public long getUpdateCount() {
+            return updateCount;
+        }
+
+        /**
+         * Get the number of updates replaced by a later update of the same im_name before
+         * being sent.
+         */
+        public long getCoalescedCount() {
+            return coalescedCount;
+        }
+
+        /**
+         * Get the number of batches inserted.
+         */
+        public long getFlushCount() {
+            return flushCount;
+        }
+
+        public long getFailedFlushCount() {
+            return failedFlushCount;
+        }
+
+        /**
+         * Get the number of images sent in all batches.
+         */
+        public long getFlushedImageCount() {
+            return flushedImageCount;
+        }
+
+        public double getMeanFlushLatencyMillis() {
+            return flushCount == 0 ? 0 : totalFlushNanos / 1e6 / flushCount;
+        }
+
+        public double getMaxFlushLatencyMillis() {
+            return maxFlushNanos / 1e6;
+        }
+
+        /**
+         * Get the number of batches queued to be inserted, including the one being inserted.
+         */
+        public int getQueuedBatchCount() {
+            return queuedBatchCount;
+        }
+
+        /**
+         * Get the max number of batches that were queued at once.
+         */
+        public int getMaxQueuedBatchCount() {
+            return maxQueuedBatchCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "updateCount=" + updateCount +
+                    ", coalescedCount=" + coalescedCount +
+                    ", flushCount=" + flushCount +
+                    ", failedFlushCount=" + failedFlushCount +
+                    ", flushedImageCount=" + flushedImageCount +
+                    ", meanFlushLatencyMillis=" + getMeanFlushLatencyMillis() +
+                    ", maxFlushLatencyMillis=" + getMaxFlushLatencyMillis() +
+                    ", queuedBatchCount=" + queuedBatchCount +
+                    ", maxQueuedBatchCount=" + maxQueuedBatchCount +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.visenze.visearch.internal.DataOperations;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Iterates over every {@link InsertError} of an insert transaction, one error page at a time.
+ *
+ * <p>The first page is fetched when iteration starts, and gives the number of failed images and
+ * so the number of pages. While a page is consumed, up to {@link #getPrefetch()} later pages are
+ * requested in the background, and errors are still returned in page order. The page count is
+ * taken from the first page, so iterate once the transaction is processed.
+ *
+ * <p>If a page request fails, iteration ends and the failed status is available from
+ * {@link #getError()}.
+ */
+public class InsertErrorIterator extends AbstractIterator<InsertError> implements Closeable {
+
+    public static final int DEFAULT_ERROR_LIMIT = 1000;
+
+    public static final int DEFAULT_PREFETCH = 4;
+
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("visearch-error-prefetch-%d").build());
+
+    private final DataOperations dataOperations;
+
+    private final String transId;
+
+    private int errorLimit = DEFAULT_ERROR_LIMIT;
+
+    private int prefetch = DEFAULT_PREFETCH;
+
+    private final LinkedList<Future<InsertStatus>> pending = new LinkedList<Future<InsertStatus>>();
+
+    private boolean started;
+
+    private int failCount = -1;
+
+    private int pageCount;
+
+    private int nextPage = 1;
+
+    private Iterator<InsertError> current = Collections.<InsertError>emptyList().iterator();
+
+    private InsertStatus error;
+
+    /**
+     * @param dataOperations the client to fetch error pages with, usually a {@link ViSearch}
+     * @param transId        the transaction id of an insert
+     */
+    public InsertErrorIterator(DataOperations dataOperations, String transId) {
+        Preconditions.checkNotNull(dataOperations, "data operations must not be null");
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(transId), "trans_id must not be null or empty");
+        this.dataOperations = dataOperations;
+        this.transId = transId;
+    }
+
+    /**
+     * Set the number of errors requested per page. Large pages take fewer requests.
+     */
+    public InsertErrorIterator setErrorLimit(int errorLimit) {
+        Preconditions.checkState(!started, "iteration has started");
+        Preconditions.checkArgument(errorLimit > 0, "error limit must be positive");
+        this.errorLimit = errorLimit;
+        return this;
+    }
+
+    /**
+     * Set the max number of later pages requested at once while a page is consumed.
+     */
+    public InsertErrorIterator setPrefetch(int prefetch) {
+        Preconditions.checkState(!started, "iteration has started");
+        Preconditions.checkArgument(prefetch > 0, "prefetch must be positive");
+        this.prefetch = prefetch;
+        return this;
+    }
+
+    public String getTransId() {
+        return transId;
+    }
+
+    public int getErrorLimit() {
+        return errorLimit;
+    }
+
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * Get the number of failed images of the transaction, or -1 before the first page is fetched.
+     */
+    public int getFailCount() {
+        return failCount;
+    }
+
+    /**
+     * Get the number of error pages, or 0 before the first page is fetched.
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Get the status whose request failed and ended the iteration, or null if no request failed.
+     */
+    public InsertStatus getError() {
+        return error;
+    }
+
+    @Override
+    protected InsertError computeNext() {
+        if (!started) {
+            started = true;
+            if (!firstPage()) {
+                return endOfData();
+            }
+        }
+        while (!current.hasNext()) {
+            if (pending.isEmpty() || !nextPage()) {
+                close();
+                return endOfData();
+            }
+        }
+        return current.next();
+    }
+
+    private boolean firstPage() {
+        InsertStatus status = fetch(nextPage++);
+        if (!accept(status)) {
+            return false;
+        }
+        failCount = status.getFailCount() != null ? status.getFailCount() : 0;
+        // the server may serve fewer errors per page than requested
+        int limit = status.getErrorLimit() != null && status.getErrorLimit() > 0 ? status.getErrorLimit() : errorLimit;
+        pageCount = (failCount + limit - 1) / limit;
+        fill();
+        return true;
+    }
+
+    /**
+     * Wait for the oldest pending page, request another page in its place, and return false if
+     * the page failed.
+     */
+    private boolean nextPage() {
+        InsertStatus status = await(pending.removeFirst());
+        if (!accept(status)) {
+            return false;
+        }
+        fill();
+        return true;
+    }
+
+    private boolean accept(InsertStatus status) {
+        if (status.getErrorMessage() != null || status.getCause() != null) {
+            error = status;
+            return false;
+        }
+        List<InsertError> errorList = status.getErrorList();
+        current = errorList != null ? errorList.iterator() : Collections.<InsertError>emptyList().iterator();
+        return true;
+    }
+
+    /**
+     * Request pages until the prefetch window is full.
+     */
+    private void fill() {
+        while (nextPage <= pageCount && pending.size() < prefetch) {
+            final int page = nextPage++;
+            pending.add(PREFETCH_EXECUTOR.submit(new Callable<InsertStatus>() {
+                @Override
+                public InsertStatus call() throws Exception {
+                    return fetch(page);
+                }
+            }));
+        }
+    }
+
+    private InsertStatus fetch(int page) {
+        try {
+            return dataOperations.insertStatus(transId, page, errorLimit);
+        } catch (RuntimeException e) {
+            return new InsertStatus(e.getMessage(), e, null);
+        }
+    }
+
+    private static InsertStatus await(Future<InsertStatus> future) {
+        try {
+            return Uninterruptibles.getUninterruptibly(future);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Cancel any page requests in flight. Iteration can continue over the errors of the page
+     * already fetched.
+     */
+    @Override
+    public void close() {
+        for (Future<InsertStatus> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+        nextPage = pageCount + 1;
+    }
+}
@@ -0,0 +1,264 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.visenze.visearch.internal.DataOperations;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks insert transactions until they are processed, polling their status on one shared
+ * thread instead of a sleeping thread per transaction.
+ *
+ * <p>Each transaction is polled with its own backoff. While its progress does not change, the
+ * interval between polls grows up to the max interval. When it changes, the next poll is timed
+ * from the rate of progress, so transactions close to done are polled sooner. Intervals are
+ * jittered so that transactions inserted together are not polled together.
+ *
+ * <p>The future of a transaction completes with its status once it is 100% processed. If its
+ * status cannot be fetched for the max number of consecutive errors, the future completes with
+ * the failed status, whose error message is set. Cancelling a future stops polling its
+ * transaction. Progress listeners are called on the polling thread.
+ */
+public class InsertStatusTracker implements Closeable {
+
+    public static final long DEFAULT_INITIAL_INTERVAL_MILLIS = 1000;
+
+    public static final long DEFAULT_MAX_INTERVAL_MILLIS = 30 * 1000;
+
+    private static final double BACKOFF_MULTIPLIER = 1.5;
+
+    private static final double JITTER = 0.2;
+
+    private final DataOperations dataOperations;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("visearch-insert-status-%d").build());
+
+    private final ConcurrentHashMap<String, Transaction> pending = new ConcurrentHashMap<String, Transaction>();
+
+    private final Random random = new Random();
+
+    private volatile long initialIntervalMillis = DEFAULT_INITIAL_INTERVAL_MILLIS;
+
+    private volatile long maxIntervalMillis = DEFAULT_MAX_INTERVAL_MILLIS;
+
+    private volatile int maxConsecutiveErrors = 5;
+
+    /**
+     * Called on the polling thread when the processed percent of a transaction changes.
+     */
+    public interface ProgressListener {
+
+        void onProgress(InsertStatus status);
+    }
+
+    /**
+     * @param dataOperations the client to poll with, usually a {@link ViSearch}
+     */
+    public InsertStatusTracker(DataOperations dataOperations) {
+        Preconditions.checkNotNull(dataOperations, "data operations must not be null");
+        this.dataOperations = dataOperations;
+    }
+
+    /**
+     * Set the delay of the first poll of a transaction, and the shortest interval between polls.
+     */
+    public InsertStatusTracker setInitialInterval(long interval, TimeUnit unit) {
+        Preconditions.checkArgument(interval > 0, "interval must be positive");
+        this.initialIntervalMillis = unit.toMillis(interval);
+        return this;
+    }
+
+    public InsertStatusTracker setMaxInterval(long interval, TimeUnit unit) {
+        Preconditions.checkArgument(interval > 0, "interval must be positive");
+        this.maxIntervalMillis = unit.toMillis(interval);
+        return this;
+    }
+
+    public InsertStatusTracker setMaxConsecutiveErrors(int maxConsecutiveErrors) {
+        Preconditions.checkArgument(maxConsecutiveErrors > 0, "max consecutive errors must be positive");
+        this.maxConsecutiveErrors = maxConsecutiveErrors;
+        return this;
+    }
+
+    /**
+     * Get the number of transactions being tracked.
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public ListenableFuture<InsertStatus> track(String transId) {
+        return track(transId, null);
+    }
+
+    /**
+     * Track a transaction until it is processed. Tracking a transaction that is already
+     * tracked returns the same future, with the first listener.
+     *
+     * @param transId  the transaction id of an insert
+     * @param listener the listener of its progress, or null
+     * @return the future of its final status
+     */
+    public ListenableFuture<InsertStatus> track(String transId, ProgressListener listener) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(transId), "trans_id must not be null or empty");
+        Transaction transaction = new Transaction(transId, listener);
+        Transaction tracked = pending.putIfAbsent(transId, transaction);
+        if (tracked != null) {
+            return tracked.future;
+        }
+        schedule(transaction, Math.min(initialIntervalMillis, maxIntervalMillis));
+        return transaction.future;
+    }
+
+    /**
+     * Track transactions until they are all processed, such as the transactions of a
+     * {@link BulkInsertResult}.
+     *
+     * @return the future of their final statuses, in the order of the transaction ids
+     */
+    public ListenableFuture<List<InsertStatus>> trackAll(Collection<String> transIds, ProgressListener listener) {
+        List<ListenableFuture<InsertStatus>> futures = Lists.newArrayListWithCapacity(transIds.size());
+        for (String transId : transIds) {
+            futures.add(track(transId, listener));
+        }
+        return Futures.allAsList(futures);
+    }
+
+    /**
+     * Stop polling, cancelling the futures of the transactions being tracked.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        for (Transaction transaction : pending.values()) {
+            transaction.future.cancel(false);
+        }
+        pending.clear();
+    }
+
+    /**
+     * Schedule the next poll of a transaction after about an interval. The interval is kept as the
+     * backoff state, and only the delay of this poll is jittered.
+     */
+    private void schedule(final Transaction transaction, long intervalMillis) {
+        transaction.intervalMillis = intervalMillis;
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    poll(transaction);
+                }
+            }, jitter(intervalMillis), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // the tracker was closed
+            complete(transaction, null);
+        }
+    }
+
+    private void poll(Transaction transaction) {
+        if (transaction.future.isDone()) {
+            pending.remove(transaction.transId, transaction);
+            return;
+        }
+        InsertStatus status;
+        try {
+            status = dataOperations.insertStatus(transaction.transId);
+        } catch (RuntimeException e) {
+            status = new InsertStatus(e.getMessage(), e, null);
+        }
+        if (status.getErrorMessage() != null || status.getCause() != null || status.getProcessedPercent() == null) {
+            if (++transaction.errors >= maxConsecutiveErrors) {
+                complete(transaction, status);
+            } else {
+                schedule(transaction, nextInterval(transaction.intervalMillis));
+            }
+            return;
+        }
+        transaction.errors = 0;
+        long now = System.nanoTime();
+        int percent = status.getProcessedPercent();
+        if (percent != transaction.percent) {
+            if (transaction.listener != null) {
+                try {
+                    transaction.listener.onProgress(status);
+                } catch (RuntimeException e) {
+                    transaction.future.setException(e);
+                    pending.remove(transaction.transId, transaction);
+                    return;
+                }
+            }
+        }
+        if (percent >= 100) {
+            complete(transaction, status);
+            return;
+        }
+        long interval;
+        if (percent > transaction.percent && transaction.percent >= 0) {
+            // poll again at about half the time the remaining progress should take
+            double millisPerPercent = (now - transaction.percentNanos) / 1000000.0 / (percent - transaction.percent);
+            interval = Math.max(initialIntervalMillis, Math.min(maxIntervalMillis, (long) (millisPerPercent * (100 - percent) / 2)));
+        } else {
+            interval = percent != transaction.percent ? initialIntervalMillis : nextInterval(transaction.intervalMillis);
+        }
+        if (percent != transaction.percent) {
+            transaction.percent = percent;
+            transaction.percentNanos = now;
+        }
+        schedule(transaction, interval);
+    }
+
+    private long nextInterval(long intervalMillis) {
+        return Math.min(maxIntervalMillis, (long) (intervalMillis * BACKOFF_MULTIPLIER));
+    }
+
+    private long jitter(long intervalMillis) {
+        return Math.max(1, (long) (intervalMillis * (1 - JITTER + 2 * JITTER * random.nextDouble())));
+    }
+
+    private void complete(Transaction transaction, InsertStatus status) {
+        pending.remove(transaction.transId, transaction);
+        if (status == null) {
+            transaction.future.cancel(false);
+        } else {
+            transaction.future.set(status);
+        }
+    }
+
+    private static class Transaction {
+
+        private final String transId;
+
+        private final ProgressListener listener;
+
+        private final SettableFuture<InsertStatus> future = SettableFuture.create();
+
+        // the polling state, only used on the polling thread; the interval is not jittered
+        private long intervalMillis;
+
+        private int percent = -1;
+
+        private long percentNanos;
+
+        private int errors;
+
+        Transaction(String transId, ProgressListener listener) {
+            this.transId = transId;
+            this.listener = listener;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.visenze.visearch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.visenze.visearch.internal.DataOperations;
+import com.visenze.visearch.internal.OperationJournal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Journals the inserts and removes of a client in a local file, so that an indexer that crashes
+ * knows which operations may not have been sent, and sends only those again.
+ *
+ * <p>Each insert and remove is appended to the journal and synced to disk before it is sent, and
+ * marked complete once it succeeds: a remove when it returns a status without error, and an
+ * insert once its transaction is confirmed. With a {@link #setStatusTracker(InsertStatusTracker)
+ * status tracker}, an insert is confirmed when its transaction is processed without failures,
+ * so that a transaction accepted but failed in processing stays in the journal. Without one, it
+ * is confirmed as soon as it returns a transaction id. Concurrent operations, such as the
+ * batches of a {@link BulkInserter}, share the syncs of the journal. Operations that fail stay
+ * in the journal, as do operations interrupted by a crash. On startup, {@link #replay()} sends
+ * them again. Inserting or removing an image again has the same effect, so replaying an
+ * operation that did succeed is harmless.
+ *
+ * <p>If the journal cannot be written, the operation is not sent and its result has the error
+ * message set.
+ */
+public class JournaledDataOperations implements DataOperations, Closeable {
+
+    private static final String INSERT = "insert";
+    private static final String REMOVE = "remove";
+    private static final String IMAGES = "images";
+    private static final String IM_NAME = "im_name";
+    private static final String IM_URL = "im_url";
+    private static final String METADATA = "metadata";
+    private static final String PARAMS = "params";
+    private static final String IM_NAMES = "im_names";
+
+    private final DataOperations dataOperations;
+
+    private final OperationJournal journal;
+
+    private volatile InsertStatusTracker statusTracker;
+
+    /**
+     * Open the journal, creating it if it does not exist. Operations left in the journal are
+     * sent again by {@link #replay()}.
+     *
+     * @param dataOperations the client to send the operations with, usually a {@link ViSearch}
+     * @param journalFile    the journal file
+     * @throws IOException if the journal could not be read or written
+     */
+    public JournaledDataOperations(DataOperations dataOperations, File journalFile) throws IOException {
+        Preconditions.checkNotNull(dataOperations, "data operations must not be null");
+        this.dataOperations = dataOperations;
+        this.journal = new OperationJournal(journalFile);
+    }
+
+    /**
+     * Confirm inserts once their transaction is processed without failures, tracked with the
+     * tracker, or with null to confirm them once they return a transaction id. Inserts whose
+     * transaction is still tracked when the journal is closed stay in the journal.
+     */
+    public JournaledDataOperations setStatusTracker(InsertStatusTracker statusTracker) {
+        this.statusTracker = statusTracker;
+        return this;
+    }
+
+    /**
+     * Get the number of operations not completed, left by a previous run or failed in this one.
+     */
+    public int getPendingCount() {
+        return journal.getPendingCount();
+    }
+
+    @Override
+    public InsertTrans insert(List<Image> imageList) {
+        return insert(imageList, Maps.<String, String>newHashMap());
+    }
+
+    @Override
+    public InsertTrans insert(List<Image> imageList, Map<String, String> customParams) {
+        Preconditions.checkNotNull(imageList, "image list must not be null");
+        long id;
+        try {
+            id = journal.append(INSERT, insertBody(imageList, customParams));
+        } catch (IOException e) {
+            return new InsertTrans(e.getMessage(), e, null);
+        }
+        InsertTrans insertTrans = dataOperations.insert(imageList, customParams);
+        completeInsert(id, insertTrans);
+        return insertTrans;
+    }
+
+    @Override
+    public InsertStatus insertStatus(String transId) {
+        return dataOperations.insertStatus(transId);
+    }
+
+    @Override
+    public InsertStatus insertStatus(String transId, Integer errorPage, Integer errorLimit) {
+        return dataOperations.insertStatus(transId, errorPage, errorLimit);
+    }
+
+    @Override
+    public RemoveStatus remove(List<String> imNameList) {
+        Preconditions.checkNotNull(imNameList, "im_name list for remove must not be null.");
+        long id;
+        try {
+            id = journal.append(REMOVE, removeBody(imNameList));
+        } catch (IOException e) {
+            return new RemoveStatus(e.getMessage(), e, null);
+        }
+        return completeRemove(id, dataOperations.remove(imNameList));
+    }
+
+    /**
+     * Send the operations not completed again, in the order they were journaled, wait for the
+     * inserts to be confirmed, and compact the journal.
+     *
+     * @return the number of operations that failed again and stay in the journal
+     * @throws IOException if the journal could not be written
+     */
+    public int replay() throws IOException {
+        List<ListenableFuture<Boolean>> confirmations = Lists.newArrayList();
+        for (OperationJournal.Entry entry : journal.getPending()) {
+            JsonNode body = entry.getBody();
+            if (INSERT.equals(entry.getOp())) {
+                InsertTrans insertTrans = dataOperations.insert(images(body.path(IMAGES)), strings(body.path(PARAMS)));
+                ListenableFuture<Boolean> confirmation = completeInsert(entry.getId(), insertTrans);
+                if (confirmation != null) {
+                    confirmations.add(confirmation);
+                }
+            } else if (REMOVE.equals(entry.getOp())) {
+                List<String> imNames = Lists.newArrayList();
+                for (JsonNode imName : body.path(IM_NAMES)) {
+                    imNames.add(imName.asText());
+                }
+                completeRemove(entry.getId(), dataOperations.remove(imNames));
+            }
+        }
+        try {
+            // a confirmation that failed leaves its insert in the journal
+            Uninterruptibles.getUninterruptibly(Futures.successfulAsList(confirmations));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        journal.compact();
+        return journal.getPendingCount();
+    }
+
+    /**
+     * Close the journal. Operations not completed stay in the journal for the next run.
+     */
+    @Override
+    public void close() throws IOException {
+        journal.close();
+    }
+
+    /**
+     * Mark an insert complete once it is confirmed.
+     *
+     * @return the future of whether the insert was confirmed, or null if it was not accepted
+     */
+    private ListenableFuture<Boolean> completeInsert(final long id, InsertTrans insertTrans) {
+        if (insertTrans.getTransId() == null || insertTrans.getErrorMessage() != null || insertTrans.getCause() != null) {
+            return null;
+        }
+        InsertStatusTracker tracker = statusTracker;
+        if (tracker == null) {
+            complete(id);
+            return Futures.immediateFuture(true);
+        }
+        return Futures.transform(tracker.track(insertTrans.getTransId()), new Function<InsertStatus, Boolean>() {
+            @Override
+            public Boolean apply(InsertStatus status) {
+                boolean processed = status.getErrorMessage() == null && status.getCause() == null
+                        && (status.getFailCount() == null || status.getFailCount() == 0);
+                if (processed) {
+                    complete(id);
+                }
+                return processed;
+            }
+        });
+    }
+
+    private void complete(long id) {
+        try {
+            journal.complete(id);
+        } catch (IOException e) {
+            // the operation will be sent again, which is harmless
+        }
+    }
+
+    private RemoveStatus completeRemove(long id, RemoveStatus removeStatus) {
+        if (removeStatus.getErrorMessage() == null && removeStatus.getCause() == null) {
+            complete(id);
+        }
+        return removeStatus;
+    }
+
+    private static JsonNode insertBody(List<Image> imageList, Map<String, String> customParams) {
+        ObjectNode body = JsonNodeFactory.instance.objectNode();
+        ArrayNode images = body.putArray(IMAGES);
+        for (Image image : imageList) {
+            if (image == null) {
+                // kept, so that the replayed images have the same indexes as the ones sent
+                images.addNull();
+                continue;
+            }
+            ObjectNode node = images.addObject();
+            node.put(IM_NAME, image.getImName());
+            node.put(IM_URL, image.getImUrl());
+            if (image.getMetadata() != null) {
+                ObjectNode metadata = node.putObject(METADATA);
+                for (Map.Entry<String, String> entry : image.getMetadata().entrySet()) {
+                    metadata.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        if (customParams != null) {
+            ObjectNode params = body.putObject(PARAMS);
+            for (Map.Entry<String, String> entry : customParams.entrySet()) {
+                params.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return body;
+    }
+
+    private static JsonNode removeBody(List<String> imNameList) {
+        ObjectNode body = JsonNodeFactory.instance.objectNode();
+        ArrayNode imNames = body.putArray(IM_NAMES);
+        for (String imName : imNameList) {
+            imNames.add(imName);
+        }
+        return body;
+    }
+
+    private static List<Image> images(JsonNode nodes) {
+        List<Image> images = Lists.newArrayListWithCapacity(nodes.size());
+        for (JsonNode node : nodes) {
+            if (node.isNull()) {
+                // skipped by the insert, as when it was sent
+                images.add(null);
+                continue;
+            }
+            JsonNode metadata = node.get(METADATA);
+            images.add(new Image(text(node.get(IM_NAME)), text(node.get(IM_URL)),
+                    metadata == null ? null : strings(metadata)));
+        }
+        return images;
+    }
+
+    private static Map<String, String> strings(JsonNode node) {
+        Map<String, String> strings = Maps.newHashMap();
+        Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            strings.put(field.getKey(), text(field.getValue()));
+        }
+        return strings;
+    }
+
+    private static String text(JsonNode node) {
+        return node == null || node.isNull() ? null : node.asText();
+    }
+}
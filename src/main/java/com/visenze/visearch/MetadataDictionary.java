@@ -0,0 +1,178 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A dictionary of metadata keys shared by many compact metadata maps, such as the maps of
+ * all the results of one search response.
+ *
+ * <p>Each compact map only holds an array of values, indexed by the position of their key in
+ * the dictionary, so the keys are stored once per dictionary rather than once per map. The
+ * values of each field are also interned, up to a number of distinct values per field, so
+ * that repeated low-cardinality values such as brands and categories are stored once.
+ *
+ * <p>Compact maps are immutable. A dictionary is thread safe.
+ */
+public class MetadataDictionary {
+
+    public static final int DEFAULT_MAX_INTERNED_VALUES = 256;
+
+    private final int maxInternedValues;
+
+    private final ConcurrentMap<String, Field> fields = new ConcurrentHashMap<String, Field>();
+
+    // the fields by index; slots are only ever appended, so published maps never see a change
+    private volatile Field[] fieldArray = new Field[16];
+
+    private int size;
+
+    public MetadataDictionary() {
+        this(DEFAULT_MAX_INTERNED_VALUES);
+    }
+
+    /**
+     * @param maxInternedValues the number of distinct values interned per field, or 0 to not
+     *                          intern values
+     */
+    public MetadataDictionary(int maxInternedValues) {
+        Preconditions.checkArgument(maxInternedValues >= 0, "max interned values must not be negative");
+        this.maxInternedValues = maxInternedValues;
+    }
+
+    /**
+     * Get the number of keys in the dictionary.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Create a compact, immutable copy of a metadata map.
+     */
+    public Map<String, String> compact(Map<String, String> metadata) {
+        MapBuilder builder = newMap();
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            builder.put(entry.getKey(), entry.getValue());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Start building a compact map. A builder is not thread safe.
+     */
+    public MapBuilder newMap() {
+        return new MapBuilder();
+    }
+
+    Field field(Object key) {
+        return fields.get(key);
+    }
+
+    Field fieldAt(int index) {
+        return fieldArray[index];
+    }
+
+    private Field addField(String key) {
+        Field field = fields.get(key);
+        if (field != null) {
+            return field;
+        }
+        synchronized (this) {
+            field = fields.get(key);
+            if (field == null) {
+                Field[] array = fieldArray;
+                if (size == array.length) {
+                    array = Arrays.copyOf(array, size * 2);
+                }
+                field = new Field(key, size);
+                array[size++] = field;
+                fieldArray = array;
+                fields.put(key, field);
+            }
+            return field;
+        }
+    }
+
+    static final class Field {
+
+        final String name;
+
+        final int index;
+
+        private final ConcurrentMap<String, String> values = new ConcurrentHashMap<String, String>();
+
+        private final AtomicInteger valueCount = new AtomicInteger();
+
+        Field(String name, int index) {
+            this.name = name;
+            this.index = index;
+        }
+
+        String intern(String value, int maxValues) {
+            String interned = values.get(value);
+            if (interned != null) {
+                return interned;
+            }
+            if (valueCount.get() >= maxValues) {
+                // a high-cardinality field such as im_url: stop interning its values
+                return value;
+            }
+            interned = values.putIfAbsent(value, value);
+            if (interned != null) {
+                return interned;
+            }
+            valueCount.incrementAndGet();
+            return value;
+        }
+    }
+
+    /**
+     * Builds one compact map.
+     */
+    public class MapBuilder {
+
+        private Object[] values = new Object[Math.max(size(), 4)];
+
+        private int count;
+
+        private MapBuilder() {
+        }
+
+        /**
+         * Put an entry. Values that are not strings are kept as they are; this is how
+         * deserialized non-string metadata values are held.
+         */
+        public MapBuilder put(String key, Object value) {
+            Field field = addField(key);
+            if (field.index >= values.length) {
+                values = Arrays.copyOf(values, Math.max(field.index + 1, values.length * 2));
+            }
+            if (value instanceof String && maxInternedValues > 0) {
+                value = field.intern((String) value, maxInternedValues);
+            } else if (value == null) {
+                value = CompactMetadataMap.NULL_VALUE;
+            }
+            if (values[field.index] == null) {
+                count++;
+            }
+            values[field.index] = value;
+            return this;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Map<String, String> build() {
+            int length = values.length;
+            while (length > 0 && values[length - 1] == null) {
+                length--;
+            }
+            Map<String, ?> map = new CompactMetadataMap(MetadataDictionary.this, Arrays.copyOf(values, length), count);
+            return (Map<String, String>) map;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The types of metadata fields, so that their values are decoded once when a response is
+ * parsed and read with the typed accessors of {@link ImageResult}, such as
+ * {@link ImageResult#getFloat(String)}.
+ *
+ * <p>Register a schema with {@link ClientConfig#setMetadataSchema(MetadataSchema)}. Fields
+ * must be added before the schema is registered.
+ */
+public class MetadataSchema {
+
+    public enum FieldType {
+        INT, FLOAT, STRING, LIST
+    }
+
+    static final class Field {
+
+        final String name;
+
+        final FieldType type;
+
+        // the index of the field among the fields of its type
+        final int slot;
+
+        Field(String name, FieldType type, int slot) {
+            this.name = name;
+            this.type = type;
+            this.slot = slot;
+        }
+    }
+
+    private final Map<String, Field> fields = new LinkedHashMap<String, Field>();
+
+    private final int[] slotCounts = new int[FieldType.values().length];
+
+    public MetadataSchema addInt(String field) {
+        return add(field, FieldType.INT);
+    }
+
+    public MetadataSchema addFloat(String field) {
+        return add(field, FieldType.FLOAT);
+    }
+
+    public MetadataSchema addString(String field) {
+        return add(field, FieldType.STRING);
+    }
+
+    /**
+     * Add a field holding a list of strings. A single string value is read as a list of one.
+     */
+    public MetadataSchema addList(String field) {
+        return add(field, FieldType.LIST);
+    }
+
+    public MetadataSchema add(String field, FieldType type) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(field), "field must not be null or empty");
+        Preconditions.checkNotNull(type, "field type must not be null");
+        Preconditions.checkArgument(!fields.containsKey(field), "field %s is already in the schema", field);
+        fields.put(field, new Field(field, type, slotCounts[type.ordinal()]++));
+        return this;
+    }
+
+    /**
+     * Get the type of a field, or null if the field is not in the schema.
+     */
+    public FieldType getType(String field) {
+        Field f = fields.get(field);
+        return f == null ? null : f.type;
+    }
+
+    public Set<String> getFields() {
+        return Collections.unmodifiableSet(fields.keySet());
+    }
+
+    Field field(String name) {
+        return fields.get(name);
+    }
+
+    int slotCount(FieldType type) {
+        return slotCounts[type.ordinal()];
+    }
+
+    /**
+     * Start decoding the typed values of one result. A builder is not thread safe.
+     */
+    public TypedMetadata.Builder newValues() {
+        return new TypedMetadata.Builder(this);
+    }
+
+    /**
+     * Decode the typed values of a metadata map, as when the values are strings.
+     */
+    public TypedMetadata decode(Map<String, ?> metadata) {
+        TypedMetadata.Builder builder = newValues();
+        for (Map.Entry<String, ?> entry : metadata.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof List) {
+                builder.putList(entry.getKey(), (List<?>) value);
+            } else if (value != null) {
+                builder.putText(entry.getKey(), value.toString());
+            }
+        }
+        return builder.build();
+    }
+}
@@ -52,6 +52,10 @@ public class PagedResult<T> extends ResponseBase {
         this.total = total;
     }
 
+    public void setResult(List<T> result) {
+        this.result = result;
+    }
+
     public void setGroupLimit(Integer groupLimit) { this.groupLimit = groupLimit; }
 
     public void setGroupByKey(String groupByKey) { this.groupByKey = groupByKey; }
@@ -25,6 +25,8 @@ public class PagedSearchResult extends PagedResult<ImageResult> {
 
     private List<GroupSearchResult> groupSearchResults;
 
+    private ImageResultColumns resultColumns;
+
     public PagedSearchResult(List<ImageResult> result) {
         this.result = result;
     }
@@ -35,6 +37,32 @@ public class PagedSearchResult extends PagedResult<ImageResult> {
         super.setRawResponseMessage(rawResponse);
     }
 
+    /**
+     * Get the results as columns. Unless the results were decoded as columns, see
+     * {@link ClientConfig#setColumnarResults(boolean)}, the columns are built from the
+     * result list on first call.
+     */
+    public ImageResultColumns getResultColumns() {
+        if (resultColumns == null && result != null) {
+            resultColumns = ImageResultColumns.of(result);
+        }
+        return resultColumns;
+    }
+
+    /**
+     * Set the results from columns. The result list becomes a view of the columns.
+     */
+    public void setResultColumns(ImageResultColumns resultColumns) {
+        this.resultColumns = resultColumns;
+        this.result = resultColumns == null ? null : resultColumns.asList();
+    }
+
+    @Override
+    public void setResult(List<ImageResult> result) {
+        super.setResult(result);
+        this.resultColumns = null;
+    }
+
     public void setProductTypes(List<ProductType> productTypes) {
         this.productTypes = productTypes;
     }
@@ -51,11 +51,11 @@ public class ProductType {
     @Override
     public String toString() {
         return "ProductType{" +
-                "type='" + type + '\'' +
-                ", score=" + score +
-                ", box=" + box +
-                ", attributes=" + attributes +
-                ", attributesList=" + attributesList +
+                "type='" + getType() + '\'' +
+                ", score=" + getScore() +
+                ", box=" + getBox() +
+                ", attributes=" + getAttributes() +
+                ", attributesList=" + getAttributesList() +
                 '}';
     }
 }
@@ -0,0 +1,166 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of byte buffers that response bodies are read into, so that searches at a
+ * high rate do not allocate a new buffer and string per response.
+ *
+ * <p>Register a pool with {@link ClientConfig#setResponseBufferPool(ResponseBufferPool)}. Search
+ * responses are then parsed straight from the pooled bytes, and their buffer is returned to the
+ * pool once the results are built. The body of other responses is decoded into a string, after
+ * which their buffer is returned too.
+ *
+ * <p>The pool holds at most {@code maxBuffers} free buffers, and does not keep buffers larger
+ * than {@code maxBufferSize}. When no buffer is free, a new one is allocated, so the pool never
+ * blocks. A pool is thread safe and lock free; the usage counters are kept for monitoring.
+ */
+public class ResponseBufferPool {
+
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 1024 * 1024;
+
+    private final int maxBuffers;
+
+    private final int bufferSize;
+
+    private final int maxBufferSize;
+
+    private final ConcurrentLinkedQueue<byte[]> free = new ConcurrentLinkedQueue<byte[]>();
+
+    private final AtomicInteger freeCount = new AtomicInteger();
+
+    private final AtomicInteger inUse = new AtomicInteger();
+
+    private final AtomicInteger peakInUse = new AtomicInteger();
+
+    private final AtomicLong acquireCount = new AtomicLong();
+
+    private final AtomicLong reuseCount = new AtomicLong();
+
+    private final AtomicLong discardCount = new AtomicLong();
+
+    public ResponseBufferPool(int maxBuffers) {
+        this(maxBuffers, DEFAULT_BUFFER_SIZE, DEFAULT_MAX_BUFFER_SIZE);
+    }
+
+    /**
+     * @param maxBuffers    the number of free buffers kept
+     * @param bufferSize    the size of newly allocated buffers
+     * @param maxBufferSize the size above which buffers are not kept
+     */
+    public ResponseBufferPool(int maxBuffers, int bufferSize, int maxBufferSize) {
+        Preconditions.checkArgument(maxBuffers > 0, "max buffers must be positive");
+        Preconditions.checkArgument(bufferSize > 0, "buffer size must be positive");
+        Preconditions.checkArgument(maxBufferSize >= bufferSize, "max buffer size must not be less than the buffer size");
+        this.maxBuffers = maxBuffers;
+        this.bufferSize = bufferSize;
+        this.maxBufferSize = maxBufferSize;
+    }
+
+    /**
+     * Take a buffer of at least a size from the pool, allocating one if none is free. A free
+     * buffer that is too small is released and a larger one allocated.
+     */
+    public byte[] acquire(int minSize) {
+        acquireCount.incrementAndGet();
+        int used = inUse.incrementAndGet();
+        int peak;
+        while (used > (peak = peakInUse.get()) && !peakInUse.compareAndSet(peak, used)) {
+            // retry until the peak is at least this usage
+        }
+        byte[] buffer = free.poll();
+        if (buffer != null) {
+            freeCount.decrementAndGet();
+            if (buffer.length >= minSize) {
+                reuseCount.incrementAndGet();
+                return buffer;
+            }
+            discardCount.incrementAndGet();
+        }
+        return new byte[Math.max(minSize, bufferSize)];
+    }
+
+    /**
+     * Give a buffer back to the pool. The buffer must not be used afterwards.
+     */
+    public void release(byte[] buffer) {
+        inUse.decrementAndGet();
+        if (buffer.length > maxBufferSize || freeCount.incrementAndGet() > maxBuffers) {
+            if (buffer.length <= maxBufferSize) {
+                freeCount.decrementAndGet();
+            }
+            discardCount.incrementAndGet();
+            return;
+        }
+        free.offer(buffer);
+    }
+
+    public int getMaxBuffers() {
+        return maxBuffers;
+    }
+
+    /**
+     * Get the number of buffers taken and not yet given back.
+     */
+    public int getInUse() {
+        return inUse.get();
+    }
+
+    /**
+     * Get the highest number of buffers in use at once.
+     */
+    public int getPeakInUse() {
+        return peakInUse.get();
+    }
+
+    /**
+     * Get the number of free buffers in the pool.
+     */
+    public int getFreeCount() {
+        return freeCount.get();
+    }
+
+    public long getAcquireCount() {
+        return acquireCount.get();
+    }
+
+    /**
+     * Get the number of buffers taken that were reused rather than allocated.
+     */
+    public long getReuseCount() {
+        return reuseCount.get();
+    }
+
+    /**
+     * Get the number of buffers allocated because no free buffer was large enough.
+     */
+    public long getAllocationCount() {
+        return acquireCount.get() - reuseCount.get();
+    }
+
+    /**
+     * Get the number of buffers dropped, because the pool was full or they were too small or
+     * too large to keep.
+     */
+    public long getDiscardCount() {
+        return discardCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ResponseBufferPool{" +
+                "inUse=" + getInUse() +
+                ", peakInUse=" + getPeakInUse() +
+                ", free=" + getFreeCount() +
+                ", acquired=" + getAcquireCount() +
+                ", reused=" + getReuseCount() +
+                ", discarded=" + getDiscardCount() +
+                '}';
+    }
+}
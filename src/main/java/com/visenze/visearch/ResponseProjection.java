@@ -0,0 +1,131 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The parts of a search response that are decoded. Parts left out are skipped token by token
+ * when the response is parsed, without being materialized.
+ *
+ * <p>A projection is derived from the parameters of a search when
+ * {@link ClientConfig#setFieldProjection(boolean)} is enabled: only the metadata fields named
+ * in fl, the facets when facets were requested and the query info when qinfo was requested
+ * are decoded. A caller may also set a projection on the parameters with
+ * {@link BaseSearchParams#setProjection(ResponseProjection)}, which is applied on top of the
+ * derived one.
+ */
+public class ResponseProjection {
+
+    // null for all the fields
+    private Set<String> metadataFields;
+
+    private boolean facets = true;
+
+    private boolean queryInfo = true;
+
+    private boolean productTypes = true;
+
+    /**
+     * Derive the projection of the response of a search from its parameters.
+     */
+    public static ResponseProjection of(BaseSearchParams<?> params) {
+        ResponseProjection projection = new ResponseProjection();
+        if (!params.isGetAllFl() && !params.getFl().isEmpty()) {
+            projection.setMetadataFields(params.getFl());
+        }
+        projection.setFacets(!params.getFacets().isEmpty());
+        projection.setQueryInfo(params.isQInfo());
+        return projection;
+    }
+
+    /**
+     * Decode only these metadata fields of the results, or all of them if null.
+     */
+    public ResponseProjection setMetadataFields(Collection<String> metadataFields) {
+        this.metadataFields = metadataFields == null ? null
+                : Collections.unmodifiableSet(new LinkedHashSet<String>(metadataFields));
+        return this;
+    }
+
+    public ResponseProjection setFacets(boolean facets) {
+        this.facets = facets;
+        return this;
+    }
+
+    public ResponseProjection setQueryInfo(boolean queryInfo) {
+        this.queryInfo = queryInfo;
+        return this;
+    }
+
+    /**
+     * Whether the detected product types are decoded. The objects of a discover search
+     * decoded without them have no type, box, score or attributes.
+     */
+    public ResponseProjection setProductTypes(boolean productTypes) {
+        this.productTypes = productTypes;
+        return this;
+    }
+
+    /**
+     * Get the metadata fields decoded, or null if all of them are.
+     */
+    public Set<String> getMetadataFields() {
+        return metadataFields;
+    }
+
+    public boolean includesMetadata(String field) {
+        return metadataFields == null || metadataFields.contains(field);
+    }
+
+    public boolean isFacets() {
+        return facets;
+    }
+
+    public boolean isQueryInfo() {
+        return queryInfo;
+    }
+
+    public boolean isProductTypes() {
+        return productTypes;
+    }
+
+    /**
+     * Whether every part of a response is decoded.
+     */
+    public boolean isAll() {
+        return metadataFields == null && facets && queryInfo && productTypes;
+    }
+
+    /**
+     * Get the projection decoding only the parts decoded by both this projection and another.
+     */
+    public ResponseProjection intersect(ResponseProjection other) {
+        Preconditions.checkNotNull(other, "projection must not be null");
+        ResponseProjection projection = new ResponseProjection();
+        if (metadataFields == null || other.metadataFields == null) {
+            projection.metadataFields = metadataFields == null ? other.metadataFields : metadataFields;
+        } else {
+            Set<String> fields = new LinkedHashSet<String>(metadataFields);
+            fields.retainAll(other.metadataFields);
+            projection.setMetadataFields(fields);
+        }
+        projection.facets = facets && other.facets;
+        projection.queryInfo = queryInfo && other.queryInfo;
+        projection.productTypes = productTypes && other.productTypes;
+        return projection;
+    }
+
+    @Override
+    public String toString() {
+        return "ResponseProjection{" +
+                "metadataFields=" + metadataFields +
+                ", facets=" + facets +
+                ", queryInfo=" + queryInfo +
+                ", productTypes=" + productTypes +
+                '}';
+    }
+}
@@ -0,0 +1,318 @@
+package com.visenze.visearch;
+
+import com.visenze.visearch.internal.constant.ViSearchHttpConstants;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A mutable search result container that is filled in place by each search it is passed to,
+ * for callers at very high rates that cannot afford a {@link PagedSearchResult} and an
+ * {@link ImageResult} per result.
+ *
+ * <p>The container holds the im_name, score and scalar metadata values of each result in
+ * arrays that grow to the largest page seen and are then reused. Strings are taken from a
+ * table of the recently seen ones, so repeated im_names and metadata values are not allocated
+ * again. Only the results, the paging fields and the headers of a response are read; use the
+ * regular searches for facets, detected objects or groups. Metadata values that are objects or
+ * arrays are left out.
+ *
+ * <p>Invalidation: the contents of a container are valid from the return of the search that
+ * filled it until it is passed to the next search or {@link #clear() cleared}, which overwrite
+ * them. The strings returned are immutable and stay valid afterwards, but rows, sizes and
+ * values read before must not be assumed to still hold. A container is not thread safe; use
+ * one per thread.
+ *
+ * <p>The mutators are used by the SDK to fill the container.
+ */
+public class ReusableSearchResult {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final int STRING_TABLE_SIZE = 4096;
+
+    private static final int MAX_TABLE_STRING_LENGTH = 256;
+
+    private int size;
+
+    private String[] imNames = new String[INITIAL_CAPACITY];
+
+    private float[] scores = new float[INITIAL_CAPACITY];
+
+    private String[] fieldNames = new String[0];
+
+    // the values of each field, indexed by row
+    private String[][] columns = new String[0][];
+
+    private int fieldCount;
+
+    private int page = -1;
+
+    private int limit = -1;
+
+    private int total = -1;
+
+    private String errorMessage;
+
+    private Throwable cause;
+
+    private String rawResponseMessage;
+
+    private Map<String, String> headers = Collections.emptyMap();
+
+    // recently seen strings, replaced on collision
+    private final String[] strings = new String[STRING_TABLE_SIZE];
+
+    /**
+     * Get the number of results.
+     */
+    public int size() {
+        return size;
+    }
+
+    public String getImName(int row) {
+        checkRow(row);
+        return imNames[row];
+    }
+
+    /**
+     * Get the score of a result, or {@link Float#NaN} if it has none.
+     */
+    public float getScore(int row) {
+        checkRow(row);
+        return scores[row];
+    }
+
+    /**
+     * Get the number of metadata fields seen. Fields seen in earlier responses are kept, with no
+     * values for the results of later ones.
+     */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    public String getFieldName(int field) {
+        if (field < 0 || field >= fieldCount) {
+            throw new IndexOutOfBoundsException("field " + field + " of " + fieldCount);
+        }
+        return fieldNames[field];
+    }
+
+    /**
+     * Get the index of a metadata field, to read its values without looking it up by name, or
+     * -1 if no result had it.
+     */
+    public int getFieldIndex(String field) {
+        for (int i = 0; i < fieldCount; i++) {
+            if (fieldNames[i] == field) {
+                return i;
+            }
+        }
+        for (int i = 0; i < fieldCount; i++) {
+            if (fieldNames[i].equals(field)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get a metadata value of a result, or null if it has none.
+     */
+    public String getMetadata(int row, String field) {
+        int index = getFieldIndex(field);
+        return index < 0 ? null : getMetadata(row, index);
+    }
+
+    public String getMetadata(int row, int field) {
+        checkRow(row);
+        return columns[field][row];
+    }
+
+    /**
+     * Get the page of the results, or -1 if the response has none. The limit and total are -1
+     * likewise.
+     */
+    public int getPage() {
+        return page;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Get the error message of the last search, or null if it succeeded.
+     */
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public Throwable getCause() {
+        return cause;
+    }
+
+    public String getRawResponseMessage() {
+        return rawResponseMessage;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public String getReqId() {
+        if (headers != null && headers.containsKey(ViSearchHttpConstants.X_LOG_ID)) {
+            return headers.get(ViSearchHttpConstants.X_LOG_ID);
+        }
+        return ViSearchHttpConstants.X_LOG_ID_EMPTY;
+    }
+
+    /**
+     * Clear the container for the next response, keeping its arrays.
+     */
+    public void clear() {
+        for (int field = 0; field < fieldCount; field++) {
+            Arrays.fill(columns[field], 0, size, null);
+        }
+        Arrays.fill(imNames, 0, size, null);
+        size = 0;
+        page = -1;
+        limit = -1;
+        total = -1;
+        errorMessage = null;
+        cause = null;
+        rawResponseMessage = null;
+        headers = Collections.emptyMap();
+    }
+
+    public void setPage(int page) {
+        this.page = page;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    public void setHeaders(Map<String, String> headers) {
+        this.headers = headers;
+    }
+
+    /**
+     * Mark the last search as failed, clearing its results.
+     */
+    public void setError(String errorMessage, Throwable cause, String rawResponseMessage) {
+        clear();
+        this.errorMessage = errorMessage;
+        this.cause = cause;
+        this.rawResponseMessage = rawResponseMessage;
+    }
+
+    /**
+     * Add a result, given its im_name as characters.
+     *
+     * @return the row of the result
+     */
+    public int addResult(char[] imName, int offset, int length, float score) {
+        if (size == imNames.length) {
+            grow();
+        }
+        imNames[size] = imName == null ? null : string(imName, offset, length);
+        scores[size] = score;
+        return size++;
+    }
+
+    /**
+     * Set a metadata value of a result, given as characters.
+     */
+    public void setMetadata(int row, String field, char[] value, int offset, int length) {
+        checkRow(row);
+        int index = addField(field);
+        columns[index][row] = string(value, offset, length);
+    }
+
+    /**
+     * Set the score of a result, as the score may follow the value_map in a response.
+     */
+    public void setScore(int row, float score) {
+        checkRow(row);
+        scores[row] = score;
+    }
+
+    /**
+     * Set the im_name of a result, given as characters.
+     */
+    public void setImName(int row, char[] imName, int offset, int length) {
+        checkRow(row);
+        imNames[row] = string(imName, offset, length);
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row " + row + " of " + size);
+        }
+    }
+
+    private void grow() {
+        int capacity = imNames.length * 2;
+        imNames = Arrays.copyOf(imNames, capacity);
+        scores = Arrays.copyOf(scores, capacity);
+        for (int field = 0; field < fieldCount; field++) {
+            columns[field] = Arrays.copyOf(columns[field], capacity);
+        }
+    }
+
+    private int addField(String field) {
+        int index = getFieldIndex(field);
+        if (index >= 0) {
+            return index;
+        }
+        if (fieldCount == fieldNames.length) {
+            int capacity = Math.max(4, fieldCount * 2);
+            fieldNames = Arrays.copyOf(fieldNames, capacity);
+            columns = Arrays.copyOf(columns, capacity);
+        }
+        fieldNames[fieldCount] = field;
+        columns[fieldCount] = new String[imNames.length];
+        return fieldCount++;
+    }
+
+    /**
+     * Get the string of some characters, from the table of recently seen strings if it is
+     * there.
+     */
+    private String string(char[] chars, int offset, int length) {
+        if (length > MAX_TABLE_STRING_LENGTH) {
+            return new String(chars, offset, length);
+        }
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (STRING_TABLE_SIZE - 1);
+        String string = strings[slot];
+        if (string != null && string.length() == length && string.hashCode() == hash && matches(string, chars, offset)) {
+            return string;
+        }
+        string = new String(chars, offset, length);
+        strings[slot] = string;
+        return string;
+    }
+
+    private static boolean matches(String string, char[] chars, int offset) {
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,31 @@
+package com.visenze.visearch;
+
+/**
+ * Receives the results of a streaming search as they are parsed from the response, before the
+ * rest of the response has arrived.
+ *
+ * <p>The methods are called on the searching thread, in the order of the response. An
+ * exception thrown by a method ends the search and is thrown to the caller.
+ *
+ * <p>Results are handed over before the rest of the response is read, so before the search is
+ * known to have succeeded. If the returned result has an error message, such as for a response
+ * that is cut off, discard the results received. The returned result has no raw JSON, as the
+ * results handed over are not kept.
+ */
+public interface SearchResultConsumer {
+
+    /**
+     * Called for each result of the result list.
+     */
+    void onResult(ImageResult result);
+
+    /**
+     * Called for each detected object of a discover search, with its results.
+     */
+    void onObject(ObjectSearchResult object);
+
+    /**
+     * Called for each group of results of a search with group_by.
+     */
+    void onGroup(GroupSearchResult group);
+}
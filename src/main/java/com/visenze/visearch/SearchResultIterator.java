@@ -0,0 +1,220 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Iterates over every {@link ImageResult} of a search, one page at a time.
+ *
+ * While the results of page N are being consumed, page N+1 is requested in the background.
+ * Iteration ends when the results are exhausted, the ViSearch result window of
+ * {@link #MAX_RESULT_WINDOW} results is reached, the max count is reached, or a result scores
+ * below the min score. If a page request fails, or the page fetcher throws, iteration ends and
+ * the failed page is available from {@link #getError()}.
+ */
+public class SearchResultIterator extends AbstractIterator<ImageResult> implements Closeable {
+
+    /**
+     * ViSearch returns at most this number of results for a query, regardless of paging.
+     */
+    public static final int MAX_RESULT_WINDOW = 1000;
+
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("visearch-prefetch-%d").build());
+
+    /**
+     * Fetches one page of search results.
+     */
+    public interface PageFetcher {
+
+        PagedSearchResult fetch(int page);
+    }
+
+    private final PageFetcher pageFetcher;
+
+    private Float minScore;
+
+    private int maxCount = Integer.MAX_VALUE;
+
+    private int nextPage;
+
+    private Future<PagedSearchResult> pending;
+
+    private int pendingPage;
+
+    private boolean started;
+
+    private Iterator<ImageResult> current = Collections.<ImageResult>emptyList().iterator();
+
+    private int position;
+
+    private int returned;
+
+    private PagedSearchResult error;
+
+    /**
+     * @param pageFetcher fetches one page of results
+     * @param firstPage   the first page to fetch, starting from 1
+     */
+    public SearchResultIterator(PageFetcher pageFetcher, int firstPage) {
+        Preconditions.checkNotNull(pageFetcher, "page fetcher must not be null");
+        Preconditions.checkArgument(firstPage >= 1, "first page must be at least 1");
+        this.pageFetcher = pageFetcher;
+        this.nextPage = firstPage;
+    }
+
+    /**
+     * Stop at the first result scoring below minScore. Results are returned in descending score
+     * order, so no later result can score higher. Scores are only returned by ViSearch when the
+     * search params have score enabled.
+     */
+    public SearchResultIterator setMinScore(Float minScore) {
+        this.minScore = minScore;
+        return this;
+    }
+
+    /**
+     * Stop after returning maxCount results.
+     */
+    public SearchResultIterator setMaxCount(int maxCount) {
+        Preconditions.checkArgument(maxCount >= 0, "max count must not be negative");
+        this.maxCount = maxCount;
+        return this;
+    }
+
+    public Float getMinScore() {
+        return minScore;
+    }
+
+    public int getMaxCount() {
+        return maxCount;
+    }
+
+    /**
+     * Get the number of results returned so far.
+     */
+    public int getReturnedCount() {
+        return returned;
+    }
+
+    /**
+     * Get the page whose request failed and ended the iteration, or null if no request failed.
+     */
+    public PagedSearchResult getError() {
+        return error;
+    }
+
+    @Override
+    protected ImageResult computeNext() {
+        if (!started) {
+            started = true;
+            prefetch();
+        }
+        while (true) {
+            if (returned >= maxCount || position >= MAX_RESULT_WINDOW) {
+                close();
+                return endOfData();
+            }
+            if (current.hasNext()) {
+                ImageResult imageResult = current.next();
+                position++;
+                if (minScore != null && imageResult.getScore() != null && imageResult.getScore() < minScore) {
+                    close();
+                    return endOfData();
+                }
+                returned++;
+                return imageResult;
+            }
+            if (pending == null) {
+                return endOfData();
+            }
+            if (!nextPage()) {
+                return endOfData();
+            }
+        }
+    }
+
+    /**
+     * Wait for the pending page, prefetch the page after it if there is one,
+     * and return false if the pending page has no results.
+     */
+    private boolean nextPage() {
+        int page = pendingPage;
+        PagedSearchResult result = await(pending);
+        pending = null;
+        if (result.getErrorMessage() != null) {
+            error = result;
+            return false;
+        }
+        List<ImageResult> results = result.getResult();
+        if (results == null || results.isEmpty()) {
+            return false;
+        }
+        int limit = result.getLimit() != null && result.getLimit() > 0 ? result.getLimit() : results.size();
+        int pageEnd = page * limit;
+        position = pageEnd - limit;
+        current = results.iterator();
+
+        boolean fullPage = results.size() >= limit;
+        boolean moreAvailable = result.getTotal() == null || pageEnd < result.getTotal();
+        boolean moreWanted = returned + results.size() < maxCount;
+        if (fullPage && moreAvailable && moreWanted && pageEnd < MAX_RESULT_WINDOW) {
+            prefetch();
+        }
+        return true;
+    }
+
+    private void prefetch() {
+        final int page = nextPage++;
+        pendingPage = page;
+        pending = PREFETCH_EXECUTOR.submit(new Callable<PagedSearchResult>() {
+            @Override
+            public PagedSearchResult call() {
+                return fetch(page);
+            }
+        });
+    }
+
+    /**
+     * Fetch a page, returning a page that fails with the exception thrown by the fetcher, if any.
+     */
+    private PagedSearchResult fetch(int page) {
+        try {
+            return pageFetcher.fetch(page);
+        } catch (RuntimeException e) {
+            return new PagedSearchResult(e.getMessage(), e, null);
+        }
+    }
+
+    private static PagedSearchResult await(Future<PagedSearchResult> future) {
+        try {
+            return Uninterruptibles.getUninterruptibly(future);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Cancel any page request in flight. Iteration can continue over the results already fetched.
+     */
+    @Override
+    public void close() {
+        if (pending != null) {
+            pending.cancel(true);
+            pending = null;
+        }
+    }
+}
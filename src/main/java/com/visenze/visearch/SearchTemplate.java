@@ -0,0 +1,110 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.Multimap;
+import com.visenze.visearch.internal.http.FormUrlEncoder;
+
+import java.util.Map;
+
+/**
+ * An immutable, pre-encoded query for repeated searches that differ only in im_name and page.
+ *
+ * <p>The fixed parameters are encoded once when the template is compiled. Each search only
+ * encodes im_name and page, appending them to the fixed part in a buffer reused per thread.
+ * A template is thread safe and can be shared by all searching threads.
+ */
+public final class SearchTemplate {
+
+    private static final String IM_NAME = "im_name";
+
+    private static final String PAGE = "page";
+
+    private static final ThreadLocal<StringBuilder> QUERY_BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    private final String encodedQuery;
+
+    private final ResponseProjection requestProjection;
+
+    private final ResponseProjection projection;
+
+    private SearchTemplate(String encodedQuery, ResponseProjection requestProjection, ResponseProjection projection) {
+        this.encodedQuery = encodedQuery;
+        this.requestProjection = requestProjection;
+        this.projection = projection;
+    }
+
+    /**
+     * Compile the parameters of a search into a template. Any im_name or page in the
+     * parameters is ignored, as they are given for each search. Later changes to the
+     * parameters do not affect the template.
+     *
+     * @param searchParams the fixed parameters of the searches
+     * @return the compiled template
+     */
+    public static SearchTemplate compile(BaseSearchParams<?> searchParams) {
+        Preconditions.checkNotNull(searchParams, "search params must not be null");
+        Multimap<String, String> params = searchParams.toMap();
+        StringBuilder buffer = new StringBuilder();
+        for (Map.Entry<String, String> entry : params.entries()) {
+            if (!IM_NAME.equals(entry.getKey()) && !PAGE.equals(entry.getKey())) {
+                FormUrlEncoder.appendParam(buffer, entry.getKey(), entry.getValue());
+            }
+        }
+        // copied, as projections are mutable
+        ResponseProjection projection = searchParams.getProjection();
+        return new SearchTemplate(buffer.toString(), ResponseProjection.of(searchParams),
+                projection == null ? null : new ResponseProjection().intersect(projection));
+    }
+
+    /**
+     * Get the encoded query string of the fixed parameters.
+     */
+    public String getEncodedQuery() {
+        return encodedQuery;
+    }
+
+    /**
+     * Get the projection derived from the parameters, as by {@link ResponseProjection#of}.
+     */
+    public ResponseProjection getRequestProjection() {
+        return requestProjection;
+    }
+
+    /**
+     * Get the projection set on the parameters, or null if none was.
+     */
+    public ResponseProjection getProjection() {
+        return projection;
+    }
+
+    /**
+     * Build the encoded query string of a search. The returned buffer is reused by the next call
+     * on the same thread, so it must be consumed before then.
+     *
+     * @param imName the im_name of the existing image to search with
+     * @param page   the page of results, or null for the first page
+     * @return the encoded query string
+     */
+    public CharSequence buildQuery(String imName, Integer page) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(imName), "im_name must not be null or empty for pre-indexed search.");
+        StringBuilder buffer = QUERY_BUFFER.get();
+        buffer.setLength(0);
+        buffer.append(encodedQuery);
+        FormUrlEncoder.appendParam(buffer, IM_NAME, imName);
+        if (page != null) {
+            buffer.append('&').append(PAGE).append('=').append(page.intValue());
+        }
+        return buffer;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchTemplate{" + encodedQuery + '}';
+    }
+}
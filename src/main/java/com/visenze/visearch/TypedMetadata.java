@@ -0,0 +1,260 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The metadata values of one result, decoded into the types of a {@link MetadataSchema}.
+ * Numeric values are held in primitive arrays, so reading them does not box.
+ */
+public final class TypedMetadata {
+
+    private final MetadataSchema schema;
+
+    private final int[] ints;
+
+    private final boolean[] hasInts;
+
+    private final float[] floats;
+
+    private final String[] strings;
+
+    private final List<String>[] lists;
+
+    private TypedMetadata(Builder builder) {
+        this.schema = builder.schema;
+        this.ints = builder.ints;
+        this.hasInts = builder.hasInts;
+        this.floats = builder.floats;
+        this.strings = builder.strings;
+        this.lists = builder.lists;
+    }
+
+    public MetadataSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Whether a result has a value for a field of the schema.
+     */
+    public boolean has(String field) {
+        MetadataSchema.Field f = schema.field(field);
+        if (f == null) {
+            return false;
+        }
+        switch (f.type) {
+            case INT:
+                return hasInts[f.slot];
+            case FLOAT:
+                return !Float.isNaN(floats[f.slot]);
+            case STRING:
+                return strings[f.slot] != null;
+            default:
+                return lists[f.slot] != null;
+        }
+    }
+
+    public int getInt(String field, int defaultValue) {
+        int slot = slot(field, MetadataSchema.FieldType.INT);
+        return hasInts[slot] ? ints[slot] : defaultValue;
+    }
+
+    /**
+     * Get a float value, or {@link Float#NaN} if the result does not have it.
+     */
+    public float getFloat(String field) {
+        return floats[slot(field, MetadataSchema.FieldType.FLOAT)];
+    }
+
+    public String getString(String field) {
+        return strings[slot(field, MetadataSchema.FieldType.STRING)];
+    }
+
+    public List<String> getList(String field) {
+        return lists[slot(field, MetadataSchema.FieldType.LIST)];
+    }
+
+    /**
+     * Returned by {@link #wholeNumber(double)} and {@link #parseWholeNumber(String)} for a value
+     * that is not an int. It is outside the int range, so it is never a valid value.
+     */
+    static final long NOT_AN_INT = Long.MIN_VALUE;
+
+    /**
+     * Get a number as an int value if it is a whole number in the int range, or
+     * {@link #NOT_AN_INT} rather than truncating it. All int fields take values by this rule.
+     */
+    static long wholeNumber(double value) {
+        if (value == Math.rint(value) && value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            return (long) value;
+        }
+        return NOT_AN_INT;
+    }
+
+    /**
+     * Parse a whole number in the int range, such as "12" or "12.0", or return
+     * {@link #NOT_AN_INT}.
+     */
+    static long parseWholeNumber(String text) {
+        String trimmed = text.trim();
+        try {
+            return Integer.parseInt(trimmed);
+        } catch (NumberFormatException e) {
+            try {
+                return wholeNumber(Double.parseDouble(trimmed));
+            } catch (NumberFormatException notANumber) {
+                return NOT_AN_INT;
+            }
+        }
+    }
+
+    private int slot(String field, MetadataSchema.FieldType type) {
+        MetadataSchema.Field f = schema.field(field);
+        Preconditions.checkArgument(f != null && f.type == type, "field %s is not of type %s in the metadata schema", field, type);
+        return f.slot;
+    }
+
+    /**
+     * Decodes the values of one result. Values that cannot be decoded into the type of their
+     * field are left out, and fields not in the schema are ignored.
+     */
+    public static final class Builder {
+
+        private final MetadataSchema schema;
+
+        private final int[] ints;
+
+        private final boolean[] hasInts;
+
+        private final float[] floats;
+
+        private final String[] strings;
+
+        private final List<String>[] lists;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Builder(MetadataSchema schema) {
+            this.schema = schema;
+            this.ints = new int[schema.slotCount(MetadataSchema.FieldType.INT)];
+            this.hasInts = new boolean[ints.length];
+            this.floats = new float[schema.slotCount(MetadataSchema.FieldType.FLOAT)];
+            Arrays.fill(floats, Float.NaN);
+            this.strings = new String[schema.slotCount(MetadataSchema.FieldType.STRING)];
+            this.lists = new List[schema.slotCount(MetadataSchema.FieldType.LIST)];
+        }
+
+        /**
+         * Get the type of a field, or null if the field is not in the schema.
+         */
+        public MetadataSchema.FieldType typeOf(String field) {
+            return schema.getType(field);
+        }
+
+        public Builder putInt(String field, int value) {
+            MetadataSchema.Field f = schema.field(field);
+            if (f != null) {
+                if (f.type == MetadataSchema.FieldType.INT) {
+                    ints[f.slot] = value;
+                    hasInts[f.slot] = true;
+                } else if (f.type == MetadataSchema.FieldType.FLOAT) {
+                    floats[f.slot] = value;
+                } else {
+                    putText(field, Integer.toString(value));
+                }
+            }
+            return this;
+        }
+
+        public Builder putFloat(String field, float value) {
+            MetadataSchema.Field f = schema.field(field);
+            if (f != null) {
+                if (f.type == MetadataSchema.FieldType.FLOAT) {
+                    floats[f.slot] = value;
+                } else if (f.type == MetadataSchema.FieldType.INT) {
+                    putWholeNumber(f, wholeNumber(value));
+                } else {
+                    putText(field, Float.toString(value));
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Put a value given as text, parsing it into the type of its field.
+         */
+        public Builder putText(String field, String value) {
+            MetadataSchema.Field f = schema.field(field);
+            if (f == null || value == null) {
+                return this;
+            }
+            switch (f.type) {
+                case INT:
+                    putWholeNumber(f, parseWholeNumber(value));
+                    break;
+                case FLOAT:
+                    try {
+                        floats[f.slot] = Float.parseFloat(value.trim());
+                    } catch (NumberFormatException e) {
+                        // left out
+                    }
+                    break;
+                case STRING:
+                    strings[f.slot] = value;
+                    break;
+                default:
+                    lists[f.slot] = Collections.singletonList(value);
+                    break;
+            }
+            return this;
+        }
+
+        /**
+         * Put a value returned by {@link TypedMetadata#wholeNumber(double)} into an int field, or
+         * leave it out if it is {@link TypedMetadata#NOT_AN_INT}.
+         */
+        private void putWholeNumber(MetadataSchema.Field f, long value) {
+            if (value != NOT_AN_INT) {
+                ints[f.slot] = (int) value;
+                hasInts[f.slot] = true;
+            }
+        }
+
+        /**
+         * Put a list of strings that is already decoded and unmodifiable, without copying it.
+         */
+        Builder putDecodedList(String field, List<String> values) {
+            MetadataSchema.Field f = schema.field(field);
+            if (f != null && f.type == MetadataSchema.FieldType.LIST) {
+                lists[f.slot] = values;
+            }
+            return this;
+        }
+
+        public Builder putList(String field, List<?> values) {
+            MetadataSchema.Field f = schema.field(field);
+            if (f == null || values == null) {
+                return this;
+            }
+            if (f.type != MetadataSchema.FieldType.LIST) {
+                if (values.size() == 1 && values.get(0) != null) {
+                    putText(field, values.get(0).toString());
+                }
+                return this;
+            }
+            List<String> list = new ArrayList<String>(values.size());
+            for (Object value : values) {
+                list.add(value == null ? null : value.toString());
+            }
+            lists[f.slot] = Collections.unmodifiableList(list);
+            return this;
+        }
+
+        public TypedMetadata build() {
+            return new TypedMetadata(this);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.visenze.visearch;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.visenze.visearch.internal.*;
 import com.visenze.visearch.internal.http.ViSearchHttpClient;
@@ -9,9 +11,11 @@ import com.visenze.visearch.internal.json.ViSearchModule;
 
 import java.io.InputStream;
 import java.net.URL;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
 
 
 public class ViSearch implements DataOperations, SearchOperations, TrackOperations {
@@ -21,7 +25,7 @@ public class ViSearch implements DataOperations, SearchOperations, TrackOperatio
     /**
      * Default ViSearch API base endpoint.
      */
-    private static final String DEFAULT_VISEARCH_ENDPOINT = "http://visearch.visenze.com";
+    static final String DEFAULT_VISEARCH_ENDPOINT = "http://visearch.visenze.com";
 
     private static final String DEFAULT_TRACKING_ENDPOINT = "http://track.visenze.com";
 
@@ -60,6 +64,11 @@ public class ViSearch implements DataOperations, SearchOperations, TrackOperatio
      */
     private final TrackOperations trackOperations;
 
+    /**
+     * Client config, used for the concurrency of batch APIs.
+     */
+    private final ClientConfig clientConfig;
+
     /**
      * Construct a ViSearch client to call the default ViSearch API endpoint with access key and secret key.
      *
@@ -74,9 +83,18 @@ public class ViSearch implements DataOperations, SearchOperations, TrackOperatio
      * (For testing) stub constructor
      */
     public ViSearch(DataOperations dataOperations, SearchOperations searchOperations, TrackOperations trackOperations) {
+        this(dataOperations, searchOperations, trackOperations, new ClientConfig());
+    }
+
+    /**
+     * (For testing) stub constructor with client config
+     */
+    public ViSearch(DataOperations dataOperations, SearchOperations searchOperations, TrackOperations trackOperations,
+                    ClientConfig clientConfig) {
         this.dataOperations = dataOperations;
         this.searchOperations = searchOperations;
         this.trackOperations = trackOperations;
+        this.clientConfig = clientConfig;
     }
 
     /**
@@ -109,6 +127,7 @@ public class ViSearch implements DataOperations, SearchOperations, TrackOperatio
         this.dataOperations = new DataOperationsImpl(viSearchHttpClient, objectMapper);
         this.searchOperations = new SearchOperationsImpl(viSearchHttpClient, objectMapper);
         this.trackOperations = new TrackOperationsImpl(new ViSearchHttpClientImpl(DEFAULT_TRACKING_ENDPOINT, accessKey, secretKey));
+        this.clientConfig = new ClientConfig();
     }
 
     public ViSearch(String endpoint, String accessKey, String secretKey, ClientConfig clientConfig) {
@@ -124,8 +143,9 @@ public class ViSearch implements DataOperations, SearchOperations, TrackOperatio
         ViSearchHttpClient viSearchHttpClient = new ViSearchHttpClientImpl(endpoint, accessKey, secretKey, clientConfig);
         ObjectMapper objectMapper = new ObjectMapper().registerModule(new ViSearchModule());
         this.dataOperations = new DataOperationsImpl(viSearchHttpClient, objectMapper);
-        this.searchOperations = new SearchOperationsImpl(viSearchHttpClient, objectMapper);
+        this.searchOperations = new SearchOperationsImpl(viSearchHttpClient, objectMapper, clientConfig);
         this.trackOperations = new TrackOperationsImpl(new ViSearchHttpClientImpl(DEFAULT_TRACKING_ENDPOINT, accessKey, secretKey));
+        this.clientConfig = clientConfig;
     }
 
     /**
@@ -175,6 +195,17 @@ public class ViSearch implements DataOperations, SearchOperations, TrackOperatio
         return dataOperations.insertStatus(transId, errorPage, errorLimit);
     }
 
+    /**
+     * Iterate over every error of an insert transaction, fetching large error pages and
+     * prefetching later pages in the background while the current page is consumed.
+     *
+     * @param transId the id of the insert transaction.
+     * @return an iterator over the insert errors
+     */
+    public InsertErrorIterator insertErrorIterator(String transId) {
+        return new InsertErrorIterator(this, transId);
+    }
+
     /**
      * Remove a list of images from the ViSearch App, identified by their im_names.
      *
@@ -202,6 +233,99 @@ public class ViSearch implements DataOperations, SearchOperations, TrackOperatio
         return result;
     }
 
+    /**
+     * Search for similar images given an existing image in the App, handing each result to a
+     * consumer as soon as it is parsed from the response, while the rest is still arriving.
+     *
+     * @param searchParams the search parameters, must contain the im_name of the existing image
+     * @param consumer     the consumer of the results
+     * @return the page of search result, with the fields of the response other than its results
+     */
+    @Override
+    public PagedSearchResult search(SearchParams searchParams, SearchResultConsumer consumer) {
+        PagedSearchResult result = searchOperations.search(searchParams, consumer);
+        if(result!=null && enableAutoSolutionActionTrack) {
+            String reqId = result.getReqId();
+            this.sendSolutionActions("search", reqId);
+        }
+        return result;
+    }
+
+    /**
+     * Search for similar images given an existing image in the App, with the fixed parameters of a
+     * compiled search template.
+     *
+     * @param searchTemplate the compiled fixed search parameters
+     * @param imName         the im_name of the existing image
+     * @param page           the page of results, or null for the first page
+     * @return the page of search result
+     */
+    @Override
+    public PagedSearchResult search(SearchTemplate searchTemplate, String imName, Integer page) {
+        PagedSearchResult result = searchOperations.search(searchTemplate, imName, page);
+        if(result!=null && enableAutoSolutionActionTrack) {
+            String reqId = result.getReqId();
+            this.sendSolutionActions("search", reqId);
+        }
+        return result;
+    }
+
+    /**
+     * Search for similar images given an existing image in the App, filling a reusable result
+     * in place rather than building a new result, for callers at very high rates. The contents
+     * of the result are replaced, see {@link ReusableSearchResult} for when they are valid.
+     *
+     * @param searchParams the search parameters, must contain the im_name of the existing image
+     * @param result       the result to fill
+     * @return the filled result
+     */
+    @Override
+    public ReusableSearchResult search(SearchParams searchParams, ReusableSearchResult result) {
+        searchOperations.search(searchParams, result);
+        if(enableAutoSolutionActionTrack) {
+            this.sendSolutionActions("search", result.getReqId());
+        }
+        return result;
+    }
+
+    /**
+     * Search for similar images given an existing image in the App, with the fixed parameters of a
+     * compiled search template, filling a reusable result in place.
+     *
+     * @param searchTemplate the compiled fixed search parameters
+     * @param imName         the im_name of the existing image
+     * @param page           the page of results, or null for the first page
+     * @param result         the result to fill
+     * @return the filled result
+     */
+    @Override
+    public ReusableSearchResult search(SearchTemplate searchTemplate, String imName, Integer page, ReusableSearchResult result) {
+        searchOperations.search(searchTemplate, imName, page, result);
+        if(enableAutoSolutionActionTrack) {
+            this.sendSolutionActions("search", result.getReqId());
+        }
+        return result;
+    }
+
+    /**
+     * Recommendation for similar images given an existing image in the App, with the fixed parameters
+     * of a compiled search template.
+     *
+     * @param searchTemplate the compiled fixed search parameters
+     * @param imName         the im_name of the existing image
+     * @param page           the page of results, or null for the first page
+     * @return the page of recommendation result
+     */
+    @Override
+    public PagedSearchResult recommendation(SearchTemplate searchTemplate, String imName, Integer page) {
+        PagedSearchResult result = searchOperations.recommendation(searchTemplate, imName, page);
+        if(result!=null && enableAutoSolutionActionTrack) {
+            String reqId = result.getReqId();
+            this.sendSolutionActions("recommendation", reqId);
+        }
+        return result;
+    }
+
     /**
      * Recommendation for similar images from the ViSearch App given an existing image in the App.
      * @param searchParams
@@ -216,6 +340,206 @@ public class ViSearch implements DataOperations, SearchOperations, TrackOperatio
         return result;
     }
 
+    /**
+     * Recommendation for similar images given an existing image in the App, handing each result
+     * to a consumer as soon as it is parsed from the response.
+     *
+     * @param searchParams the search parameters, must contain the im_name of the existing image
+     * @param consumer     the consumer of the results
+     * @return the page of recommendation result, with the fields of the response other than its results
+     */
+    @Override
+    public PagedSearchResult recommendation(SearchParams searchParams, SearchResultConsumer consumer) {
+        PagedSearchResult result = searchOperations.recommendation(searchParams, consumer);
+        if(result!=null && enableAutoSolutionActionTrack) {
+            String reqId = result.getReqId();
+            this.sendSolutionActions("recommendation", reqId);
+        }
+        return result;
+    }
+
+    /**
+     * Iterate over all results of a search, fetching the next page in the background while the
+     * current page is consumed. The page of the search params is updated as pages are fetched,
+     * so the params must not be shared with other searches during iteration.
+     *
+     * @param searchParams the search parameters, must contain the im_name of the existing image
+     * @return an iterator over the search results
+     */
+    public SearchResultIterator searchIterator(final SearchParams searchParams) {
+        return new SearchResultIterator(new SearchResultIterator.PageFetcher() {
+            @Override
+            public PagedSearchResult fetch(int page) {
+                return search(searchParams.setPage(page));
+            }
+        }, firstPage(searchParams));
+    }
+
+    /**
+     * Iterate over all recommendations for an existing image, fetching the next page in the
+     * background while the current page is consumed.
+     *
+     * @param searchParams the search parameters, must contain the im_name of the existing image
+     * @return an iterator over the recommendation results
+     * @see #searchIterator(SearchParams)
+     */
+    public SearchResultIterator recommendationIterator(final SearchParams searchParams) {
+        return new SearchResultIterator(new SearchResultIterator.PageFetcher() {
+            @Override
+            public PagedSearchResult fetch(int page) {
+                return recommendation(searchParams.setPage(page));
+            }
+        }, firstPage(searchParams));
+    }
+
+    private static int firstPage(BaseSearchParams<?> params) {
+        return params.getPage() != null ? params.getPage() : 1;
+    }
+
+    /**
+     * Insert any number of images in batches of 100, with the batch concurrency of the client
+     * config. Use a {@link BulkInserter} to set the batch size, concurrency or rate limit.
+     *
+     * @param images the images to insert
+     * @return the transactions and errors of all batches
+     * @see ClientConfig#getBatchConcurrency()
+     */
+    public BulkInsertResult insertAll(Collection<Image> images) {
+        return new BulkInserter(this).setConcurrency(clientConfig.getBatchConcurrency()).insert(images);
+    }
+
+    /**
+     * Remove any number of images in chunks of 100 im_names, with the batch concurrency of the
+     * client config. Use a {@link BulkRemover} to set the chunk size, concurrency or rate limit.
+     *
+     * @param imNameList the im_names of the images to remove
+     * @return the statuses of all chunks
+     * @see ClientConfig#getBatchConcurrency()
+     */
+    public BulkRemoveResult removeAll(List<String> imNameList) {
+        return new BulkRemover(this).setConcurrency(clientConfig.getBatchConcurrency()).remove(imNameList);
+    }
+
+    /**
+     * Run a batch of searches in parallel, with the batch concurrency of the client config.
+     *
+     * @param searchParamsList the search parameters of each search
+     * @return the search results in the order of the search parameters, and the batch statistics
+     * @see ClientConfig#getBatchConcurrency()
+     */
+    public BatchSearchResult searchAll(Collection<SearchParams> searchParamsList) {
+        return searchAll(searchParamsList, clientConfig.getBatchConcurrency());
+    }
+
+    /**
+     * Run a batch of searches with at most concurrency searches in parallel, and no more than
+     * the max connections of the client config, as further searches would wait for a connection.
+     *
+     * @param searchParamsList the search parameters of each search
+     * @param concurrency      the max number of searches in parallel
+     * @return the search results in the order of the search parameters, and the batch statistics
+     */
+    public BatchSearchResult searchAll(Collection<SearchParams> searchParamsList, int concurrency) {
+        Preconditions.checkNotNull(searchParamsList, "search params list must not be null");
+        List<Callable<PagedSearchResult>> tasks = Lists.newArrayListWithCapacity(searchParamsList.size());
+        for (final SearchParams searchParams : searchParamsList) {
+            tasks.add(new Callable<PagedSearchResult>() {
+                @Override
+                public PagedSearchResult call() {
+                    return search(searchParams);
+                }
+            });
+        }
+        return executeBatch(tasks, concurrency);
+    }
+
+    /**
+     * Run a batch of recommendations in parallel, with the batch concurrency of the client config.
+     *
+     * @param searchParamsList the search parameters of each recommendation
+     * @return the recommendation results in the order of the search parameters, and the batch statistics
+     * @see ClientConfig#getBatchConcurrency()
+     */
+    public BatchSearchResult recommendationAll(Collection<SearchParams> searchParamsList) {
+        return recommendationAll(searchParamsList, clientConfig.getBatchConcurrency());
+    }
+
+    /**
+     * Run a batch of recommendations with at most concurrency recommendations in parallel, and
+     * no more than the max connections of the client config, as further recommendations would
+     * wait for a connection.
+     *
+     * @param searchParamsList the search parameters of each recommendation
+     * @param concurrency      the max number of recommendations in parallel
+     * @return the recommendation results in the order of the search parameters, and the batch statistics
+     */
+    public BatchSearchResult recommendationAll(Collection<SearchParams> searchParamsList, int concurrency) {
+        Preconditions.checkNotNull(searchParamsList, "search params list must not be null");
+        List<Callable<PagedSearchResult>> tasks = Lists.newArrayListWithCapacity(searchParamsList.size());
+        for (final SearchParams searchParams : searchParamsList) {
+            tasks.add(new Callable<PagedSearchResult>() {
+                @Override
+                public PagedSearchResult call() {
+                    return recommendation(searchParams);
+                }
+            });
+        }
+        return executeBatch(tasks, concurrency);
+    }
+
+    /**
+     * Run a batch of upload searches in parallel, with the batch concurrency of the client config.
+     *
+     * @param uploadSearchParamsList the upload search parameters of each search
+     * @return the search results in the order of the search parameters, and the batch statistics
+     * @see ClientConfig#getBatchConcurrency()
+     */
+    public BatchSearchResult uploadSearchAll(Collection<UploadSearchParams> uploadSearchParamsList) {
+        return uploadSearchAll(uploadSearchParamsList, clientConfig.getBatchConcurrency());
+    }
+
+    /**
+     * Run a batch of upload searches with at most concurrency searches in parallel, and no more
+     * than the max connections of the client config, as further searches would wait for a connection.
+     *
+     * @param uploadSearchParamsList the upload search parameters of each search
+     * @param concurrency            the max number of searches in parallel
+     * @return the search results in the order of the search parameters, and the batch statistics
+     */
+    public BatchSearchResult uploadSearchAll(Collection<UploadSearchParams> uploadSearchParamsList, int concurrency) {
+        Preconditions.checkNotNull(uploadSearchParamsList, "upload search params list must not be null");
+        List<Callable<PagedSearchResult>> tasks = Lists.newArrayListWithCapacity(uploadSearchParamsList.size());
+        for (final UploadSearchParams uploadSearchParams : uploadSearchParamsList) {
+            tasks.add(new Callable<PagedSearchResult>() {
+                @Override
+                public PagedSearchResult call() {
+                    return uploadSearch(uploadSearchParams);
+                }
+            });
+        }
+        return executeBatch(tasks, concurrency);
+    }
+
+    private BatchSearchResult executeBatch(List<Callable<PagedSearchResult>> tasks, int concurrency) {
+        Preconditions.checkArgument(concurrency > 0, "concurrency must be positive");
+        int workers = Math.max(1, Math.min(concurrency, clientConfig.getMaxConnection()));
+        BatchExecutor.Outcome<PagedSearchResult> outcome = new BatchExecutor(workers).execute(tasks);
+        List<PagedSearchResult> results = Lists.newArrayListWithCapacity(outcome.size());
+        int failureCount = 0;
+        for (int i = 0; i < outcome.size(); i++) {
+            PagedSearchResult result = outcome.getResult(i);
+            if (result == null) {
+                Throwable failure = outcome.getFailure(i);
+                result = new PagedSearchResult(failure == null ? null : failure.getMessage(), failure, null);
+            }
+            if (result.getErrorMessage() != null || result.getCause() != null) {
+                failureCount++;
+            }
+            results.add(result);
+        }
+        return new BatchSearchResult(results, new BatchStats(failureCount, outcome.getElapsedNanos(), outcome.getLatencyNanos()));
+    }
+
     /**
      * Search for similar images from the ViSearch App given a hex color.
      *
@@ -248,6 +572,24 @@ public class ViSearch implements DataOperations, SearchOperations, TrackOperatio
         return result;
     }
 
+    /**
+     * Search for similar images given an image file or url, handing each result to a consumer
+     * as soon as it is parsed from the response.
+     *
+     * @param uploadSearchParams the upload search parameters, must contain a image file or a url
+     * @param consumer           the consumer of the results
+     * @return the page of upload search result, with the fields of the response other than its results
+     */
+    @Override
+    public PagedSearchResult uploadSearch(UploadSearchParams uploadSearchParams, SearchResultConsumer consumer) {
+        PagedSearchResult result = searchOperations.uploadSearch(uploadSearchParams, consumer);
+        if(result!=null && enableAutoSolutionActionTrack) {
+            String reqId = result.getReqId();
+            this.sendSolutionActions("uploadsearch", reqId);
+        }
+        return result;
+    }
+
     /**
      * Detect multiple objects and search for similar images from the ViSearch App
      * The input will be an image file or url.
@@ -265,6 +607,24 @@ public class ViSearch implements DataOperations, SearchOperations, TrackOperatio
         return result;
     }
 
+    /**
+     * Detect multiple objects and search for similar images given an image file or url, handing
+     * each detected object to a consumer as soon as it is parsed from the response.
+     *
+     * @param discoverSearchParams the upload search parameters, must contain a image file or a url
+     * @param consumer             the consumer of the objects
+     * @return the page of discover search result, with the fields of the response other than its objects
+     */
+    @Override
+    public PagedSearchResult discoverSearch(UploadSearchParams discoverSearchParams, SearchResultConsumer consumer) {
+        PagedSearchResult result = searchOperations.discoverSearch(discoverSearchParams, consumer);
+        if(result!=null && enableAutoSolutionActionTrack) {
+            String reqId = result.getReqId();
+            this.sendSolutionActions("discoversearch", reqId);
+        }
+        return result;
+    }
+
     /**
      * Detect multiple objects and search for similar images from the ViSearch App
      * The input will be an image file or url.
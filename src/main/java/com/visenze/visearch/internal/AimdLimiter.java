@@ -0,0 +1,123 @@
+package com.visenze.visearch.internal;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Adapts a batch size and a concurrency limit to the observed outcome of batch requests, with
+ * additive increase and multiplicative decrease.
+ *
+ * <p>A request is congested if it failed, took longer than the target latency, or had a higher
+ * error rate than the max error rate. Each congested request halves the batch size and the
+ * concurrency, except that requests whose batch was filled before the last decrease are ignored,
+ * as they were sized with the old limits. After a round of requests without congestion, one per
+ * concurrent request, the batch size grows by {@link #BATCH_SIZE_STEP} and the concurrency by
+ * one, up to their max. Both start at half of their max.
+ */
+public class AimdLimiter {
+
+    public static final int BATCH_SIZE_STEP = 10;
+
+    private final int maxBatchSize;
+
+    private final int maxConcurrency;
+
+    private final long targetLatencyNanos;
+
+    private final double maxErrorRate;
+
+    private int batchSize;
+
+    private int concurrency;
+
+    private int active;
+
+    private int successes;
+
+    private long epoch;
+
+    private int decreaseCount;
+
+    /**
+     * @param maxBatchSize       the max batch size
+     * @param maxConcurrency     the max number of concurrent requests
+     * @param targetLatencyNanos the latency above which a request is congested
+     * @param maxErrorRate       the rate of errors in a batch above which a request is congested
+     */
+    public AimdLimiter(int maxBatchSize, int maxConcurrency, long targetLatencyNanos, double maxErrorRate) {
+        Preconditions.checkArgument(maxBatchSize > 0, "max batch size must be positive");
+        Preconditions.checkArgument(maxConcurrency > 0, "max concurrency must be positive");
+        this.maxBatchSize = maxBatchSize;
+        this.maxConcurrency = maxConcurrency;
+        this.targetLatencyNanos = targetLatencyNanos;
+        this.maxErrorRate = maxErrorRate;
+        this.batchSize = Math.max(1, (maxBatchSize + 1) / 2);
+        this.concurrency = Math.max(1, (maxConcurrency + 1) / 2);
+    }
+
+    public synchronized int getBatchSize() {
+        return batchSize;
+    }
+
+    public synchronized int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Get the token of the current limits, to release a request whose batch is filled now with.
+     */
+    public synchronized long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Get the number of times the limits were decreased.
+     */
+    public synchronized int getDecreaseCount() {
+        return decreaseCount;
+    }
+
+    /**
+     * Wait until fewer requests than the concurrency limit are running, and start one.
+     */
+    public synchronized void acquire() {
+        boolean interrupted = false;
+        while (active >= concurrency) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        active++;
+    }
+
+    /**
+     * End a request and adapt the limits to its outcome.
+     *
+     * @param token        the epoch when the batch of the request was filled
+     * @param latencyNanos the latency of the request
+     * @param failed       whether the request failed
+     * @param errorRate    the rate of errors of the items of the batch
+     */
+    public synchronized void release(long token, long latencyNanos, boolean failed, double errorRate) {
+        active--;
+        boolean congested = failed || latencyNanos > targetLatencyNanos || errorRate > maxErrorRate;
+        if (congested) {
+            if (token == epoch) {
+                batchSize = Math.max(1, batchSize / 2);
+                concurrency = Math.max(1, concurrency / 2);
+                epoch++;
+                decreaseCount++;
+                successes = 0;
+            }
+        } else if (++successes >= concurrency) {
+            batchSize = Math.min(maxBatchSize, batchSize + BATCH_SIZE_STEP);
+            concurrency = Math.min(maxConcurrency, concurrency + 1);
+            successes = 0;
+        }
+        notifyAll();
+    }
+}
@@ -1,9 +1,9 @@
 package com.visenze.visearch.internal;
 
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.type.CollectionType;
-import com.fasterxml.jackson.databind.type.MapType;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.type.TypeFactory;
 import com.visenze.visearch.*;
 import com.visenze.visearch.internal.constant.ViSearchHttpConstants;
@@ -11,17 +11,69 @@ import com.visenze.visearch.internal.http.ViSearchHttpClient;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 class BaseViSearchOperations {
 
     final ViSearchHttpClient viSearchHttpClient;
     final ObjectMapper objectMapper;
 
+    // readers are immutable and thread safe, so one is built per result type and reused
+    private final ConcurrentMap<Class<?>, ObjectReader> objectReaders = new ConcurrentHashMap<Class<?>, ObjectReader>();
+    private final ConcurrentMap<Class<?>, ObjectReader> listReaders = new ConcurrentHashMap<Class<?>, ObjectReader>();
+    // keyed by the (key class, value class) pair, so that no type is built to look a reader up
+    private final ConcurrentMap<List<Class<?>>, ObjectReader> mapReaders = new ConcurrentHashMap<List<Class<?>>, ObjectReader>();
+
+    private MetadataSchema metadataSchema;
+
     BaseViSearchOperations(ViSearchHttpClient viSearchHttpClient, ObjectMapper objectMapper) {
         this.viSearchHttpClient = viSearchHttpClient;
         this.objectMapper = objectMapper;
     }
 
+    /**
+     * Set the schema the readers decode typed metadata values with. Must be set before the
+     * first response is read.
+     */
+    void setMetadataSchema(MetadataSchema metadataSchema) {
+        this.metadataSchema = metadataSchema;
+    }
+
+    ObjectReader objectReader(Class<?> clazz) {
+        ObjectReader reader = objectReaders.get(clazz);
+        if (reader == null) {
+            reader = cacheReader(objectReaders, clazz, TypeFactory.defaultInstance().constructType(clazz));
+        }
+        return reader;
+    }
+
+    ObjectReader listReader(Class<?> clazz) {
+        ObjectReader reader = listReaders.get(clazz);
+        if (reader == null) {
+            reader = cacheReader(listReaders, clazz, TypeFactory.defaultInstance().constructCollectionType(List.class, clazz));
+        }
+        return reader;
+    }
+
+    ObjectReader mapReader(Class<?> keyClass, Class<?> valueClass) {
+        List<Class<?>> key = Arrays.<Class<?>>asList(keyClass, valueClass);
+        ObjectReader reader = mapReaders.get(key);
+        if (reader == null) {
+            reader = cacheReader(mapReaders, key, TypeFactory.defaultInstance().constructMapType(HashMap.class, keyClass, valueClass));
+        }
+        return reader;
+    }
+
+    private <K> ObjectReader cacheReader(ConcurrentMap<K, ObjectReader> cache, K key, JavaType type) {
+        ObjectReader reader = objectMapper.readerFor(type);
+        if (metadataSchema != null) {
+            reader = reader.withAttribute(MetadataSchema.class, metadataSchema);
+        }
+        ObjectReader existing = cache.putIfAbsent(key, reader);
+        return existing != null ? existing : reader;
+    }
+
     protected FeatureResponseResult deserializeFeatureResponseResult(String rawResponse, JsonNode node) {
         JsonNode methodNode = node.get(ViSearchHttpConstants.METHOD);
         if (methodNode == null) {
@@ -91,7 +143,7 @@ class BaseViSearchOperations {
 
     <T> T deserializeObjectResult(String rawResponse, String json, Class<T> clazz) {
         try {
-            return objectMapper.reader(clazz).readValue(json);
+            return objectReader(clazz).readValue(json);
         } catch (IOException e) {
             throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, rawResponse);
             // throw new ViSearchException("Could not parse the ViSearch response for " +
@@ -101,21 +153,17 @@ class BaseViSearchOperations {
 
     @SuppressWarnings("unchecked")
     <T> List<T> deserializeListResult(String rawResponse, JsonNode node, Class<T> clazz) {
-        String json = node.toString();
         try {
-            CollectionType listType = TypeFactory.defaultInstance().constructCollectionType(List.class, clazz);
-            return (List<T>) objectMapper.readerFor(listType).readValue(json);
+            return (List<T>) listReader(clazz).readValue(node);
         } catch (IOException e) {
             throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, rawResponse);
         }
     }
 
     @SuppressWarnings("unchecked")
-    <T, U> Map<T, U> deserializeMapResult(String rawResponse, JsonNode node, Class<T> keyClass, Class<T> valueClass) {
-        String json = node.toString();
+    <T, U> Map<T, U> deserializeMapResult(String rawResponse, JsonNode node, Class<T> keyClass, Class<U> valueClass) {
         try {
-            MapType mapType = TypeFactory.defaultInstance().constructMapType(HashMap.class, keyClass, valueClass);
-            return (Map<T, U>) objectMapper.readerFor(mapType).readValue(node);
+            return (Map<T, U>) mapReader(keyClass, valueClass).readValue(node);
         } catch (IOException e) {
             throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, rawResponse);
         }
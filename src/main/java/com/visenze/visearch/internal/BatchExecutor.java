@@ -0,0 +1,153 @@
+package com.visenze.visearch.internal;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a list of tasks with bounded concurrency, keeping each task's result, failure and latency
+ * at the task's index. A failing task does not affect the other tasks.
+ *
+ * <p>The tasks run on a pool of daemon threads shared by all executors, which keeps idle threads
+ * for a minute, so batches run one after another reuse their threads. The concurrency is bounded
+ * by the number of workers a batch submits to the pool.
+ */
+public class BatchExecutor {
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("visearch-batch-%d").build());
+
+    private final int concurrency;
+
+    public BatchExecutor(int concurrency) {
+        Preconditions.checkArgument(concurrency > 0, "concurrency must be positive");
+        this.concurrency = concurrency;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Run all tasks and wait for them to finish. If the calling thread is interrupted, the running
+     * tasks are interrupted and waited for, tasks that have not finished are failed with the
+     * {@link InterruptedException}, and the interrupt status is restored.
+     */
+    public <T> Outcome<T> execute(final List<? extends Callable<T>> tasks) {
+        final Outcome<T> outcome = new Outcome<T>(tasks.size());
+        if (tasks.isEmpty()) {
+            return outcome;
+        }
+        int workers = Math.min(concurrency, tasks.size());
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(workers);
+        // the threads of the running workers, to interrupt them
+        final Set<Thread> running = new HashSet<Thread>();
+        long start = System.nanoTime();
+        for (int w = 0; w < workers; w++) {
+            EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (running) {
+                        running.add(Thread.currentThread());
+                    }
+                    try {
+                        int index;
+                        while ((index = next.getAndIncrement()) < tasks.size()) {
+                            if (Thread.currentThread().isInterrupted()) {
+                                outcome.failures[index] = new InterruptedException();
+                                continue;
+                            }
+                            long taskStart = System.nanoTime();
+                            try {
+                                outcome.results[index] = tasks.get(index).call();
+                            } catch (Exception e) {
+                                outcome.failures[index] = e;
+                            }
+                            outcome.latencyNanos[index] = System.nanoTime() - taskStart;
+                        }
+                    } finally {
+                        synchronized (running) {
+                            running.remove(Thread.currentThread());
+                        }
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            // workers not started yet find no task left
+            next.set(tasks.size());
+            synchronized (running) {
+                for (Thread thread : running) {
+                    thread.interrupt();
+                }
+            }
+            // the outcome is only read once no worker writes to it
+            Uninterruptibles.awaitUninterruptibly(done);
+            Thread.currentThread().interrupt();
+            for (int i = 0; i < tasks.size(); i++) {
+                if (outcome.results[i] == null && outcome.failures[i] == null) {
+                    outcome.failures[i] = e;
+                }
+            }
+        }
+        outcome.elapsedNanos = System.nanoTime() - start;
+        return outcome;
+    }
+
+    /**
+     * Results, failures and latencies of a batch, indexed by task.
+     */
+    public static class Outcome<T> {
+
+        private final Object[] results;
+        private final Throwable[] failures;
+        private final long[] latencyNanos;
+        private long elapsedNanos;
+
+        Outcome(int size) {
+            this.results = new Object[size];
+            this.failures = new Throwable[size];
+            this.latencyNanos = new long[size];
+        }
+
+        public int size() {
+            return latencyNanos.length;
+        }
+
+        /**
+         * Get the result of the task at index, or null if the task failed.
+         */
+        @SuppressWarnings("unchecked")
+        public T getResult(int index) {
+            return (T) results[index];
+        }
+
+        /**
+         * Get the exception thrown by the task at index, or null if the task succeeded.
+         */
+        public Throwable getFailure(int index) {
+            return failures[index];
+        }
+
+        public long[] getLatencyNanos() {
+            return latencyNanos;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+    }
+}
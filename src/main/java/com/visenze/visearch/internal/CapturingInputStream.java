@@ -0,0 +1,60 @@
+package com.visenze.visearch.internal;
+
+import com.google.common.base.Charsets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Keeps a copy of the first bytes read from a stream, so that a response streamed to a parser
+ * can still be reported when it fails to parse, such as an error page that is not JSON.
+ */
+class CapturingInputStream extends FilterInputStream {
+
+    private final ByteArrayOutputStream captured = new ByteArrayOutputStream();
+
+    private final int limit;
+
+    /**
+     * @param limit the max number of bytes kept
+     */
+    CapturingInputStream(InputStream in, int limit) {
+        super(in);
+        this.limit = limit;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1 && captured.size() < limit) {
+            captured.write(b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int count = super.read(b, off, len);
+        if (count > 0 && captured.size() < limit) {
+            captured.write(b, off, Math.min(count, limit - captured.size()));
+        }
+        return count;
+    }
+
+    /**
+     * Read the rest of the stream up to the limit, and decode the bytes kept as UTF-8.
+     */
+    String drain() {
+        byte[] buffer = new byte[4096];
+        try {
+            while (captured.size() < limit && read(buffer) != -1) {
+                // keep reading what follows the part that failed to parse
+            }
+        } catch (IOException e) {
+            // the part read so far is reported
+        }
+        return new String(captured.toByteArray(), Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,134 @@
+package com.visenze.visearch.internal;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.visenze.visearch.ImageResultColumns;
+import com.visenze.visearch.ImageResultColumns.ColumnBuilder;
+import com.visenze.visearch.ImageResultColumns.MetadataColumn;
+import com.visenze.visearch.MetadataSchema;
+import com.visenze.visearch.ResponseProjection;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes the result array of a search response from the parser tokens straight into
+ * {@link ImageResultColumns}, without creating a tree node or an {@link com.visenze.visearch.ImageResult}
+ * per result. Used by {@link SearchResponseReader} in columnar mode.
+ *
+ * <p>A decoder decodes one result array.
+ */
+class ColumnarResultDecoder {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final ObjectMapper objectMapper;
+
+    private final ResponseProjection projection;
+
+    private final MetadataSchema metadataSchema;
+
+    /**
+     * @param projection     the metadata fields to decode, or null for all of them
+     * @param metadataSchema the schema the typed metadata of the results is decoded with, or null
+     */
+    ColumnarResultDecoder(ObjectMapper objectMapper, ResponseProjection projection, MetadataSchema metadataSchema) {
+        this.objectMapper = objectMapper;
+        this.projection = projection;
+        this.metadataSchema = metadataSchema;
+    }
+
+    /**
+     * Decode the array at the current token of the parser, leaving the parser at its end.
+     * Metadata values that are not strings are kept as their JSON text, and null values
+     * are left out.
+     */
+    ImageResultColumns decode(JsonParser p) throws IOException {
+        if (p.getCurrentToken() != JsonToken.START_ARRAY) {
+            throw new JsonParseException(p, "Expected an array of results");
+        }
+        String[] imNames = new String[INITIAL_CAPACITY];
+        float[] scores = new float[INITIAL_CAPACITY];
+        BitSet hasMetadata = new BitSet();
+        Map<String, ColumnBuilder> builders = new LinkedHashMap<String, ColumnBuilder>();
+        int size = 0;
+        while (p.nextToken() == JsonToken.START_OBJECT) {
+            if (size == imNames.length) {
+                imNames = Arrays.copyOf(imNames, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            scores[size] = Float.NaN;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                JsonToken token = p.nextToken();
+                if ("im_name".equals(field)) {
+                    imNames[size] = token == JsonToken.VALUE_NULL ? null : p.getText();
+                } else if ("score".equals(field)) {
+                    scores[size] = readScore(p, token);
+                } else if ("value_map".equals(field) && token == JsonToken.START_OBJECT) {
+                    hasMetadata.set(size);
+                    readMetadata(p, size, builders);
+                } else {
+                    p.skipChildren();
+                }
+            }
+            size++;
+        }
+        SearchResponseReader.checkArrayEnd(p);
+        List<MetadataColumn> columns = new ArrayList<MetadataColumn>(builders.size());
+        for (ColumnBuilder builder : builders.values()) {
+            columns.add(builder.build(size));
+        }
+        return new ImageResultColumns(size, imNames, scores, hasMetadata, columns, metadataSchema);
+    }
+
+    /**
+     * Read a score given as a number or as text, or NaN if it is neither.
+     */
+    static float readScore(JsonParser p, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NUMBER_FLOAT || token == JsonToken.VALUE_NUMBER_INT) {
+            return p.getFloatValue();
+        }
+        if (token == JsonToken.VALUE_STRING) {
+            try {
+                return Float.parseFloat(p.getText().trim());
+            } catch (NumberFormatException e) {
+                return Float.NaN;
+            }
+        }
+        p.skipChildren();
+        return Float.NaN;
+    }
+
+    private void readMetadata(JsonParser p, int row, Map<String, ColumnBuilder> builders) throws IOException {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String key = p.getCurrentName();
+            JsonToken token = p.nextToken();
+            String value;
+            if (token == JsonToken.VALUE_NULL) {
+                continue;
+            } else if (projection != null && !projection.includesMetadata(key)) {
+                p.skipChildren();
+                continue;
+            } else if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                // containers are kept as their JSON text
+                value = objectMapper.readTree(p).toString();
+            } else {
+                value = p.getText();
+            }
+            ColumnBuilder builder = builders.get(key);
+            if (builder == null) {
+                builder = new ColumnBuilder(key, Math.max(row + 1, INITIAL_CAPACITY));
+                builders.put(key, builder);
+            }
+            builder.set(row, value);
+        }
+    }
+}
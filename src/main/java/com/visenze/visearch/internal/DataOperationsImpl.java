@@ -10,6 +10,7 @@ import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
 import com.visenze.visearch.*;
 import com.visenze.visearch.internal.http.ViSearchHttpClient;
+import com.visenze.visearch.internal.http.StreamingFormEntity;
 import com.visenze.visearch.internal.http.ViSearchHttpResponse;
 
 import java.io.IOException;
@@ -34,11 +35,7 @@ public class DataOperationsImpl extends BaseViSearchOperations implements DataOp
         Preconditions.checkNotNull(customParams, "custom params must not be null");
 
         try {
-            Multimap<String, String> params = imageListToParams(imageList);
-            for (Map.Entry<String, String> entry : customParams.entrySet()) {
-                params.put(entry.getKey(), entry.getValue());
-            }
-            ViSearchHttpResponse httpResponse = viSearchHttpClient.post("/insert", params);
+            ViSearchHttpResponse httpResponse = viSearchHttpClient.postEntity("/insert", new InsertFormEntity(imageList, customParams));
             String response = httpResponse.getBody();
             Map<String, String> headers = httpResponse.getHeaders();
             try {
@@ -162,24 +159,6 @@ public class DataOperationsImpl extends BaseViSearchOperations implements DataOp
         }
     }
 
-    private static Multimap<String, String> imageListToParams(List<Image> imageList) {
-        Multimap<String, String> params = HashMultimap.create();
-        for (int i = 0; i < imageList.size(); i++) {
-            Image image = imageList.get(i);
-            if (image != null) {
-                params.put("im_name" + "[" + i + "]", image.getImName());
-                params.put("im_url" + "[" + i + "]", image.getImUrl());
-                Map<String, String> metadata = image.getMetadata();
-                if (metadata != null) {
-                    for (Map.Entry<String, String> entry : metadata.entrySet()) {
-                        params.put(entry.getKey() + "[" + i + "]", entry.getValue());
-                    }
-                }
-            }
-        }
-        return params;
-    }
-
     private static Map<String, String> imageNameListToParams(List<String> imNameList) {
         Map<String, String> params = new HashMap<String, String>();
         for (int i = 0; i < imNameList.size(); i++) {
@@ -191,4 +170,40 @@ public class DataOperationsImpl extends BaseViSearchOperations implements DataOp
         return params;
     }
 
+    /**
+     * The form of an insert request, with the fields of each image named with its index, e.g.
+     * {@code im_name[0]}, encoded as it is sent.
+     */
+    private static class InsertFormEntity extends StreamingFormEntity {
+
+        private final List<Image> imageList;
+
+        private final Map<String, String> customParams;
+
+        InsertFormEntity(List<Image> imageList, Map<String, String> customParams) {
+            this.imageList = imageList;
+            this.customParams = customParams;
+        }
+
+        @Override
+        protected void writeParams(Params params) throws IOException {
+            for (int i = 0; i < imageList.size(); i++) {
+                Image image = imageList.get(i);
+                if (image != null) {
+                    params.add("im_name", i, image.getImName());
+                    params.add("im_url", i, image.getImUrl());
+                    Map<String, String> metadata = image.getMetadata();
+                    if (metadata != null) {
+                        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+                            params.add(entry.getKey(), i, entry.getValue());
+                        }
+                    }
+                }
+            }
+            for (Map.Entry<String, String> entry : customParams.entrySet()) {
+                params.add(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
 }
@@ -0,0 +1,77 @@
+package com.visenze.visearch.internal;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replaces a file with a new version written and synced next to it, so that a crash at any point
+ * leaves either the old or the new version, also on platforms where renaming over an existing
+ * file fails.
+ *
+ * <p>Where that rename fails, the old version is first renamed to a backup file, the new version
+ * is renamed in its place, and the backup is deleted. A crash between the two renames leaves only
+ * the backup, which {@link #recover(File)} renames back before the file is read.
+ */
+public final class FileReplacer {
+
+    private FileReplacer() {
+    }
+
+    /**
+     * Get the file to write the new version of a file to.
+     */
+    public static File tempFile(File file) {
+        return new File(file.getPath() + ".tmp");
+    }
+
+    static File backupFile(File file) {
+        return new File(file.getPath() + ".bak");
+    }
+
+    /**
+     * Rename the new version of a file over it.
+     *
+     * @param tmp  the new version, written to {@link #tempFile(File)} and synced
+     * @param file the file to replace
+     * @throws IOException if the file could not be replaced, in which case the old version is kept
+     */
+    public static void replace(File tmp, File file) throws IOException {
+        if (tmp.renameTo(file)) {
+            return;
+        }
+        File backup = backupFile(file);
+        if (backup.exists() && !backup.delete()) {
+            throw new IOException("Could not delete backup " + backup);
+        }
+        if (file.exists() && !file.renameTo(backup)) {
+            throw new IOException("Could not replace " + file);
+        }
+        if (!tmp.renameTo(file)) {
+            if (!backup.renameTo(file)) {
+                throw new IOException("Could not replace " + file + ", its previous version is " + backup);
+            }
+            throw new IOException("Could not replace " + file);
+        }
+        // a backup left by a crash here is deleted by the next recover
+        backup.delete();
+    }
+
+    /**
+     * Restore the old version of a file if a crash interrupted its replacement after the old
+     * version was moved aside, and delete the backup otherwise. Call before reading the file.
+     *
+     * @throws IOException if the old version could not be restored
+     */
+    public static void recover(File file) throws IOException {
+        File backup = backupFile(file);
+        if (!backup.exists()) {
+            return;
+        }
+        if (file.exists()) {
+            // the new version was renamed in place
+            backup.delete();
+        } else if (!backup.renameTo(file)) {
+            throw new IOException("Could not restore " + file + " from " + backup);
+        }
+    }
+}
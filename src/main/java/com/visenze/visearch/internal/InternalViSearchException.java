@@ -11,6 +11,11 @@ public class InternalViSearchException extends RuntimeException {
         this.serverRawResponse = serverRawResponse;
     }
 
+    public InternalViSearchException(String message, Throwable cause, String serverRawResponse) {
+        super(message, cause);
+        this.serverRawResponse = serverRawResponse;
+    }
+
     public InternalViSearchException(ResponseMessages responseMessages) {
         super(responseMessages.getMessage());
     }
@@ -0,0 +1,75 @@
+package com.visenze.visearch.internal;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.visenze.visearch.ImageResult;
+import com.visenze.visearch.MetadataDictionary;
+import com.visenze.visearch.MetadataSchema;
+import com.visenze.visearch.ResponseProjection;
+import com.visenze.visearch.TypedMetadata;
+
+import java.util.Map;
+
+/**
+ * An image result that keeps the span of its value_map in the response, and decodes the
+ * metadata on first access. Its typed metadata values are decoded from the metadata, and the
+ * fields left out by a projection are dropped.
+ */
+class LazyImageResult extends ImageResult {
+
+    private final ObjectReader reader;
+
+    private final MetadataDictionary dictionary;
+
+    private final MetadataSchema schema;
+
+    private final ResponseProjection projection;
+
+    private String response;
+
+    private final int start;
+
+    private final int end;
+
+    private Map<String, String> metadata;
+
+    private TypedMetadata typedMetadata;
+
+    LazyImageResult(String imName, Float score, ObjectReader reader, MetadataDictionary dictionary,
+                    MetadataSchema schema, ResponseProjection projection, String response, int start, int end) {
+        super(imName, null, score);
+        this.reader = reader;
+        this.dictionary = dictionary;
+        this.schema = schema;
+        this.projection = projection;
+        this.response = start < 0 ? null : response;
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    public synchronized Map<String, String> getMetadata() {
+        if (response != null) {
+            Map<String, Object> values = SearchResponseReader.decodeSpan(reader, response, start, end);
+            MetadataDictionary.MapBuilder builder = dictionary.newMap();
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                if (projection == null || projection.includesMetadata(entry.getKey())) {
+                    builder.put(entry.getKey(), entry.getValue());
+                }
+            }
+            metadata = builder.build();
+            response = null;
+        }
+        return metadata;
+    }
+
+    @Override
+    public synchronized TypedMetadata getTypedMetadata() {
+        if (typedMetadata == null && schema != null) {
+            Map<String, String> values = getMetadata();
+            if (values != null) {
+                typedMetadata = schema.decode(values);
+            }
+        }
+        return typedMetadata;
+    }
+}
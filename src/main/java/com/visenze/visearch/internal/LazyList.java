@@ -0,0 +1,49 @@
+package com.visenze.visearch.internal;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A list that keeps the span of its JSON array in the response, and decodes the whole array
+ * on first access.
+ */
+class LazyList<T> extends AbstractList<T> implements RandomAccess {
+
+    private final ObjectReader reader;
+
+    private String response;
+
+    private final int start;
+
+    private final int end;
+
+    private List<T> list;
+
+    LazyList(ObjectReader reader, String response, int start, int end) {
+        this.reader = reader;
+        this.response = response;
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    public T get(int index) {
+        return decoded().get(index);
+    }
+
+    @Override
+    public int size() {
+        return decoded().size();
+    }
+
+    private synchronized List<T> decoded() {
+        if (list == null) {
+            list = SearchResponseReader.decodeSpan(reader, response, start, end);
+            response = null;
+        }
+        return list;
+    }
+}
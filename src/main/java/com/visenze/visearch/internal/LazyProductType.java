@@ -0,0 +1,68 @@
+package com.visenze.visearch.internal;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.visenze.visearch.ProductType;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A detected product type that keeps the spans of its attributes in the response, and
+ * decodes them on first access.
+ */
+class LazyProductType extends ProductType {
+
+    private final ObjectReader reader;
+
+    private final String response;
+
+    private final int[] attributesSpan;
+
+    private final int[] attributesListSpan;
+
+    private Map<String, List<String>> attributes;
+
+    private Map<String, List<String>> attributesList;
+
+    private boolean attributesDecoded;
+
+    private boolean attributesListDecoded;
+
+    /**
+     * @param attributesSpan     the start and end of the attributes, or -1 if absent
+     * @param attributesListSpan the start and end of the attributes_list, or -1 if absent
+     */
+    LazyProductType(String type, Float score, List<Integer> box, ObjectReader reader, String response,
+                    int[] attributesSpan, int[] attributesListSpan) {
+        super(type, score, box, null, null);
+        this.reader = reader;
+        this.response = response;
+        this.attributesSpan = attributesSpan;
+        this.attributesListSpan = attributesListSpan;
+    }
+
+    @Override
+    public synchronized Map<String, List<String>> getAttributes() {
+        if (!attributesDecoded) {
+            attributes = decode(attributesSpan);
+            attributesDecoded = true;
+        }
+        return attributes;
+    }
+
+    @Override
+    public synchronized Map<String, List<String>> getAttributesList() {
+        if (!attributesListDecoded) {
+            attributesList = decode(attributesListSpan);
+            attributesListDecoded = true;
+        }
+        return attributesList;
+    }
+
+    private Map<String, List<String>> decode(int[] span) {
+        if (span[0] < 0) {
+            return null;
+        }
+        return SearchResponseReader.decodeSpan(reader, response, span[0], span[1]);
+    }
+}
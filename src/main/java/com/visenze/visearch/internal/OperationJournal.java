@@ -0,0 +1,296 @@
+package com.visenze.visearch.internal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+
+import java.io.*;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An append-only journal of operations, with one JSON record per line. An operation is appended
+ * before it is run and a completion record is appended once it has succeeded, so the operations
+ * without a completion record are the ones that may not have run.
+ *
+ * <p>Appends are synced to disk before they return. Appends from threads that wait while a sync
+ * is in progress are synced together by the next sync, so concurrent appends share fsyncs.
+ * Completion records are only flushed to the OS: losing one in a power failure makes its
+ * operation run again, which is harmless for operations that can be repeated.
+ *
+ * <p>When the journal is opened, it is compacted to the operations not completed, which are
+ * returned by {@link #getPending()}. A partly written last line, left by a crash, is ignored.
+ */
+public class OperationJournal implements Closeable {
+
+    private static final String ID = "id";
+    private static final String OP = "op";
+    private static final String BODY = "body";
+    private static final String DONE = "done";
+
+    private final File file;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Object writeLock = new Object();
+
+    private final Object syncLock = new Object();
+
+    // the operations not completed, in the order they were appended
+    private final Map<Long, Entry> pending = Maps.newLinkedHashMap();
+
+    private FileOutputStream out;
+
+    private Writer writer;
+
+    private long lastId;
+
+    private long writtenId;
+
+    private volatile long syncedId;
+
+    /**
+     * An operation of the journal.
+     */
+    public static class Entry {
+
+        private final long id;
+        private final String op;
+        private final JsonNode body;
+
+        Entry(long id, String op, JsonNode body) {
+            this.id = id;
+            this.op = op;
+            this.body = body;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getOp() {
+            return op;
+        }
+
+        public JsonNode getBody() {
+            return body;
+        }
+    }
+
+    /**
+     * Open a journal, creating it if it does not exist, and compact it.
+     *
+     * @throws IOException if the journal could not be read or written
+     */
+    public OperationJournal(File file) throws IOException {
+        Preconditions.checkNotNull(file, "journal file must not be null");
+        this.file = file;
+        FileReplacer.recover(file);
+        if (file.exists()) {
+            read();
+        }
+        compact();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Get the operations not completed, in the order they were appended.
+     */
+    public List<Entry> getPending() {
+        synchronized (writeLock) {
+            return Lists.newArrayList(pending.values());
+        }
+    }
+
+    public int getPendingCount() {
+        synchronized (writeLock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Append an operation and sync it to disk.
+     *
+     * @param op   the name of the operation
+     * @param body the arguments of the operation
+     * @return the id of the operation, to complete it with
+     */
+    public long append(String op, JsonNode body) throws IOException {
+        long id;
+        synchronized (writeLock) {
+            checkOpen();
+            id = ++lastId;
+            ObjectNode record = objectMapper.createObjectNode();
+            record.put(ID, id);
+            record.put(OP, op);
+            record.set(BODY, body);
+            writeLine(record);
+            writtenId = id;
+            pending.put(id, new Entry(id, op, body));
+        }
+        sync(id);
+        return id;
+    }
+
+    /**
+     * Record that an operation has succeeded.
+     */
+    public void complete(long id) throws IOException {
+        synchronized (writeLock) {
+            checkOpen();
+            if (pending.remove(id) == null) {
+                return;
+            }
+            ObjectNode record = objectMapper.createObjectNode();
+            record.put(DONE, id);
+            writeLine(record);
+            writer.flush();
+        }
+    }
+
+    /**
+     * Rewrite the journal with only the operations not completed. The journal is written to a
+     * temporary file that is synced and renamed over it, so a crash leaves either journal.
+     */
+    public void compact() throws IOException {
+        // the sync lock is held so that no sync is in progress on the file being replaced
+        synchronized (syncLock) {
+            synchronized (writeLock) {
+                replace();
+            }
+        }
+    }
+
+    private void replace() throws IOException {
+        Closeables.close(writer, true);
+        File tmp = FileReplacer.tempFile(file);
+        out = new FileOutputStream(tmp);
+        writer = new BufferedWriter(new OutputStreamWriter(out, Charsets.UTF_8));
+        boolean threw = true;
+        try {
+            for (Entry entry : pending.values()) {
+                ObjectNode record = objectMapper.createObjectNode();
+                record.put(ID, entry.getId());
+                record.put(OP, entry.getOp());
+                record.set(BODY, entry.getBody());
+                writeLine(record);
+            }
+            writer.flush();
+            out.getFD().sync();
+            threw = false;
+        } finally {
+            Closeables.close(writer, threw);
+            writer = null;
+        }
+        FileReplacer.replace(tmp, file);
+        out = new FileOutputStream(file, true);
+        writer = new BufferedWriter(new OutputStreamWriter(out, Charsets.UTF_8));
+        writtenId = lastId;
+        syncedId = lastId;
+    }
+
+    /**
+     * Sync the journal and close it. Operations not completed stay in the journal.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            synchronized (writeLock) {
+                if (writer == null) {
+                    return;
+                }
+                boolean threw = true;
+                try {
+                    writer.flush();
+                    out.getFD().sync();
+                    threw = false;
+                } finally {
+                    Closeables.close(writer, threw);
+                    writer = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sync the journal up to at least an operation. The sync covers every record written when it
+     * starts, so the threads waiting for it do not sync again.
+     */
+    private void sync(long id) throws IOException {
+        if (syncedId >= id) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (syncedId >= id) {
+                return;
+            }
+            long target;
+            FileOutputStream syncOut;
+            synchronized (writeLock) {
+                checkOpen();
+                writer.flush();
+                target = writtenId;
+                syncOut = out;
+            }
+            // records are appended while the file is synced, and synced by the next sync
+            syncOut.getFD().sync();
+            syncedId = target;
+        }
+    }
+
+    private void writeLine(JsonNode record) throws IOException {
+        writer.write(objectMapper.writeValueAsString(record));
+        writer.write('\n');
+    }
+
+    private void checkOpen() throws IOException {
+        if (writer == null) {
+            throw new IOException("Journal is closed: " + file);
+        }
+    }
+
+    private void read() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8));
+        try {
+            String line;
+            int lineNumber = 0;
+            int invalidLine = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                if (invalidLine > 0) {
+                    throw new IOException("Invalid journal line " + invalidLine + " in " + file);
+                }
+                JsonNode record;
+                try {
+                    record = objectMapper.readTree(line);
+                } catch (IOException e) {
+                    // only the last line may be partly written
+                    invalidLine = lineNumber;
+                    continue;
+                }
+                if (record.has(DONE)) {
+                    pending.remove(record.get(DONE).asLong());
+                } else if (record.has(ID) && record.has(OP)) {
+                    long id = record.get(ID).asLong();
+                    pending.put(id, new Entry(id, record.get(OP).asText(), record.get(BODY)));
+                    lastId = Math.max(lastId, id);
+                } else {
+                    invalidLine = lineNumber;
+                }
+            }
+        } finally {
+            Closeables.closeQuietly(reader);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.visenze.visearch.internal;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.ReusableSearchResult;
+import com.visenze.visearch.internal.constant.ViSearchHttpConstants;
+
+import java.io.IOException;
+
+/**
+ * Fills a {@link ReusableSearchResult} from a search response as it is parsed, taking the
+ * im_names and metadata values from the characters of the parser rather than building a tree
+ * or an {@link com.visenze.visearch.ImageResult} per result. Field names come from the symbol
+ * table of the parser, so they are not allocated per response either.
+ */
+final class ReusableResultReader {
+
+    private static final String IM_NAME = "im_name";
+
+    private static final String SCORE = "score";
+
+    private static final String VALUE_MAP = "value_map";
+
+    private ReusableResultReader() {
+    }
+
+    /**
+     * Read a response into a cleared result.
+     *
+     * @throws InternalViSearchException if the response has no status or is an error, with no
+     *                                   raw response
+     */
+    static void read(JsonParser p, ReusableSearchResult result) throws IOException {
+        if (p.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(p, "Expected a response object");
+        }
+        String status = null;
+        String error = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            JsonToken token = p.nextToken();
+            if (ViSearchHttpConstants.STATUS.equals(field)) {
+                status = p.getValueAsString();
+            } else if (ViSearchHttpConstants.ERROR.equals(field) && token == JsonToken.START_ARRAY) {
+                if (p.nextToken() != JsonToken.END_ARRAY) {
+                    error = p.getValueAsString();
+                    p.skipChildren();
+                    while (p.nextToken() != JsonToken.END_ARRAY) {
+                        p.skipChildren();
+                    }
+                }
+            } else if (ViSearchHttpConstants.PAGE.equals(field) && token.isNumeric()) {
+                result.setPage(p.getIntValue());
+            } else if (ViSearchHttpConstants.LIMIT.equals(field) && token.isNumeric()) {
+                result.setLimit(p.getIntValue());
+            } else if (ViSearchHttpConstants.TOTAL.equals(field) && token.isNumeric()) {
+                result.setTotal(p.getIntValue());
+            } else if (ViSearchHttpConstants.RESULT.equals(field) && token == JsonToken.START_ARRAY) {
+                while (p.nextToken() == JsonToken.START_OBJECT) {
+                    readResult(p, result);
+                }
+                SearchResponseReader.checkArrayEnd(p);
+            } else {
+                p.skipChildren();
+            }
+        }
+        if (status == null) {
+            throw new InternalViSearchException(ResponseMessages.INVALID_RESPONSE_FORMAT, (String) null);
+        }
+        if (!ViSearchHttpConstants.OK.equals(status)) {
+            if (error == null) {
+                throw new InternalViSearchException(ResponseMessages.INVALID_RESPONSE_FORMAT, (String) null);
+            }
+            throw new InternalViSearchException(error, (String) null);
+        }
+    }
+
+    private static void readResult(JsonParser p, ReusableSearchResult result) throws IOException {
+        int row = result.addResult(null, 0, 0, Float.NaN);
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            JsonToken token = p.nextToken();
+            if (IM_NAME.equals(field) && token == JsonToken.VALUE_STRING) {
+                result.setImName(row, p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+            } else if (SCORE.equals(field) && token.isNumeric()) {
+                result.setScore(row, p.getFloatValue());
+            } else if (VALUE_MAP.equals(field) && token == JsonToken.START_OBJECT) {
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String key = p.getCurrentName();
+                    token = p.nextToken();
+                    if (token.isScalarValue() && token != JsonToken.VALUE_NULL) {
+                        result.setMetadata(row, key, p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+                    } else {
+                        p.skipChildren();
+                    }
+                }
+            } else {
+                p.skipChildren();
+            }
+        }
+    }
+}
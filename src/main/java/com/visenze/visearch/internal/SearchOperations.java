@@ -6,14 +6,30 @@ public interface SearchOperations {
 
     PagedSearchResult search(SearchParams searchParams);
 
+    PagedSearchResult search(SearchParams searchParams, SearchResultConsumer consumer);
+
+    PagedSearchResult search(SearchTemplate searchTemplate, String imName, Integer page);
+
+    ReusableSearchResult search(SearchParams searchParams, ReusableSearchResult result);
+
+    ReusableSearchResult search(SearchTemplate searchTemplate, String imName, Integer page, ReusableSearchResult result);
+
     PagedSearchResult recommendation(SearchParams searchParams);
 
+    PagedSearchResult recommendation(SearchParams searchParams, SearchResultConsumer consumer);
+
+    PagedSearchResult recommendation(SearchTemplate searchTemplate, String imName, Integer page);
+
     PagedSearchResult colorSearch(ColorSearchParams colorSearchParams);
 
     PagedSearchResult uploadSearch(UploadSearchParams uploadSearchParams);
 
+    PagedSearchResult uploadSearch(UploadSearchParams uploadSearchParams, SearchResultConsumer consumer);
+
     PagedSearchResult discoverSearch(UploadSearchParams discoverSearchParams);
 
+    PagedSearchResult discoverSearch(UploadSearchParams discoverSearchParams, SearchResultConsumer consumer);
+
     FeatureResponseResult extractFeature(UploadSearchParams uploadSearchParams);
 
     @Deprecated
@@ -1,5 +1,6 @@
 package com.visenze.visearch.internal;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -27,16 +28,78 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
     private static final String ENDPOINT_COLOR_SEARCH = "/colorsearch";
     private static final String ENDPOINT_SIMILAR_PRODUCTS_SEARCH = "/similarproducts";
     private static final String ENDPOINT_EXTRACT_FEATURE= "/extractfeature";
+    // the start of a streamed response kept to report it if it fails to parse
+    private static final int MAX_CAPTURED_RESPONSE = 64 * 1024;
+
+    private final boolean columnarResults;
+
+    private final boolean lazyDecoding;
+
+    private final boolean fieldProjection;
+
+    private final int parallelDecodingThreshold;
+
+    private final SearchResponseReader.Readers responseReaders;
 
     public SearchOperationsImpl(ViSearchHttpClient viSearchHttpClient, ObjectMapper objectMapper) {
+        this(viSearchHttpClient, objectMapper, new ClientConfig());
+    }
+
+    public SearchOperationsImpl(ViSearchHttpClient viSearchHttpClient, ObjectMapper objectMapper, ClientConfig clientConfig) {
         super(viSearchHttpClient, objectMapper);
+        this.columnarResults = clientConfig.isColumnarResults();
+        this.lazyDecoding = clientConfig.isLazyDecoding();
+        this.fieldProjection = clientConfig.isFieldProjection();
+        this.parallelDecodingThreshold = clientConfig.getParallelDecodingThreshold();
+        this.responseReaders = new SearchResponseReader.Readers(objectMapper, clientConfig.getMetadataSchema());
+        setMetadataSchema(clientConfig.getMetadataSchema());
     }
 
     @Override
     public PagedSearchResult search(SearchParams searchParams) {
         try {
             ViSearchHttpResponse response = viSearchHttpClient.get(ENDPOINT_SEARCH, searchParams.toMap());
-            return getPagedResult(response);
+            return getPagedResult(response, projectionOf(searchParams));
+        } catch (InternalViSearchException e) {
+            return new PagedSearchResult(e.getMessage(), e.getCause(), e.getServerRawResponse());
+        }
+    }
+
+    @Override
+    public PagedSearchResult search(SearchParams searchParams, SearchResultConsumer consumer) {
+        try {
+            ViSearchHttpResponse response = viSearchHttpClient.streaming().get(ENDPOINT_SEARCH, searchParams.toMap());
+            return getStreamedResult(response, projectionOf(searchParams), consumer);
+        } catch (InternalViSearchException e) {
+            return new PagedSearchResult(e.getMessage(), e.getCause(), e.getServerRawResponse());
+        }
+    }
+
+    @Override
+    public PagedSearchResult recommendation(SearchParams searchParams, SearchResultConsumer consumer) {
+        try {
+            ViSearchHttpResponse response = viSearchHttpClient.streaming().get(ENDPOINT_RECOMMENDATION, searchParams.toMap());
+            return getStreamedResult(response, projectionOf(searchParams), consumer);
+        } catch (InternalViSearchException e) {
+            return new PagedSearchResult(e.getMessage(), e.getCause(), e.getServerRawResponse());
+        }
+    }
+
+    @Override
+    public PagedSearchResult uploadSearch(UploadSearchParams uploadSearchParams, SearchResultConsumer consumer) {
+        try {
+            ViSearchHttpResponse response = getPostImageSearchHttpResponse(viSearchHttpClient.streaming(), uploadSearchParams, ENDPOINT_UPLOAD_SEARCH);
+            return getStreamedResult(response, projectionOf(uploadSearchParams), consumer);
+        } catch (InternalViSearchException e) {
+            return new PagedSearchResult(e.getMessage(), e.getCause(), e.getServerRawResponse());
+        }
+    }
+
+    @Override
+    public PagedSearchResult discoverSearch(UploadSearchParams uploadSearchParams, SearchResultConsumer consumer) {
+        try {
+            ViSearchHttpResponse response = getPostImageSearchHttpResponse(viSearchHttpClient.streaming(), uploadSearchParams, ENDPOINT_DISCOVER_SEARCH);
+            return getStreamedResult(response, projectionOf(uploadSearchParams), consumer);
         } catch (InternalViSearchException e) {
             return new PagedSearchResult(e.getMessage(), e.getCause(), e.getServerRawResponse());
         }
@@ -46,7 +109,49 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
     public PagedSearchResult recommendation(SearchParams searchParams) {
         try {
             ViSearchHttpResponse response = viSearchHttpClient.get(ENDPOINT_RECOMMENDATION, searchParams.toMap());
-            return getPagedResult(response);
+            return getPagedResult(response, projectionOf(searchParams));
+        } catch (InternalViSearchException e) {
+            return new PagedSearchResult(e.getMessage(), e.getCause(), e.getServerRawResponse());
+        }
+    }
+
+    @Override
+    public PagedSearchResult search(SearchTemplate searchTemplate, String imName, Integer page) {
+        try {
+            ViSearchHttpResponse response = viSearchHttpClient.getEncoded(ENDPOINT_SEARCH, searchTemplate.buildQuery(imName, page));
+            return getPagedResult(response, projectionOf(searchTemplate.getRequestProjection(), searchTemplate.getProjection()));
+        } catch (InternalViSearchException e) {
+            return new PagedSearchResult(e.getMessage(), e.getCause(), e.getServerRawResponse());
+        }
+    }
+
+    @Override
+    public ReusableSearchResult search(SearchParams searchParams, ReusableSearchResult result) {
+        try {
+            ViSearchHttpResponse response = viSearchHttpClient.get(ENDPOINT_SEARCH, searchParams.toMap());
+            return fillResult(response, result);
+        } catch (InternalViSearchException e) {
+            result.setError(e.getMessage(), e.getCause(), e.getServerRawResponse());
+            return result;
+        }
+    }
+
+    @Override
+    public ReusableSearchResult search(SearchTemplate searchTemplate, String imName, Integer page, ReusableSearchResult result) {
+        try {
+            ViSearchHttpResponse response = viSearchHttpClient.getEncoded(ENDPOINT_SEARCH, searchTemplate.buildQuery(imName, page));
+            return fillResult(response, result);
+        } catch (InternalViSearchException e) {
+            result.setError(e.getMessage(), e.getCause(), e.getServerRawResponse());
+            return result;
+        }
+    }
+
+    @Override
+    public PagedSearchResult recommendation(SearchTemplate searchTemplate, String imName, Integer page) {
+        try {
+            ViSearchHttpResponse response = viSearchHttpClient.getEncoded(ENDPOINT_RECOMMENDATION, searchTemplate.buildQuery(imName, page));
+            return getPagedResult(response, projectionOf(searchTemplate.getRequestProjection(), searchTemplate.getProjection()));
         } catch (InternalViSearchException e) {
             return new PagedSearchResult(e.getMessage(), e.getCause(), e.getServerRawResponse());
         }
@@ -56,7 +161,7 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
     public PagedSearchResult colorSearch(ColorSearchParams colorSearchParams) {
         try {
             ViSearchHttpResponse response = viSearchHttpClient.get(ENDPOINT_COLOR_SEARCH, colorSearchParams.toMap());
-            return getPagedResult(response);
+            return getPagedResult(response, projectionOf(colorSearchParams));
         } catch (InternalViSearchException e) {
             return new PagedSearchResult(e.getMessage(), e.getCause(), e.getServerRawResponse());
         }
@@ -123,10 +228,31 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
      */
     private PagedSearchResult postImageSearch(UploadSearchParams uploadSearchParams, String endpointMethod) {
         ViSearchHttpResponse response = getPostImageSearchHttpResponse(uploadSearchParams, endpointMethod);
-        return getPagedResult(response);
+        return getPagedResult(response, projectionOf(uploadSearchParams));
+    }
+
+    private ResponseProjection projectionOf(BaseSearchParams<?> params) {
+        return projectionOf(ResponseProjection.of(params), params.getProjection());
+    }
+
+    /**
+     * Combine the projection derived from the parameters of a search with the one set by the
+     * caller, returning null if every part of the response is decoded.
+     */
+    private ResponseProjection projectionOf(ResponseProjection requestProjection, ResponseProjection callerProjection) {
+        ResponseProjection projection = fieldProjection ? requestProjection : null;
+        if (callerProjection != null) {
+            projection = projection == null ? callerProjection : projection.intersect(callerProjection);
+        }
+        return projection == null || projection.isAll() ? null : projection;
     }
 
     private ViSearchHttpResponse getPostImageSearchHttpResponse(UploadSearchParams uploadSearchParams, String endpointMethod) {
+        return getPostImageSearchHttpResponse(viSearchHttpClient, uploadSearchParams, endpointMethod);
+    }
+
+    private static ViSearchHttpResponse getPostImageSearchHttpResponse(ViSearchHttpClient viSearchHttpClient,
+                                                                       UploadSearchParams uploadSearchParams, String endpointMethod) {
         File imageFile = uploadSearchParams.getImageFile();
         InputStream imageStream = uploadSearchParams.getImageStream();
         String imageUrl = uploadSearchParams.getImageUrl();
@@ -180,12 +306,20 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
         return result;
     }
 
-    private PagedSearchResult getPagedResult(ViSearchHttpResponse httpResponse) {
+    private PagedSearchResult getPagedResult(ViSearchHttpResponse httpResponse, ResponseProjection projection) {
+        if (httpResponse.isPooled() && httpResponse.isUtf8() && !columnarResults && !lazyDecoding && projection == null
+                && (parallelDecodingThreshold <= 0 || httpResponse.getBodyLength() < parallelDecodingThreshold)) {
+            // response readers keep spans of the body as a string, so only this path reads the pooled bytes
+            return getPooledResult(httpResponse);
+        }
         String response = httpResponse.getBody();
         Map<String, String> headers = httpResponse.getHeaders();
         JsonNode node;
+        boolean parallel = parallelDecodingThreshold > 0 && response != null && response.length() >= parallelDecodingThreshold;
+        SearchResponseReader responseReader = columnarResults || lazyDecoding || projection != null || parallel
+                ? new SearchResponseReader(responseReaders, columnarResults, lazyDecoding, projection, parallel) : null;
         try {
-            node = objectMapper.readTree(response);
+            node = responseReader != null ? responseReader.read(response) : objectMapper.readTree(response);
         } catch (JsonProcessingException e) {
             throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, response);
             // throw new ViSearchException("Could not parse the ViSearch response: " + response, e, response);
@@ -195,7 +329,102 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
         }
         checkResponseStatus(node);
 
+        PagedSearchResult result = toPagedResult(response, node, responseReader);
+        // the tree read by a response reader does not hold the parts it decoded
+        result.setRawJson(responseReader != null ? response : node.toString());
+        result.setHeaders(headers);
+        return result;
+    }
+
+    private PagedSearchResult getPooledResult(ViSearchHttpResponse httpResponse) {
+        // the results are decoded straight from the buffer, without a tree or a string of them
+        SearchResponseStreamReader responseReader = new SearchResponseStreamReader(responseReaders, null, null);
+        PagedSearchResult result;
+        try {
+            JsonNode node = responseReader.read(httpResponse.getBodyBytes(), 0, httpResponse.getBodyLength());
+            checkResponseStatus(node);
+            result = toPagedResult(null, node, null);
+            responseReader.fill(result);
+        } catch (IOException e) {
+            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, httpResponse.getBody());
+        } catch (InternalViSearchException e) {
+            // the raw response is only decoded for errors
+            throw new InternalViSearchException(e.getMessage(), e.getCause(), httpResponse.getBody());
+        } finally {
+            // the result does not refer to the buffer
+            httpResponse.release();
+        }
+        result.setHeaders(httpResponse.getHeaders());
+        return result;
+    }
+
+    private ReusableSearchResult fillResult(ViSearchHttpResponse httpResponse, ReusableSearchResult result) {
+        result.clear();
+        try {
+            JsonParser p;
+            if (httpResponse.isPooled() && httpResponse.isUtf8()) {
+                p = objectMapper.getFactory().createParser(httpResponse.getBodyBytes(), 0, httpResponse.getBodyLength());
+            } else if (httpResponse.getBody() != null) {
+                p = objectMapper.getFactory().createParser(httpResponse.getBody());
+            } else {
+                throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, "");
+            }
+            try {
+                ReusableResultReader.read(p, result);
+            } finally {
+                p.close();
+            }
+        } catch (IOException e) {
+            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, httpResponse.getBody());
+        } catch (InternalViSearchException e) {
+            // the raw response is only decoded for errors
+            throw new InternalViSearchException(e.getMessage(), e.getCause(), httpResponse.getBody());
+        } finally {
+            // the result does not refer to the buffer
+            httpResponse.release();
+        }
+        result.setHeaders(httpResponse.getHeaders());
+        return result;
+    }
+
+    private PagedSearchResult getStreamedResult(ViSearchHttpResponse httpResponse, ResponseProjection projection,
+                                                SearchResultConsumer consumer) {
+        SearchResponseStreamReader streamReader = new SearchResponseStreamReader(responseReaders, projection, consumer);
+        CapturingInputStream stream = null;
+        JsonNode node;
+        try {
+            stream = new CapturingInputStream(httpResponse.getStream(), MAX_CAPTURED_RESPONSE);
+            node = streamReader.read(stream);
+        } catch (JsonProcessingException e) {
+            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, stream.drain());
+        } catch (IOException e) {
+            throw new InternalViSearchException(ResponseMessages.NETWORK_ERROR, e);
+        } finally {
+            try {
+                httpResponse.close();
+            } catch (IOException e) {
+                // the body was read, or reading it already failed
+            }
+        }
+        checkResponseStatus(node);
+
+        PagedSearchResult result;
+        try {
+            result = toPagedResult(null, node, null);
+        } catch (InternalViSearchException e) {
+            throw new InternalViSearchException(e.getMessage(), e.getCause(), node.toString());
+        }
+        streamReader.fill(result);
+        // the results were not kept, so there is no raw JSON of the whole response
+        result.setHeaders(httpResponse.getHeaders());
+        return result;
+    }
+
+    private PagedSearchResult toPagedResult(String response, JsonNode node, SearchResponseReader responseReader) {
         PagedSearchResult result = pagify(response, node);
+        if (responseReader != null) {
+            responseReader.fill(result);
+        }
 
         JsonNode productTypesNode = node.get(ViSearchHttpConstants.PRODUCT_TYPES);
         if (productTypesNode != null) {
@@ -227,48 +456,45 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
             result.setQueryInfo(qinfo);
         }
         // For similarproducts search, try to cover it's result into discoversearch result.
+        List<List<ImageResult>> groups = responseReader != null ? responseReader.getGroupResult() : null;
         JsonNode groupResult = node.get(ViSearchHttpConstants.GROUP_RESULT);
-        if (groupResult != null && groupResult instanceof ArrayNode) {
-            List<ProductType> productTypes = result.getProductTypes();
-            List<ObjectSearchResult> objects = Lists.newArrayList();
+        if (groups == null && groupResult != null && groupResult instanceof ArrayNode) {
             ArrayNode arrayNode = (ArrayNode) groupResult;
+            groups = new ArrayList<List<ImageResult>>(arrayNode.size());
             for (int i = 0; i < arrayNode.size(); i++) {
-                JsonNode oneGroup = arrayNode.get(i);
-                ProductType productType = productTypes.get(i);
-                ObjectSearchResult objectSearchResult = new ObjectSearchResult();
-                objectSearchResult.setResult(deserializeListResult(response, oneGroup, ImageResult.class));
-                objectSearchResult.setScore(productType.getScore());
-                objectSearchResult.setAttributes(productType.getAttributes());
-                objectSearchResult.setAttributesList(productType.getAttributesList());
-                objectSearchResult.setBox(productType.getBox());
-                objectSearchResult.setType(productType.getType());
-                objects.add(objectSearchResult);
+                groups.add(deserializeListResult(response, arrayNode.get(i), ImageResult.class));
+            }
+        }
+        if (groups != null) {
+            // the product types are left out when a projection skips them
+            List<ProductType> productTypes = result.getProductTypes();
+            List<ObjectSearchResult> objects = Lists.newArrayList();
+            for (int i = 0; i < groups.size(); i++) {
+                ProductType productType = productTypes != null && i < productTypes.size() ? productTypes.get(i) : null;
+                objects.add(SearchResponseReader.objectOf(groups.get(i), productType));
             }
             result.setObjects(objects);
             result.setObjectTypesList(result.getProductTypesList());
         }
-
-        result.setRawJson(node.toString());
-        result.setHeaders(headers);
         return result;
     }
 
     private static void checkResponseStatus(JsonNode node) {
-        String json = node.toString();
+        // the response is only written out for errors
         JsonNode statusNode = node.get(ViSearchHttpConstants.STATUS);
         if (statusNode == null) {
-            throw new InternalViSearchException(ResponseMessages.INVALID_RESPONSE_FORMAT, json);
+            throw new InternalViSearchException(ResponseMessages.INVALID_RESPONSE_FORMAT, node.toString());
             // throw new ViSearchException("There was a malformed ViSearch response: " + json, json);
         } else {
             String status = statusNode.asText();
             if (!ViSearchHttpConstants.OK.equals(status)) {
                 JsonNode errorNode = node.get(ViSearchHttpConstants.ERROR);
                 if (errorNode == null) {
-                    throw new InternalViSearchException(ResponseMessages.INVALID_RESPONSE_FORMAT, json);
+                    throw new InternalViSearchException(ResponseMessages.INVALID_RESPONSE_FORMAT, node.toString());
                     // throw new ViSearchException("An unknown error occurred in ViSearch: " + json, json);
                 }
                 String message = errorNode.path(0).asText();
-                throw new InternalViSearchException(message, json);
+                throw new InternalViSearchException(message, node.toString());
                 // throw new ViSearchException("An error occurred calling ViSearch: " + message, json);
             }
         }
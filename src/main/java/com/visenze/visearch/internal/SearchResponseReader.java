@@ -0,0 +1,414 @@
+package com.visenze.visearch.internal;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.visenze.visearch.Facet;
+import com.visenze.visearch.GroupSearchResult;
+import com.visenze.visearch.ImageResult;
+import com.visenze.visearch.ImageResultColumns;
+import com.visenze.visearch.MetadataDictionary;
+import com.visenze.visearch.MetadataSchema;
+import com.visenze.visearch.ObjectSearchResult;
+import com.visenze.visearch.PagedSearchResult;
+import com.visenze.visearch.ProductType;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.ResponseProjection;
+import com.visenze.visearch.internal.constant.ViSearchHttpConstants;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a search response token by token, decoding the large parts of it, the results,
+ * detected product types and facets, without building a tree of them:
+ *
+ * <ul>
+ * <li>in columnar mode, the result array is decoded straight into {@link ImageResultColumns} by a
+ * {@link ColumnarResultDecoder};</li>
+ * <li>in lazy mode, the results only decode their im_name and score, and keep the character
+ * span of their value_map in the response. Product type attributes and facets are kept as
+ * spans too. Each span is decoded on first access.</li>
+ * </ul>
+ *
+ * <p>With a {@link ResponseProjection}, the parts it leaves out are skipped without being
+ * materialized. When it only decodes some metadata fields, the results, objects and groups
+ * are decoded by this reader, skipping the other fields of each value_map.
+ *
+ * <p>In parallel mode, the objects and the groups of a group_result are only scanned for their
+ * spans, which are then decoded in parallel by a {@link SpanDecoder}.
+ *
+ * <p>The other fields of the response are read into a tree as usual. A reader reads one
+ * response.
+ */
+class SearchResponseReader {
+
+    private final Readers readers;
+
+    private final boolean columnar;
+
+    private final boolean lazy;
+
+    private final ResponseProjection projection;
+
+    private final boolean parallel;
+
+    private String response;
+
+    private ImageResultColumns columns;
+
+    private List<ImageResult> results;
+
+    private final Map<String, List<ProductType>> productTypes = new LinkedHashMap<String, List<ProductType>>();
+
+    private List<Facet> facets;
+
+    private List<ObjectSearchResult> objects;
+
+    private List<GroupSearchResult> groupResults;
+
+    private List<List<ImageResult>> groupResult;
+
+    private MetadataDictionary dictionary;
+
+    /**
+     * @param projection the parts of the response to decode, or null for all of them
+     * @param parallel   whether objects and groups are decoded in parallel
+     */
+    SearchResponseReader(Readers readers, boolean columnar, boolean lazy, ResponseProjection projection, boolean parallel) {
+        this.readers = readers;
+        this.columnar = columnar;
+        this.lazy = lazy;
+        this.projection = projection;
+        this.parallel = parallel;
+    }
+
+    /**
+     * Read a response, returning the tree of all its fields except the ones decoded by this
+     * reader.
+     */
+    JsonNode read(String response) throws IOException {
+        this.response = response;
+        JsonParser p = readers.objectMapper.getFactory().createParser(response);
+        try {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(p, "Expected a response object");
+            }
+            ObjectNode node = readers.objectMapper.createObjectNode();
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                JsonToken token = p.nextToken();
+                if (isSkipped(field)) {
+                    p.skipChildren();
+                } else if (ViSearchHttpConstants.RESULT.equals(field) && token == JsonToken.START_ARRAY && columnar) {
+                    columns = new ColumnarResultDecoder(readers.objectMapper, projection, readers.metadataSchema).decode(p);
+                } else if (ViSearchHttpConstants.RESULT.equals(field) && token == JsonToken.START_ARRAY && lazy) {
+                    results = decodeLazyResults(p);
+                } else if (isProductTypes(field) && token == JsonToken.START_ARRAY && lazy) {
+                    productTypes.put(field, decodeLazyProductTypes(p));
+                } else if (ViSearchHttpConstants.FACETS.equals(field) && token == JsonToken.START_ARRAY && lazy) {
+                    facets = new LazyList<Facet>(readers.facets, response, startOf(p), endOf(p));
+                } else if (parallel && token == JsonToken.START_ARRAY && isParallelList(field)) {
+                    readInParallel(p, field);
+                } else if (isProjectedMetadata() && token == JsonToken.START_ARRAY && isResultList(field)) {
+                    readResultList(p, field);
+                } else {
+                    node.set(field, readers.objectMapper.<JsonNode>readTree(p));
+                }
+            }
+            return node;
+        } finally {
+            p.close();
+        }
+    }
+
+    /**
+     * Set the parts decoded by this reader to a result.
+     */
+    void fill(PagedSearchResult result) {
+        if (columns != null) {
+            result.setResultColumns(columns);
+        }
+        if (results != null) {
+            result.setResult(results);
+        }
+        if (productTypes.containsKey(ViSearchHttpConstants.PRODUCT_TYPES)) {
+            result.setProductTypes(productTypes.get(ViSearchHttpConstants.PRODUCT_TYPES));
+        }
+        if (productTypes.containsKey(ViSearchHttpConstants.PRODUCT_TYPES_LIST)) {
+            result.setProductTypesList(productTypes.get(ViSearchHttpConstants.PRODUCT_TYPES_LIST));
+        }
+        if (productTypes.containsKey(ViSearchHttpConstants.OBJECT_TYPES_LIST)) {
+            result.setObjectTypesList(productTypes.get(ViSearchHttpConstants.OBJECT_TYPES_LIST));
+        }
+        if (facets != null) {
+            result.setFacets(facets);
+        }
+        if (objects != null) {
+            result.setObjects(objects);
+        }
+        if (groupResults != null) {
+            result.setGroupSearchResults(groupResults);
+        }
+    }
+
+    /**
+     * Get the results of each detected object of a discover search, if decoded by this reader.
+     */
+    List<List<ImageResult>> getGroupResult() {
+        return groupResult;
+    }
+
+    private boolean isSkipped(String field) {
+        return isSkipped(projection, field);
+    }
+
+    /**
+     * Whether a top-level field of a response is left out by a projection.
+     */
+    static boolean isSkipped(ResponseProjection projection, String field) {
+        if (projection == null) {
+            return false;
+        }
+        if (ViSearchHttpConstants.FACETS.equals(field)) {
+            return !projection.isFacets();
+        }
+        if (ViSearchHttpConstants.QINFO.equals(field)) {
+            return !projection.isQueryInfo();
+        }
+        return isProductTypes(field) && !projection.isProductTypes();
+    }
+
+    private boolean isProjectedMetadata() {
+        return projection != null && projection.getMetadataFields() != null;
+    }
+
+    private static boolean isResultList(String field) {
+        return ViSearchHttpConstants.RESULT.equals(field)
+                || ViSearchHttpConstants.OBJECTS.equals(field)
+                || ViSearchHttpConstants.GROUP_RESULTS.equals(field)
+                || ViSearchHttpConstants.GROUP_RESULT.equals(field);
+    }
+
+    private static boolean isParallelList(String field) {
+        return ViSearchHttpConstants.OBJECTS.equals(field) || ViSearchHttpConstants.GROUP_RESULT.equals(field);
+    }
+
+    private void readInParallel(JsonParser p, String field) throws IOException {
+        boolean objectList = ViSearchHttpConstants.OBJECTS.equals(field);
+        JsonToken element = objectList ? JsonToken.START_OBJECT : JsonToken.START_ARRAY;
+        List<int[]> spans = new ArrayList<int[]>();
+        while (p.nextToken() == element) {
+            spans.add(new int[]{startOf(p), endOf(p)});
+        }
+        if (p.getCurrentToken() != JsonToken.END_ARRAY) {
+            throw new JsonParseException(p, objectList ? "Expected an object for each array element" : "Expected an array for each group");
+        }
+        // the results decoded by all threads share one dictionary, which is thread safe
+        if (dictionary == null) {
+            dictionary = new MetadataDictionary();
+        }
+        ObjectReader reader = (objectList ? readers.object : readers.results).withAttribute(MetadataDictionary.class, dictionary);
+        if (projection != null) {
+            reader = reader.withAttribute(ResponseProjection.class, projection);
+        }
+        if (objectList) {
+            objects = SpanDecoder.decodeAll(reader, response, spans);
+        } else {
+            groupResult = SpanDecoder.decodeAll(reader, response, spans);
+        }
+    }
+
+    private void readResultList(JsonParser p, String field) throws IOException {
+        if (ViSearchHttpConstants.RESULT.equals(field)) {
+            results = readers.results.withAttribute(ResponseProjection.class, projection).readValue(p);
+        } else if (ViSearchHttpConstants.OBJECTS.equals(field)) {
+            objects = readers.objects.withAttribute(ResponseProjection.class, projection).readValue(p);
+        } else if (ViSearchHttpConstants.GROUP_RESULTS.equals(field)) {
+            groupResults = readers.groupResults.withAttribute(ResponseProjection.class, projection).readValue(p);
+        } else {
+            groupResult = readers.groupResult.withAttribute(ResponseProjection.class, projection).readValue(p);
+        }
+    }
+
+    static boolean isProductTypes(String field) {
+        return ViSearchHttpConstants.PRODUCT_TYPES.equals(field)
+                || ViSearchHttpConstants.PRODUCT_TYPES_LIST.equals(field)
+                || ViSearchHttpConstants.OBJECT_TYPES_LIST.equals(field);
+    }
+
+    private static int startOf(JsonParser p) {
+        return (int) p.getTokenLocation().getCharOffset();
+    }
+
+    /**
+     * Skip the container at the current token, returning the offset just past its end.
+     */
+    private static int endOf(JsonParser p) throws IOException {
+        p.skipChildren();
+        return (int) p.getTokenLocation().getCharOffset() + 1;
+    }
+
+    private List<ImageResult> decodeLazyResults(JsonParser p) throws IOException {
+        if (dictionary == null) {
+            dictionary = new MetadataDictionary();
+        }
+        List<ImageResult> list = new ArrayList<ImageResult>();
+        while (p.nextToken() == JsonToken.START_OBJECT) {
+            String imName = null;
+            Float score = null;
+            int start = -1;
+            int end = -1;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                JsonToken token = p.nextToken();
+                if ("im_name".equals(field)) {
+                    imName = token == JsonToken.VALUE_NULL ? null : p.getText();
+                } else if ("score".equals(field)) {
+                    float value = ColumnarResultDecoder.readScore(p, token);
+                    score = Float.isNaN(value) ? null : value;
+                } else if ("value_map".equals(field) && token == JsonToken.START_OBJECT) {
+                    start = startOf(p);
+                    end = endOf(p);
+                } else {
+                    p.skipChildren();
+                }
+            }
+            list.add(new LazyImageResult(imName, score, readers.metadata, dictionary, readers.metadataSchema,
+                    projection, response, start, end));
+        }
+        checkArrayEnd(p);
+        return list;
+    }
+
+    private List<ProductType> decodeLazyProductTypes(JsonParser p) throws IOException {
+        List<ProductType> list = new ArrayList<ProductType>();
+        while (p.nextToken() == JsonToken.START_OBJECT) {
+            String type = null;
+            Float score = null;
+            List<Integer> box = null;
+            int[] attributes = {-1, -1};
+            int[] attributesList = {-1, -1};
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                JsonToken token = p.nextToken();
+                if ("type".equals(field)) {
+                    type = token == JsonToken.VALUE_NULL ? null : p.getText();
+                } else if ("score".equals(field)) {
+                    float value = ColumnarResultDecoder.readScore(p, token);
+                    score = Float.isNaN(value) ? null : value;
+                } else if ("box".equals(field) && token == JsonToken.START_ARRAY) {
+                    box = new ArrayList<Integer>(4);
+                    while (p.nextToken() != JsonToken.END_ARRAY) {
+                        box.add(p.getCurrentToken() == JsonToken.VALUE_NULL ? null : p.getValueAsInt());
+                    }
+                } else if ("attributes".equals(field) && token == JsonToken.START_OBJECT) {
+                    attributes[0] = startOf(p);
+                    attributes[1] = endOf(p);
+                } else if ("attributes_list".equals(field) && token == JsonToken.START_OBJECT) {
+                    attributesList[0] = startOf(p);
+                    attributesList[1] = endOf(p);
+                } else {
+                    p.skipChildren();
+                }
+            }
+            list.add(new LazyProductType(type, score, box, readers.attributes, response, attributes, attributesList));
+        }
+        checkArrayEnd(p);
+        return list;
+    }
+
+    static void checkArrayEnd(JsonParser p) throws IOException {
+        if (p.getCurrentToken() != JsonToken.END_ARRAY) {
+            throw new JsonParseException(p, "Expected an object for each array element");
+        }
+    }
+
+    /**
+     * Build the object search result of one group of a group_result, from the product type
+     * detected for it, if any.
+     */
+    static ObjectSearchResult objectOf(List<ImageResult> results, ProductType productType) {
+        ObjectSearchResult objectSearchResult = new ObjectSearchResult();
+        objectSearchResult.setResult(results);
+        if (productType != null) {
+            objectSearchResult.setScore(productType.getScore());
+            objectSearchResult.setAttributes(productType.getAttributes());
+            objectSearchResult.setAttributesList(productType.getAttributesList());
+            objectSearchResult.setBox(productType.getBox());
+            objectSearchResult.setType(productType.getType());
+        }
+        return objectSearchResult;
+    }
+
+    /**
+     * Decode a span of a response with a reader.
+     */
+    static <T> T decodeSpan(ObjectReader reader, String response, int start, int end) {
+        try {
+            return reader.readValue(response.substring(start, end));
+        } catch (IOException e) {
+            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, response);
+        }
+    }
+
+    /**
+     * The readers used to decode spans, built once per search operations.
+     */
+    static final class Readers {
+
+        final ObjectMapper objectMapper;
+
+        final ObjectReader metadata;
+
+        final ObjectReader attributes;
+
+        final ObjectReader facets;
+
+        final ObjectReader results;
+
+        final ObjectReader objects;
+
+        final ObjectReader groupResults;
+
+        final ObjectReader groupResult;
+
+        final ObjectReader result;
+
+        final ObjectReader object;
+
+        final ObjectReader group;
+
+        final ObjectReader productTypes;
+
+        final MetadataSchema metadataSchema;
+
+        Readers(ObjectMapper objectMapper, MetadataSchema metadataSchema) {
+            this.objectMapper = objectMapper;
+            this.metadataSchema = metadataSchema;
+            this.metadata = objectMapper.readerFor(new TypeReference<LinkedHashMap<String, Object>>() {});
+            this.attributes = objectMapper.readerFor(new TypeReference<LinkedHashMap<String, List<String>>>() {});
+            this.facets = objectMapper.readerFor(new TypeReference<List<Facet>>() {});
+            this.results = withSchema(objectMapper.readerFor(new TypeReference<List<ImageResult>>() {}));
+            this.objects = withSchema(objectMapper.readerFor(new TypeReference<List<ObjectSearchResult>>() {}));
+            this.groupResults = withSchema(objectMapper.readerFor(new TypeReference<List<GroupSearchResult>>() {}));
+            this.groupResult = withSchema(objectMapper.readerFor(new TypeReference<List<List<ImageResult>>>() {}));
+            this.result = withSchema(objectMapper.readerFor(ImageResult.class));
+            this.object = withSchema(objectMapper.readerFor(ObjectSearchResult.class));
+            this.group = withSchema(objectMapper.readerFor(GroupSearchResult.class));
+            this.productTypes = objectMapper.readerFor(new TypeReference<List<ProductType>>() {});
+        }
+
+        private ObjectReader withSchema(ObjectReader reader) {
+            return metadataSchema == null ? reader : reader.withAttribute(MetadataSchema.class, metadataSchema);
+        }
+    }
+}
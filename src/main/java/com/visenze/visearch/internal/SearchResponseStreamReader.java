@@ -0,0 +1,223 @@
+package com.visenze.visearch.internal;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.visenze.visearch.GroupSearchResult;
+import com.visenze.visearch.ImageResult;
+import com.visenze.visearch.MetadataDictionary;
+import com.visenze.visearch.ObjectSearchResult;
+import com.visenze.visearch.PagedSearchResult;
+import com.visenze.visearch.ProductType;
+import com.visenze.visearch.ResponseProjection;
+import com.visenze.visearch.SearchResultConsumer;
+import com.visenze.visearch.internal.constant.ViSearchHttpConstants;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a search response from the stream of its body, handing each result, object and group
+ * to a {@link SearchResultConsumer} as soon as it is parsed. They are not kept.
+ *
+ * <p>Without a consumer, they are collected instead and set to the result by {@link #fill}, so
+ * that a response held in a buffer is decoded without building a tree of its results.
+ *
+ * <p>The detected product types are decoded when they are read, so that the objects of a
+ * group_result following them get their type. The other fields of the response are read into a
+ * tree as usual. A reader reads one response.
+ */
+class SearchResponseStreamReader {
+
+    private final SearchResponseReader.Readers readers;
+
+    private final ResponseProjection projection;
+
+    private final SearchResultConsumer consumer;
+
+    private final Map<String, List<ProductType>> productTypes = new LinkedHashMap<String, List<ProductType>>();
+
+    private boolean groupResult;
+
+    private List<ImageResult> results;
+
+    private List<ObjectSearchResult> objects;
+
+    private List<GroupSearchResult> groups;
+
+    private List<List<ImageResult>> groupResultList;
+
+    /**
+     * @param projection the parts of the response to decode, or null for all of them
+     * @param consumer   the consumer of the results, or null to collect them
+     */
+    SearchResponseStreamReader(SearchResponseReader.Readers readers, ResponseProjection projection, SearchResultConsumer consumer) {
+        this.readers = readers;
+        this.projection = projection;
+        this.consumer = consumer;
+    }
+
+    /**
+     * Read a response, returning the tree of all its fields except the ones handed to the
+     * consumer and the product types.
+     */
+    JsonNode read(InputStream stream) throws IOException {
+        return read(readers.objectMapper.getFactory().createParser(stream));
+    }
+
+    /**
+     * Read a response from the first bytes of a buffer, which must be UTF-8.
+     */
+    JsonNode read(byte[] buffer, int offset, int length) throws IOException {
+        return read(readers.objectMapper.getFactory().createParser(buffer, offset, length));
+    }
+
+    private JsonNode read(JsonParser p) throws IOException {
+        // the results of the response share one dictionary
+        MetadataDictionary dictionary = new MetadataDictionary();
+        ObjectReader result = withAttributes(readers.result, dictionary);
+        ObjectReader object = withAttributes(readers.object, dictionary);
+        ObjectReader group = withAttributes(readers.group, dictionary);
+        ObjectReader groupResults = withAttributes(readers.results, dictionary);
+        try {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(p, "Expected a response object");
+            }
+            ObjectNode node = readers.objectMapper.createObjectNode();
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                JsonToken token = p.nextToken();
+                if (SearchResponseReader.isSkipped(projection, field)) {
+                    p.skipChildren();
+                } else if (token != JsonToken.START_ARRAY) {
+                    node.set(field, readers.objectMapper.<JsonNode>readTree(p));
+                } else if (ViSearchHttpConstants.RESULT.equals(field)) {
+                    if (consumer == null) {
+                        results = new ArrayList<ImageResult>();
+                    }
+                    while (p.nextToken() == JsonToken.START_OBJECT) {
+                        onResult(result.<ImageResult>readValue(p));
+                    }
+                    SearchResponseReader.checkArrayEnd(p);
+                } else if (ViSearchHttpConstants.OBJECTS.equals(field)) {
+                    if (consumer == null) {
+                        objects = new ArrayList<ObjectSearchResult>();
+                    }
+                    while (p.nextToken() == JsonToken.START_OBJECT) {
+                        onObject(object.<ObjectSearchResult>readValue(p));
+                    }
+                    SearchResponseReader.checkArrayEnd(p);
+                } else if (ViSearchHttpConstants.GROUP_RESULTS.equals(field)) {
+                    if (consumer == null) {
+                        groups = new ArrayList<GroupSearchResult>();
+                    }
+                    while (p.nextToken() == JsonToken.START_OBJECT) {
+                        onGroup(group.<GroupSearchResult>readValue(p));
+                    }
+                    SearchResponseReader.checkArrayEnd(p);
+                } else if (ViSearchHttpConstants.GROUP_RESULT.equals(field)) {
+                    this.groupResult = true;
+                    if (consumer == null) {
+                        // collected groups get their type in fill, wherever the product types are
+                        groupResultList = new ArrayList<List<ImageResult>>();
+                    }
+                    List<ProductType> types = productTypes.get(ViSearchHttpConstants.PRODUCT_TYPES);
+                    for (int i = 0; p.nextToken() == JsonToken.START_ARRAY; i++) {
+                        List<ImageResult> members = groupResults.readValue(p);
+                        if (consumer == null) {
+                            groupResultList.add(members);
+                        } else {
+                            ProductType type = types != null && i < types.size() ? types.get(i) : null;
+                            consumer.onObject(SearchResponseReader.objectOf(members, type));
+                        }
+                    }
+                    if (p.getCurrentToken() != JsonToken.END_ARRAY) {
+                        throw new JsonParseException(p, "Expected an array for each group");
+                    }
+                } else if (SearchResponseReader.isProductTypes(field)) {
+                    productTypes.put(field, readers.productTypes.<List<ProductType>>readValue(p));
+                } else {
+                    node.set(field, readers.objectMapper.<JsonNode>readTree(p));
+                }
+            }
+            return node;
+        } finally {
+            p.close();
+        }
+    }
+
+    /**
+     * Set the product types to a result, and the results, objects and groups if they were
+     * collected. Those handed to the consumer are left empty.
+     */
+    void fill(PagedSearchResult result) {
+        if (results != null) {
+            result.setResult(results);
+        }
+        if (objects != null) {
+            result.setObjects(objects);
+        }
+        if (groups != null) {
+            result.setGroupSearchResults(groups);
+        }
+        if (productTypes.containsKey(ViSearchHttpConstants.PRODUCT_TYPES)) {
+            result.setProductTypes(productTypes.get(ViSearchHttpConstants.PRODUCT_TYPES));
+        }
+        if (productTypes.containsKey(ViSearchHttpConstants.PRODUCT_TYPES_LIST)) {
+            result.setProductTypesList(productTypes.get(ViSearchHttpConstants.PRODUCT_TYPES_LIST));
+        }
+        if (productTypes.containsKey(ViSearchHttpConstants.OBJECT_TYPES_LIST)) {
+            result.setObjectTypesList(productTypes.get(ViSearchHttpConstants.OBJECT_TYPES_LIST));
+        }
+        if (groupResultList != null) {
+            // as for a response read whole, the groups replace the objects
+            List<ProductType> types = result.getProductTypes();
+            List<ObjectSearchResult> groupObjects = new ArrayList<ObjectSearchResult>(groupResultList.size());
+            for (int i = 0; i < groupResultList.size(); i++) {
+                ProductType type = types != null && i < types.size() ? types.get(i) : null;
+                groupObjects.add(SearchResponseReader.objectOf(groupResultList.get(i), type));
+            }
+            result.setObjects(groupObjects);
+        }
+        if (groupResult) {
+            // as for a response read whole
+            result.setObjectTypesList(result.getProductTypesList());
+        }
+    }
+
+    private void onResult(ImageResult result) {
+        if (consumer == null) {
+            results.add(result);
+        } else {
+            consumer.onResult(result);
+        }
+    }
+
+    private void onObject(ObjectSearchResult object) {
+        if (consumer == null) {
+            objects.add(object);
+        } else {
+            consumer.onObject(object);
+        }
+    }
+
+    private void onGroup(GroupSearchResult group) {
+        if (consumer == null) {
+            groups.add(group);
+        } else {
+            consumer.onGroup(group);
+        }
+    }
+
+    private ObjectReader withAttributes(ObjectReader reader, MetadataDictionary dictionary) {
+        reader = reader.withAttribute(MetadataDictionary.class, dictionary);
+        return projection == null ? reader : reader.withAttribute(ResponseProjection.class, projection);
+    }
+}
@@ -0,0 +1,80 @@
+package com.visenze.visearch.internal;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.visenze.visearch.ResponseMessages;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Decodes independent spans of a response, such as the groups of a discover search, in
+ * parallel. The spans are split into one contiguous chunk per processor; the calling thread
+ * decodes the first chunk while a shared pool decodes the others.
+ */
+final class SpanDecoder {
+
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(PARALLELISM,
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("visearch-decode-%d").build());
+
+    private SpanDecoder() {
+    }
+
+    /**
+     * Decode each span of a response with a reader, returning the values in the order of the
+     * spans.
+     *
+     * @param spans the start and end offsets of each span
+     */
+    static <T> List<T> decodeAll(final ObjectReader reader, final String response, List<int[]> spans) {
+        if (spans.isEmpty()) {
+            return new ArrayList<T>(0);
+        }
+        int chunkSize = (spans.size() + PARALLELISM - 1) / PARALLELISM;
+        List<List<int[]>> chunks = Lists.partition(spans, chunkSize);
+        List<Future<List<T>>> futures = new ArrayList<Future<List<T>>>(chunks.size() - 1);
+        for (final List<int[]> chunk : chunks.subList(1, chunks.size())) {
+            futures.add(EXECUTOR.submit(new Callable<List<T>>() {
+                @Override
+                public List<T> call() {
+                    return decode(reader, response, chunk);
+                }
+            }));
+        }
+        List<T> values = new ArrayList<T>(spans.size());
+        try {
+            values.addAll(SpanDecoder.<T>decode(reader, response, chunks.get(0)));
+            for (Future<List<T>> future : futures) {
+                values.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, response);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause());
+            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e.getCause(), response);
+        } finally {
+            for (Future<List<T>> future : futures) {
+                future.cancel(false);
+            }
+        }
+        return values;
+    }
+
+    private static <T> List<T> decode(ObjectReader reader, String response, List<int[]> spans) {
+        List<T> values = new ArrayList<T>(spans.size());
+        for (int[] span : spans) {
+            values.add(SearchResponseReader.<T>decodeSpan(reader, response, span[0], span[1]));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,83 @@
+package com.visenze.visearch.internal.http;
+
+/**
+ * Encodes names and values as application/x-www-form-urlencoded UTF-8, the same way
+ * {@link org.apache.http.client.utils.URLEncodedUtils#format(Iterable, java.nio.charset.Charset)}
+ * does, but without creating intermediate strings or byte arrays.
+ */
+public final class FormUrlEncoder {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private static final boolean[] SAFE = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            SAFE[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            SAFE[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            SAFE[c] = true;
+        }
+        SAFE['_'] = true;
+        SAFE['-'] = true;
+        SAFE['.'] = true;
+        SAFE['*'] = true;
+    }
+
+    private FormUrlEncoder() {
+    }
+
+    /**
+     * Append {@code &name=value}, or {@code name=value} if the buffer is empty.
+     */
+    public static void appendParam(StringBuilder buffer, CharSequence name, CharSequence value) {
+        if (buffer.length() > 0) {
+            buffer.append('&');
+        }
+        encode(name, buffer);
+        buffer.append('=');
+        encode(value, buffer);
+    }
+
+    /**
+     * Append the encoded form of a string.
+     */
+    public static void encode(CharSequence content, StringBuilder buffer) {
+        int length = content.length();
+        for (int i = 0; i < length; i++) {
+            char c = content.charAt(i);
+            if (c < 0x80) {
+                if (SAFE[c]) {
+                    buffer.append(c);
+                } else if (c == ' ') {
+                    buffer.append('+');
+                } else {
+                    appendByte(buffer, c);
+                }
+            } else if (c < 0x800) {
+                appendByte(buffer, 0xC0 | (c >> 6));
+                appendByte(buffer, 0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(content.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, content.charAt(++i));
+                appendByte(buffer, 0xF0 | (codePoint >> 18));
+                appendByte(buffer, 0x80 | ((codePoint >> 12) & 0x3F));
+                appendByte(buffer, 0x80 | ((codePoint >> 6) & 0x3F));
+                appendByte(buffer, 0x80 | (codePoint & 0x3F));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // unpaired surrogates are replaced the same way String.getBytes does
+                appendByte(buffer, '?');
+            } else {
+                appendByte(buffer, 0xE0 | (c >> 12));
+                appendByte(buffer, 0x80 | ((c >> 6) & 0x3F));
+                appendByte(buffer, 0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static void appendByte(StringBuilder buffer, int b) {
+        buffer.append('%').append(HEX[(b >> 4) & 0x0F]).append(HEX[b & 0x0F]);
+    }
+}
@@ -0,0 +1,84 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.collect.Maps;
+import org.apache.http.Header;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Response headers as a map, read directly from the header array of the response.
+ *
+ * <p>Single lookups such as {@link #get(Object)} scan the array without copying it, which is
+ * cheaper than hashing for the handful of headers a response carries. The headers are copied
+ * into a hash map only when the map is iterated or modified. As with the map the headers used
+ * to be copied into, names are case sensitive and the last header of a name wins.
+ */
+class ResponseHeaders extends AbstractMap<String, String> {
+
+    private static final Header[] NO_HEADERS = new Header[0];
+
+    private final Header[] headers;
+
+    private Map<String, String> materialized;
+
+    ResponseHeaders(Header[] headers) {
+        this.headers = headers == null ? NO_HEADERS : headers;
+    }
+
+    @Override
+    public String get(Object key) {
+        if (materialized != null) {
+            return materialized.get(key);
+        }
+        Header header = find(key);
+        return header == null ? null : header.getValue();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (materialized != null) {
+            return materialized.containsKey(key);
+        }
+        return find(key) != null;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return materialized != null ? materialized.isEmpty() : headers.length == 0;
+    }
+
+    @Override
+    public String put(String key, String value) {
+        return materialize().put(key, value);
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return materialize().entrySet();
+    }
+
+    private Header find(Object key) {
+        if (key == null) {
+            return null;
+        }
+        for (int i = headers.length - 1; i >= 0; i--) {
+            if (key.equals(headers[i].getName())) {
+                return headers[i];
+            }
+        }
+        return null;
+    }
+
+    private Map<String, String> materialize() {
+        if (materialized == null) {
+            Map<String, String> map = Maps.newHashMapWithExpectedSize(headers.length);
+            for (Header header : headers) {
+                map.put(header.getName(), header.getValue());
+            }
+            materialized = map;
+        }
+        return materialized;
+    }
+}
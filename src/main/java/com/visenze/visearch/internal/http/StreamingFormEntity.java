@@ -0,0 +1,159 @@
+package com.visenze.visearch.internal.http;
+
+import org.apache.http.Consts;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An application/x-www-form-urlencoded UTF-8 entity whose params are encoded straight to the
+ * connection as they are written, rather than collected into a map and a list of pairs and
+ * then encoded into a string.
+ *
+ * <p>The params are written by {@link #writeParams(Params)}, which is called once to count the
+ * length of the body and once to send it, so it must write the same params each time.
+ */
+public abstract class StreamingFormEntity extends AbstractHttpEntity {
+
+    private static final int FLUSH_SIZE = 8 * 1024;
+
+    private long contentLength = -1;
+
+    protected StreamingFormEntity() {
+        setContentType(ContentType.APPLICATION_FORM_URLENCODED.withCharset(Consts.UTF_8).toString());
+    }
+
+    /**
+     * Write the params of the form.
+     */
+    protected abstract void writeParams(Params params) throws IOException;
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * Get the length of the body, counted by encoding it once without keeping it.
+     */
+    @Override
+    public long getContentLength() {
+        if (contentLength < 0) {
+            Params params = new Params(null);
+            try {
+                writeParams(params);
+                params.flush();
+            } catch (IOException e) {
+                // nothing is written while counting
+                throw new IllegalStateException(e);
+            }
+            contentLength = params.count;
+        }
+        return contentLength;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTo(out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        Params params = new Params(out);
+        writeParams(params);
+        params.flush();
+        out.flush();
+    }
+
+    /**
+     * Encodes the params of a form into a small buffer that is written out, or only counted,
+     * when full.
+     */
+    public static final class Params {
+
+        private final OutputStream out;
+
+        private final StringBuilder buffer = new StringBuilder(FLUSH_SIZE + 256);
+
+        private byte[] bytes;
+
+        private long count;
+
+        private boolean first = true;
+
+        Params(OutputStream out) {
+            this.out = out;
+        }
+
+        /**
+         * Write {@code name=value}. A null value is left out.
+         */
+        public void add(CharSequence name, CharSequence value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            separate();
+            FormUrlEncoder.encode(name, buffer);
+            buffer.append('=');
+            FormUrlEncoder.encode(value, buffer);
+            flushIfFull();
+        }
+
+        /**
+         * Write {@code name[index]=value}, as the data API names the fields of the images of a
+         * request. A null value is left out.
+         */
+        public void add(CharSequence name, int index, CharSequence value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            separate();
+            FormUrlEncoder.encode(name, buffer);
+            // the encoded brackets
+            buffer.append("%5B").append(index).append("%5D=");
+            FormUrlEncoder.encode(value, buffer);
+            flushIfFull();
+        }
+
+        private void separate() {
+            if (!first) {
+                buffer.append('&');
+            }
+            first = false;
+        }
+
+        private void flushIfFull() throws IOException {
+            if (buffer.length() >= FLUSH_SIZE) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            int length = buffer.length();
+            count += length;
+            if (out != null && length > 0) {
+                if (bytes == null || bytes.length < length) {
+                    bytes = new byte[Math.max(length, FLUSH_SIZE + 256)];
+                }
+                // the encoded form is ASCII
+                for (int i = 0; i < length; i++) {
+                    bytes[i] = (byte) buffer.charAt(i);
+                }
+                out.write(bytes, 0, length);
+            }
+            buffer.setLength(0);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.visenze.visearch.internal.http;
 
 import com.google.common.collect.Multimap;
+import org.apache.http.HttpEntity;
 import org.apache.http.auth.UsernamePasswordCredentials;
 
 import java.io.File;
@@ -12,13 +13,27 @@ public interface ViSearchHttpClient {
 
     ViSearchHttpResponse get(String url, Multimap<String, String> params);
 
+    ViSearchHttpResponse getEncoded(String url, CharSequence encodedQuery);
+
     ViSearchHttpResponse post(String url, Multimap<String, String> params);
 
+    /**
+     * Post a form entity, such as a {@link StreamingFormEntity}, compressed if the client config
+     * enables request compression.
+     */
+    ViSearchHttpResponse postEntity(String url, HttpEntity entity);
+
     ViSearchHttpResponse postImage(String url, Multimap<String, String> params, File file);
 
     ViSearchHttpResponse postImage(String url, Multimap<String, String> params, InputStream inputStream, String filename);
 
     ViSearchHttpResponse postImFeature(String url, Multimap<String, String> params, String imFeature , String transId);
 
+    /**
+     * Get a view of this client whose responses are streaming: their body is read from
+     * {@link ViSearchHttpResponse#getStream()} as it arrives, and they must be closed.
+     */
+    ViSearchHttpClient streaming();
+
 
 }
@@ -1,18 +1,20 @@
 package com.visenze.visearch.internal.http;
 
 import com.google.common.base.Strings;
-import com.google.common.collect.Maps;
+import com.google.common.io.BaseEncoding;
 import com.google.common.collect.Multimap;
 import com.visenze.visearch.ClientConfig;
 import com.visenze.visearch.ResponseMessages;
 import com.visenze.visearch.internal.InternalViSearchException;
 import com.visenze.visearch.internal.constant.ViSearchHttpConstants;
 import org.apache.http.*;
-import org.apache.http.auth.AuthenticationException;
+import org.apache.http.auth.AUTH;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.GzipCompressingEntity;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.methods.RequestBuilder;
@@ -20,9 +22,9 @@ import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.entity.mime.content.InputStreamBody;
-import org.apache.http.impl.auth.BasicScheme;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicNameValuePair;
 
 import java.io.File;
@@ -44,12 +46,22 @@ public class ViSearchHttpClientImpl implements ViSearchHttpClient {
     private final ClientConfig clientConfig;
     private final UsernamePasswordCredentials credentials;
 
+    // request headers are immutable, so they are built once and shared by all requests
+    private final Header authHeader;
+    private final Header requestedWithHeader;
+    private volatile UserAgentHeader userAgentHeader;
+
+    private final boolean streaming;
+    private ViSearchHttpClientImpl streamingClient;
 
     public ViSearchHttpClientImpl(String endpoint, String accessKey, String secretKey, CloseableHttpClient httpClient) {
         this.endpoint = endpoint;
         credentials = new UsernamePasswordCredentials(accessKey, secretKey);
         this.httpClient = httpClient;
         this.clientConfig = new ClientConfig();
+        this.authHeader = buildAuthHeader(credentials);
+        this.requestedWithHeader = new BasicHeader(ViSearchHttpConstants.X_REQUESTED_WITH, ClientConfig.DEFAULT_XREQUEST_WITH);
+        this.streaming = false;
     }
 
     public ViSearchHttpClientImpl(String endpoint, String accessKey, String secretKey) {
@@ -71,6 +83,31 @@ public class ViSearchHttpClientImpl implements ViSearchHttpClient {
                 .setMaxConnPerRoute(clientConfig.getMaxConnection())
                 .setDefaultRequestConfig(conf)
                 .build();
+        this.authHeader = buildAuthHeader(credentials);
+        this.requestedWithHeader = new BasicHeader(ViSearchHttpConstants.X_REQUESTED_WITH, ClientConfig.DEFAULT_XREQUEST_WITH);
+        this.streaming = false;
+    }
+
+    private ViSearchHttpClientImpl(ViSearchHttpClientImpl client) {
+        this.endpoint = client.endpoint;
+        this.httpClient = client.httpClient;
+        this.clientConfig = client.clientConfig;
+        this.credentials = client.credentials;
+        this.authHeader = client.authHeader;
+        this.requestedWithHeader = client.requestedWithHeader;
+        this.streaming = true;
+    }
+
+    @Override
+    public ViSearchHttpClient streaming() {
+        if (streaming) {
+            return this;
+        }
+        // racing threads may each build a view, which is harmless
+        if (streamingClient == null) {
+            streamingClient = new ViSearchHttpClientImpl(this);
+        }
+        return streamingClient;
     }
 
     @Override
@@ -84,12 +121,36 @@ public class ViSearchHttpClientImpl implements ViSearchHttpClient {
         return getResponse(request);
     }
 
+    @Override
+    public ViSearchHttpResponse getEncoded(String path, CharSequence encodedQuery) {
+        StringBuilder url = new StringBuilder(endpoint.length() + path.length() + encodedQuery.length() + 1);
+        url.append(endpoint).append(path);
+        if (encodedQuery.length() > 0) {
+            url.append('?').append(encodedQuery);
+        }
+        HttpUriRequest request = new HttpGet(buildEncodedUri(url.toString()));
+        return getResponse(request);
+    }
+
     @Override
     public ViSearchHttpResponse post(String path, Multimap<String, String> params) {
         HttpUriRequest request = buildPostRequest(endpoint + path, params);
         return getResponse(request);
     }
 
+    @Override
+    public ViSearchHttpResponse postEntity(String path, HttpEntity entity) {
+        if (clientConfig.isRequestCompression()) {
+            entity = new GzipCompressingEntity(entity);
+        }
+        HttpUriRequest request = RequestBuilder
+                .post()
+                .setUri(buildPostUri(endpoint + path))
+                .setEntity(entity)
+                .build();
+        return getResponse(request);
+    }
+
     @Override
     public ViSearchHttpResponse postImage(String path, Multimap<String, String> params, File file) {
         HttpUriRequest request = buildPostRequestForImage(endpoint + path, params, file);
@@ -128,6 +189,14 @@ public class ViSearchHttpClientImpl implements ViSearchHttpClient {
         }
     }
 
+    private static URI buildEncodedUri(String url) {
+        try {
+            return new URI(url);
+        } catch (URISyntaxException e) {
+            throw new InternalViSearchException(ResponseMessages.INVALID_ENDPOINT, e);
+        }
+    }
+
     private static URI buildPostUri(String url) {
         try {
             return new URIBuilder(url).build();
@@ -192,15 +261,15 @@ public class ViSearchHttpClientImpl implements ViSearchHttpClient {
         addOtherHeaders(request);
         CloseableHttpResponse response = executeRequest(request);
         try {
-            Map<String, String> headers = Maps.newHashMap();
-            Header[] responseHeaders = response.getAllHeaders();
-            if (responseHeaders != null) {
-                for (Header header : responseHeaders) {
-                    headers.put(header.getName(), header.getValue());
-                }
+            ViSearchHttpResponse response1;
+            if (streaming) {
+                response1 = ViSearchHttpResponse.streaming(response);
+            } else if (clientConfig.getResponseBufferPool() != null) {
+                response1 = ViSearchHttpResponse.pooled(response, clientConfig.getResponseBufferPool());
+            } else {
+                response1 = new ViSearchHttpResponse(response);
             }
-            ViSearchHttpResponse response1 = new ViSearchHttpResponse(response);
-            response1.setHeaders(headers);
+            response1.setHeaders(new ResponseHeaders(response.getAllHeaders()));
             return response1;
         } catch (IllegalArgumentException e) {
             throw new InternalViSearchException(ResponseMessages.SYSTEM_ERROR, e);
@@ -210,25 +279,32 @@ public class ViSearchHttpClientImpl implements ViSearchHttpClient {
     }
 
     private void addAuthHeader(HttpUriRequest request) {
-        try {
-            request.addHeader(new BasicScheme().authenticate(credentials, request, null));
-        } catch (AuthenticationException e) {
-            throw new InternalViSearchException(ResponseMessages.UNAUTHORIZED, e);
-            // throw new com.visenze.visearch.internal.AuthenticationException("There was an error generating the " +
-            //        "HTTP basic authentication header. Please check your access key and secret key and try again", e);
-        }
+        request.addHeader(authHeader);
     }
 
     private void addOtherHeaders(HttpUriRequest request) {
         // add user agent header
+        request.addHeader(getUserAgentHeader());
+
+        // add x-request-with header
+        request.addHeader(requestedWithHeader);
+    }
+
+    private Header getUserAgentHeader() {
+        // the user agent of the config can still be changed after the client is created
         String userAgent = clientConfig.getUserAgent();
-        if (!userAgent.equals(ClientConfig.DEFAULT_USER_AGENT)) {
-            userAgent += " " + ClientConfig.DEFAULT_USER_AGENT;
+        UserAgentHeader cached = userAgentHeader;
+        if (cached == null || cached.userAgent != userAgent) {
+            cached = new UserAgentHeader(userAgent);
+            userAgentHeader = cached;
         }
-        request.addHeader(HttpHeaders.USER_AGENT, userAgent);
+        return cached.header;
+    }
 
-        // add x-request-with header
-        request.addHeader(ViSearchHttpConstants.X_REQUESTED_WITH, clientConfig.DEFAULT_XREQUEST_WITH);
+    private static Header buildAuthHeader(UsernamePasswordCredentials credentials) {
+        // same value as BasicScheme generates with its default US-ASCII credentials charset
+        String token = credentials.getUserPrincipal().getName() + ":" + credentials.getPassword();
+        return new BasicHeader(AUTH.WWW_AUTH_RESP, "Basic " + BaseEncoding.base64().encode(token.getBytes(Consts.ASCII)));
     }
 
     private CloseableHttpResponse executeRequest(HttpUriRequest request) {
@@ -249,4 +325,18 @@ public class ViSearchHttpClientImpl implements ViSearchHttpClient {
         return pairs;
     }
 
+    private static final class UserAgentHeader {
+        private final String userAgent;
+        private final Header header;
+
+        UserAgentHeader(String userAgent) {
+            this.userAgent = userAgent;
+            String value = userAgent;
+            if (!value.equals(ClientConfig.DEFAULT_USER_AGENT)) {
+                value += " " + ClientConfig.DEFAULT_USER_AGENT;
+            }
+            this.header = new BasicHeader(HttpHeaders.USER_AGENT, value);
+        }
+    }
+
 }
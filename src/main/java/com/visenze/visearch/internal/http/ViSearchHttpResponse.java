@@ -1,15 +1,27 @@
 package com.visenze.visearch.internal.http;
 
+import com.google.common.base.Charsets;
+import com.visenze.visearch.ResponseBufferPool;
 import com.visenze.visearch.ResponseMessages;
 import com.visenze.visearch.internal.InternalViSearchException;
 import com.visenze.visearch.internal.ResponseBase;
+import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.entity.ContentType;
 import org.apache.http.util.EntityUtils;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 
-public class ViSearchHttpResponse extends ResponseBase {
+public class ViSearchHttpResponse extends ResponseBase implements Closeable {
     private String body;
+    private CloseableHttpResponse streamingResponse;
+    private ResponseBufferPool pool;
+    private byte[] buffer;
+    private int length;
+    private Charset charset;
     public ViSearchHttpResponse(CloseableHttpResponse response) {
         try {
             body = EntityUtils.toString(response.getEntity());
@@ -23,7 +35,146 @@ public class ViSearchHttpResponse extends ResponseBase {
             //        "Please check your network connectivity and try again.", e);
         }
     }
-    public String getBody() {
+
+    /**
+     * Create a response whose body is read from {@link #getStream()} as it arrives, instead
+     * of being read into a string. The response must be closed once the body is read.
+     */
+    public static ViSearchHttpResponse streaming(CloseableHttpResponse response) {
+        return new ViSearchHttpResponse(response, true);
+    }
+
+    private ViSearchHttpResponse(CloseableHttpResponse response, boolean streaming) {
+        this.streamingResponse = streaming ? response : null;
+    }
+
+    /**
+     * Create a response whose body is read into a buffer of a pool. The buffer is given back
+     * by {@link #release()}, or when the body is first decoded into a string.
+     */
+    public static ViSearchHttpResponse pooled(CloseableHttpResponse response, ResponseBufferPool pool) {
+        ViSearchHttpResponse pooled = new ViSearchHttpResponse(response, false);
+        pooled.readPooled(response.getEntity(), pool);
+        return pooled;
+    }
+
+    private void readPooled(HttpEntity entity, ResponseBufferPool pool) {
+        if (entity == null) {
+            throw new InternalViSearchException(ResponseMessages.SYSTEM_ERROR, new IllegalArgumentException("HTTP entity may not be null"));
+        }
+        ContentType contentType = ContentType.get(entity);
+        // JSON is UTF-8 unless stated otherwise
+        this.charset = contentType == null || contentType.getCharset() == null ? Charsets.UTF_8 : contentType.getCharset();
+        long contentLength = entity.getContentLength();
+        // one more byte than the content, so that the end of the stream is read without growing
+        byte[] bytes = pool.acquire(contentLength > 0 && contentLength < Integer.MAX_VALUE ? (int) contentLength + 1 : 0);
+        int count = 0;
+        try {
+            InputStream stream = entity.getContent();
+            try {
+                int read;
+                while ((read = stream.read(bytes, count, bytes.length - count)) != -1) {
+                    count += read;
+                    if (count == bytes.length) {
+                        byte[] larger = pool.acquire(bytes.length * 2);
+                        System.arraycopy(bytes, 0, larger, 0, count);
+                        pool.release(bytes);
+                        bytes = larger;
+                    }
+                }
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            pool.release(bytes);
+            throw new InternalViSearchException(ResponseMessages.SYSTEM_ERROR, e);
+        } catch (RuntimeException e) {
+            pool.release(bytes);
+            throw e;
+        }
+        this.pool = pool;
+        this.buffer = bytes;
+        this.length = count;
+    }
+
+    /**
+     * Get the body, or null for a streaming response. The body of a pooled response is decoded
+     * on first access, giving its buffer back to the pool.
+     */
+    public synchronized String getBody() {
+        if (body == null && buffer != null) {
+            body = new String(buffer, 0, length, charset);
+            release();
+        }
         return body;
     }
+
+    /**
+     * Whether the body is held in a pooled buffer, available from {@link #getBodyBytes()}.
+     */
+    public synchronized boolean isPooled() {
+        return buffer != null;
+    }
+
+    /**
+     * Get the pooled buffer holding the body, of which the first {@link #getBodyLength()} bytes
+     * are the body, or null if the body is not held in a pooled buffer. The buffer must not be
+     * used once the response is released.
+     */
+    public synchronized byte[] getBodyBytes() {
+        return buffer;
+    }
+
+    public synchronized int getBodyLength() {
+        return length;
+    }
+
+    /**
+     * Whether the pooled body can be parsed as is, as JSON parsers detect UTF-8 but not
+     * other charsets.
+     */
+    public synchronized boolean isUtf8() {
+        return Charsets.UTF_8.equals(charset);
+    }
+
+    /**
+     * Give the buffer of a pooled response back to its pool. Does nothing for other responses,
+     * or if the buffer was already given back.
+     */
+    public synchronized void release() {
+        if (buffer != null) {
+            byte[] released = buffer;
+            buffer = null;
+            pool.release(released);
+        }
+    }
+
+    /**
+     * Get the stream of the body of a streaming response, or null for a response whose body
+     * was already read.
+     */
+    public InputStream getStream() throws IOException {
+        if (streamingResponse == null) {
+            return null;
+        }
+        HttpEntity entity = streamingResponse.getEntity();
+        if (entity == null) {
+            throw new IOException("The response has no body");
+        }
+        return entity.getContent();
+    }
+
+    /**
+     * Release the connection of a streaming response. Does nothing for other responses.
+     */
+    @Override
+    public void close() throws IOException {
+        if (streamingResponse != null) {
+            try {
+                EntityUtils.consume(streamingResponse.getEntity());
+            } finally {
+                streamingResponse.close();
+            }
+        }
+    }
 }
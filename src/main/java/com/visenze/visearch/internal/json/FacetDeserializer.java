@@ -0,0 +1,76 @@
+package com.visenze.visearch.internal.json;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.visenze.visearch.Facet;
+import com.visenze.visearch.FacetItem;
+import com.visenze.visearch.FacetRange;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deserializes a {@link Facet} with its value items, or its range for a numeric field.
+ */
+class FacetDeserializer extends ModelDeserializer<Facet> {
+
+    private static final long serialVersionUID = 1L;
+
+    FacetDeserializer() {
+        super(Facet.class);
+    }
+
+    @Override
+    public Facet deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        startObject(p, ctxt);
+        Facet facet = new Facet();
+        for (; p.getCurrentToken() == JsonToken.FIELD_NAME; p.nextToken()) {
+            String field = p.getCurrentName();
+            p.nextToken();
+            if ("key".equals(field)) {
+                facet.setKey(readString(p, ctxt));
+            } else if ("items".equals(field)) {
+                facet.setFacetItems(readItems(p, ctxt));
+            } else if ("range".equals(field)) {
+                facet.setRange(p.getCurrentToken() == JsonToken.VALUE_NULL ? null : ctxt.readValue(p, FacetRange.class));
+            } else {
+                p.skipChildren();
+            }
+        }
+        return facet;
+    }
+
+    private List<FacetItem> readItems(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.getCurrentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.START_ARRAY) {
+            throw ctxt.mappingException(List.class, token);
+        }
+        List<FacetItem> items = new ArrayList<FacetItem>();
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+            if (p.getCurrentToken() == JsonToken.VALUE_NULL) {
+                items.add(null);
+                continue;
+            }
+            startObject(p, ctxt);
+            FacetItem item = new FacetItem();
+            for (; p.getCurrentToken() == JsonToken.FIELD_NAME; p.nextToken()) {
+                String field = p.getCurrentName();
+                p.nextToken();
+                if ("value".equals(field)) {
+                    item.setValue(readString(p, ctxt));
+                } else if ("count".equals(field)) {
+                    item.setCount(readInteger(p, ctxt));
+                } else {
+                    p.skipChildren();
+                }
+            }
+            items.add(item);
+        }
+        return items;
+    }
+}
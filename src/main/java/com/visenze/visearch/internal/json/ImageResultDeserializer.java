@@ -0,0 +1,119 @@
+package com.visenze.visearch.internal.json;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.deser.ResolvableDeserializer;
+import com.visenze.visearch.ImageResult;
+import com.visenze.visearch.MetadataDictionary;
+import com.visenze.visearch.MetadataSchema;
+import com.visenze.visearch.ResponseProjection;
+import com.visenze.visearch.TypedMetadata;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deserializes an {@link ImageResult} from {@code im_name}, {@code value_map} and {@code score}.
+ *
+ * <p>String metadata values, by far the most common, are read directly. Any other value is
+ * read as an untyped object, exactly as it was by the mixin. The metadata maps are compact
+ * and immutable, sharing one {@link MetadataDictionary} per call. When a {@link MetadataSchema}
+ * is set as an attribute of the call, the typed values are decoded in the same pass, and when
+ * a {@link ResponseProjection} is, the metadata fields it leaves out are skipped.
+ */
+class ImageResultDeserializer extends ModelDeserializer<ImageResult> implements ResolvableDeserializer {
+
+    private static final long serialVersionUID = 1L;
+
+    private JsonDeserializer<Object> untypedDeserializer;
+
+    ImageResultDeserializer() {
+        super(ImageResult.class);
+    }
+
+    @Override
+    public void resolve(DeserializationContext ctxt) throws JsonMappingException {
+        untypedDeserializer = ctxt.findRootValueDeserializer(ctxt.constructType(Object.class));
+    }
+
+    @Override
+    public ImageResult deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        startObject(p, ctxt);
+        String imName = null;
+        Map<String, String> metadata = null;
+        Float score = null;
+        TypedMetadata typedMetadata = null;
+        for (; p.getCurrentToken() == JsonToken.FIELD_NAME; p.nextToken()) {
+            String field = p.getCurrentName();
+            p.nextToken();
+            if ("im_name".equals(field)) {
+                imName = readString(p, ctxt);
+            } else if ("value_map".equals(field)) {
+                MetadataSchema schema = (MetadataSchema) ctxt.getAttribute(MetadataSchema.class);
+                TypedMetadata.Builder typed = schema == null || p.getCurrentToken() != JsonToken.START_OBJECT ? null : schema.newValues();
+                metadata = readMetadata(p, ctxt, typed);
+                typedMetadata = typed == null ? null : typed.build();
+            } else if ("score".equals(field)) {
+                score = readFloat(p, ctxt);
+            } else {
+                p.skipChildren();
+            }
+        }
+        return new ImageResult(imName, metadata, score, typedMetadata);
+    }
+
+    private Map<String, String> readMetadata(JsonParser p, DeserializationContext ctxt, TypedMetadata.Builder typed) throws IOException {
+        JsonToken token = p.getCurrentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw ctxt.mappingException(Map.class, token);
+        }
+        // the results read by one call share their keys and repeated values
+        MetadataDictionary dictionary = (MetadataDictionary) ctxt.getAttribute(MetadataDictionary.class);
+        if (dictionary == null) {
+            dictionary = new MetadataDictionary();
+            ctxt.setAttribute(MetadataDictionary.class, dictionary);
+        }
+        // non-string values are kept as they are, so the map is only nominally of strings
+        MetadataDictionary.MapBuilder metadata = dictionary.newMap();
+        ResponseProjection projection = (ResponseProjection) ctxt.getAttribute(ResponseProjection.class);
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String key = p.getCurrentName();
+            token = p.nextToken();
+            if (projection != null && !projection.includesMetadata(key)) {
+                p.skipChildren();
+            } else if (token == JsonToken.VALUE_STRING) {
+                String value = p.getText();
+                metadata.put(key, value);
+                if (typed != null) {
+                    typed.putText(key, value);
+                }
+            } else if (token == JsonToken.VALUE_NULL) {
+                metadata.put(key, null);
+            } else if (typed != null && token == JsonToken.VALUE_NUMBER_INT
+                    && p.getNumberType() == JsonParser.NumberType.INT && typed.typeOf(key) == MetadataSchema.FieldType.INT) {
+                int value = p.getIntValue();
+                metadata.put(key, value);
+                typed.putInt(key, value);
+            } else if (typed != null && token.isNumeric() && typed.typeOf(key) == MetadataSchema.FieldType.FLOAT) {
+                metadata.put(key, untypedDeserializer.deserialize(p, ctxt));
+                typed.putFloat(key, p.getFloatValue());
+            } else {
+                Object value = untypedDeserializer.deserialize(p, ctxt);
+                metadata.put(key, value);
+                if (typed != null && value instanceof List) {
+                    typed.putList(key, (List<?>) value);
+                } else if (typed != null && value != null) {
+                    typed.putText(key, value.toString());
+                }
+            }
+        }
+        return metadata.build();
+    }
+}
@@ -0,0 +1,45 @@
+package com.visenze.visearch.internal.json;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.visenze.visearch.InsertError;
+
+import java.io.IOException;
+
+/**
+ * Deserializes an {@link InsertError} of an insert or insert status response.
+ */
+class InsertErrorDeserializer extends ModelDeserializer<InsertError> {
+
+    private static final long serialVersionUID = 1L;
+
+    InsertErrorDeserializer() {
+        super(InsertError.class);
+    }
+
+    @Override
+    public InsertError deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        startObject(p, ctxt);
+        String imName = null;
+        Integer index = null;
+        Integer errorCode = null;
+        String errorMessage = null;
+        for (; p.getCurrentToken() == JsonToken.FIELD_NAME; p.nextToken()) {
+            String field = p.getCurrentName();
+            p.nextToken();
+            if ("im_name".equals(field)) {
+                imName = readString(p, ctxt);
+            } else if ("index".equals(field)) {
+                index = readInteger(p, ctxt);
+            } else if ("error_code".equals(field)) {
+                errorCode = readInteger(p, ctxt);
+            } else if ("error_message".equals(field)) {
+                errorMessage = readString(p, ctxt);
+            } else {
+                p.skipChildren();
+            }
+        }
+        return new InsertError(imName, index, errorCode, errorMessage);
+    }
+}
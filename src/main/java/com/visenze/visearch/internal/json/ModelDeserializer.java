@@ -0,0 +1,107 @@
+package com.visenze.visearch.internal.json;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base of the hand-written deserializers of the model classes. They read the tokens of a
+ * response directly into the model, instead of going through the reflective bean
+ * deserializers that the mixins used to configure.
+ *
+ * <p>Scalars are coerced by the same rules as Jackson's own deserializers, unknown properties
+ * are skipped, and containers are created with the same types as before.
+ */
+abstract class ModelDeserializer<T> extends StdDeserializer<T> {
+
+    private static final long serialVersionUID = 1L;
+
+    ModelDeserializer(Class<T> valueClass) {
+        super(valueClass);
+    }
+
+    /**
+     * Move past the start of an object, failing if the current token does not start one.
+     */
+    void startObject(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            p.nextToken();
+        } else if (token != JsonToken.FIELD_NAME && token != JsonToken.END_OBJECT) {
+            throw ctxt.mappingException(handledType(), token);
+        }
+    }
+
+    String readString(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.getCurrentToken();
+        if (token == JsonToken.VALUE_STRING) {
+            return p.getText();
+        }
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        return _parseString(p, ctxt);
+    }
+
+    Float readFloat(JsonParser p, DeserializationContext ctxt) throws IOException {
+        return _parseFloat(p, ctxt);
+    }
+
+    Integer readInteger(JsonParser p, DeserializationContext ctxt) throws IOException {
+        return _parseInteger(p, ctxt);
+    }
+
+    List<String> readStringList(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.getCurrentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.START_ARRAY) {
+            throw ctxt.mappingException(List.class, token);
+        }
+        List<String> list = new ArrayList<String>();
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+            list.add(p.getCurrentToken() == JsonToken.VALUE_NULL ? null : readString(p, ctxt));
+        }
+        return list;
+    }
+
+    List<Integer> readIntegerList(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.getCurrentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.START_ARRAY) {
+            throw ctxt.mappingException(List.class, token);
+        }
+        List<Integer> list = new ArrayList<Integer>();
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+            list.add(readInteger(p, ctxt));
+        }
+        return list;
+    }
+
+    Map<String, List<String>> readStringListMap(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.getCurrentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw ctxt.mappingException(Map.class, token);
+        }
+        Map<String, List<String>> map = new LinkedHashMap<String, List<String>>();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String key = p.getCurrentName();
+            p.nextToken();
+            map.put(key, readStringList(p, ctxt));
+        }
+        return map;
+    }
+}
@@ -0,0 +1,50 @@
+package com.visenze.visearch.internal.json;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.visenze.visearch.ProductType;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deserializes a detected {@link ProductType}.
+ */
+class ProductTypeDeserializer extends ModelDeserializer<ProductType> {
+
+    private static final long serialVersionUID = 1L;
+
+    ProductTypeDeserializer() {
+        super(ProductType.class);
+    }
+
+    @Override
+    public ProductType deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        startObject(p, ctxt);
+        String type = null;
+        Float score = null;
+        List<Integer> box = null;
+        Map<String, List<String>> attributes = null;
+        Map<String, List<String>> attributesList = null;
+        for (; p.getCurrentToken() == JsonToken.FIELD_NAME; p.nextToken()) {
+            String field = p.getCurrentName();
+            p.nextToken();
+            if ("type".equals(field)) {
+                type = readString(p, ctxt);
+            } else if ("score".equals(field)) {
+                score = readFloat(p, ctxt);
+            } else if ("box".equals(field)) {
+                box = readIntegerList(p, ctxt);
+            } else if ("attributes".equals(field)) {
+                attributes = readStringListMap(p, ctxt);
+            } else if ("attributes_list".equals(field)) {
+                attributesList = readStringListMap(p, ctxt);
+            } else {
+                p.skipChildren();
+            }
+        }
+        return new ProductType(type, score, box, attributes, attributesList);
+    }
+}
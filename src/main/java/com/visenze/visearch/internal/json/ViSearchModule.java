@@ -7,17 +7,18 @@ public class ViSearchModule extends SimpleModule {
 
     public ViSearchModule() {
         super("ViSearchModule");
+        addDeserializer(ImageResult.class, new ImageResultDeserializer());
+        addDeserializer(ProductType.class, new ProductTypeDeserializer());
+        addDeserializer(Facet.class, new FacetDeserializer());
+        addDeserializer(InsertError.class, new InsertErrorDeserializer());
     }
 
     @Override
     public void setupModule(SetupContext context) {
-        context.setMixInAnnotations(ImageResult.class, ImageResultMixin.class);
-        context.setMixInAnnotations(ProductType.class, ProductTypeMixin.class);
-        context.setMixInAnnotations(Facet.class, FacetMixin.class);
+        super.setupModule(context);
         context.setMixInAnnotations(FacetItem.class, FacetItemMixin.class);
         context.setMixInAnnotations(InsertTrans.class, InsertTransMixin.class);
         context.setMixInAnnotations(InsertStatus.class, InsertStatusMixin.class);
-        context.setMixInAnnotations(InsertError.class, InsertErrorMixin.class);
         context.setMixInAnnotations(GroupSearchResult.class, GroupSearchResultMixin.class);
     }
 }
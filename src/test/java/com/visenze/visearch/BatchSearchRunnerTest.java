@@ -0,0 +1,96 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.visenze.visearch.internal.DataOperations;
+import com.visenze.visearch.internal.SearchOperations;
+import com.visenze.visearch.internal.TrackOperations;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class BatchSearchRunnerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SearchOperations searchOperations;
+    private ViSearch visearch;
+
+    @Before
+    public void setup() {
+        searchOperations = mock(SearchOperations.class);
+        when(searchOperations.search(any(SearchParams.class))).then(new Answer<PagedSearchResult>() {
+            @Override
+            public PagedSearchResult answer(InvocationOnMock invocationOnMock) throws Throwable {
+                SearchParams params = (SearchParams) invocationOnMock.getArguments()[0];
+                if ("im_missing".equals(params.getImName())) {
+                    return new PagedSearchResult("Image not found with im_name.", null, "{}");
+                }
+                PagedSearchResult result = new PagedSearchResult(Lists.newArrayList(
+                        new ImageResult(params.getImName() + "_similar", null, 0.5f)));
+                result.setTotal(1);
+                return result;
+            }
+        });
+        visearch = new ViSearch(mock(DataOperations.class), searchOperations, mock(TrackOperations.class));
+        visearch.setEnableAutoSolutionActionTrack(false);
+    }
+
+    @Test
+    public void testRunJsonl() throws Exception {
+        File manifest = folder.newFile("manifest.jsonl");
+        Files.write("{\"id\":\"a\",\"im_name\":\"im_a\",\"params\":{\"limit\":5,\"fl\":[\"price\"]}}\n" +
+                "\n" +
+                "{\"id\":\"b\",\"im_name\":\"im_missing\"}\n" +
+                "not json\n", manifest, Charsets.UTF_8);
+        File output = new File(folder.getRoot(), "output.jsonl");
+
+        BatchSearchRunner.Summary summary = new BatchSearchRunner(visearch).setConcurrency(2).run(manifest, output);
+
+        List<String> lines = Files.readLines(output, Charsets.UTF_8);
+        assertEquals(3, lines.size());
+        assertEquals("{\"id\":\"a\",\"status\":\"OK\",\"total\":1,\"result\":[{\"im_name\":\"im_a_similar\",\"score\":0.5}]}", lines.get(0));
+        assertEquals("{\"id\":\"b\",\"status\":\"fail\",\"error\":\"Image not found with im_name.\"}", lines.get(1));
+        assertTrue(lines.get(2).startsWith("{\"id\":\"4\",\"status\":\"fail\""));
+        assertEquals(4, summary.getLineCount());
+        assertEquals(3, summary.getSearchCount());
+        assertEquals(2, summary.getFailureCount());
+        verify(searchOperations, times(2)).search(any(SearchParams.class));
+    }
+
+    @Test
+    public void testResumeFromCheckpoint() throws Exception {
+        File manifest = folder.newFile("manifest.jsonl");
+        Files.write("{\"id\":\"a\",\"im_name\":\"im_a\"}\n" +
+                "{\"id\":\"b\",\"im_name\":\"im_b\"}\n" +
+                "{\"id\":\"c\",\"im_name\":\"im_c\"}\n", manifest, Charsets.UTF_8);
+        File output = new File(folder.getRoot(), "output.tsv");
+        String completed = "a\t\t1\tim_a_similar\t0.5\t\nb\t\t1\tim_b_similar\t0.5\t\n";
+        // the previous run died after writing a partial row past its checkpoint
+        Files.write(completed + "c\t\t1\tim_", output, Charsets.UTF_8);
+        Files.write("lines=2\nbytes=" + completed.length() + "\n",
+                new File(folder.getRoot(), "output.tsv.checkpoint"), Charsets.UTF_8);
+
+        BatchSearchRunner.Summary summary = new BatchSearchRunner(visearch)
+                .setFormat(BatchSearchRunner.OutputFormat.TSV)
+                .run(manifest, output);
+
+        assertEquals(completed + "c\t\t1\tim_c_similar\t0.5\t\n", Files.toString(output, Charsets.UTF_8));
+        assertEquals(2, summary.getResumedLineCount());
+        assertEquals(1, summary.getSearchCount());
+        verify(searchOperations, times(1)).search(any(SearchParams.class));
+    }
+}
@@ -0,0 +1,172 @@
+package com.visenze.visearch;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.visenze.visearch.internal.AimdLimiter;
+import com.visenze.visearch.internal.DataOperations;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class BulkInserterTest {
+
+    @Test
+    public void testBulkInsert() throws Exception {
+        DataOperations dataOperations = mock(DataOperations.class);
+        when(dataOperations.insert(Matchers.<List<Image>>any(), Matchers.<Map<String, String>>any())).thenAnswer(new Answer<InsertTrans>() {
+            @Override
+            public InsertTrans answer(InvocationOnMock invocation) {
+                List<Image> batch = (List<Image>) invocation.getArguments()[0];
+                String first = batch.get(0).getImName();
+                if ("im_100".equals(first)) {
+                    List<InsertError> errors = Lists.newArrayList(new InsertError("im_105", 5, 201, "Could not download the image from im_url."));
+                    return new InsertTrans("trans_1", batch.size() - 1, errors);
+                } else if ("im_200".equals(first)) {
+                    return new InsertTrans("Internal server error", (Throwable) null, null);
+                }
+                return new InsertTrans("trans_" + first, batch.size(), new ArrayList<InsertError>());
+            }
+        });
+        List<Image> images = Lists.newArrayList();
+        for (int i = 0; i < 250; i++) {
+            images.add(new Image("im_" + i, "http://www.example.com/im_" + i + ".jpeg"));
+        }
+        Map<String, String> customParams = Maps.newHashMap();
+        customParams.put("custom_param", "custom_value");
+
+        BulkInsertResult result = new BulkInserter(dataOperations).setConcurrency(3).setCustomParams(customParams).insert(images);
+        verify(dataOperations, times(3)).insert(Matchers.<List<Image>>any(), eq(customParams));
+        assertEquals(250, result.getImageCount());
+        assertEquals(3, result.getBatches().size());
+        assertEquals(200, result.getBatches().get(2).getOffset());
+        assertEquals(50, result.getBatches().get(2).getSize());
+        assertEquals(Lists.newArrayList("trans_im_0", "trans_1"), result.getTransIds());
+        assertEquals(199, result.getTotal());
+        assertEquals(1, result.getErrors().size());
+        // the index of an error is the position of its image in all images
+        assertEquals(Integer.valueOf(105), result.getErrors().get(0).getIndex());
+        assertEquals("im_105", images.get(result.getErrors().get(0).getIndex()).getImName());
+        assertEquals(1, result.getFailedBatches().size());
+        assertEquals("Internal server error", result.getFailedBatches().get(0).getInsertTrans().getErrorMessage());
+        assertEquals(3, result.getStats().getCount());
+        assertEquals(1, result.getStats().getFailureCount());
+        assertTrue(result.hasFailures());
+    }
+
+    @Test
+    public void testBulkInsertBatchSize() throws Exception {
+        DataOperations dataOperations = mock(DataOperations.class);
+        when(dataOperations.insert(Matchers.<List<Image>>any(), Matchers.<Map<String, String>>any()))
+                .thenReturn(new InsertTrans("trans", 10, new ArrayList<InsertError>()));
+        List<Image> images = Lists.newArrayList();
+        for (int i = 0; i < 25; i++) {
+            images.add(new Image("im_" + i, "http://www.example.com/im_" + i + ".jpeg"));
+        }
+        BulkInsertResult result = new BulkInserter(dataOperations).setBatchSize(10).setRateLimit(1000).insert(images);
+        assertEquals(3, result.getBatches().size());
+        assertEquals(5, result.getBatches().get(2).getSize());
+        assertEquals(27, result.getBatches().get(2).getGlobalIndex(7));
+        assertFalse(result.hasFailures());
+        try {
+            new BulkInserter(dataOperations).setBatchSize(101);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // the server accepts at most 100 images per insert
+        }
+    }
+
+    @Test
+    public void testBulkInsertIterator() throws Exception {
+        final AtomicInteger read = new AtomicInteger();
+        final AtomicInteger sent = new AtomicInteger();
+        final AtomicInteger maxHeld = new AtomicInteger();
+        DataOperations dataOperations = mock(DataOperations.class);
+        when(dataOperations.insert(Matchers.<List<Image>>any(), Matchers.<Map<String, String>>any())).thenAnswer(new Answer<InsertTrans>() {
+            @Override
+            public InsertTrans answer(InvocationOnMock invocation) throws Exception {
+                List<Image> batch = (List<Image>) invocation.getArguments()[0];
+                Thread.sleep(1);
+                sent.addAndGet(batch.size());
+                return new InsertTrans("trans_" + batch.get(0).getImName(), batch.size(), new ArrayList<InsertError>());
+            }
+        });
+        Iterator<Image> images = new AbstractIterator<Image>() {
+            @Override
+            protected Image computeNext() {
+                int i = read.get();
+                if (i == 1000) {
+                    return endOfData();
+                }
+                read.incrementAndGet();
+                int held = read.get() - sent.get();
+                if (held > maxHeld.get()) {
+                    maxHeld.set(held);
+                }
+                return new Image("im_" + i, "http://www.example.com/im_" + i + ".jpeg");
+            }
+        };
+
+        BulkInsertResult result = new BulkInserter(dataOperations).setBatchSize(10).setConcurrency(2).setMaxInFlight(3).insert(images);
+        assertEquals(1000, result.getImageCount());
+        assertEquals(100, result.getBatches().size());
+        assertEquals(1000, result.getTotal());
+        assertEquals("trans_im_990", result.getBatches().get(99).getInsertTrans().getTransId());
+        assertEquals(990, result.getBatches().get(99).getOffset());
+        // reading waits while the max number of batches is in flight
+        assertTrue(String.valueOf(maxHeld.get()), maxHeld.get() <= 30);
+    }
+
+    @Test
+    public void testBulkInsertAdaptive() throws Exception {
+        DataOperations dataOperations = mock(DataOperations.class);
+        final List<Integer> sizes = Collections.synchronizedList(new ArrayList<Integer>());
+        when(dataOperations.insert(anyListOf(Image.class), anyMapOf(String.class, String.class))).thenAnswer(new Answer<InsertTrans>() {
+            @Override
+            public InsertTrans answer(InvocationOnMock invocation) throws Throwable {
+                int size = ((List<?>) invocation.getArguments()[0]).size();
+                sizes.add(size);
+                // the server rejects batches above 40 images
+                if (size > 40) {
+                    return new InsertTrans("Request too large", (Throwable) null, null);
+                }
+                return new InsertTrans("trans_" + sizes.size(), size, new ArrayList<InsertError>());
+            }
+        });
+        List<Image> images = new ArrayList<Image>();
+        for (int i = 0; i < 1000; i++) {
+            images.add(new Image("im_" + i, "http://www.example.com/" + i + ".jpg"));
+        }
+        BulkInsertResult result = new BulkInserter(dataOperations)
+                .setConcurrency(1)
+                .setMaxInFlight(1)
+                .setAdaptive(true)
+                .insert(images);
+        assertEquals(1000, result.getImageCount());
+        int offset = 0;
+        for (BulkInsertResult.Batch batch : result.getBatches()) {
+            assertEquals(offset, batch.getOffset());
+            offset += batch.getSize();
+        }
+        assertEquals(1000, offset);
+        // the first batch of 50 fails, and the batch size then stays around the limit
+        assertEquals(50, (int) sizes.get(0));
+        assertEquals(25, (int) sizes.get(1));
+        // after that, the batch size grows past the limit by at most one step before it is halved
+        for (int i = 1; i < sizes.size(); i++) {
+            assertTrue(sizes.get(i) <= 40 + AimdLimiter.BATCH_SIZE_STEP);
+        }
+        assertTrue(result.getFailedBatches().size() <= result.getBatches().size() / 3 + 1);
+    }
+}
@@ -0,0 +1,51 @@
+package com.visenze.visearch;
+
+import com.google.common.collect.Lists;
+import com.visenze.visearch.internal.DataOperations;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class BulkRemoverTest {
+
+    @Test
+    public void testBulkRemove() throws Exception {
+        DataOperations dataOperations = mock(DataOperations.class);
+        when(dataOperations.remove(anyListOf(String.class))).thenAnswer(new Answer<RemoveStatus>() {
+            @Override
+            public RemoveStatus answer(InvocationOnMock invocation) throws Throwable {
+                List<?> imNames = (List<?>) invocation.getArguments()[0];
+                if (imNames.contains("im_4")) {
+                    return new RemoveStatus("Internal server error", null, null);
+                }
+                return new RemoveStatus(imNames.size());
+            }
+        });
+        List<String> imNames = new ArrayList<String>();
+        for (int i = 0; i < 7; i++) {
+            imNames.add("im_" + i);
+        }
+        BulkRemover remover = new BulkRemover(dataOperations).setChunkSize(3).setConcurrency(2).setRateLimit(1000);
+        BulkRemoveResult result = remover.remove(imNames);
+        assertEquals(7, result.getImNameCount());
+        assertEquals(3, result.getChunks().size());
+        assertEquals(4, result.getTotal());
+        assertTrue(result.hasFailures());
+        BulkRemoveResult.Chunk failed = result.getFailedChunks().get(0);
+        assertEquals(1, failed.getIndex());
+        assertEquals(3, failed.getOffset());
+        assertEquals(Lists.newArrayList("im_3", "im_4", "im_5"), result.getFailedImNames());
+        assertEquals(1, result.getStats().getFailureCount());
+        verify(dataOperations).remove(Lists.newArrayList("im_6"));
+
+        BulkRemoveResult resumed = remover.resume(result);
+        assertEquals(1, resumed.getChunks().size());
+        verify(dataOperations, times(2)).remove(Lists.newArrayList("im_3", "im_4", "im_5"));
+    }
+}
@@ -0,0 +1,164 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.visenze.visearch.internal.DataOperations;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class CatalogSyncTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCatalogSync() throws Exception {
+        DataOperations dataOperations = mock(DataOperations.class);
+        final List<List<String>> inserted = Collections.synchronizedList(new ArrayList<List<String>>());
+        when(dataOperations.insert(anyListOf(Image.class), anyMapOf(String.class, String.class))).thenAnswer(new Answer<InsertTrans>() {
+            @Override
+            public InsertTrans answer(InvocationOnMock invocation) throws Throwable {
+                List<String> imNames = new ArrayList<String>();
+                for (Object image : (List<?>) invocation.getArguments()[0]) {
+                    imNames.add(((Image) image).getImName());
+                }
+                inserted.add(imNames);
+                if (imNames.contains("im_fail")) {
+                    return new InsertTrans("Internal server error", (Throwable) null, null);
+                }
+                return new InsertTrans("trans_" + inserted.size(), imNames.size(), new ArrayList<InsertError>());
+            }
+        });
+        when(dataOperations.remove(anyListOf(String.class))).thenReturn(new RemoveStatus(1));
+        Map<String, String> metadata = Maps.newHashMap();
+        metadata.put("price", "10");
+        CatalogSync catalogSync = new CatalogSync(dataOperations, new File(folder.getRoot(), "catalog.snapshot"));
+
+        CatalogSyncResult first = catalogSync.sync(Lists.newArrayList(
+                new Image("im_1", "http://www.example.com/1.jpg", metadata),
+                new Image("im_2", "http://www.example.com/2.jpg"),
+                new Image("im_3", "http://www.example.com/3.jpg")));
+        assertEquals(3, first.getChangedCount());
+        assertEquals(0, first.getDeletedCount());
+        assertFalse(first.hasFailures());
+
+        // im_1 has changed metadata, im_2 is unchanged, im_3 was deleted and im_fail fails
+        metadata.put("price", "12");
+        inserted.clear();
+        CatalogSyncResult second = catalogSync.sync(Lists.newArrayList(
+                new Image("im_1", "http://www.example.com/1.jpg", metadata),
+                new Image("im_2", "http://www.example.com/2.jpg"),
+                new Image("im_fail", "http://www.example.com/fail.jpg")));
+        assertEquals(Lists.<List<String>>newArrayList(Lists.newArrayList("im_1", "im_fail")), inserted);
+        assertEquals(1, second.getUnchangedCount());
+        assertEquals(1, second.getDeletedCount());
+        assertEquals(2, second.getFailedInsertCount());
+        verify(dataOperations).remove(Lists.newArrayList("im_3"));
+
+        // the failed batch is sent again, and nothing else
+        inserted.clear();
+        catalogSync.sync(Lists.newArrayList(
+                new Image("im_1", "http://www.example.com/1.jpg", metadata),
+                new Image("im_2", "http://www.example.com/2.jpg"),
+                new Image("im_fail", "http://www.example.com/fail.jpg")));
+        assertEquals(Lists.<List<String>>newArrayList(Lists.newArrayList("im_1", "im_fail")), inserted);
+        verify(dataOperations, times(1)).remove(anyListOf(String.class));
+    }
+
+    @Test
+    public void testCatalogSyncCountsFailedImagesOnce() throws Exception {
+        DataOperations dataOperations = mock(DataOperations.class);
+        // two errors of im_2, one by im_name and one by index, and one error of no image
+        List<InsertError> errors = Lists.newArrayList(
+                new InsertError("im_2", null, 101, "Invalid im_url"),
+                new InsertError(null, 1, 102, "Invalid metadata"),
+                new InsertError(null, null, 103, "Unknown error"));
+        when(dataOperations.insert(anyListOf(Image.class), anyMapOf(String.class, String.class)))
+                .thenReturn(new InsertTrans("trans_1", 3, errors));
+        CatalogSync catalogSync = new CatalogSync(dataOperations, new File(folder.getRoot(), "catalog.snapshot"));
+
+        CatalogSyncResult result = catalogSync.sync(Lists.newArrayList(
+                new Image("im_1", "http://www.example.com/1.jpg"),
+                new Image("im_2", "http://www.example.com/2.jpg"),
+                new Image("im_3", "http://www.example.com/3.jpg")));
+        assertEquals(2, result.getFailedInsertCount());
+    }
+
+    @Test
+    public void testCatalogSyncRecoversSnapshotBackup() throws Exception {
+        DataOperations dataOperations = mock(DataOperations.class);
+        when(dataOperations.insert(anyListOf(Image.class), anyMapOf(String.class, String.class)))
+                .thenReturn(new InsertTrans("trans_1", 1, new ArrayList<InsertError>()));
+        File snapshot = new File(folder.getRoot(), "catalog.snapshot");
+        CatalogSync catalogSync = new CatalogSync(dataOperations, snapshot);
+        List<Image> catalog = Lists.newArrayList(new Image("im_1", "http://www.example.com/1.jpg"));
+        catalogSync.sync(catalog);
+
+        // a crash after the snapshot was moved aside and before the new one was renamed in place
+        assertTrue(snapshot.renameTo(new File(folder.getRoot(), "catalog.snapshot.bak")));
+        assertEquals(1, catalogSync.sync(catalog).getUnchangedCount());
+        assertTrue(snapshot.exists());
+        assertFalse(new File(folder.getRoot(), "catalog.snapshot.bak").exists());
+        verify(dataOperations, times(1)).insert(anyListOf(Image.class), anyMapOf(String.class, String.class));
+    }
+
+    @Test
+    public void testCatalogSyncInterrupted() throws Exception {
+        DataOperations dataOperations = mock(DataOperations.class);
+        when(dataOperations.insert(anyListOf(Image.class), anyMapOf(String.class, String.class)))
+                .thenReturn(new InsertTrans("trans_1", 1, new ArrayList<InsertError>()));
+        File snapshot = new File(folder.getRoot(), "catalog.snapshot");
+        CatalogSync catalogSync = new CatalogSync(dataOperations, snapshot)
+                .setInserter(new BulkInserter(dataOperations).setBatchSize(1));
+        final List<Image> catalog = Lists.newArrayList(
+                new Image("im_1", "http://www.example.com/1.jpg"),
+                new Image("im_2", "http://www.example.com/2.jpg"),
+                new Image("im_3", "http://www.example.com/3.jpg"));
+        catalogSync.sync(catalog);
+        String before = Files.toString(snapshot, Charsets.UTF_8);
+
+        // the calling thread is interrupted once the first image of the changed catalog is read
+        catalog.set(0, new Image("im_1", "http://www.example.com/1-new.jpg"));
+        Iterator<Image> interrupting = new AbstractIterator<Image>() {
+            private int index;
+
+            @Override
+            protected Image computeNext() {
+                if (index == catalog.size()) {
+                    return endOfData();
+                }
+                if (index == 1) {
+                    Thread.currentThread().interrupt();
+                }
+                return catalog.get(index++);
+            }
+        };
+        try {
+            catalogSync.sync(interrupting);
+            fail("Expected the sync to be interrupted");
+        } catch (InterruptedIOException e) {
+            // expected
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+        verify(dataOperations, never()).remove(anyListOf(String.class));
+        assertEquals(before, Files.toString(snapshot, Charsets.UTF_8));
+    }
+}
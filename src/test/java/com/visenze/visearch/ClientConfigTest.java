@@ -22,4 +22,12 @@ public class ClientConfigTest {
         System.out.println(ClientConfig.DEFAULT_XREQUEST_WITH);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void getBatchConcurrency() {
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setMaxConnection(4);
+        clientConfig.setBatchConcurrency(16);
+        assertEquals(4, clientConfig.getBatchConcurrency());
+    }
+
+}
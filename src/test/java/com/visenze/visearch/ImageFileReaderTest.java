@@ -0,0 +1,58 @@
+package com.visenze.visearch;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ImageFileReaderTest {
+
+    @Test
+    public void testImageFileReaderCsv() throws Exception {
+        String csv = "im_name,im_url,brand,title\n"
+                + "sku-1,http://www.example.com/sku-1.jpg,acme,\"Dress, \"\"red\"\"\"\n"
+                + "\n"
+                + "sku-2,http://www.example.com/sku-2.jpg,,\"two\nlines\"\n";
+        ImageFileReader reader = new ImageFileReader(new StringReader(csv), ImageFileReader.Format.CSV);
+        List<Image> images = Lists.newArrayList(reader);
+        reader.close();
+        assertEquals(2, images.size());
+        assertEquals("sku-1", images.get(0).getImName());
+        assertEquals("http://www.example.com/sku-1.jpg", images.get(0).getImUrl());
+        assertEquals("acme", images.get(0).getMetadata().get("brand"));
+        assertEquals("Dress, \"red\"", images.get(0).getMetadata().get("title"));
+        assertFalse(images.get(1).getMetadata().containsKey("brand"));
+        assertEquals("two\nlines", images.get(1).getMetadata().get("title"));
+        assertEquals(5, reader.getLineNumber());
+
+        reader = new ImageFileReader(new StringReader("im_name,brand\nsku-1,acme\n"), ImageFileReader.Format.CSV);
+        try {
+            reader.next();
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Missing im_name or im_url column in header line 1", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testImageFileReaderJsonl() throws Exception {
+        String jsonl = "{\"im_name\":\"sku-1\",\"im_url\":\"http://www.example.com/sku-1.jpg\",\"brand\":\"acme\",\"price\":12.5,\"size\":null}\n"
+                + "\n"
+                + "{\"im_url\":\"http://www.example.com/sku-2.jpg\"}\n";
+        ImageFileReader reader = new ImageFileReader(new StringReader(jsonl), ImageFileReader.Format.JSONL);
+        assertTrue(reader.hasNext());
+        Image image = reader.next();
+        assertEquals("sku-1", image.getImName());
+        assertEquals("12.5", image.getMetadata().get("price"));
+        assertFalse(image.getMetadata().containsKey("size"));
+        try {
+            reader.next();
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Missing im_name in catalog line 3", e.getMessage());
+        }
+    }
+}
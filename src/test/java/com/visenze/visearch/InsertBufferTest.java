@@ -0,0 +1,146 @@
+package com.visenze.visearch;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.visenze.visearch.internal.DataOperations;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class InsertBufferTest {
+
+    @Test
+    public void testInsertBuffer() throws Exception {
+        DataOperations dataOperations = mock(DataOperations.class);
+        final List<List<Image>> batches = Collections.synchronizedList(new ArrayList<List<Image>>());
+        when(dataOperations.insert(anyListOf(Image.class), anyMapOf(String.class, String.class))).thenAnswer(new Answer<InsertTrans>() {
+            @Override
+            public InsertTrans answer(InvocationOnMock invocation) throws Throwable {
+                List<?> batch = (List<?>) invocation.getArguments()[0];
+                return new InsertTrans("trans_1", batch.size(), new ArrayList<InsertError>());
+            }
+        });
+        InsertBuffer buffer = new InsertBuffer(dataOperations)
+                .setBatchSize(3)
+                .setMaxDelay(1, TimeUnit.HOURS)
+                .setFlushListener(new InsertBuffer.FlushListener() {
+                    @Override
+                    public void onFlush(List<Image> batch, InsertTrans insertTrans) {
+                        batches.add(batch);
+                    }
+                });
+        Map<String, String> price = Maps.newHashMap();
+        price.put("price", "12");
+        buffer.put(new Image("im_1", "http://www.example.com/1.jpg"));
+        buffer.put(new Image("im_2", "http://www.example.com/2.jpg"));
+        buffer.put(new Image("im_1", "http://www.example.com/1.jpg", price));
+        assertEquals(2, buffer.getBufferedCount());
+        // the third distinct im_name fills the batch
+        buffer.put(new Image("im_3", "http://www.example.com/3.jpg"));
+        buffer.put(new Image("im_4", "http://www.example.com/4.jpg"));
+        buffer.flush();
+        assertEquals(2, batches.size());
+        assertEquals(3, batches.get(0).size());
+        assertEquals("im_1", batches.get(0).get(0).getImName());
+        assertSame(price, batches.get(0).get(0).getMetadata());
+        assertEquals("im_4", batches.get(1).get(0).getImName());
+
+        InsertBuffer.Stats stats = buffer.getStats();
+        assertEquals(5, stats.getUpdateCount());
+        assertEquals(1, stats.getCoalescedCount());
+        assertEquals(2, stats.getFlushCount());
+        assertEquals(4, stats.getFlushedImageCount());
+        assertEquals(0, stats.getFailedFlushCount());
+        buffer.close();
+        try {
+            buffer.put(new Image("im_5", "http://www.example.com/5.jpg"));
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("insert buffer is closed", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testInsertBufferMaxDelay() throws Exception {
+        DataOperations dataOperations = mock(DataOperations.class);
+        InsertTrans failed = new InsertTrans("Internal server error", (Throwable) null, null);
+        when(dataOperations.insert(anyListOf(Image.class), anyMapOf(String.class, String.class))).thenReturn(failed);
+        InsertBuffer buffer = new InsertBuffer(dataOperations).setMaxDelay(10, TimeUnit.MILLISECONDS);
+        buffer.put(new Image("im_1", "http://www.example.com/1.jpg"));
+        verify(dataOperations, timeout(5000)).insert(anyListOf(Image.class), anyMapOf(String.class, String.class));
+        buffer.flush();
+        assertEquals(0, buffer.getBufferedCount());
+        assertEquals(1, buffer.getStats().getFailedFlushCount());
+        buffer.close();
+    }
+
+    @Test
+    public void testInsertBufferBoundsQueuedBatches() throws Exception {
+        DataOperations dataOperations = mock(DataOperations.class);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<List<String>> batches = Collections.synchronizedList(new ArrayList<List<String>>());
+        when(dataOperations.insert(anyListOf(Image.class), anyMapOf(String.class, String.class))).thenAnswer(new Answer<InsertTrans>() {
+            @Override
+            public InsertTrans answer(InvocationOnMock invocation) throws Throwable {
+                List<String> imNames = new ArrayList<String>();
+                for (Object image : (List<?>) invocation.getArguments()[0]) {
+                    imNames.add(((Image) image).getImName());
+                }
+                batches.add(imNames);
+                started.countDown();
+                release.await();
+                return new InsertTrans("trans_1", imNames.size(), new ArrayList<InsertError>());
+            }
+        });
+        final InsertBuffer buffer = new InsertBuffer(dataOperations)
+                .setBatchSize(2)
+                .setMaxQueuedBatches(1)
+                .setMaxDelay(1, TimeUnit.HOURS);
+        buffer.put(new Image("im_1", "http://www.example.com/1.jpg"));
+        buffer.put(new Image("im_2", "http://www.example.com/2.jpg"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(1, buffer.getStats().getQueuedBatchCount());
+
+        // the queue is full, so the full buffer is kept and goes on coalescing
+        buffer.put(new Image("im_3", "http://www.example.com/3.jpg"));
+        buffer.put(new Image("im_4", "http://www.example.com/4.jpg"));
+        buffer.put(new Image("im_3", "http://www.example.com/3-new.jpg"));
+        assertEquals(2, buffer.getBufferedCount());
+        assertEquals(1, buffer.getStats().getCoalescedCount());
+
+        // and a new im_name waits for a place in the queue
+        final CountDownLatch put = new CountDownLatch(1);
+        Thread putter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                buffer.put(new Image("im_5", "http://www.example.com/5.jpg"));
+                put.countDown();
+            }
+        });
+        putter.start();
+        assertFalse(put.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(2, buffer.getBufferedCount());
+
+        release.countDown();
+        assertTrue(put.await(5, TimeUnit.SECONDS));
+        buffer.close();
+        assertEquals(Lists.<List<String>>newArrayList(
+                Lists.newArrayList("im_1", "im_2"),
+                Lists.newArrayList("im_3", "im_4"),
+                Lists.newArrayList("im_5")), batches);
+        InsertBuffer.Stats stats = buffer.getStats();
+        assertEquals(0, stats.getQueuedBatchCount());
+        assertEquals(1, stats.getMaxQueuedBatchCount());
+    }
+}
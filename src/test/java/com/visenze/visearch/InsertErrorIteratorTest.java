@@ -0,0 +1,61 @@
+package com.visenze.visearch;
+
+import com.google.common.collect.Lists;
+import com.visenze.visearch.internal.DataOperations;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class InsertErrorIteratorTest {
+
+    private static InsertStatus errorPage(int failCount, int page, int errorLimit) {
+        List<InsertError> errorList = new ArrayList<InsertError>();
+        for (int i = (page - 1) * errorLimit; i < Math.min(failCount, page * errorLimit); i++) {
+            errorList.add(new InsertError("im_" + i, i, 103, "Image downloading failed"));
+        }
+        return new InsertStatus("trans_1", 100, failCount, 0, failCount, null, null, errorList, page, errorLimit);
+    }
+
+    @Test
+    public void testInsertErrorIterator() throws Exception {
+        DataOperations dataOperations = mock(DataOperations.class);
+        for (int page = 1; page <= 4; page++) {
+            InsertStatus status = errorPage(7, page, 2);
+            when(dataOperations.insertStatus("trans_1", page, 2)).thenReturn(status);
+        }
+        InsertErrorIterator errors = new InsertErrorIterator(dataOperations, "trans_1")
+                .setErrorLimit(2)
+                .setPrefetch(2);
+        List<String> imNames = new ArrayList<String>();
+        while (errors.hasNext()) {
+            imNames.add(errors.next().getImName());
+        }
+        // errors are returned in page order, although later pages are fetched concurrently
+        assertEquals(Lists.newArrayList("im_0", "im_1", "im_2", "im_3", "im_4", "im_5", "im_6"), imNames);
+        assertEquals(7, errors.getFailCount());
+        assertEquals(4, errors.getPageCount());
+        assertNull(errors.getError());
+        verify(dataOperations, never()).insertStatus("trans_1", 5, 2);
+    }
+
+    @Test
+    public void testInsertErrorIteratorPageFailed() throws Exception {
+        DataOperations dataOperations = mock(DataOperations.class);
+        InsertStatus first = errorPage(5, 1, 2);
+        InsertStatus failed = new InsertStatus("Internal server error", null, null);
+        InsertStatus third = errorPage(5, 3, 2);
+        when(dataOperations.insertStatus("trans_1", 1, 2)).thenReturn(first);
+        when(dataOperations.insertStatus("trans_1", 2, 2)).thenReturn(failed);
+        when(dataOperations.insertStatus("trans_1", 3, 2)).thenReturn(third);
+        InsertErrorIterator errors = new InsertErrorIterator(dataOperations, "trans_1").setErrorLimit(2);
+        assertEquals(2, Lists.newArrayList(errors).size());
+        assertSame(failed, errors.getError());
+
+        when(dataOperations.insertStatus("trans_2", 1, 1000)).thenReturn(errorPage(0, 1, 1000));
+        assertFalse(new InsertErrorIterator(dataOperations, "trans_2").hasNext());
+    }
+}
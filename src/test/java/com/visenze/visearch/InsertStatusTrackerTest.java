@@ -0,0 +1,75 @@
+package com.visenze.visearch;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.visenze.visearch.internal.DataOperations;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class InsertStatusTrackerTest {
+
+    private static InsertStatus insertStatus(String transId, int processedPercent) {
+        return new InsertStatus(transId, processedPercent, 2, processedPercent == 100 ? 2 : 0, 0, null, null,
+                new ArrayList<InsertError>(), null, null);
+    }
+
+    @Test
+    public void testInsertStatusTracker() throws Exception {
+        DataOperations dataOperations = mock(DataOperations.class);
+        InsertStatus started = insertStatus("trans_1", 0);
+        InsertStatus halfDone = insertStatus("trans_1", 50);
+        InsertStatus done = insertStatus("trans_1", 100);
+        InsertStatus failed = new InsertStatus("Internal server error", null, null);
+        when(dataOperations.insertStatus("trans_1")).thenReturn(started, started, failed, halfDone, done);
+        when(dataOperations.insertStatus("trans_2")).thenReturn(done);
+        final List<Integer> progress = Collections.synchronizedList(new ArrayList<Integer>());
+        InsertStatusTracker.ProgressListener listener = new InsertStatusTracker.ProgressListener() {
+            @Override
+            public void onProgress(InsertStatus status) {
+                progress.add(status.getProcessedPercent());
+            }
+        };
+        InsertStatusTracker tracker = new InsertStatusTracker(dataOperations)
+                .setInitialInterval(1, TimeUnit.MILLISECONDS)
+                .setMaxInterval(5, TimeUnit.MILLISECONDS);
+        try {
+            ListenableFuture<InsertStatus> future = tracker.track("trans_1", listener);
+            assertSame(future, tracker.track("trans_1"));
+            assertSame(done, future.get(5, TimeUnit.SECONDS));
+            // a failed poll is retried, and the listener is called when the progress changes
+            assertEquals(Lists.newArrayList(0, 50, 100), progress);
+            verify(dataOperations, times(5)).insertStatus("trans_1");
+
+            List<InsertStatus> statuses = tracker.trackAll(Lists.newArrayList("trans_2"), null).get(5, TimeUnit.SECONDS);
+            assertSame(done, statuses.get(0));
+            assertEquals(0, tracker.getPendingCount());
+        } finally {
+            tracker.close();
+        }
+    }
+
+    @Test
+    public void testInsertStatusTrackerErrors() throws Exception {
+        DataOperations dataOperations = mock(DataOperations.class);
+        InsertStatus failed = new InsertStatus("Internal server error", null, null);
+        when(dataOperations.insertStatus("trans_1")).thenReturn(failed);
+        when(dataOperations.insertStatus("trans_2")).thenReturn(insertStatus("trans_2", 10));
+        InsertStatusTracker tracker = new InsertStatusTracker(dataOperations)
+                .setInitialInterval(1, TimeUnit.MILLISECONDS)
+                .setMaxInterval(2, TimeUnit.MILLISECONDS)
+                .setMaxConsecutiveErrors(3);
+        ListenableFuture<InsertStatus> pending = tracker.track("trans_2");
+        // the failed status is given after the max number of consecutive errors
+        assertEquals("Internal server error", tracker.track("trans_1").get(5, TimeUnit.SECONDS).getErrorMessage());
+        verify(dataOperations, times(3)).insertStatus("trans_1");
+        tracker.close();
+        assertTrue(pending.isCancelled());
+    }
+}
@@ -0,0 +1,169 @@
+package com.visenze.visearch;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.visenze.visearch.internal.DataOperations;
+import com.visenze.visearch.internal.OperationJournal;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class JournaledDataOperationsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testJournaledDataOperations() throws Exception {
+        File journalFile = new File(folder.getRoot(), "insert.journal");
+        DataOperations dataOperations = mock(DataOperations.class);
+        List<Image> accepted = Lists.newArrayList(new Image("im_1", "http://www.example.com/1.jpg"));
+        Map<String, String> metadata = Maps.newHashMap();
+        metadata.put("price", "10");
+        List<Image> failed = Lists.newArrayList(new Image("im_2", "http://www.example.com/2.jpg", metadata));
+        InsertTrans acceptedTrans = new InsertTrans("trans_1", 1, new ArrayList<InsertError>());
+        InsertTrans failedTrans = new InsertTrans("Internal server error", (Throwable) null, null);
+        when(dataOperations.insert(eq(accepted), anyMapOf(String.class, String.class))).thenReturn(acceptedTrans);
+        when(dataOperations.insert(eq(failed), anyMapOf(String.class, String.class))).thenReturn(failedTrans);
+        when(dataOperations.remove(anyListOf(String.class))).thenReturn(new RemoveStatus(1));
+
+        JournaledDataOperations journaled = new JournaledDataOperations(dataOperations, journalFile);
+        assertSame(acceptedTrans, journaled.insert(accepted));
+        assertSame(failedTrans, journaled.insert(failed));
+        journaled.remove(Lists.newArrayList("im_3"));
+        assertEquals(1, journaled.getPendingCount());
+        journaled.close();
+
+        // the failed insert is sent again with the same images
+        final List<Image> replayed = new ArrayList<Image>();
+        DataOperations recovered = mock(DataOperations.class);
+        when(recovered.insert(anyListOf(Image.class), anyMapOf(String.class, String.class))).thenAnswer(new Answer<InsertTrans>() {
+            @Override
+            public InsertTrans answer(InvocationOnMock invocation) throws Throwable {
+                for (Object image : (List<?>) invocation.getArguments()[0]) {
+                    replayed.add((Image) image);
+                }
+                return new InsertTrans("trans_2", 1, new ArrayList<InsertError>());
+            }
+        });
+        journaled = new JournaledDataOperations(recovered, journalFile);
+        assertEquals(1, journaled.getPendingCount());
+        assertEquals(0, journaled.replay());
+        journaled.close();
+        assertEquals(1, replayed.size());
+        assertEquals("im_2", replayed.get(0).getImName());
+        assertEquals("http://www.example.com/2.jpg", replayed.get(0).getImUrl());
+        assertEquals(metadata, replayed.get(0).getMetadata());
+        verify(recovered, never()).remove(anyListOf(String.class));
+
+        journaled = new JournaledDataOperations(recovered, journalFile);
+        assertEquals(0, journaled.getPendingCount());
+        journaled.close();
+    }
+
+    @Test
+    public void testJournaledDataOperationsNullImage() throws Exception {
+        File journalFile = new File(folder.getRoot(), "insert.journal");
+        DataOperations dataOperations = mock(DataOperations.class);
+        when(dataOperations.insert(anyListOf(Image.class), anyMapOf(String.class, String.class)))
+                .thenReturn(new InsertTrans("Internal server error", (Throwable) null, null));
+        List<Image> images = Lists.newArrayList(null, new Image("im_1", "http://www.example.com/1.jpg"));
+
+        JournaledDataOperations journaled = new JournaledDataOperations(dataOperations, journalFile);
+        journaled.insert(images);
+        journaled.close();
+
+        // the null image is replayed at the same index, to be skipped as it was
+        DataOperations recovered = mock(DataOperations.class);
+        when(recovered.insert(anyListOf(Image.class), anyMapOf(String.class, String.class)))
+                .thenReturn(new InsertTrans("trans_1", 1, new ArrayList<InsertError>()));
+        journaled = new JournaledDataOperations(recovered, journalFile);
+        assertEquals(0, journaled.replay());
+        journaled.close();
+        ArgumentCaptor<List> replayed = ArgumentCaptor.forClass(List.class);
+        verify(recovered).insert(replayed.capture(), anyMapOf(String.class, String.class));
+        assertEquals(2, replayed.getValue().size());
+        assertNull(replayed.getValue().get(0));
+        assertEquals("im_1", ((Image) replayed.getValue().get(1)).getImName());
+    }
+
+    @Test
+    public void testJournaledDataOperationsConfirmsInserts() throws Exception {
+        File journalFile = new File(folder.getRoot(), "insert.journal");
+        DataOperations dataOperations = mock(DataOperations.class);
+        List<Image> processed = Lists.newArrayList(new Image("im_1", "http://www.example.com/1.jpg"));
+        List<Image> failed = Lists.newArrayList(new Image("im_2", "http://www.example.com/2.jpg"));
+        when(dataOperations.insert(eq(processed), anyMapOf(String.class, String.class)))
+                .thenReturn(new InsertTrans("trans_1", 1, new ArrayList<InsertError>()));
+        when(dataOperations.insert(eq(failed), anyMapOf(String.class, String.class)))
+                .thenReturn(new InsertTrans("trans_2", 1, new ArrayList<InsertError>()));
+        when(dataOperations.insertStatus("trans_1")).thenReturn(processedStatus("trans_1", 0));
+        // accepted, and then failed in processing
+        when(dataOperations.insertStatus("trans_2")).thenReturn(processedStatus("trans_2", 1));
+        InsertStatusTracker tracker = new InsertStatusTracker(dataOperations)
+                .setInitialInterval(1, TimeUnit.MILLISECONDS)
+                .setMaxInterval(5, TimeUnit.MILLISECONDS);
+
+        JournaledDataOperations journaled = new JournaledDataOperations(dataOperations, journalFile)
+                .setStatusTracker(tracker);
+        journaled.insert(processed);
+        journaled.insert(failed);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (journaled.getPendingCount() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, journaled.getPendingCount());
+        journaled.close();
+        tracker.close();
+
+        // only the insert that failed in processing is sent again, and confirmed before replay returns
+        DataOperations recovered = mock(DataOperations.class);
+        when(recovered.insert(anyListOf(Image.class), anyMapOf(String.class, String.class)))
+                .thenReturn(new InsertTrans("trans_3", 1, new ArrayList<InsertError>()));
+        when(recovered.insertStatus("trans_3")).thenReturn(processedStatus("trans_3", 0));
+        tracker = new InsertStatusTracker(recovered).setInitialInterval(1, TimeUnit.MILLISECONDS);
+        journaled = new JournaledDataOperations(recovered, journalFile).setStatusTracker(tracker);
+        assertEquals(0, journaled.replay());
+        journaled.close();
+        tracker.close();
+        ArgumentCaptor<List> replayed = ArgumentCaptor.forClass(List.class);
+        verify(recovered).insert(replayed.capture(), anyMapOf(String.class, String.class));
+        assertEquals(1, replayed.getValue().size());
+        assertEquals("im_2", ((Image) replayed.getValue().get(0)).getImName());
+    }
+
+    private static InsertStatus processedStatus(String transId, int failCount) {
+        return new InsertStatus(transId, 100, 1, 1 - failCount, failCount, null, null,
+                new ArrayList<InsertError>(), null, null);
+    }
+
+    @Test
+    public void testOperationJournalRecoversBackup() throws Exception {
+        File journalFile = new File(folder.getRoot(), "insert.journal");
+        OperationJournal journal = new OperationJournal(journalFile);
+        journal.append("remove", JsonNodeFactory.instance.objectNode().put("im_name", "im_1"));
+        journal.close();
+
+        // a crash after the journal was moved aside and before the compacted one was renamed in place
+        File backup = new File(folder.getRoot(), "insert.journal.bak");
+        assertTrue(journalFile.renameTo(backup));
+        journal = new OperationJournal(journalFile);
+        assertEquals(1, journal.getPendingCount());
+        assertEquals("im_1", journal.getPending().get(0).getBody().get("im_name").asText());
+        journal.close();
+        assertFalse(backup.exists());
+    }
+}
@@ -0,0 +1,66 @@
+package com.visenze.visearch;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetadataDictionaryTest {
+
+    @Test
+    public void testCompact() {
+        Map<String, String> metadata = Maps.newLinkedHashMap();
+        metadata.put("brand", "acme");
+        metadata.put("price", "10.0");
+        metadata.put("title", null);
+
+        MetadataDictionary dictionary = new MetadataDictionary();
+        Map<String, String> compact = dictionary.compact(metadata);
+
+        assertEquals(metadata, compact);
+        assertEquals(metadata.hashCode(), compact.hashCode());
+        assertEquals(Lists.newArrayList("brand", "price", "title"), Lists.newArrayList(compact.keySet()));
+        assertTrue(compact.containsKey("title"));
+        assertNull(compact.get("title"));
+        assertFalse(compact.containsKey("im_url"));
+        assertEquals(3, dictionary.size());
+    }
+
+    @Test
+    public void testSharedKeysAndInternedValues() {
+        MetadataDictionary dictionary = new MetadataDictionary(1);
+        Map<String, String> first = dictionary.newMap()
+                .put("brand", new String("acme"))
+                .put("im_url", new String("http://a.jpg"))
+                .build();
+        Map<String, String> second = dictionary.newMap()
+                .put("im_url", new String("http://b.jpg"))
+                .put("brand", new String("acme"))
+                .put("color", "red")
+                .build();
+
+        assertEquals(3, dictionary.size());
+        assertEquals(2, first.size());
+        assertNull(first.get("color"));
+        assertEquals("http://b.jpg", second.get("im_url"));
+        // values are interned up to the limit of each field
+        assertSame(first.get("brand"), second.get("brand"));
+        assertNotSame(first.get("im_url"), second.get("im_url"));
+        // entries follow the order of the keys in the dictionary
+        assertEquals(Lists.newArrayList("brand", "im_url", "color"), Lists.newArrayList(second.keySet()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutable() {
+        Map<String, String> compact = new MetadataDictionary().newMap().put("brand", "acme").build();
+        compact.put("brand", "other");
+    }
+}
@@ -0,0 +1,109 @@
+package com.visenze.visearch;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class SearchResultIteratorTest {
+
+    /**
+     * Serves pages of a fixed result list with descending scores.
+     */
+    private static class FakePageFetcher implements SearchResultIterator.PageFetcher {
+
+        private final int total;
+        private final int limit;
+        private final List<Integer> fetchedPages = new CopyOnWriteArrayList<Integer>();
+
+        FakePageFetcher(int total, int limit) {
+            this.total = total;
+            this.limit = limit;
+        }
+
+        @Override
+        public PagedSearchResult fetch(int page) {
+            fetchedPages.add(page);
+            List<ImageResult> results = Lists.newArrayList();
+            for (int i = (page - 1) * limit; i < Math.min(page * limit, Math.min(total, SearchResultIterator.MAX_RESULT_WINDOW)); i++) {
+                results.add(new ImageResult("im_" + i, null, 1.0f - i / 10000.0f));
+            }
+            PagedSearchResult result = new PagedSearchResult(results);
+            result.setPage(page);
+            result.setLimit(limit);
+            result.setTotal(total);
+            return result;
+        }
+    }
+
+    @Test
+    public void testIterateAllPages() {
+        FakePageFetcher fetcher = new FakePageFetcher(25, 10);
+        List<ImageResult> results = Lists.newArrayList(new SearchResultIterator(fetcher, 1));
+        assertEquals(25, results.size());
+        assertEquals("im_0", results.get(0).getImName());
+        assertEquals("im_24", results.get(24).getImName());
+        assertEquals(Lists.newArrayList(1, 2, 3), fetcher.fetchedPages);
+    }
+
+    @Test
+    public void testStopAtResultWindow() {
+        FakePageFetcher fetcher = new FakePageFetcher(5000, 100);
+        SearchResultIterator iterator = new SearchResultIterator(fetcher, 1);
+        List<ImageResult> results = Lists.newArrayList(iterator);
+        assertEquals(SearchResultIterator.MAX_RESULT_WINDOW, results.size());
+        assertEquals(10, fetcher.fetchedPages.size());
+    }
+
+    @Test
+    public void testStopAtMaxCount() {
+        FakePageFetcher fetcher = new FakePageFetcher(100, 10);
+        SearchResultIterator iterator = new SearchResultIterator(fetcher, 1).setMaxCount(15);
+        List<ImageResult> results = Lists.newArrayList(iterator);
+        assertEquals(15, results.size());
+        assertEquals(15, iterator.getReturnedCount());
+        assertEquals(Lists.newArrayList(1, 2), fetcher.fetchedPages);
+    }
+
+    @Test
+    public void testStopAtMinScore() {
+        FakePageFetcher fetcher = new FakePageFetcher(100, 10);
+        SearchResultIterator iterator = new SearchResultIterator(fetcher, 1).setMinScore(0.99845f);
+        List<ImageResult> results = Lists.newArrayList(iterator);
+        assertEquals(16, results.size());
+        assertTrue(results.get(15).getScore() >= 0.99845f);
+    }
+
+    @Test
+    public void testStopOnError() {
+        SearchResultIterator iterator = new SearchResultIterator(new SearchResultIterator.PageFetcher() {
+            @Override
+            public PagedSearchResult fetch(int page) {
+                return new PagedSearchResult("error", null, "{}");
+            }
+        }, 1);
+        assertFalse(iterator.hasNext());
+        assertEquals("error", iterator.getError().getErrorMessage());
+    }
+
+    @Test
+    public void testStopOnFetcherException() {
+        final IllegalStateException failure = new IllegalStateException("connection pool shut down");
+        SearchResultIterator iterator = new SearchResultIterator(new SearchResultIterator.PageFetcher() {
+            @Override
+            public PagedSearchResult fetch(int page) {
+                if (page == 2) {
+                    throw failure;
+                }
+                return new FakePageFetcher(25, 10).fetch(page);
+            }
+        }, 1);
+        List<ImageResult> results = Lists.newArrayList(iterator);
+        assertEquals(10, results.size());
+        assertEquals("connection pool shut down", iterator.getError().getErrorMessage());
+        assertSame(failure, iterator.getError().getCause());
+    }
+}
@@ -10,9 +10,15 @@ import com.visenze.visearch.internal.DataOperationsImpl;
 import com.visenze.visearch.internal.http.ViSearchHttpClient;
 import com.visenze.visearch.internal.http.ViSearchHttpResponse;
 import com.visenze.visearch.internal.json.ViSearchModule;
+import org.apache.http.Consts;
+import org.apache.http.HttpEntity;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.util.EntityUtils;
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 
 import java.util.ArrayList;
@@ -41,7 +47,7 @@ public class ViSearchDataOperationsTest {
         Map<String, String> responseHeaders = Maps.newHashMap();
         responseHeaders.put("test-param", "123");
         when(mockResponse.getHeaders()).thenReturn(responseHeaders);
-        when(mockClient.post(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(mockResponse);
+        when(mockClient.postEntity(anyString(), Matchers.<HttpEntity>any())).thenReturn(mockResponse);
         DataOperations dataOperations = new DataOperationsImpl(mockClient, objectMapper);
         List<Image> imageList = new ArrayList<Image>();
         Image image0 = new Image("test_im_0", "http://www.example.com/test_im_0.jpeg");
@@ -67,7 +73,7 @@ public class ViSearchDataOperationsTest {
         expectedParams.put("field_float[1]", "1.0");
         expectedParams.put("field_string[1]", "visearch");
         expectedParams.put("field_text[1]", "java sdk");
-        verify(mockClient).post("/insert", expectedParams);
+        assertEquals(expectedParams, postedForm("/insert"));
     }
 
     @Test
@@ -75,7 +81,7 @@ public class ViSearchDataOperationsTest {
         String insertResponse = "{\"status\":\"OK\",\"trans_id\":317503499455827968,\"method\":\"insert\",\"total\":1}";
         ViSearchHttpResponse mockResponse = mock(ViSearchHttpResponse.class);
         when(mockResponse.getBody()).thenReturn(insertResponse);
-        when(mockClient.post(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(mockResponse);
+        when(mockClient.postEntity(anyString(), Matchers.<HttpEntity>any())).thenReturn(mockResponse);
         DataOperations dataOperations = new DataOperationsImpl(mockClient, objectMapper);
         List<Image> imageList = new ArrayList<Image>();
         Image image0 = new Image("test_im_0", "http://www.example.com/test_im_0.jpeg");
@@ -87,7 +93,7 @@ public class ViSearchDataOperationsTest {
         expectedParams.put("im_name[0]", "test_im_0");
         expectedParams.put("im_url[0]", "http://www.example.com/test_im_0.jpeg");
         expectedParams.put("custom_param", "custom_value");
-        verify(mockClient).post("/insert", expectedParams);
+        assertEquals(expectedParams, postedForm("/insert"));
     }
 
     @Test
@@ -205,7 +211,7 @@ public class ViSearchDataOperationsTest {
                 "\"total\":0,\"error\":[{\"error_code\":104,\"error_message\":\"No image inserted.\"}]}";
         ViSearchHttpResponse mockResponse = mock(ViSearchHttpResponse.class);
         when(mockResponse.getBody()).thenReturn(insertResponse);
-        when(mockClient.post(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(mockResponse);
+        when(mockClient.postEntity(anyString(), Matchers.<HttpEntity>any())).thenReturn(mockResponse);
         DataOperations dataOperations = new DataOperationsImpl(mockClient, objectMapper);
         List<Image> imageList = new ArrayList<Image>();
         InsertTrans insertTrans = dataOperations.insert(imageList);
@@ -224,7 +230,7 @@ public class ViSearchDataOperationsTest {
         String insertResponse = "{\"status\":\"OK\",\"trans_id\":317503499455827968,\"method\":\"insert\",\"total\":1}";
         ViSearchHttpResponse mockResponse = mock(ViSearchHttpResponse.class);
         when(mockResponse.getBody()).thenReturn(insertResponse);
-        when(mockClient.post(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(mockResponse);
+        when(mockClient.postEntity(anyString(), Matchers.<HttpEntity>any())).thenReturn(mockResponse);
         DataOperations dataOperations = new DataOperationsImpl(mockClient, objectMapper);
         List<Image> imageList = new ArrayList<Image>();
         InsertTrans insertTrans = dataOperations.insert(imageList);
@@ -238,7 +244,7 @@ public class ViSearchDataOperationsTest {
         String insertResponse = "{\"trans_id\":317503499455827968,\"method\":\"insert\",\"total\":1}";
         ViSearchHttpResponse mockResponse = mock(ViSearchHttpResponse.class);
         when(mockResponse.getBody()).thenReturn(insertResponse);
-        when(mockClient.post(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(mockResponse);
+        when(mockClient.postEntity(anyString(), Matchers.<HttpEntity>any())).thenReturn(mockResponse);
         DataOperations dataOperations = new DataOperationsImpl(mockClient, objectMapper);
         List<Image> imageList = new ArrayList<Image>();
         InsertTrans insertTrans = dataOperations.insert(imageList);
@@ -251,7 +257,7 @@ public class ViSearchDataOperationsTest {
         String insertResponse = "{\"status\":\"OK\" \"trans_id\":317503499455827968,\"method\":\"insert\",\"total\":1}";
         ViSearchHttpResponse mockResponse = mock(ViSearchHttpResponse.class);
         when(mockResponse.getBody()).thenReturn(insertResponse);
-        when(mockClient.post(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(mockResponse);
+        when(mockClient.postEntity(anyString(), Matchers.<HttpEntity>any())).thenReturn(mockResponse);
         DataOperations dataOperations = new DataOperationsImpl(mockClient, objectMapper);
         List<Image> imageList = new ArrayList<Image>();
         InsertTrans insertTrans = dataOperations.insert(imageList);
@@ -265,7 +271,7 @@ public class ViSearchDataOperationsTest {
                 "\"total\":0,\"error\":[{\"index\":0,\"im_name\":\"test im\",\"error_code\":107,\"error_message\":\"Invalid im_name.\"}]}";
         ViSearchHttpResponse mockResponse = mock(ViSearchHttpResponse.class);
         when(mockResponse.getBody()).thenReturn(insertResponse);
-        when(mockClient.post(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(mockResponse);
+        when(mockClient.postEntity(anyString(), Matchers.<HttpEntity>any())).thenReturn(mockResponse);
         DataOperations dataOperations = new DataOperationsImpl(mockClient, objectMapper);
         List<Image> imageList = new ArrayList<Image>();
         InsertTrans insertTrans = dataOperations.insert(imageList);
@@ -286,7 +292,7 @@ public class ViSearchDataOperationsTest {
                 "\"total\":1,\"error\":[{\"index\":1,\"im_name\":\"test im\",\"error_code\":107,\"error_message\":\"Invalid im_name.\"}]}";
         ViSearchHttpResponse mockResponse = mock(ViSearchHttpResponse.class);
         when(mockResponse.getBody()).thenReturn(insertResponse);
-        when(mockClient.post(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(mockResponse);
+        when(mockClient.postEntity(anyString(), Matchers.<HttpEntity>any())).thenReturn(mockResponse);
         DataOperations dataOperations = new DataOperationsImpl(mockClient, objectMapper);
         List<Image> imageList = new ArrayList<Image>();
         InsertTrans insertTrans = dataOperations.insert(imageList);
@@ -419,7 +425,7 @@ public class ViSearchDataOperationsTest {
                 "\"total\":0,\"error\":[{\"error_code\":104,\"error_message\":\"No image inserted.\"}]}";
         ViSearchHttpResponse mockResponse = mock(ViSearchHttpResponse.class);
         when(mockResponse.getBody()).thenReturn(insertResponse);
-        when(mockClient.post(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(mockResponse);
+        when(mockClient.postEntity(anyString(), Matchers.<HttpEntity>any())).thenReturn(mockResponse);
         DataOperations dataOperations = new DataOperationsImpl(mockClient, objectMapper);
         List<Image> imageList = new ArrayList<Image>();
         InsertTrans insertTrans = dataOperations.insert(imageList);
@@ -431,7 +437,7 @@ public class ViSearchDataOperationsTest {
                 "\"total\":0,\"error\":[{\"error_code\":104,\"error_message\":\"No image inserted.\"}]}";
         ViSearchHttpResponse mockResponse = mock(ViSearchHttpResponse.class);
         when(mockResponse.getBody()).thenReturn(insertResponse);
-        when(mockClient.post(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(mockResponse);
+        when(mockClient.postEntity(anyString(), Matchers.<HttpEntity>any())).thenReturn(mockResponse);
         DataOperations dataOperations = new DataOperationsImpl(mockClient, objectMapper);
         List<Image> imageList = new ArrayList<Image>();
         InsertTrans insertTrans = dataOperations.insert(imageList);
@@ -443,7 +449,7 @@ public class ViSearchDataOperationsTest {
                 "\"total\":0,\"error\":{\"error_code\":104,\"error_message\":\"No image inserted.\"}}";
         ViSearchHttpResponse mockResponse = mock(ViSearchHttpResponse.class);
         when(mockResponse.getBody()).thenReturn(insertResponse);
-        when(mockClient.post(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(mockResponse);
+        when(mockClient.postEntity(anyString(), Matchers.<HttpEntity>any())).thenReturn(mockResponse);
         DataOperations dataOperations = new DataOperationsImpl(mockClient, objectMapper);
         List<Image> imageList = new ArrayList<Image>();
         InsertTrans insertTrans = dataOperations.insert(imageList);
@@ -502,4 +508,16 @@ public class ViSearchDataOperationsTest {
         InsertStatus insertStatus = dataOperations.insertStatus("317503499455827968");
         assertEquals(ResponseMessages.PARSE_RESPONSE_ERROR.getMessage(), insertStatus.getErrorMessage());
     }
+
+    private Multimap<String, String> postedForm(String path) throws Exception {
+        ArgumentCaptor<HttpEntity> entity = ArgumentCaptor.forClass(HttpEntity.class);
+        verify(mockClient).postEntity(eq(path), entity.capture());
+        String body = EntityUtils.toString(entity.getValue());
+        assertEquals(body.length(), entity.getValue().getContentLength());
+        Multimap<String, String> params = HashMultimap.create();
+        for (NameValuePair pair : URLEncodedUtils.parse(body, Consts.UTF_8)) {
+            params.put(pair.getName(), pair.getValue());
+        }
+        return params;
+    }
 }
\ No newline at end of file
@@ -1,11 +1,14 @@
 package com.visenze.visearch;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import com.google.common.io.Resources;
 import com.visenze.visearch.internal.SearchOperations;
 import com.visenze.visearch.internal.SearchOperationsImpl;
 import com.visenze.visearch.internal.http.ViSearchHttpClient;
@@ -15,16 +18,28 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.apache.http.Consts;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicNameValuePair;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
 public class ViSearchSearchOperationsTest {
@@ -151,6 +166,54 @@ public class ViSearchSearchOperationsTest {
         verify(mockClient).get("/search", expectedParams);
     }
 
+    @Test
+    public void testSearchTemplate() {
+        String responseBody = "{\"status\":\"OK\",\"method\":\"search\",\"error\":[],\"page\":2,\"limit\":10,\"total\":20,\"result\":[{\"im_name\":\"test_im_1\"}]}";
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getBody()).thenReturn(responseBody);
+        when(mockClient.getEncoded(anyString(), any(CharSequence.class))).thenReturn(response);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper);
+        Map<String, String> fq = Maps.newHashMap();
+        fq.put("brand", "A & B");
+        Map<String, String> custom = Maps.newHashMap();
+        custom.put("custom key", "\u00e9t\u00e9 50%+");
+        SearchTemplate searchTemplate = SearchTemplate.compile(new SearchParams("ignored")
+                .setPage(5)
+                .setLimit(10)
+                .setFq(fq)
+                .setFl(Lists.newArrayList("price", "im_url"))
+                .setCustom(custom));
+        PagedSearchResult pagedResult = searchOperations.search(searchTemplate, "shoe/\ud83d\udc5f 1", 2);
+        assertEquals("test_im_1", pagedResult.getResult().get(0).getImName());
+
+        ArgumentCaptor<CharSequence> query = ArgumentCaptor.forClass(CharSequence.class);
+        verify(mockClient).getEncoded(eq("/search"), query.capture());
+        Multimap<String, String> actualParams = HashMultimap.create();
+        for (NameValuePair pair : URLEncodedUtils.parse(query.getValue().toString(), Consts.UTF_8)) {
+            actualParams.put(pair.getName(), pair.getValue());
+        }
+        Multimap<String, String> expectedParams = HashMultimap.create();
+        expectedParams.put("im_name", "shoe/\ud83d\udc5f 1");
+        expectedParams.put("page", "2");
+        expectedParams.put("limit", "10");
+        expectedParams.put("score", "false");
+        expectedParams.put("fq", "brand:A & B");
+        expectedParams.put("fl", "price");
+        expectedParams.put("fl", "im_url");
+        expectedParams.put("custom key", "\u00e9t\u00e9 50%+");
+        assertEquals(expectedParams, actualParams);
+    }
+
+    @Test
+    public void testSearchTemplateEncoding() {
+        String value = "a b+c&d=e/f?g~h*i.j-k_l\u00e9\u4e2d\ud83d\udc5f'!()";
+        SearchTemplate searchTemplate = SearchTemplate.compile(new SearchParams("ignored"));
+        String expected = URLEncodedUtils.format(Lists.newArrayList(
+                new BasicNameValuePair("score", "false"),
+                new BasicNameValuePair("im_name", value)), Consts.UTF_8);
+        assertEquals(expected, searchTemplate.buildQuery(value, null).toString());
+    }
+
     @Test
     public void testSearchResponseBasic() {
         String responseBody = "{\"status\":\"OK\",\"method\":\"search\",\"error\":[],\"page\":1,\"limit\":10,\"total\":20,\"result\":[{\"im_name\":\"test_im_0\"},{\"im_name\":\"test_im_1\"},{\"im_name\":\"test_im_2\"},{\"im_name\":\"test_im_3\"},{\"im_name\":\"test_im_4\"},{\"im_name\":\"test_im_5\"},{\"im_name\":\"test_im_6\"},{\"im_name\":\"test_im_7\"},{\"im_name\":\"test_im_8\"},{\"im_name\":\"test_im_9\"}]}";
@@ -982,4 +1045,693 @@ public class ViSearchSearchOperationsTest {
         assertEquals("mpid", pagedResult.getGroupByKey());
 
     }
+
+    @Test
+    public void testSearchResponseFixture() throws Exception {
+        String responseBody = Resources.toString(Resources.getResource("fixtures/search.json"), Charsets.UTF_8);
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getBody()).thenReturn(responseBody);
+        when(mockClient.get(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper);
+
+        PagedSearchResult result = searchOperations.search(new SearchParams("im_1"));
+        assertNull(result.getErrorMessage());
+        assertEquals(3, result.getResult().size());
+
+        ImageResult first = result.getResult().get(0);
+        assertEquals("im_1", first.getImName());
+        assertEquals(0.99f, first.getScore(), 0f);
+        Map<String, Object> metadata = (Map) first.getMetadata();
+        assertEquals(Lists.newArrayList("price", "brand", "stock", "tags", "size"), Lists.newArrayList(metadata.keySet()));
+        assertEquals("67.500000", metadata.get("price"));
+        assertEquals(12, metadata.get("stock"));
+        assertEquals(Lists.newArrayList("a", "b"), metadata.get("tags"));
+        assertTrue(metadata.containsKey("size"));
+        assertNull(metadata.get("size"));
+        assertEquals("88.500000", result.getResult().get(1).getMetadata().get("price"));
+        // results of a response share their repeated metadata values
+        assertTrue(first.getMetadata().get("brand") == result.getResult().get(1).getMetadata().get("brand"));
+        assertNull(result.getResult().get(2).getMetadata());
+        assertNull(result.getResult().get(2).getScore());
+
+        ProductType productType = result.getProductTypes().get(0);
+        assertEquals("top", productType.getType());
+        assertEquals(0.91f, productType.getScore(), 0f);
+        assertEquals(Lists.newArrayList(10, 20, 300, 400), productType.getBox());
+        assertEquals(Lists.newArrayList("red", "white"), productType.getAttributes().get("color"));
+        assertEquals(Lists.newArrayList("plain"), productType.getAttributesList().get("pattern"));
+
+        Facet brand = result.getFacets().get(0);
+        assertEquals("brand", brand.getKey());
+        assertEquals("acme", brand.getFacetItems().get(0).getValue());
+        assertEquals(Integer.valueOf(2), brand.getFacetItems().get(0).getCount());
+        assertEquals("3", brand.getFacetItems().get(1).getValue());
+        assertEquals(Integer.valueOf(1), brand.getFacetItems().get(1).getCount());
+        Facet price = result.getFacets().get(1);
+        assertNull(price.getFacetItems());
+        assertEquals(1, price.getRange().getMin());
+        assertEquals(99.5, price.getRange().getMax());
+        assertEquals("1.0", result.getQueryInfo().get("automl_version"));
+    }
+
+    @Test
+    public void testDiscoverSearchResponseFixture() throws Exception {
+        String responseBody = Resources.toString(Resources.getResource("fixtures/discoversearch.json"), Charsets.UTF_8);
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getBody()).thenReturn(responseBody);
+        when(mockClient.post(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper);
+
+        PagedSearchResult result = searchOperations.discoverSearch(new UploadSearchParams("http://www.test.com/test.jpg"));
+        assertNull(result.getErrorMessage());
+        assertEquals("20190301xyz", result.getImId());
+        assertEquals(2, result.getObjects().size());
+
+        ObjectSearchResult bag = result.getObjects().get(0);
+        assertEquals("bag", bag.getType());
+        assertEquals(100, bag.getTotal());
+        assertEquals(2, bag.getResult().size());
+        assertEquals("bag_2", bag.getResult().get(1).getImName());
+        assertEquals("bags", bag.getResult().get(1).getMetadata().get("category"));
+
+        ObjectSearchResult shoe = result.getObjects().get(1);
+        assertEquals(Lists.newArrayList("high"), shoe.getAttributes().get("heel"));
+        assertEquals(0.33f, shoe.getResult().get(0).getScore(), 0f);
+
+        assertEquals(0, result.getObjectTypesList().get(0).getAttributesList().size());
+        assertEquals(Lists.newArrayList("high", "low"), result.getObjectTypesList().get(1).getAttributesList().get("heel"));
+    }
+
+    @Test
+    public void testSearchResponseColumnar() throws Exception {
+        String responseBody = Resources.toString(Resources.getResource("fixtures/search.json"), Charsets.UTF_8);
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getBody()).thenReturn(responseBody);
+        when(mockClient.get(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setColumnarResults(true);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper, clientConfig);
+
+        PagedSearchResult result = searchOperations.search(new SearchParams("im_1"));
+        assertNull(result.getErrorMessage());
+        assertEquals(responseBody, result.getRawJson());
+        assertEquals(Integer.valueOf(3), result.getTotal());
+        assertEquals(2, result.getFacets().size());
+
+        ImageResultColumns columns = result.getResultColumns();
+        assertEquals(3, columns.size());
+        assertEquals("im_2", columns.getImName(1));
+        assertEquals(0.75f, columns.getScore(1), 0f);
+        assertTrue(Float.isNaN(columns.getScore(2)));
+        assertEquals(Lists.newArrayList("price", "brand", "stock", "tags"), Lists.newArrayList(columns.getFieldNames()));
+        ImageResultColumns.MetadataColumn brand = columns.getColumn("brand");
+        assertEquals(1, brand.getDictionary().length);
+        assertEquals(0, brand.getCode(1));
+        assertEquals(ImageResultColumns.MetadataColumn.ABSENT, brand.getCode(2));
+        assertEquals("12", columns.getMetadata(0, "stock"));
+        assertEquals("[\"a\",\"b\"]", columns.getMetadata(0, "tags"));
+        assertNull(columns.getMetadata(1, "stock"));
+        assertNull(columns.getColumn("size"));
+
+        List<ImageResult> results = result.getResult();
+        assertEquals(3, results.size());
+        assertEquals("im_1", results.get(0).getImName());
+        assertEquals(Float.valueOf(0.99f), results.get(0).getScore());
+        assertEquals("67.500000", results.get(0).getMetadata().get("price"));
+        assertEquals(Lists.newArrayList("price", "brand"), Lists.newArrayList(results.get(1).getMetadata().keySet()));
+        assertNull(results.get(2).getMetadata());
+        assertNull(results.get(2).getScore());
+        assertTrue(results.get(0) == results.get(0));
+    }
+
+    @Test
+    public void testSearchResponseColumnsFromList() throws Exception {
+        String responseBody = Resources.toString(Resources.getResource("fixtures/search.json"), Charsets.UTF_8);
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getBody()).thenReturn(responseBody);
+        when(mockClient.get(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper);
+
+        ImageResultColumns columns = searchOperations.search(new SearchParams("im_1")).getResultColumns();
+        assertEquals(3, columns.size());
+        assertEquals("im_3", columns.getImName(2));
+        assertEquals("acme", columns.getMetadata(1, "brand"));
+        assertEquals("12", columns.getMetadata(0, "stock"));
+        assertNull(columns.getColumn("size"));
+    }
+
+    @Test
+    public void testSearchResponseLazy() throws Exception {
+        String responseBody = Resources.toString(Resources.getResource("fixtures/search.json"), Charsets.UTF_8);
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getBody()).thenReturn(responseBody);
+        when(mockClient.get(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setLazyDecoding(true);
+        PagedSearchResult lazy = new SearchOperationsImpl(mockClient, objectMapper, clientConfig).search(new SearchParams("im_1"));
+        PagedSearchResult eager = new SearchOperationsImpl(mockClient, objectMapper).search(new SearchParams("im_1"));
+
+        assertNull(lazy.getErrorMessage());
+        assertEquals(responseBody, lazy.getRawJson());
+        assertEquals(eager.getTotal(), lazy.getTotal());
+        assertEquals(eager.getQueryInfo(), lazy.getQueryInfo());
+        assertEquals(eager.getResult().size(), lazy.getResult().size());
+        for (int i = 0; i < eager.getResult().size(); i++) {
+            assertEquals(eager.getResult().get(i).getImName(), lazy.getResult().get(i).getImName());
+            assertEquals(eager.getResult().get(i).getScore(), lazy.getResult().get(i).getScore());
+            assertEquals(eager.getResult().get(i).getMetadata(), lazy.getResult().get(i).getMetadata());
+        }
+        ProductType productType = lazy.getProductTypes().get(0);
+        assertEquals("top", productType.getType());
+        assertEquals(Lists.newArrayList(10, 20, 300, 400), productType.getBox());
+        assertEquals(eager.getProductTypes().get(0).getAttributes(), productType.getAttributes());
+        assertEquals(eager.getProductTypes().get(0).getAttributesList(), productType.getAttributesList());
+        assertEquals(2, lazy.getFacets().size());
+        assertEquals("acme", lazy.getFacets().get(0).getFacetItems().get(0).getValue());
+        assertEquals(99.5, lazy.getFacets().get(1).getRange().getMax());
+    }
+
+    @Test
+    public void testDiscoverSearchResponseLazy() throws Exception {
+        String responseBody = Resources.toString(Resources.getResource("fixtures/discoversearch.json"), Charsets.UTF_8);
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getBody()).thenReturn(responseBody);
+        when(mockClient.post(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setLazyDecoding(true);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper, clientConfig);
+
+        PagedSearchResult result = searchOperations.discoverSearch(new UploadSearchParams("http://www.test.com/test.jpg"));
+        assertNull(result.getErrorMessage());
+        assertEquals(2, result.getObjects().size());
+        assertEquals(0, result.getObjectTypesList().get(0).getAttributesList().size());
+        assertEquals(Lists.newArrayList("high", "low"), result.getObjectTypesList().get(1).getAttributesList().get("heel"));
+        assertNull(result.getObjectTypesList().get(1).getAttributes());
+    }
+
+    @Test
+    public void testSearchResponseMetadataSchema() throws Exception {
+        String responseBody = Resources.toString(Resources.getResource("fixtures/search.json"), Charsets.UTF_8);
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getBody()).thenReturn(responseBody);
+        when(mockClient.get(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setMetadataSchema(new MetadataSchema()
+                .addFloat("price")
+                .addInt("stock")
+                .addString("brand")
+                .addList("tags"));
+
+        // decoded eagerly, lazily and into columns
+        for (int mode = 0; mode < 3; mode++) {
+            clientConfig.setLazyDecoding(mode == 1);
+            clientConfig.setColumnarResults(mode == 2);
+            SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper, clientConfig);
+            List<ImageResult> results = searchOperations.search(new SearchParams("im_1")).getResult();
+
+            ImageResult first = results.get(0);
+            assertNotNull(first.getTypedMetadata());
+            assertEquals(67.5f, first.getFloat("price"), 0f);
+            assertEquals(12, first.getInt("stock", -1));
+            assertEquals("acme", first.getString("brand"));
+            assertEquals(Lists.newArrayList("a", "b"), first.getList("tags"));
+            assertTrue(first.getTypedMetadata().has("price"));
+
+            ImageResult second = results.get(1);
+            assertEquals(88.5f, second.getFloat("price"), 0f);
+            assertEquals(-1, second.getInt("stock", -1));
+            assertFalse(second.getTypedMetadata().has("stock"));
+            assertNull(second.getList("tags"));
+            assertTrue(Float.isNaN(results.get(2).getFloat("price")));
+        }
+    }
+
+    @Test
+    public void testTypedMetadataIntOnlyTakesWholeNumbers() {
+        MetadataSchema schema = new MetadataSchema().addInt("stock");
+        assertEquals(12, schema.newValues().putText("stock", "12.0").build().getInt("stock", -1));
+        assertEquals(12, schema.newValues().putFloat("stock", 12f).build().getInt("stock", -1));
+        // a fraction or a number out of the int range is left out rather than truncated
+        assertFalse(schema.newValues().putText("stock", "12.5").build().has("stock"));
+        assertFalse(schema.newValues().putFloat("stock", 12.5f).build().has("stock"));
+        assertFalse(schema.newValues().putText("stock", "3e10").build().has("stock"));
+        assertFalse(schema.newValues().putText("stock", "NaN").build().has("stock"));
+    }
+
+    @Test
+    public void testIntAccessorsWithoutSchemaOnlyTakeWholeNumbers() {
+        Map<String, String> metadata = Maps.newHashMap();
+        metadata.put("whole", "12.0");
+        metadata.put("fraction", "12.9");
+        metadata.put("nan", "NaN");
+        metadata.put("large", "3e10");
+        ImageResult result = new ImageResult("im_1", metadata, null);
+        assertEquals(12, result.getInt("whole", -1));
+        assertEquals(-1, result.getInt("fraction", -1));
+        assertEquals(-1, result.getInt("nan", -1));
+        assertEquals(-1, result.getInt("large", -1));
+
+        // the columnar view returns the same ints
+        ImageResultColumns columns = ImageResultColumns.of(Lists.newArrayList(result));
+        assertEquals(12, columns.getInts("whole", -1)[0]);
+        assertEquals(-1, columns.getInts("fraction", -1)[0]);
+        assertEquals(-1, columns.getInts("nan", -1)[0]);
+        assertEquals(-1, columns.getInts("large", -1)[0]);
+    }
+
+    @Test
+    public void testIntAccessorWithoutSchemaOnlyTakesWholeNumberValues() {
+        // values that are not strings in the response are kept as they are
+        Map<String, Object> metadata = Maps.newHashMap();
+        metadata.put("whole", 12.0);
+        metadata.put("fraction", 12.9);
+        metadata.put("nan", Double.NaN);
+        metadata.put("large", 3e10);
+        metadata.put("long", 30000000000L);
+        @SuppressWarnings("unchecked")
+        ImageResult result = new ImageResult("im_1", (Map<String, String>) (Map<String, ?>) metadata, null);
+        assertEquals(12, result.getInt("whole", -1));
+        assertEquals(-1, result.getInt("fraction", -1));
+        assertEquals(-1, result.getInt("nan", -1));
+        assertEquals(-1, result.getInt("large", -1));
+        assertEquals(-1, result.getInt("long", -1));
+    }
+
+    @Test
+    public void testSearchResponseTypedColumns() throws Exception {
+        String responseBody = Resources.toString(Resources.getResource("fixtures/search.json"), Charsets.UTF_8);
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getBody()).thenReturn(responseBody);
+        when(mockClient.get(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setColumnarResults(true);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper, clientConfig);
+
+        PagedSearchResult result = searchOperations.search(new SearchParams("im_1"));
+        float[] prices = result.getResultColumns().getFloats("price");
+        assertEquals(67.5f, prices[0], 0f);
+        assertEquals(88.5f, prices[1], 0f);
+        assertTrue(Float.isNaN(prices[2]));
+        int[] stock = result.getResultColumns().getInts("stock", 0);
+        assertEquals(12, stock[0]);
+        assertEquals(0, stock[1]);
+        // results without a schema parse their metadata on access
+        assertEquals(12, result.getResult().get(0).getInt("stock", 0));
+        assertEquals(88.5f, result.getResult().get(1).getFloat("price"), 0f);
+    }
+
+    @Test
+    public void testSearchResponseFieldProjection() throws Exception {
+        String responseBody = Resources.toString(Resources.getResource("fixtures/search.json"), Charsets.UTF_8);
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getBody()).thenReturn(responseBody);
+        when(mockClient.get(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setFieldProjection(true);
+        SearchParams searchParams = new SearchParams("im_1").setFl(Lists.newArrayList("price", "brand"));
+
+        for (boolean lazy : new boolean[]{false, true}) {
+            clientConfig.setLazyDecoding(lazy);
+            SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper, clientConfig);
+            PagedSearchResult result = searchOperations.search(searchParams);
+            assertNull(result.getErrorMessage());
+            assertEquals(responseBody, result.getRawJson());
+            // neither facets nor qinfo were requested
+            assertNull(result.getFacets());
+            assertNull(result.getQueryInfo());
+            assertEquals(1, result.getProductTypes().size());
+
+            Map<String, String> metadata = result.getResult().get(0).getMetadata();
+            assertEquals(Sets.newHashSet("price", "brand"), metadata.keySet());
+            assertEquals("acme", metadata.get("brand"));
+            assertEquals("im_2", result.getResult().get(1).getImName());
+        }
+
+        clientConfig.setLazyDecoding(false);
+        clientConfig.setColumnarResults(true);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper, clientConfig);
+        ImageResultColumns columns = searchOperations.search(searchParams).getResultColumns();
+        assertEquals(Lists.newArrayList("price", "brand"), Lists.newArrayList(columns.getFieldNames()));
+    }
+
+    @Test
+    public void testDiscoverSearchResponseProjection() throws Exception {
+        String responseBody = Resources.toString(Resources.getResource("fixtures/discoversearch.json"), Charsets.UTF_8);
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getBody()).thenReturn(responseBody);
+        when(mockClient.post(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper);
+        UploadSearchParams uploadSearchParams = new UploadSearchParams("http://www.test.com/test.jpg");
+        uploadSearchParams.setProjection(new ResponseProjection()
+                .setMetadataFields(Lists.newArrayList("color"))
+                .setProductTypes(false));
+
+        PagedSearchResult result = searchOperations.discoverSearch(uploadSearchParams);
+        assertNull(result.getErrorMessage());
+        assertNull(result.getObjectTypesList());
+        assertEquals(2, result.getObjects().size());
+        ImageResult bag = result.getObjects().get(0).getResult().get(1);
+        assertEquals("bag_2", bag.getImName());
+        assertTrue(bag.getMetadata().isEmpty());
+        assertEquals("shoe", result.getObjects().get(1).getType());
+    }
+
+    @Test
+    public void testResponseProjectionIntersect() {
+        ResponseProjection projection = ResponseProjection.of(new SearchParams("im_1")
+                .setFl(Lists.newArrayList("price", "brand"))
+                .setQInfo(true));
+        assertFalse(projection.isFacets());
+        assertTrue(projection.isQueryInfo());
+        assertTrue(projection.includesMetadata("brand"));
+        assertFalse(projection.includesMetadata("im_url"));
+
+        ResponseProjection mask = new ResponseProjection().setMetadataFields(Lists.newArrayList("brand", "im_url"));
+        ResponseProjection both = projection.intersect(mask);
+        assertEquals(Sets.newHashSet("brand"), both.getMetadataFields());
+        assertTrue(both.isQueryInfo());
+        assertFalse(both.isAll());
+        assertTrue(new ResponseProjection().isAll());
+        assertTrue(ResponseProjection.of(new SearchParams("im_1").setGetAllFl(true)
+                .setFl(Lists.newArrayList("price")).setFacets(Lists.newArrayList("brand")).setQInfo(true)).isAll());
+    }
+
+    private static class CollectingConsumer implements SearchResultConsumer {
+
+        final List<ImageResult> results = Lists.newArrayList();
+
+        final List<ObjectSearchResult> objects = Lists.newArrayList();
+
+        final List<GroupSearchResult> groups = Lists.newArrayList();
+
+        @Override
+        public void onResult(ImageResult result) {
+            results.add(result);
+        }
+
+        @Override
+        public void onObject(ObjectSearchResult object) {
+            objects.add(object);
+        }
+
+        @Override
+        public void onGroup(GroupSearchResult group) {
+            groups.add(group);
+        }
+    }
+
+    private ViSearchHttpResponse mockStreamingResponse(String responseBody) throws Exception {
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getStream()).thenReturn(new ByteArrayInputStream(responseBody.getBytes(Charsets.UTF_8)));
+        when(mockClient.streaming()).thenReturn(mockClient);
+        return response;
+    }
+
+    @Test
+    public void testSearchStreaming() throws Exception {
+        String responseBody = Resources.toString(Resources.getResource("fixtures/search.json"), Charsets.UTF_8);
+        ViSearchHttpResponse response = mockStreamingResponse(responseBody);
+        when(mockClient.get(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper);
+        CollectingConsumer consumer = new CollectingConsumer();
+
+        PagedSearchResult result = searchOperations.search(new SearchParams("im_1"), consumer);
+        assertNull(result.getErrorMessage());
+        verify(response).close();
+        assertEquals(3, consumer.results.size());
+        assertEquals("im_2", consumer.results.get(1).getImName());
+        assertEquals("acme", consumer.results.get(0).getMetadata().get("brand"));
+        // the results were handed to the consumer, the other fields are in the result
+        assertTrue(result.getResult().isEmpty());
+        assertEquals(Integer.valueOf(3), result.getTotal());
+        assertEquals(2, result.getFacets().size());
+        assertEquals("1.0", result.getQueryInfo().get("automl_version"));
+        assertEquals(1, result.getProductTypes().size());
+        // the results were not kept, so neither is the raw JSON
+        assertNull(result.getRawJson());
+    }
+
+    @Test
+    public void testDiscoverSearchStreaming() throws Exception {
+        String responseBody = Resources.toString(Resources.getResource("fixtures/discoversearch.json"), Charsets.UTF_8);
+        ViSearchHttpResponse response = mockStreamingResponse(responseBody);
+        when(mockClient.post(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper);
+        CollectingConsumer consumer = new CollectingConsumer();
+
+        PagedSearchResult result = searchOperations.discoverSearch(new UploadSearchParams("http://www.test.com/test.jpg"), consumer);
+        assertNull(result.getErrorMessage());
+        assertEquals("20190301xyz", result.getImId());
+        assertEquals(2, consumer.objects.size());
+        assertEquals("bag_2", consumer.objects.get(0).getResult().get(1).getImName());
+        assertEquals(Lists.newArrayList("high"), consumer.objects.get(1).getAttributes().get("heel"));
+        assertNull(result.getObjects());
+        assertEquals(2, result.getObjectTypesList().size());
+    }
+
+    @Test
+    public void testGroupResultStreaming() throws Exception {
+        String responseBody = "{\"status\":\"OK\",\"method\":\"discoversearch\","
+                + "\"product_types\":[{\"type\":\"bag\",\"score\":0.9,\"box\":[1,2,3,4]}],"
+                + "\"group_result\":[[{\"im_name\":\"b1\",\"score\":0.5}],[{\"im_name\":\"x1\"}]]}";
+        ViSearchHttpResponse response = mockStreamingResponse(responseBody);
+        when(mockClient.post(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper);
+        CollectingConsumer consumer = new CollectingConsumer();
+
+        PagedSearchResult result = searchOperations.discoverSearch(new UploadSearchParams("http://www.test.com/test.jpg"), consumer);
+        assertNull(result.getErrorMessage());
+        assertEquals(2, consumer.objects.size());
+        assertEquals("bag", consumer.objects.get(0).getType());
+        assertEquals("b1", consumer.objects.get(0).getResult().get(0).getImName());
+        // more groups than detected product types
+        assertNull(consumer.objects.get(1).getType());
+        assertEquals("x1", consumer.objects.get(1).getResult().get(0).getImName());
+    }
+
+    @Test
+    public void testSearchStreamingError() throws Exception {
+        ViSearchHttpResponse response = mockStreamingResponse("{\"status\":\"fail\",\"method\":\"search\",\"error\":[\"Invalid im_name\"]}");
+        when(mockClient.get(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper);
+
+        PagedSearchResult result = searchOperations.search(new SearchParams("im_1"), new CollectingConsumer());
+        assertEquals("Invalid im_name", result.getErrorMessage());
+        verify(response).close();
+
+        ViSearchHttpResponse truncated = mockStreamingResponse("{\"status\":\"OK\",\"result\":[{\"im_name\":");
+        when(mockClient.get(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(truncated);
+        result = searchOperations.search(new SearchParams("im_1"), new CollectingConsumer());
+        assertEquals(ResponseMessages.PARSE_RESPONSE_ERROR.getMessage(), result.getErrorMessage());
+        assertEquals("{\"status\":\"OK\",\"result\":[{\"im_name\":", result.getRawResponseMessage());
+
+        ViSearchHttpResponse malformed = mockStreamingResponse("<html>Bad Gateway</html>");
+        when(mockClient.get(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(malformed);
+        result = searchOperations.search(new SearchParams("im_1"), new CollectingConsumer());
+        assertEquals(ResponseMessages.PARSE_RESPONSE_ERROR.getMessage(), result.getErrorMessage());
+        assertEquals("<html>Bad Gateway</html>", result.getRawResponseMessage());
+    }
+
+    @Test
+    public void testDiscoverSearchParallelDecoding() throws Exception {
+        String responseBody = Resources.toString(Resources.getResource("fixtures/discoversearch.json"), Charsets.UTF_8);
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getBody()).thenReturn(responseBody);
+        when(mockClient.post(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setParallelDecodingThreshold(1);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper, clientConfig);
+
+        PagedSearchResult result = searchOperations.discoverSearch(new UploadSearchParams("http://www.test.com/test.jpg"));
+        assertNull(result.getErrorMessage());
+        assertEquals(responseBody, result.getRawJson());
+        assertEquals(2, result.getObjects().size());
+        assertEquals("bag", result.getObjects().get(0).getType());
+        assertEquals("bag_2", result.getObjects().get(0).getResult().get(1).getImName());
+        assertEquals(Lists.newArrayList("high"), result.getObjects().get(1).getAttributes().get("heel"));
+        assertEquals(2, result.getObjectTypesList().size());
+    }
+
+    @Test
+    public void testGroupResultParallelDecoding() throws Exception {
+        StringBuilder body = new StringBuilder("{\"status\":\"OK\",\"method\":\"discoversearch\",\"product_types\":[");
+        for (int i = 0; i < 40; i++) {
+            body.append(i == 0 ? "" : ",").append("{\"type\":\"t").append(i).append("\",\"score\":0.5}");
+        }
+        body.append("],\"group_result\":[");
+        for (int i = 0; i < 40; i++) {
+            body.append(i == 0 ? "[" : ",[");
+            for (int j = 0; j < 5; j++) {
+                body.append(j == 0 ? "" : ",").append("{\"im_name\":\"g").append(i).append('_').append(j)
+                        .append("\",\"value_map\":{\"brand\":\"b").append(j).append("\"}}");
+            }
+            body.append(']');
+        }
+        body.append("]}");
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getBody()).thenReturn(body.toString());
+        when(mockClient.post(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        UploadSearchParams uploadSearchParams = new UploadSearchParams("http://www.test.com/test.jpg");
+
+        List<ObjectSearchResult> sequential = new SearchOperationsImpl(mockClient, objectMapper)
+                .discoverSearch(uploadSearchParams).getObjects();
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setParallelDecodingThreshold(body.length());
+        List<ObjectSearchResult> parallel = new SearchOperationsImpl(mockClient, objectMapper, clientConfig)
+                .discoverSearch(uploadSearchParams).getObjects();
+
+        assertEquals(40, parallel.size());
+        for (int i = 0; i < 40; i++) {
+            assertEquals("t" + i, parallel.get(i).getType());
+            for (int j = 0; j < 5; j++) {
+                ImageResult expected = sequential.get(i).getResult().get(j);
+                ImageResult actual = parallel.get(i).getResult().get(j);
+                assertEquals(expected.getImName(), actual.getImName());
+                assertEquals(expected.getMetadata(), actual.getMetadata());
+            }
+        }
+        // the results of all groups share their metadata keys and values
+        assertTrue(parallel.get(0).getResult().get(3).getMetadata().get("brand")
+                == parallel.get(39).getResult().get(3).getMetadata().get("brand"));
+    }
+
+    private static ViSearchHttpResponse pooledResponse(String body, ResponseBufferPool pool) {
+        CloseableHttpResponse httpResponse = mock(CloseableHttpResponse.class);
+        when(httpResponse.getEntity()).thenReturn(new StringEntity(body, ContentType.APPLICATION_JSON));
+        return ViSearchHttpResponse.pooled(httpResponse, pool);
+    }
+
+    @Test
+    public void testSearchResponsePooled() throws Exception {
+        String responseBody = Resources.toString(Resources.getResource("fixtures/search.json"), Charsets.UTF_8);
+        ResponseBufferPool pool = new ResponseBufferPool(4);
+        ViSearchHttpResponse first = pooledResponse(responseBody, pool);
+        ViSearchHttpResponse second = pooledResponse(responseBody, pool);
+        when(mockClient.get(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(first, second);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper);
+
+        for (int i = 0; i < 2; i++) {
+            PagedSearchResult result = searchOperations.search(new SearchParams("im_1"));
+            assertNull(result.getErrorMessage());
+            assertEquals(3, result.getResult().size());
+            assertEquals("acme", result.getResult().get(0).getMetadata().get("brand"));
+            assertEquals(2, result.getFacets().size());
+            // the body is not decoded into a string
+            assertNull(result.getRawJson());
+        }
+        // each buffer was given back once the results were built
+        assertEquals(0, pool.getInUse());
+        assertEquals(2, pool.getAcquireCount());
+        assertEquals(2, pool.getFreeCount());
+    }
+
+    @Test
+    public void testSearchResponsePooledError() throws Exception {
+        ResponseBufferPool pool = new ResponseBufferPool(4);
+        String failedBody = "{\"status\" : \"fail\", \"method\":\"search\",\"error\":[\"Invalid im_name\"]}";
+        ViSearchHttpResponse failed = pooledResponse(failedBody, pool);
+        ViSearchHttpResponse malformed = pooledResponse("<html>Bad Gateway</html>", pool);
+        when(mockClient.get(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(failed, malformed);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper);
+
+        PagedSearchResult result = searchOperations.search(new SearchParams("im_1"));
+        assertEquals("Invalid im_name", result.getErrorMessage());
+        // the raw response is the body as received, not the JSON written back out
+        assertEquals(failedBody, result.getRawResponseMessage());
+        result = searchOperations.search(new SearchParams("im_1"));
+        assertEquals(ResponseMessages.PARSE_RESPONSE_ERROR.getMessage(), result.getErrorMessage());
+        assertEquals("<html>Bad Gateway</html>", result.getRawResponseMessage());
+        assertEquals(0, pool.getInUse());
+    }
+
+    @Test
+    public void testGroupResultPooled() throws Exception {
+        // the groups come before the product types
+        String responseBody = "{\"status\":\"OK\",\"method\":\"discoversearch\","
+                + "\"group_result\":[[{\"im_name\":\"b1\",\"score\":0.5}],[{\"im_name\":\"x1\"}]],"
+                + "\"product_types\":[{\"type\":\"bag\",\"score\":0.9,\"box\":[1,2,3,4]}],"
+                + "\"product_types_list\":[{\"type\":\"bag\",\"attributes_list\":{}}]}";
+        ResponseBufferPool pool = new ResponseBufferPool(4);
+        ViSearchHttpResponse response = pooledResponse(responseBody, pool);
+        when(mockClient.post(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper);
+
+        PagedSearchResult result = searchOperations.discoverSearch(new UploadSearchParams("http://www.test.com/test.jpg"));
+        assertNull(result.getErrorMessage());
+        assertEquals(2, result.getObjects().size());
+        assertEquals("bag", result.getObjects().get(0).getType());
+        assertEquals("b1", result.getObjects().get(0).getResult().get(0).getImName());
+        assertNull(result.getObjects().get(1).getType());
+        assertEquals("x1", result.getObjects().get(1).getResult().get(0).getImName());
+        assertEquals(1, result.getObjectTypesList().size());
+        assertEquals(0, pool.getInUse());
+    }
+
+    @Test
+    public void testSearchReusableResult() throws Exception {
+        String responseBody = Resources.toString(Resources.getResource("fixtures/search.json"), Charsets.UTF_8);
+        ResponseBufferPool pool = new ResponseBufferPool(4);
+        ViSearchHttpResponse first = pooledResponse(responseBody, pool);
+        ViSearchHttpResponse second = pooledResponse(responseBody, pool);
+        when(mockClient.get(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(first, second);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper);
+        ReusableSearchResult result = new ReusableSearchResult();
+
+        assertSame(result, searchOperations.search(new SearchParams("im_1"), result));
+        assertNull(result.getErrorMessage());
+        assertEquals(1, result.getPage());
+        assertEquals(3, result.getLimit());
+        assertEquals(3, result.getTotal());
+        assertEquals(3, result.size());
+        assertEquals("im_1", result.getImName(0));
+        assertEquals(0.99f, result.getScore(0), 0.0001f);
+        assertEquals("67.500000", result.getMetadata(0, "price"));
+        assertEquals("12", result.getMetadata(0, "stock"));
+        // values that are not scalars are left out
+        assertNull(result.getMetadata(0, "tags"));
+        assertNull(result.getMetadata(0, "size"));
+        assertEquals("acme", result.getMetadata(1, "brand"));
+        assertTrue(Float.isNaN(result.getScore(2)));
+        assertNull(result.getMetadata(2, "brand"));
+        String imName = result.getImName(1);
+        String brand = result.getMetadata(0, "brand");
+
+        searchOperations.search(new SearchParams("im_1"), result);
+        assertEquals(3, result.size());
+        // repeated strings are not allocated again
+        assertSame(imName, result.getImName(1));
+        assertSame(brand, result.getMetadata(1, "brand"));
+        assertEquals(0, pool.getInUse());
+    }
+
+    @Test
+    public void testSearchReusableResultRefill() throws Exception {
+        String responseBody = Resources.toString(Resources.getResource("fixtures/search.json"), Charsets.UTF_8);
+        ViSearchHttpResponse full = mock(ViSearchHttpResponse.class);
+        when(full.getBody()).thenReturn(responseBody);
+        ViSearchHttpResponse single = mock(ViSearchHttpResponse.class);
+        when(single.getBody()).thenReturn("{\"status\":\"OK\",\"method\":\"search\",\"error\":[],\"page\":2,"
+                + "\"result\":[{\"im_name\":\"im_9\",\"value_map\":{\"color\":\"red\"}}]}");
+        ViSearchHttpResponse failed = mock(ViSearchHttpResponse.class);
+        when(failed.getBody()).thenReturn("{\"status\":\"fail\",\"method\":\"search\",\"error\":[\"Invalid im_name\"]}");
+        when(mockClient.get(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(full, single, failed);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper);
+        ReusableSearchResult result = new ReusableSearchResult();
+
+        searchOperations.search(new SearchParams("im_1"), result);
+        assertEquals(3, result.size());
+        searchOperations.search(new SearchParams("im_1"), result);
+        // the rows and fields of the previous response are cleared
+        assertEquals(1, result.size());
+        assertEquals(2, result.getPage());
+        assertEquals(-1, result.getTotal());
+        assertEquals("im_9", result.getImName(0));
+        assertEquals("red", result.getMetadata(0, "color"));
+        assertNull(result.getMetadata(0, "brand"));
+
+        searchOperations.search(new SearchParams("im_1"), result);
+        assertEquals("Invalid im_name", result.getErrorMessage());
+        assertEquals("{\"status\":\"fail\",\"method\":\"search\",\"error\":[\"Invalid im_name\"]}", result.getRawResponseMessage());
+        assertEquals(0, result.size());
+    }
 }
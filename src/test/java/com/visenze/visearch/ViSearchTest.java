@@ -24,8 +24,11 @@ import java.io.File;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
@@ -208,4 +211,75 @@ public class ViSearchTest {
         visearch.similarProductsSearch(uploadSearchParams);
         verify(searchOperations, new Times(1)).similarProductsSearch(any(UploadSearchParams.class));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSearchAll() {
+        when(searchOperations.search(any(SearchParams.class))).then(new Answer<PagedSearchResult>() {
+            @Override
+            public PagedSearchResult answer(InvocationOnMock invocationOnMock) throws Throwable {
+                SearchParams params = (SearchParams) invocationOnMock.getArguments()[0];
+                if ("im_fail".equals(params.getImName())) {
+                    return new PagedSearchResult("Image not found with im_name.", null, "{}");
+                }
+                if ("im_throw".equals(params.getImName())) {
+                    throw new IllegalStateException("unexpected");
+                }
+                PagedSearchResult result = new PagedSearchResult(Lists.newArrayList(new ImageResult(params.getImName(), null, null)));
+                return result;
+            }
+        });
+        List<SearchParams> paramsList = Lists.newArrayList();
+        for (int i = 0; i < 20; i++) {
+            paramsList.add(new SearchParams("im_" + i));
+        }
+        paramsList.set(5, new SearchParams("im_fail"));
+        paramsList.set(7, new SearchParams("im_throw"));
+
+        BatchSearchResult batch = visearch.searchAll(paramsList, 4);
+        assertEquals(20, batch.getResults().size());
+        for (int i = 0; i < 20; i++) {
+            PagedSearchResult result = batch.getResults().get(i);
+            if (i == 5) {
+                assertEquals("Image not found with im_name.", result.getErrorMessage());
+            } else if (i == 7) {
+                assertEquals("unexpected", result.getErrorMessage());
+                assertTrue(result.getCause() instanceof IllegalStateException);
+            } else {
+                assertEquals("im_" + i, result.getResult().get(0).getImName());
+            }
+        }
+        assertEquals(20, batch.getStats().getCount());
+        assertEquals(2, batch.getStats().getFailureCount());
+        assertEquals(18, batch.getStats().getSuccessCount());
+        verify(searchOperations, new Times(20)).search(any(SearchParams.class));
+    }
+
+    @Test
+    public void testSearchAllConcurrencyCappedByMaxConnection() {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        when(searchOperations.search(any(SearchParams.class))).then(new Answer<PagedSearchResult>() {
+            @Override
+            public PagedSearchResult answer(InvocationOnMock invocationOnMock) throws Throwable {
+                int current = active.incrementAndGet();
+                synchronized (maxActive) {
+                    maxActive.set(Math.max(maxActive.get(), current));
+                }
+                Thread.sleep(10);
+                active.decrementAndGet();
+                return new PagedSearchResult(Lists.<ImageResult>newArrayList());
+            }
+        });
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setMaxConnection(2);
+        visearch = new ViSearch(dataOperations, searchOperations, trackOperations, clientConfig);
+        List<SearchParams> paramsList = Lists.newArrayList();
+        for (int i = 0; i < 12; i++) {
+            paramsList.add(new SearchParams("im_" + i));
+        }
+
+        BatchSearchResult batch = visearch.searchAll(paramsList, 8);
+        assertEquals(0, batch.getStats().getFailureCount());
+        assertTrue(maxActive.get() <= 2);
+    }
+}
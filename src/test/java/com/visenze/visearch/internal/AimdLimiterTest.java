@@ -0,0 +1,38 @@
+package com.visenze.visearch.internal;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AimdLimiterTest {
+
+    @Test
+    public void testAimdLimiter() throws Exception {
+        AimdLimiter limiter = new AimdLimiter(100, 4, TimeUnit.SECONDS.toNanos(1), 0.25);
+        assertEquals(50, limiter.getBatchSize());
+        assertEquals(2, limiter.getConcurrency());
+        // a round of two good batches grows the limits
+        limiter.acquire();
+        limiter.release(limiter.getEpoch(), 1000, false, 0);
+        limiter.acquire();
+        limiter.release(limiter.getEpoch(), 1000, false, 0.25);
+        assertEquals(60, limiter.getBatchSize());
+        assertEquals(3, limiter.getConcurrency());
+        // a slow batch halves them, and a batch filled before the decrease is ignored
+        long before = limiter.getEpoch();
+        limiter.acquire();
+        limiter.acquire();
+        limiter.release(before, TimeUnit.SECONDS.toNanos(2), false, 0);
+        assertEquals(30, limiter.getBatchSize());
+        assertEquals(1, limiter.getConcurrency());
+        limiter.release(before, 1000, true, 0);
+        assertEquals(30, limiter.getBatchSize());
+        assertEquals(1, limiter.getDecreaseCount());
+        limiter.acquire();
+        limiter.release(limiter.getEpoch(), 1000, false, 0.5);
+        assertEquals(15, limiter.getBatchSize());
+        assertEquals(2, limiter.getDecreaseCount());
+    }
+}
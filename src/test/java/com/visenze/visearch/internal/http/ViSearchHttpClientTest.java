@@ -1,28 +1,54 @@
 package com.visenze.visearch.internal.http;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Multimap;
+import com.google.common.io.CharStreams;
+import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.ResponseBufferPool;
 import com.visenze.visearch.internal.InternalViSearchException;
+import com.visenze.visearch.internal.constant.ViSearchHttpConstants;
 import com.visenze.visearch.internal.http.ViSearchHttpClientImpl;
 import org.apache.commons.codec.binary.Base64;
+import org.apache.http.Consts;
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHeaders;
+import org.apache.http.NameValuePair;
+import org.apache.http.auth.AUTH;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EncodingUtils;
+import org.apache.http.util.EntityUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
@@ -195,4 +221,176 @@ public class ViSearchHttpClientTest {
         assertEquals(validAccessKey, client.getCredentials().getUserName());
         assertEquals(validSecretKey, client.getCredentials().getPassword());
     }
+
+    @Test
+    public void testResponseHeaders() throws Exception {
+        ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, mockedHttpClient);
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+        Header[] headers = {
+                new BasicHeader("X-Log-ID", "1"),
+                new BasicHeader("Content-Type", "application/json"),
+                new BasicHeader("X-Log-ID", "2")
+        };
+        when(response.getAllHeaders()).thenReturn(headers);
+        when(response.getEntity()).thenReturn(new StringEntity("test"));
+        when(mockedHttpClient.execute(Matchers.<HttpUriRequest>any())).thenReturn(response);
+
+        Map<String, String> responseHeaders = client.get(path, params).getHeaders();
+        assertEquals("2", responseHeaders.get("X-Log-ID"));
+        assertNull(responseHeaders.get("x-log-id"));
+        assertTrue(responseHeaders.containsKey("Content-Type"));
+        assertEquals(ImmutableMap.of("X-Log-ID", "2", "Content-Type", "application/json"), responseHeaders);
+
+        responseHeaders.put("X-Log-ID", "3");
+        assertEquals("3", responseHeaders.get("X-Log-ID"));
+    }
+
+    @Test
+    public void testUserAgentHeader() throws Exception {
+        ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, mockedHttpClient);
+        ArgumentCaptor<HttpUriRequest> argument = ArgumentCaptor.forClass(HttpUriRequest.class);
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+        when(response.getEntity()).thenReturn(new StringEntity("test"));
+        when(mockedHttpClient.execute(argument.capture())).thenReturn(response);
+
+        client.get(path, params);
+        client.get(path, params);
+
+        List<HttpUriRequest> requests = argument.getAllValues();
+        Header userAgent = requests.get(0).getFirstHeader(HttpHeaders.USER_AGENT);
+        assertEquals(ClientConfig.DEFAULT_USER_AGENT, userAgent.getValue());
+        // immutable headers are shared by requests instead of being rebuilt
+        assertSame(userAgent, requests.get(1).getFirstHeader(HttpHeaders.USER_AGENT));
+        assertSame(requests.get(0).getFirstHeader(AUTH.WWW_AUTH_RESP), requests.get(1).getFirstHeader(AUTH.WWW_AUTH_RESP));
+        assertEquals(ClientConfig.DEFAULT_XREQUEST_WITH,
+                requests.get(1).getFirstHeader(ViSearchHttpConstants.X_REQUESTED_WITH).getValue());
+    }
+
+    @Test
+    public void testStreamingResponse() throws Exception {
+        ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, mockedHttpClient);
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+        when(response.getAllHeaders()).thenReturn(new Header[]{new BasicHeader("X-Log-ID", "1")});
+        when(response.getEntity()).thenReturn(new StringEntity("{\"status\":\"OK\"}"));
+        when(mockedHttpClient.execute(Matchers.<HttpUriRequest>any())).thenReturn(response);
+
+        ViSearchHttpClient streaming = client.streaming();
+        assertSame(streaming, client.streaming());
+        assertSame(streaming, streaming.streaming());
+        ViSearchHttpResponse streamed = streaming.get(path, params);
+        assertNull(streamed.getBody());
+        assertEquals("1", streamed.getHeaders().get("X-Log-ID"));
+        assertEquals("{\"status\":\"OK\"}", CharStreams.toString(new InputStreamReader(streamed.getStream(), Charsets.UTF_8)));
+        streamed.close();
+        verify(response).close();
+
+        ViSearchHttpResponse read = client.get(path, params);
+        assertNull(read.getStream());
+    }
+
+    @Test
+    public void testPooledResponse() throws Exception {
+        ResponseBufferPool pool = new ResponseBufferPool(2, 8, 64);
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setResponseBufferPool(pool);
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+        when(response.getAllHeaders()).thenReturn(new Header[0]);
+        // longer than the buffer size, so the buffer grows while reading
+        when(response.getEntity()).thenReturn(new StringEntity("{\"status\":\"OK\",\"name\":\"caf\u00e9\"}", ContentType.APPLICATION_JSON));
+
+        ViSearchHttpResponse pooled = ViSearchHttpResponse.pooled(response, pool);
+        assertTrue(pooled.isPooled());
+        assertTrue(pooled.isUtf8());
+        assertEquals(1, pool.getInUse());
+        assertEquals(30, pooled.getBodyLength());
+        assertEquals("{\"status\":\"OK\",\"name\":\"caf\u00e9\"}", pooled.getBody());
+        // decoding the body gives the buffer back
+        assertFalse(pooled.isPooled());
+        assertEquals(0, pool.getInUse());
+        assertEquals(1, pool.getFreeCount());
+        pooled.release();
+        assertEquals(1, pool.getFreeCount());
+
+        when(response.getEntity()).thenReturn(new StringEntity("{}", ContentType.APPLICATION_JSON));
+        ViSearchHttpResponse reused = ViSearchHttpResponse.pooled(response, pool);
+        assertEquals(1, pool.getReuseCount());
+        reused.release();
+        assertEquals(1, pool.getPeakInUse());
+    }
+
+    @Test
+    public void testResponseBufferPoolBounds() {
+        ResponseBufferPool pool = new ResponseBufferPool(1, 8, 16);
+        byte[] first = pool.acquire(0);
+        byte[] second = pool.acquire(4);
+        byte[] large = pool.acquire(32);
+        assertEquals(8, first.length);
+        assertEquals(32, large.length);
+        assertEquals(3, pool.getInUse());
+        pool.release(first);
+        // the pool is full
+        pool.release(second);
+        // too large to keep
+        pool.release(large);
+        assertEquals(0, pool.getInUse());
+        assertEquals(1, pool.getFreeCount());
+        assertEquals(2, pool.getDiscardCount());
+        assertSame(first, pool.acquire(8));
+        // the free buffer is too small, so it is dropped
+        pool.release(pool.acquire(0));
+        assertEquals(12, pool.acquire(12).length);
+        assertEquals(3, pool.getDiscardCount());
+        assertEquals(6, pool.getAcquireCount());
+        assertEquals(1, pool.getReuseCount());
+    }
+
+    @Test
+    public void testStreamingFormEntity() throws Exception {
+        final List<NameValuePair> pairs = new ArrayList<NameValuePair>();
+        for (int i = 0; i < 500; i++) {
+            pairs.add(new BasicNameValuePair("im_name[" + i + "]", "caf\u00e9 & cr\u00e8me " + i));
+        }
+        pairs.add(new BasicNameValuePair("custom param", "a+b=c"));
+        StreamingFormEntity entity = new StreamingFormEntity() {
+            @Override
+            protected void writeParams(Params params) throws IOException {
+                for (int i = 0; i < 500; i++) {
+                    params.add("im_name", i, "caf\u00e9 & cr\u00e8me " + i);
+                    params.add("im_url", i, null);
+                }
+                params.add("custom param", "a+b=c");
+            }
+        };
+        String expected = URLEncodedUtils.format(pairs, Consts.UTF_8);
+        // longer than the buffer, which is written out when full
+        assertTrue(expected.length() > 16 * 1024);
+        assertEquals(expected, EntityUtils.toString(entity));
+        assertEquals(expected.length(), entity.getContentLength());
+        assertEquals("application/x-www-form-urlencoded; charset=UTF-8", entity.getContentType().getValue());
+    }
+
+    @Test
+    public void testCompressedPost() throws Exception {
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setRequestCompression(true);
+        ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, clientConfig);
+        client.httpClient = mockedHttpClient;
+        ArgumentCaptor<HttpUriRequest> argument = ArgumentCaptor.forClass(HttpUriRequest.class);
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+        when(response.getEntity()).thenReturn(new StringEntity("{\"status\":\"OK\"}"));
+        when(mockedHttpClient.execute(argument.capture())).thenReturn(response);
+
+        client.postEntity("/insert", new StreamingFormEntity() {
+            @Override
+            protected void writeParams(Params params) throws IOException {
+                params.add("im_name", 0, "sku-1");
+            }
+        });
+        HttpEntity sent = ((HttpEntityEnclosingRequest) argument.getValue()).getEntity();
+        assertEquals("gzip", sent.getContentEncoding().getValue());
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        sent.writeTo(body);
+        InputStream decompressed = new GZIPInputStream(new ByteArrayInputStream(body.toByteArray()));
+        assertEquals("im_name%5B0%5D=sku-1", CharStreams.toString(new InputStreamReader(decompressed, Charsets.UTF_8)));
+    }
 }